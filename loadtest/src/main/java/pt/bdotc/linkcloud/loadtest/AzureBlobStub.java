@@ -0,0 +1,1276 @@
+package pt.bdotc.linkcloud.loadtest;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-memory stand-in for the Azure Blob service, served over HTTP from this JVM. It implements the subset of the
+ * Blob REST API that {@link pt.bdotc.linkcloud.objects.AzureStorageObject AzureStorageObject} relies on, with the
+ * same path-style addressing as Azure's storage emulator ({@code http://127.0.0.1:<port>/<account>/...}), so that
+ * LinkCloud can be pointed at it through the {@code linkcloud.azureblob.endpoint} setting:
+ * <ul>
+ *    <li>Containers: create, get properties, delete, list, and list blobs (with prefix, delimiter and paging);</li>
+ *    <li>Block blobs: put, put block, put block list, get block list and copy;</li>
+ *    <li>Append blobs: create and append block;</li>
+ *    <li>Any blob: get (whole or ranged), get properties and delete, with {@code If-Match} and
+ *        {@code If-None-Match} conditions.</li>
+ * </ul>
+ *
+ * Every request goes through the stub's {@link StubConditions}, which add latency, limit bandwidth and inject faults.
+ * Requests must be signed with the account's name, but signatures aren't verified, so any key is accepted. The number
+ * of requests of each operation is kept, so that a load test can tell how many Azure requests it took.
+ */
+public class
+AzureBlobStub
+{
+    /** Version of the REST API given back when the client doesn't send one. */
+    private static final String DEFAULT_VERSION= "2015-04-05";
+    /** Maximum number of bytes of an appended block, and of blobs listed per page. */
+    private static final int MAX_APPEND_BYTES= 4 * 1024 * 1024;
+    private static final int MAX_LIST_RESULTS= 5000;
+    /** Maximum number of blocks of an append blob. */
+    private static final int MAX_APPEND_BLOCKS= 50000;
+
+    /** A blob, which is replaced whole by every write. */
+    private static final class
+    StubBlob
+    {
+        final String type;
+        final byte[] contents;
+        final List<StubBlock> blocks;
+        final String contentMD5;
+        final String etag;
+        final long lastModified;
+        final String copyId;
+        final String copySource;
+
+        StubBlob(String type, byte[] contents, List<StubBlock> blocks, String contentMD5, String copyId,
+                 String copySource)
+        {
+            this.type= type;
+            this.contents= contents;
+            this.blocks= blocks;
+            this.contentMD5= contentMD5;
+            this.etag= newEtag();
+            this.lastModified= System.currentTimeMillis();
+            this.copyId= copyId;
+            this.copySource= copySource;
+        }
+    }
+
+    /** A block of a block blob, or an appended block of an append blob. */
+    private static final class
+    StubBlock
+    {
+        final String id;
+        final byte[] contents;
+
+        StubBlock(String id, byte[] contents)
+        {
+            this.id= id;
+            this.contents= contents;
+        }
+    }
+
+    /** A container, whose blobs are kept sorted by name for listings. */
+    private static final class
+    StubContainer
+    {
+        final String etag= newEtag();
+        final long lastModified= System.currentTimeMillis();
+        final ConcurrentSkipListMap<String, StubBlob> blobs= new ConcurrentSkipListMap<>();
+        /** Blocks put but not committed yet, per blob name and block ID. */
+        final Map<String, Map<String, byte[]>> uncommittedBlocks= new HashMap<>();
+    }
+
+    /** A request, split into the parts of its path and its query parameters. */
+    private static final class
+    StubRequest
+    {
+        final HttpExchange exchange;
+        final String method;
+        final String account;
+        final String container;
+        final String blob;
+        final Map<String, String> query;
+
+        StubRequest(HttpExchange exchange, String account, String container, String blob, Map<String, String> query)
+        {
+            this.exchange= exchange;
+            this.method= exchange.getRequestMethod();
+            this.account= account;
+            this.container= container;
+            this.blob= blob;
+            this.query= query;
+        }
+
+        String
+        header(String name)
+        {
+            return exchange.getRequestHeaders().getFirst(name);
+        }
+    }
+
+    /** An Azure error, sent back with its HTTP code and error code. */
+    private static final class
+    StubError
+    extends Exception
+    {
+        final int status;
+        final String code;
+
+        StubError(int status, String code, String message)
+        {
+            super(message);
+            this.status= status;
+            this.code= code;
+        }
+    }
+
+    /** Source of unique ETags. */
+    private static final AtomicLong etagCounter= new AtomicLong(System.currentTimeMillis());
+
+    /** Every container, keyed by {@code <account>/<container>}. */
+    private final ConcurrentHashMap<String, StubContainer> containers= new ConcurrentHashMap<>();
+    /** Number of requests of each operation, keyed by the operation's name in the REST API. */
+    private final ConcurrentSkipListMap<String, LongAdder> requestCounts= new ConcurrentSkipListMap<>();
+
+    private final StubConditions conditions;
+    private HttpServer server;
+    private ExecutorService handlers;
+
+    /**
+     * Prepares a stub, which is only reachable once it's started.
+     *
+     * @param conditions The network conditions the stub simulates.
+     */
+    public
+    AzureBlobStub(StubConditions conditions)
+    {
+        this.conditions= conditions;
+    }
+
+    private static String
+    newEtag()
+    {
+        return "\"0x" + Long.toHexString(etagCounter.incrementAndGet()).toUpperCase(Locale.ROOT) + "\"";
+    }
+
+/*-----------------
+* --- LIFECYCLE ---
+* -----------------*/
+
+    /**
+     * Starts serving requests on the loopback interface.
+     *
+     * @param port The port to listen on, or 0 for any free port.
+     * @return The endpoint of the stub's accounts, in the format of the {@code linkcloud.azureblob.endpoint} setting,
+     *         e.g. {@code http://127.0.0.1:10000/{account}}.
+     * @throws IOException Thrown when the port can't be bound.
+     */
+    public String
+    start(int port)
+    throws IOException
+    {
+        final AtomicInteger threadCounter= new AtomicInteger();
+        handlers= Executors.newCachedThreadPool(task ->
+        {
+            Thread thread= new Thread(task, "azure-stub-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        server= HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.setExecutor(handlers);
+        server.createContext("/", this::handle);
+        server.start();
+
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/{account}";
+    }
+
+    /** Stops serving requests, dropping the ones that are still being handled. */
+    public void
+    stop()
+    {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    /**
+     * Reads the number of requests served so far.
+     *
+     * @return The number of requests of each operation, sorted by the operation's name.
+     */
+    public SortedMap<String, Long>
+    requestCounts()
+    {
+        SortedMap<String, Long> counts= new TreeMap<>();
+        for(Map.Entry<String, LongAdder> count : requestCounts.entrySet())
+        {
+            counts.put(count.getKey(), count.getValue().sum());
+        }
+
+        return counts;
+    }
+
+/*----------------
+* --- DISPATCH ---
+* ----------------*/
+
+    /**
+     * Serves a request, after the latency of the stub's conditions, unless it's picked to fail.
+     *
+     * @param exchange The request and its response.
+     */
+    private void
+    handle(HttpExchange exchange)
+    {
+        StubRequest request= null;
+        try
+        {
+            conditions.delay();
+            request= parse(exchange);
+
+            String operation= operation(request);
+            requestCounts.computeIfAbsent(operation, newCount -> new LongAdder()).increment();
+            authenticate(request);
+
+            int faultStatus= conditions.fault();
+            if(faultStatus!= 0)
+            {
+                throw new StubError(faultStatus, faultStatus== 503? "ServerBusy": "InternalError", "Injected fault");
+            }
+
+            dispatch(request, operation);
+        }
+        catch(StubError azureError)
+        {
+            sendError(exchange, request, azureError);
+        }
+        catch(InterruptedException interrupted)
+        {
+        // Stub is stopping
+            Thread.currentThread().interrupt();
+        }
+        catch(IOException | RuntimeException unexpected)
+        {
+            sendError(exchange, request, new StubError(500, "InternalError", String.valueOf(unexpected)));
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Splits a request into the parts of its path and its query parameters.
+     *
+     * @param exchange The request.
+     * @return The parsed request.
+     * @throws StubError Thrown, with a 400 HTTP code, when the path has no account.
+     */
+    private static StubRequest
+    parse(HttpExchange exchange)
+    throws StubError
+    {
+        String[] path= exchange.getRequestURI().getPath().substring(1).split("/", 3);
+        if(path[0].isEmpty()) {throw new StubError(400, "InvalidUri", "No account in the path");}
+
+        String container= path.length> 1 && !path[1].isEmpty()? path[1]: null;
+        String blob= path.length> 2 && !path[2].isEmpty()? path[2]: null;
+        return new StubRequest(exchange, path[0], container, blob, parseQuery(exchange.getRequestURI().getRawQuery()));
+    }
+
+    private static Map<String, String>
+    parseQuery(String rawQuery)
+    {
+        Map<String, String> query= new HashMap<>();
+        if(rawQuery== null) {return query;}
+
+        try
+        {
+            for(String parameter : rawQuery.split("&"))
+            {
+                int equals= parameter.indexOf('=');
+                if(equals< 0) {query.put(URLDecoder.decode(parameter, "UTF-8"), "");}
+                else
+                {
+                    query.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                              URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+                }
+            }
+        }
+        catch(UnsupportedEncodingException e)
+        {
+        // Should never happen
+            throw new IllegalStateException(e);
+        }
+
+        return query;
+    }
+
+    /**
+     * Tells which operation of the REST API a request is.
+     *
+     * @param request The request.
+     * @return The name of the operation.
+     * @throws StubError Thrown, with a 400 HTTP code, when the stub doesn't implement the operation.
+     */
+    private static String
+    operation(StubRequest request)
+    throws StubError
+    {
+        String comp= request.query.get("comp");
+        String method= request.method;
+
+        if(request.container== null)
+        {
+            if(method.equals("GET") && "list".equals(comp)) {return "ListContainers";}
+        }
+        else if(request.blob== null)
+        {
+            if(!"container".equals(request.query.get("restype")))
+            {
+                throw new StubError(400, "InvalidQueryParameterValue", "Missing restype=container");
+            }
+
+            if(method.equals("PUT") && comp== null)                       {return "CreateContainer";}
+            if(method.equals("DELETE") && comp== null)                    {return "DeleteContainer";}
+            if(method.equals("GET") && "list".equals(comp))               {return "ListBlobs";}
+            if((method.equals("GET") || method.equals("HEAD")) && comp== null)
+            {
+                return "GetContainerProperties";
+            }
+        }
+        else if(comp== null)
+        {
+            if(method.equals("PUT"))
+            {
+                return request.header("x-ms-copy-source")!= null? "CopyBlob": "PutBlob";
+            }
+            if(method.equals("GET"))    {return "GetBlob";}
+            if(method.equals("HEAD"))   {return "GetBlobProperties";}
+            if(method.equals("DELETE")) {return "DeleteBlob";}
+        }
+        else
+        {
+            if(method.equals("PUT") && comp.equals("block"))       {return "PutBlock";}
+            if(method.equals("PUT") && comp.equals("blocklist"))   {return "PutBlockList";}
+            if(method.equals("GET") && comp.equals("blocklist"))   {return "GetBlockList";}
+            if(method.equals("PUT") && comp.equals("appendblock")) {return "AppendBlock";}
+        }
+
+        throw new StubError(400, "UnsupportedHttpVerb", "Unsupported request " + method + " " +
+                                                        request.exchange.getRequestURI());
+    }
+
+    /**
+     * Makes sure a request is signed with the name of the account it's for, or has a shared access signature.
+     *
+     * @param request The request.
+     * @throws StubError Thrown, with a 403 HTTP code, when it isn't.
+     */
+    private static void
+    authenticate(StubRequest request)
+    throws StubError
+    {
+        String authorization= request.header("Authorization");
+        boolean signed= authorization!= null && authorization.startsWith("SharedKey " + request.account + ":");
+        if(!signed && !request.query.containsKey("sig"))
+        {
+            throw new StubError(403, "AuthenticationFailed", "Request isn't signed for account " + request.account);
+        }
+    }
+
+    private void
+    dispatch(StubRequest request, String operation)
+    throws StubError, IOException
+    {
+        switch(operation)
+        {
+            case "ListContainers":         listContainers(request); break;
+            case "CreateContainer":        createContainer(request); break;
+            case "GetContainerProperties": getContainerProperties(request); break;
+            case "DeleteContainer":        deleteContainer(request); break;
+            case "ListBlobs":              listBlobs(request); break;
+            case "PutBlob":                putBlob(request); break;
+            case "CopyBlob":               copyBlob(request); break;
+            case "PutBlock":               putBlock(request); break;
+            case "PutBlockList":           putBlockList(request); break;
+            case "GetBlockList":           getBlockList(request); break;
+            case "AppendBlock":            appendBlock(request); break;
+            case "GetBlob":                getBlob(request); break;
+            case "GetBlobProperties":      getBlobProperties(request); break;
+            case "DeleteBlob":             deleteBlob(request); break;
+            default:                       throw new IllegalStateException("Unknown operation " + operation);
+        }
+    }
+
+/*--------------------------
+* --- CONTAINER REQUESTS ---
+* --------------------------*/
+
+    private static String
+    containerKey(String account, String container)
+    {
+        return account + '/' + container;
+    }
+
+    private StubContainer
+    existingContainer(StubRequest request)
+    throws StubError
+    {
+        StubContainer container= containers.get(containerKey(request.account, request.container));
+        if(container== null) {throw new StubError(404, "ContainerNotFound", "The container doesn't exist");}
+
+        return container;
+    }
+
+    private void
+    createContainer(StubRequest request)
+    throws StubError, IOException
+    {
+        StubContainer container= new StubContainer();
+        if(containers.putIfAbsent(containerKey(request.account, request.container), container)!= null)
+        {
+            throw new StubError(409, "ContainerAlreadyExists", "The container already exists");
+        }
+
+        Headers headers= responseHeaders(request);
+        headers.set("ETag", container.etag);
+        headers.set("Last-Modified", httpDate(container.lastModified));
+        send(request, 201, new byte[0]);
+    }
+
+    private void
+    getContainerProperties(StubRequest request)
+    throws StubError, IOException
+    {
+        StubContainer container= existingContainer(request);
+
+        Headers headers= responseHeaders(request);
+        headers.set("ETag", container.etag);
+        headers.set("Last-Modified", httpDate(container.lastModified));
+        headers.set("x-ms-lease-status", "unlocked");
+        headers.set("x-ms-lease-state", "available");
+        send(request, 200, new byte[0]);
+    }
+
+    private void
+    deleteContainer(StubRequest request)
+    throws StubError, IOException
+    {
+        if(containers.remove(containerKey(request.account, request.container))== null)
+        {
+            throw new StubError(404, "ContainerNotFound", "The container doesn't exist");
+        }
+
+        responseHeaders(request);
+        send(request, 202, new byte[0]);
+    }
+
+    private void
+    listContainers(StubRequest request)
+    throws StubError, IOException
+    {
+        String prefix= request.query.getOrDefault("prefix", "");
+        String marker= request.query.get("marker");
+        int maxResults= maxResults(request);
+
+    // Containers of the account, sorted by name
+        SortedMap<String, StubContainer> accountContainers= new TreeMap<>();
+        String accountPrefix= request.account + '/';
+        for(Map.Entry<String, StubContainer> container : containers.entrySet())
+        {
+            String name= container.getKey().substring(accountPrefix.length());
+            if(container.getKey().startsWith(accountPrefix) && name.startsWith(prefix) &&
+               (marker== null || name.compareTo(marker)>= 0))
+            {
+                accountContainers.put(name, container.getValue());
+            }
+        }
+
+        try
+        {
+            ByteArrayOutputStream body= new ByteArrayOutputStream();
+            XMLStreamWriter xml= XMLOutputFactory.newInstance().createXMLStreamWriter(body, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeStartElement("EnumerationResults");
+            xml.writeAttribute("ServiceEndpoint", serviceEndpoint(request));
+            writeElement(xml, "Prefix", prefix);
+            if(marker!= null) {writeElement(xml, "Marker", marker);}
+            writeElement(xml, "MaxResults", Integer.toString(maxResults));
+
+            xml.writeStartElement("Containers");
+            String nextMarker= null;
+            int listed= 0;
+            for(Map.Entry<String, StubContainer> container : accountContainers.entrySet())
+            {
+                if(listed== maxResults)
+                {
+                    nextMarker= container.getKey();
+                    break;
+                }
+
+                xml.writeStartElement("Container");
+                writeElement(xml, "Name", container.getKey());
+                xml.writeStartElement("Properties");
+                writeElement(xml, "Last-Modified", httpDate(container.getValue().lastModified));
+                writeElement(xml, "Etag", container.getValue().etag);
+                writeElement(xml, "LeaseStatus", "unlocked");
+                writeElement(xml, "LeaseState", "available");
+                xml.writeEndElement();
+                xml.writeEndElement();
+                listed++;
+            }
+            xml.writeEndElement();
+
+            writeElement(xml, "NextMarker", nextMarker== null? "": nextMarker);
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+
+            responseHeaders(request).set("Content-Type", "application/xml");
+            send(request, 200, body.toByteArray());
+        }
+        catch(XMLStreamException xmlError)
+        {
+            throw new IOException("Error writing the list of containers", xmlError);
+        }
+    }
+
+    private void
+    listBlobs(StubRequest request)
+    throws StubError, IOException
+    {
+        StubContainer container= existingContainer(request);
+        String prefix= request.query.getOrDefault("prefix", "");
+        String delimiter= request.query.get("delimiter");
+        String marker= request.query.get("marker");
+        int maxResults= maxResults(request);
+        String start= marker!= null && marker.compareTo(prefix)> 0? marker: prefix;
+
+        try
+        {
+            ByteArrayOutputStream body= new ByteArrayOutputStream();
+            XMLStreamWriter xml= XMLOutputFactory.newInstance().createXMLStreamWriter(body, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeStartElement("EnumerationResults");
+            xml.writeAttribute("ServiceEndpoint", serviceEndpoint(request));
+            xml.writeAttribute("ContainerName", request.container);
+            writeElement(xml, "Prefix", prefix);
+            if(marker!= null)    {writeElement(xml, "Marker", marker);}
+            writeElement(xml, "MaxResults", Integer.toString(maxResults));
+            if(delimiter!= null) {writeElement(xml, "Delimiter", delimiter);}
+
+            xml.writeStartElement("Blobs");
+            String nextMarker= null;
+            String lastBlobPrefix= null;
+            int listed= 0;
+            for(Map.Entry<String, StubBlob> blob : container.blobs.tailMap(start, true).entrySet())
+            {
+                String name= blob.getKey();
+                if(!name.startsWith(prefix)) {break;}
+                if(lastBlobPrefix!= null && name.startsWith(lastBlobPrefix)) {continue;}
+                if(listed== maxResults)
+                {
+                    nextMarker= name;
+                    break;
+                }
+
+            // Blobs under the delimiter are listed once, as a prefix
+                int delimiterIndex= delimiter== null? -1: name.indexOf(delimiter, prefix.length());
+                if(delimiterIndex>= 0)
+                {
+                    lastBlobPrefix= name.substring(0, delimiterIndex + delimiter.length());
+                    xml.writeStartElement("BlobPrefix");
+                    writeElement(xml, "Name", lastBlobPrefix);
+                    xml.writeEndElement();
+                }
+                else
+                {
+                    writeBlob(xml, name, blob.getValue());
+                }
+                listed++;
+            }
+            xml.writeEndElement();
+
+            writeElement(xml, "NextMarker", nextMarker== null? "": nextMarker);
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+
+            responseHeaders(request).set("Content-Type", "application/xml");
+            send(request, 200, body.toByteArray());
+        }
+        catch(XMLStreamException xmlError)
+        {
+            throw new IOException("Error writing the list of blobs", xmlError);
+        }
+    }
+
+    private static void
+    writeBlob(XMLStreamWriter xml, String name, StubBlob blob)
+    throws XMLStreamException
+    {
+        xml.writeStartElement("Blob");
+        writeElement(xml, "Name", name);
+        xml.writeStartElement("Properties");
+        writeElement(xml, "Last-Modified", httpDate(blob.lastModified));
+        writeElement(xml, "Etag", blob.etag);
+        writeElement(xml, "Content-Length", Integer.toString(blob.contents.length));
+        writeElement(xml, "Content-Type", "application/octet-stream");
+        if(blob.contentMD5!= null) {writeElement(xml, "Content-MD5", blob.contentMD5);}
+        writeElement(xml, "BlobType", blob.type);
+        writeElement(xml, "LeaseStatus", "unlocked");
+        writeElement(xml, "LeaseState", "available");
+        if(blob.copyId!= null)
+        {
+            writeElement(xml, "CopyId", blob.copyId);
+            writeElement(xml, "CopyStatus", "success");
+            writeElement(xml, "CopySource", blob.copySource);
+            writeElement(xml, "CopyProgress", blob.contents.length + "/" + blob.contents.length);
+            writeElement(xml, "CopyCompletionTime", httpDate(blob.lastModified));
+        }
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+
+    private static int
+    maxResults(StubRequest request)
+    throws StubError
+    {
+        try
+        {
+            String maxResults= request.query.get("maxresults");
+            return maxResults== null? MAX_LIST_RESULTS: Math.min(Integer.parseInt(maxResults), MAX_LIST_RESULTS);
+        }
+        catch(NumberFormatException badNumber)
+        {
+            throw new StubError(400, "InvalidQueryParameterValue", "Bad maxresults");
+        }
+    }
+
+/*---------------------
+* --- BLOB REQUESTS ---
+* ---------------------*/
+
+    private static StubBlob
+    existingBlob(StubContainer container, StubRequest request)
+    throws StubError
+    {
+        StubBlob blob= container.blobs.get(request.blob);
+        if(blob== null) {throw new StubError(404, "BlobNotFound", "The blob doesn't exist");}
+
+        return blob;
+    }
+
+    /**
+     * Checks the {@code If-Match} and {@code If-None-Match} conditions of a request against a blob.
+     *
+     * @param request The request.
+     * @param blob The blob, or {@code null} if it doesn't exist.
+     * @param write Whether or not the request writes the blob.
+     * @throws StubError Thrown, with a 304, 409 or 412 HTTP code, when a condition isn't met.
+     */
+    private static void
+    checkConditions(StubRequest request, StubBlob blob, boolean write)
+    throws StubError
+    {
+        String ifMatch= request.header("If-Match");
+        if(ifMatch!= null && !ifMatch.equals("*") && (blob== null || !ifMatch.equals(blob.etag)))
+        {
+            throw new StubError(412, "ConditionNotMet", "The condition specified using HTTP conditional header(s) " +
+                                                        "is not met.");
+        }
+
+        String ifNoneMatch= request.header("If-None-Match");
+        if(ifNoneMatch== null || blob== null) {return;}
+        if(ifNoneMatch.equals("*") && write)
+        {
+            throw new StubError(409, "BlobAlreadyExists", "The specified blob already exists.");
+        }
+        if(ifNoneMatch.equals("*") || ifNoneMatch.equals(blob.etag))
+        {
+            if(write) {throw new StubError(412, "ConditionNotMet", "The condition is not met.");}
+            else      {throw new StubError(304, "ConditionNotMet", "The condition is not met.");}
+        }
+    }
+
+    private void
+    putBlob(StubRequest request)
+    throws StubError, IOException
+    {
+        StubContainer container= existingContainer(request);
+        String type= request.header("x-ms-blob-type");
+        byte[] contents= readBody(request);
+
+        StubBlob blob;
+        if("BlockBlob".equals(type))
+        {
+            String contentMD5= request.header("x-ms-blob-content-md5");
+            blob= new StubBlob(type, contents, Collections.emptyList(), contentMD5!= null? contentMD5: md5(contents),
+                               null, null);
+        }
+        else if("AppendBlob".equals(type))
+        {
+            if(contents.length> 0) {throw new StubError(400, "InvalidHeaderValue", "Append blobs start empty");}
+            blob= new StubBlob(type, contents, Collections.emptyList(), null, null, null);
+        }
+        else
+        {
+            throw new StubError(400, "InvalidHeaderValue", "Unsupported blob type " + type);
+        }
+
+        synchronized(container)
+        {
+            checkConditions(request, container.blobs.get(request.blob), true);
+            container.blobs.put(request.blob, blob);
+            container.uncommittedBlocks.remove(request.blob);
+        }
+
+        Headers headers= responseHeaders(request);
+        headers.set("ETag", blob.etag);
+        headers.set("Last-Modified", httpDate(blob.lastModified));
+        if(blob.contentMD5!= null) {headers.set("Content-MD5", blob.contentMD5);}
+        headers.set("x-ms-request-server-encrypted", "false");
+        send(request, 201, new byte[0]);
+    }
+
+    private void
+    copyBlob(StubRequest request)
+    throws StubError, IOException
+    {
+        StubContainer container= existingContainer(request);
+        String copySource= request.header("x-ms-copy-source");
+
+    // Source is another blob of this stub, in the same account
+        String[] sourcePath;
+        try
+        {
+            sourcePath= new URI(copySource).getPath().substring(1).split("/", 3);
+        }
+        catch(URISyntaxException badUri)
+        {
+            throw new StubError(400, "InvalidHeaderValue", "Bad copy source " + copySource);
+        }
+        StubContainer sourceContainer= sourcePath.length== 3 && sourcePath[0].equals(request.account)?
+                                       containers.get(containerKey(sourcePath[0], sourcePath[1])): null;
+        StubBlob source= sourceContainer== null? null: sourceContainer.blobs.get(sourcePath[2]);
+        if(source== null) {throw new StubError(404, "CannotVerifyCopySource", "The copy source doesn't exist");}
+
+        StubBlob blob= new StubBlob(source.type, source.contents, source.blocks, source.contentMD5,
+                                    UUID.randomUUID().toString(), copySource);
+        synchronized(container)
+        {
+            checkConditions(request, container.blobs.get(request.blob), true);
+            container.blobs.put(request.blob, blob);
+        }
+
+        Headers headers= responseHeaders(request);
+        headers.set("ETag", blob.etag);
+        headers.set("Last-Modified", httpDate(blob.lastModified));
+        headers.set("x-ms-copy-id", blob.copyId);
+        headers.set("x-ms-copy-status", "success");
+        send(request, 202, new byte[0]);
+    }
+
+    private void
+    putBlock(StubRequest request)
+    throws StubError, IOException
+    {
+        StubContainer container= existingContainer(request);
+        String blockId= request.query.get("blockid");
+        if(blockId== null || blockId.isEmpty()) {throw new StubError(400, "InvalidQueryParameterValue", "No blockid");}
+        byte[] contents= readBody(request);
+
+        synchronized(container)
+        {
+        // Like Azure, every block of a blob must have an ID of the same length
+            Map<String, byte[]> uncommitted= container.uncommittedBlocks.computeIfAbsent(request.blob,
+                                                                                         newBlob -> new HashMap<>());
+            List<String> storedIds= new ArrayList<>(uncommitted.keySet());
+            StubBlob existing= container.blobs.get(request.blob);
+            if(existing!= null && existing.type.equals("BlockBlob"))
+            {
+                for(StubBlock block : existing.blocks) {storedIds.add(block.id);}
+            }
+            for(String storedId : storedIds)
+            {
+                if(storedId.length()!= blockId.length())
+                {
+                    throw new StubError(400, "InvalidBlobOrBlock", "The specified blob or block content is invalid.");
+                }
+            }
+
+            uncommitted.put(blockId, contents);
+        }
+
+        Headers headers= responseHeaders(request);
+        headers.set("Content-MD5", md5(contents));
+        headers.set("x-ms-request-server-encrypted", "false");
+        send(request, 201, new byte[0]);
+    }
+
+    private void
+    putBlockList(StubRequest request)
+    throws StubError, IOException
+    {
+        StubContainer container= existingContainer(request);
+        byte[] body= readBody(request);
+
+        List<Element> entries= new ArrayList<>();
+        try
+        {
+            Element blockList= DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                                                     .parse(new ByteArrayInputStream(body)).getDocumentElement();
+            for(Node entry= blockList.getFirstChild(); entry!= null; entry= entry.getNextSibling())
+            {
+                if(entry instanceof Element) {entries.add((Element) entry);}
+            }
+        }
+        catch(ParserConfigurationException | SAXException badXml)
+        {
+            throw new StubError(400, "InvalidXmlDocument", "Bad block list");
+        }
+
+        StubBlob blob;
+        synchronized(container)
+        {
+            StubBlob existing= container.blobs.get(request.blob);
+            checkConditions(request, existing, true);
+
+            Map<String, byte[]> uncommitted= container.uncommittedBlocks.getOrDefault(request.blob,
+                                                                                      Collections.emptyMap());
+            Map<String, byte[]> committed= new HashMap<>();
+            if(existing!= null && existing.type.equals("BlockBlob"))
+            {
+                for(StubBlock block : existing.blocks) {committed.put(block.id, block.contents);}
+            }
+
+        // Latest blocks are looked up among the uncommitted ones first
+            List<StubBlock> blocks= new ArrayList<>(entries.size());
+            ByteArrayOutputStream contents= new ByteArrayOutputStream();
+            for(Element entry : entries)
+            {
+                String blockId= entry.getTextContent();
+                byte[] block;
+                switch(entry.getTagName())
+                {
+                    case "Uncommitted": block= uncommitted.get(blockId); break;
+                    case "Committed":   block= committed.get(blockId); break;
+                    default:            block= uncommitted.containsKey(blockId)? uncommitted.get(blockId):
+                                                                                 committed.get(blockId);
+                }
+                if(block== null) {throw new StubError(400, "InvalidBlockList", "Unknown block " + blockId);}
+
+                blocks.add(new StubBlock(blockId, block));
+                contents.write(block, 0, block.length);
+            }
+
+            blob= new StubBlob("BlockBlob", contents.toByteArray(), blocks, request.header("x-ms-blob-content-md5"),
+                               null, null);
+            container.blobs.put(request.blob, blob);
+            container.uncommittedBlocks.remove(request.blob);
+        }
+
+        Headers headers= responseHeaders(request);
+        headers.set("ETag", blob.etag);
+        headers.set("Last-Modified", httpDate(blob.lastModified));
+        headers.set("x-ms-request-server-encrypted", "false");
+        send(request, 201, new byte[0]);
+    }
+
+    private void
+    getBlockList(StubRequest request)
+    throws StubError, IOException
+    {
+        StubContainer container= existingContainer(request);
+        String listType= request.query.getOrDefault("blocklisttype", "committed");
+
+        StubBlob blob;
+        Map<String, byte[]> uncommitted;
+        synchronized(container)
+        {
+            blob= container.blobs.get(request.blob);
+            uncommitted= new LinkedHashMap<>(container.uncommittedBlocks.getOrDefault(request.blob,
+                                                                                      Collections.emptyMap()));
+        }
+        if(blob== null && uncommitted.isEmpty()) {throw new StubError(404, "BlobNotFound", "The blob doesn't exist");}
+        if(blob!= null && !blob.type.equals("BlockBlob"))
+        {
+            throw new StubError(409, "InvalidBlobType", "The blob type is invalid for this operation.");
+        }
+
+        try
+        {
+            ByteArrayOutputStream body= new ByteArrayOutputStream();
+            XMLStreamWriter xml= XMLOutputFactory.newInstance().createXMLStreamWriter(body, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeStartElement("BlockList");
+
+            xml.writeStartElement("CommittedBlocks");
+            if(blob!= null && !listType.equals("uncommitted"))
+            {
+                for(StubBlock block : blob.blocks) {writeBlock(xml, block.id, block.contents.length);}
+            }
+            xml.writeEndElement();
+
+            xml.writeStartElement("UncommittedBlocks");
+            if(!listType.equals("committed"))
+            {
+                for(Map.Entry<String, byte[]> block : uncommitted.entrySet())
+                {
+                    writeBlock(xml, block.getKey(), block.getValue().length);
+                }
+            }
+            xml.writeEndElement();
+
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+
+            Headers headers= responseHeaders(request);
+            headers.set("Content-Type", "application/xml");
+            if(blob!= null)
+            {
+                headers.set("ETag", blob.etag);
+                headers.set("Last-Modified", httpDate(blob.lastModified));
+                headers.set("x-ms-blob-content-length", Integer.toString(blob.contents.length));
+            }
+            send(request, 200, body.toByteArray());
+        }
+        catch(XMLStreamException xmlError)
+        {
+            throw new IOException("Error writing the block list", xmlError);
+        }
+    }
+
+    private static void
+    writeBlock(XMLStreamWriter xml, String blockId, int size)
+    throws XMLStreamException
+    {
+        xml.writeStartElement("Block");
+        writeElement(xml, "Name", blockId);
+        writeElement(xml, "Size", Integer.toString(size));
+        xml.writeEndElement();
+    }
+
+    private void
+    appendBlock(StubRequest request)
+    throws StubError, IOException
+    {
+        StubContainer container= existingContainer(request);
+        byte[] block= readBody(request);
+        if(block.length> MAX_APPEND_BYTES)
+        {
+            throw new StubError(413, "RequestBodyTooLarge", "The request body is too large.");
+        }
+
+        StubBlob blob;
+        long appendOffset;
+        synchronized(container)
+        {
+            StubBlob existing= existingBlob(container, request);
+            checkConditions(request, existing, false);
+            if(!existing.type.equals("AppendBlob"))
+            {
+                throw new StubError(409, "InvalidBlobType", "The blob type is invalid for this operation.");
+            }
+            if(existing.blocks.size()>= MAX_APPEND_BLOCKS)
+            {
+                throw new StubError(409, "BlockCountExceedsLimit", "The committed block count cannot exceed the " +
+                                                                   "maximum limit of 50,000 blocks.");
+            }
+
+            byte[] contents= Arrays.copyOf(existing.contents, existing.contents.length + block.length);
+            System.arraycopy(block, 0, contents, existing.contents.length, block.length);
+            List<StubBlock> blocks= new ArrayList<>(existing.blocks);
+            blocks.add(new StubBlock(Integer.toString(blocks.size()), block));
+
+            appendOffset= existing.contents.length;
+            blob= new StubBlob(existing.type, contents, blocks, null, null, null);
+            container.blobs.put(request.blob, blob);
+        }
+
+        Headers headers= responseHeaders(request);
+        headers.set("ETag", blob.etag);
+        headers.set("Last-Modified", httpDate(blob.lastModified));
+        headers.set("Content-MD5", md5(block));
+        headers.set("x-ms-blob-append-offset", Long.toString(appendOffset));
+        headers.set("x-ms-blob-committed-block-count", Integer.toString(blob.blocks.size()));
+        headers.set("x-ms-request-server-encrypted", "false");
+        send(request, 201, new byte[0]);
+    }
+
+    private void
+    getBlob(StubRequest request)
+    throws StubError, IOException
+    {
+        StubBlob blob= existingBlob(existingContainer(request), request);
+        checkConditions(request, blob, false);
+
+        int length= blob.contents.length;
+        int start= 0;
+        int end= length - 1;
+        String range= request.header("x-ms-range")!= null? request.header("x-ms-range"): request.header("Range");
+        if(range!= null)
+        {
+        // Ranges are "bytes=<start>-" or "bytes=<start>-<end>"
+            try
+            {
+                String[] bounds= range.substring("bytes=".length()).split("-", 2);
+                start= Integer.parseInt(bounds[0]);
+                if(!bounds[1].isEmpty()) {end= Math.min(end, Integer.parseInt(bounds[1]));}
+            }
+            catch(NumberFormatException | StringIndexOutOfBoundsException badRange)
+            {
+                throw new StubError(400, "InvalidRange", "Bad range " + range);
+            }
+            if(start>= length)
+            {
+                throw new StubError(416, "InvalidRange", "The range specified is invalid for the current size of " +
+                                                         "the resource.");
+            }
+        }
+
+        Headers headers= responseHeaders(request);
+        blobHeaders(headers, blob, range== null);
+        headers.set("Content-Length", Integer.toString(end - start + 1));
+        if(range!= null)
+        {
+            headers.set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            if(blob.contentMD5!= null) {headers.set("x-ms-blob-content-md5", blob.contentMD5);}
+        }
+
+        int status= range== null? 200: 206;
+        if(end< start)
+        {
+            request.exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+
+        request.exchange.sendResponseHeaders(status, end - start + 1);
+        conditions.write(request.exchange.getResponseBody(), blob.contents, start, end - start + 1);
+    }
+
+    private void
+    getBlobProperties(StubRequest request)
+    throws StubError, IOException
+    {
+        StubBlob blob= existingBlob(existingContainer(request), request);
+        checkConditions(request, blob, false);
+
+        Headers headers= responseHeaders(request);
+        blobHeaders(headers, blob, true);
+        headers.set("Content-Length", Integer.toString(blob.contents.length));
+        request.exchange.sendResponseHeaders(200, -1);
+    }
+
+    private void
+    deleteBlob(StubRequest request)
+    throws StubError, IOException
+    {
+        StubContainer container= existingContainer(request);
+        synchronized(container)
+        {
+            checkConditions(request, existingBlob(container, request), true);
+            container.blobs.remove(request.blob);
+            container.uncommittedBlocks.remove(request.blob);
+        }
+
+        responseHeaders(request);
+        send(request, 202, new byte[0]);
+    }
+
+    /**
+     * Sets the header fields that describe a blob.
+     *
+     * @param headers The header fields of the response.
+     * @param blob The blob.
+     * @param whole Whether or not the response is about the whole blob, which is when it carries its MD5 hash.
+     */
+    private static void
+    blobHeaders(Headers headers, StubBlob blob, boolean whole)
+    {
+        headers.set("Content-Type", "application/octet-stream");
+        headers.set("ETag", blob.etag);
+        headers.set("Last-Modified", httpDate(blob.lastModified));
+        headers.set("Accept-Ranges", "bytes");
+        headers.set("x-ms-blob-type", blob.type);
+        headers.set("x-ms-lease-status", "unlocked");
+        headers.set("x-ms-lease-state", "available");
+        headers.set("x-ms-server-encrypted", "false");
+        if(whole && blob.contentMD5!= null) {headers.set("Content-MD5", blob.contentMD5);}
+        if(blob.type.equals("AppendBlob"))
+        {
+            headers.set("x-ms-blob-committed-block-count", Integer.toString(blob.blocks.size()));
+        }
+        if(blob.copyId!= null)
+        {
+            headers.set("x-ms-copy-id", blob.copyId);
+            headers.set("x-ms-copy-status", "success");
+            headers.set("x-ms-copy-source", blob.copySource);
+            headers.set("x-ms-copy-progress", blob.contents.length + "/" + blob.contents.length);
+            headers.set("x-ms-copy-completion-time", httpDate(blob.lastModified));
+        }
+    }
+
+/*-----------------
+* --- RESPONSES ---
+* -----------------*/
+
+    /**
+     * Reads the body of a request at the stub's bandwidth.
+     *
+     * @param request The request.
+     * @return The body.
+     * @throws StubError Thrown, with a 411 HTTP code, when there's no Content-Length header field.
+     * @throws IOException Thrown when the body can't be read.
+     */
+    private byte[]
+    readBody(StubRequest request)
+    throws StubError, IOException
+    {
+        String contentLength= request.header("Content-Length");
+        if(contentLength== null) {throw new StubError(411, "MissingContentLengthHeader", "No Content-Length");}
+
+        return conditions.read(request.exchange.getRequestBody(), Integer.parseInt(contentLength));
+    }
+
+    /**
+     * Sets the header fields that every response has.
+     *
+     * @param request The request.
+     * @return The header fields of the response.
+     */
+    private static Headers
+    responseHeaders(StubRequest request)
+    {
+        String version= request.header("x-ms-version");
+
+        Headers headers= request.exchange.getResponseHeaders();
+        headers.set("x-ms-request-id", UUID.randomUUID().toString());
+        headers.set("x-ms-version", version!= null? version: DEFAULT_VERSION);
+        headers.set("Date", httpDate(System.currentTimeMillis()));
+        headers.set("Server", "LinkCloud-AzureBlobStub");
+        return headers;
+    }
+
+    private void
+    send(StubRequest request, int status, byte[] body)
+    throws IOException
+    {
+        request.exchange.sendResponseHeaders(status, body.length== 0? -1: body.length);
+        if(body.length> 0) {conditions.write(request.exchange.getResponseBody(), body, 0, body.length);}
+    }
+
+    /**
+     * Sends an Azure error, with its XML body unless the request is a {@code HEAD}.
+     *
+     * @param exchange The request and its response.
+     * @param request The parsed request, or {@code null} if it couldn't be parsed.
+     * @param azureError The error.
+     */
+    private void
+    sendError(HttpExchange exchange, StubRequest request, StubError azureError)
+    {
+        try
+        {
+            if(request!= null) {responseHeaders(request);}
+            exchange.getResponseHeaders().set("x-ms-error-code", azureError.code);
+
+            if(exchange.getRequestMethod().equals("HEAD") || azureError.status== 304)
+            {
+                exchange.sendResponseHeaders(azureError.status, -1);
+                return;
+            }
+
+            String body= "<?xml version=\"1.0\" encoding=\"utf-8\"?><Error><Code>" + azureError.code + "</Code>" +
+                         "<Message>" + escape(azureError.getMessage()) + "</Message></Error>";
+            byte[] bodyBytes= body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/xml");
+            exchange.sendResponseHeaders(azureError.status, bodyBytes.length);
+            exchange.getResponseBody().write(bodyBytes);
+        }
+        catch(IOException clientGone)
+        {
+        // Nothing left to tell the client
+        }
+    }
+
+    private static String
+    serviceEndpoint(StubRequest request)
+    {
+        InetSocketAddress address= request.exchange.getLocalAddress();
+        return "http://127.0.0.1:" + address.getPort() + "/" + request.account;
+    }
+
+    private static void
+    writeElement(XMLStreamWriter xml, String name, String value)
+    throws XMLStreamException
+    {
+        xml.writeStartElement(name);
+        xml.writeCharacters(value);
+        xml.writeEndElement();
+    }
+
+    private static String
+    escape(String text)
+    {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static String
+    httpDate(long time)
+    {
+        SimpleDateFormat format= new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
+
+    private static String
+    md5(byte[] contents)
+    {
+        try
+        {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(contents));
+        }
+        catch(NoSuchAlgorithmException e)
+        {
+        // Should never happen
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package pt.bdotc.linkcloud.loadtest;
+
+import pt.bdotc.linkcloud.objects.StorageObject;
+
+import javax.ws.rs.WebApplicationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Sends the load straight to a {@link StorageObject} in this JVM, leaving the application server out of the
+ * measurements. Errors of the StorageObject are turned into {@link IOException}s that carry their HTTP code.
+ */
+public class
+DirectTarget
+implements LoadTarget
+{
+    private final StorageObject storageObject;
+    private final String username;
+    private final String password;
+
+    /**
+     * Prepares the target.
+     *
+     * @param storageObject The StorageObject of the CSP.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     */
+    public
+    DirectTarget(StorageObject storageObject, String username, String password)
+    {
+        this.storageObject= storageObject;
+        this.username= username;
+        this.password= password;
+    }
+
+    @Override
+    public void
+    createContainer(String container)
+    throws IOException
+    {
+        try
+        {
+            storageObject.createContainerIfNotExists(container, username, password);
+        }
+        catch(WebApplicationException requestError)
+        {
+            throw failure(requestError);
+        }
+    }
+
+    @Override
+    public long
+    get(String container, String blob)
+    throws IOException
+    {
+        try(InputStream contents= storageObject.downloadBlob(container, blob, username, password))
+        {
+            return ServiceTarget.drain(contents);
+        }
+        catch(WebApplicationException requestError)
+        {
+            throw failure(requestError);
+        }
+    }
+
+    @Override
+    public long
+    head(String container, String blob)
+    throws IOException
+    {
+        try
+        {
+            return storageObject.blobExists(container, blob, username, password);
+        }
+        catch(WebApplicationException requestError)
+        {
+            throw failure(requestError);
+        }
+    }
+
+    @Override
+    public void
+    post(String container, String blob, byte[] contents)
+    throws IOException
+    {
+        try
+        {
+            storageObject.uploadBlob(container, blob, username, password, new ByteArrayInputStream(contents),
+                                     contents.length);
+        }
+        catch(WebApplicationException requestError)
+        {
+            throw failure(requestError);
+        }
+    }
+
+    @Override
+    public void
+    list(String container)
+    throws IOException
+    {
+        try(InputStream listing= storageObject.listBlobs(container, username, password))
+        {
+            ServiceTarget.drain(listing);
+        }
+        catch(WebApplicationException requestError)
+        {
+            throw failure(requestError);
+        }
+    }
+
+    private static IOException
+    failure(WebApplicationException requestError)
+    {
+        return new IOException("HTTP " + requestError.getResponse().getStatus(), requestError);
+    }
+}
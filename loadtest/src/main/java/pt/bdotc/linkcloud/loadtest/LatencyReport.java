@@ -0,0 +1,207 @@
+package pt.bdotc.linkcloud.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and errors of the requests of a load test, per {@link Operation}. Latencies are kept in microseconds in
+ * HdrHistograms, so that high percentiles are exact to 3 significant digits whatever the number of requests.
+ *
+ * Results can be written as a baseline, a properties file with the count, error rate and percentiles of every
+ * operation (e.g. {@code GET.p99=12345}, in microseconds), and a later run can be compared against it.
+ */
+public class
+LatencyReport
+{
+    /** Highest latency that's recorded, in microseconds; higher ones are recorded as this one. */
+    private static final long HIGHEST_LATENCY= TimeUnit.MINUTES.toMicros(10);
+    /** Percentiles that are reported and compared against the baseline, along with their names. */
+    private static final double[] PERCENTILES= {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES= {"p50", "p90", "p99", "p999"};
+    /** Error rates up to this are never deemed a regression, so that a baseline without errors isn't too strict. */
+    private static final double ERROR_RATE_SLACK= 0.001;
+
+    private final Map<Operation, Histogram> latencies= new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors= new EnumMap<>(Operation.class);
+
+    /** Prepares an empty report. */
+    public
+    LatencyReport()
+    {
+        for(Operation operation : Operation.values())
+        {
+            latencies.put(operation, new ConcurrentHistogram(HIGHEST_LATENCY, 3));
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    /**
+     * Records a request.
+     *
+     * @param operation The operation of the request.
+     * @param latencyNanos The time the request took, in nanoseconds, from when it was meant to be sent.
+     * @param failed Whether or not the request failed.
+     */
+    public void
+    record(Operation operation, long latencyNanos, boolean failed)
+    {
+        long latencyMicros= Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), HIGHEST_LATENCY);
+        latencies.get(operation).recordValue(Math.max(latencyMicros, 0));
+        if(failed) {errors.get(operation).increment();}
+    }
+
+    /**
+     * Prints a table with the results of every operation that was sent.
+     *
+     * @param output Where to print the table.
+     * @param elapsedSeconds How long the load test ran, to compute the throughput.
+     */
+    public void
+    print(PrintStream output, double elapsedSeconds)
+    {
+        output.printf("%-5s %9s %7s %9s %9s %9s %9s %9s %9s%n", "op", "count", "errors", "req/s", "p50 ms", "p90 ms",
+                      "p99 ms", "p99.9 ms", "max ms");
+        for(Operation operation : Operation.values())
+        {
+            Histogram histogram= latencies.get(operation);
+            if(histogram.getTotalCount()== 0) {continue;}
+
+            output.printf("%-5s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", operation,
+                          histogram.getTotalCount(), errors.get(operation).sum(),
+                          histogram.getTotalCount() / elapsedSeconds,
+                          histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+                          histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+                          histogram.getMaxValue() / 1000.0);
+        }
+    }
+
+    /**
+     * Gives the results in the format of a baseline.
+     *
+     * @return The results.
+     */
+    public Properties
+    toBaseline()
+    {
+        Properties baseline= new Properties();
+        for(Operation operation : Operation.values())
+        {
+            Histogram histogram= latencies.get(operation);
+            long count= histogram.getTotalCount();
+            if(count== 0) {continue;}
+
+            baseline.setProperty(operation + ".count", Long.toString(count));
+            baseline.setProperty(operation + ".errorRate", Double.toString(errors.get(operation).sum() /
+                                                                           (double) count));
+            for(int i= 0; i< PERCENTILES.length; i++)
+            {
+                baseline.setProperty(operation + "." + PERCENTILE_NAMES[i],
+                                     Long.toString(histogram.getValueAtPercentile(PERCENTILES[i])));
+            }
+        }
+
+        return baseline;
+    }
+
+    /**
+     * Writes the results into a file, in the format of a baseline.
+     *
+     * @param file The file.
+     * @throws IOException Thrown when the file can't be written.
+     */
+    public void
+    writeBaseline(Path file)
+    throws IOException
+    {
+        try(OutputStream output= Files.newOutputStream(file))
+        {
+            toBaseline().store(output, "LinkCloud load test results, latencies in microseconds");
+        }
+    }
+
+    /**
+     * Writes the full percentile distribution of every operation that was sent, in HdrHistogram's format, into files
+     * named {@code <operation>.hgrm}. These can be plotted to see the whole latency curve.
+     *
+     * @param directory The directory of the files, which is created if needed.
+     * @throws IOException Thrown when the files can't be written.
+     */
+    public void
+    writeHistograms(Path directory)
+    throws IOException
+    {
+        Files.createDirectories(directory);
+        for(Operation operation : Operation.values())
+        {
+            Histogram histogram= latencies.get(operation);
+            if(histogram.getTotalCount()== 0) {continue;}
+
+            try(PrintStream output= new PrintStream(Files.newOutputStream(directory.resolve(operation + ".hgrm")),
+                                                    false, "UTF-8"))
+            {
+            // Values are printed in milliseconds
+                histogram.outputPercentileDistribution(output, 1000.0);
+            }
+        }
+    }
+
+    /**
+     * Compares the results against a baseline. A percentile regresses when it's higher than the baseline's by more
+     * than the tolerance; an error rate regresses when it's higher than the baseline's by more than the tolerance, and
+     * higher than {@value #ERROR_RATE_SLACK}. Operations the baseline doesn't have are left out.
+     *
+     * @param baseline The baseline.
+     * @param tolerance How much worse than the baseline results may get, e.g. 0.2 for 20%.
+     * @return A description of every regression, empty if there's none.
+     */
+    public List<String>
+    compare(Properties baseline, double tolerance)
+    {
+        Properties current= toBaseline();
+        List<String> regressions= new ArrayList<>();
+        for(Operation operation : Operation.values())
+        {
+            if(baseline.getProperty(operation + ".count")== null) {continue;}
+            if(current.getProperty(operation + ".count")== null)
+            {
+                regressions.add(operation + " wasn't sent");
+                continue;
+            }
+
+            for(String percentile : PERCENTILE_NAMES)
+            {
+                String key= operation + "." + percentile;
+                long expected= Long.parseLong(baseline.getProperty(key, "0"));
+                long actual= Long.parseLong(current.getProperty(key));
+                if(expected> 0 && actual> expected * (1 + tolerance))
+                {
+                    regressions.add(String.format("%s is %.2f ms, baseline is %.2f ms", key, actual / 1000.0,
+                                                  expected / 1000.0));
+                }
+            }
+
+            String key= operation + ".errorRate";
+            double expected= Double.parseDouble(baseline.getProperty(key, "0"));
+            double actual= Double.parseDouble(current.getProperty(key));
+            if(actual> ERROR_RATE_SLACK && actual> expected * (1 + tolerance))
+            {
+                regressions.add(String.format("%s is %.4f, baseline is %.4f", key, actual, expected));
+            }
+        }
+
+        return regressions;
+    }
+}
@@ -0,0 +1,492 @@
+package pt.bdotc.linkcloud.loadtest;
+
+import pt.bdotc.linkcloud.execution.StorageExecutor;
+import pt.bdotc.linkcloud.objects.AzureStorageObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test of LinkCloud against an {@link AzureBlobStub}. The stub is started in this JVM, and the load is sent either
+ * to the StorageObject classes in this JVM too, or to a running LinkCloud service that's been pointed at the stub (see
+ * {@code LoadTestSettings.TARGET}). The load is one of:
+ * <ul>
+ *    <li>A mixed workload of blob downloads, existence tests, uploads and listings, sent by a number of threads either
+ *        as fast as they're answered, or at a fixed rate;</li>
+ *    <li>The replay of a trace recorded by an earlier mixed workload, or written by hand (see {@link Trace});</li>
+ *    <li>A burst of downloads sent all at once, each as its own task of the {@link StorageExecutor}, which compares how
+ *        its execution modes, e.g., virtual threads against a pool of platform threads, cope with that many blocked
+ *        downloads.</li>
+ * </ul>
+ *
+ * Requests sent at a fixed rate, or replayed, are timed from when they were meant to be sent rather than from when
+ * they were, so that a stalled service can't hide its stall by delaying the requests that would have measured it.
+ * Once done, the latency percentiles of every operation are printed along with the number of requests the stub got,
+ * and compared against a baseline if one is given; the process then exits with 1 if there are regressions, so that
+ * it can be run by CI.
+ */
+public final class
+LoadGenerator
+{
+    /** Exit code of a run whose results regressed from the baseline. */
+    private static final int EXIT_REGRESSION= 1;
+    /** Stack size of the platform threads of a burst, which only ever copy a blob into a buffer. */
+    private static final long BURST_STACK_BYTES= 256 * 1024;
+
+    private final LoadTarget target;
+    private final LatencyReport report= new LatencyReport();
+    /** Contents of the uploads, per size, which are the same for all uploads of a size so that no time is spent
+     *  building them. */
+    private final Map<Integer, byte[]> uploadContents= new ConcurrentHashMap<>();
+
+    private
+    LoadGenerator(LoadTarget target)
+    {
+        this.target= target;
+    }
+
+    /**
+     * Gives the contents of an upload.
+     *
+     * @param bytes The size of the upload in bytes.
+     * @return The contents.
+     */
+    private byte[]
+    uploadContents(int bytes)
+    {
+        return uploadContents.computeIfAbsent(bytes, size ->
+        {
+            byte[] contents= new byte[size];
+            new Random(size).nextBytes(contents);
+            return contents;
+        });
+    }
+
+    /**
+     * Runs the load test described by the {@link LoadTestSettings}.
+     *
+     * @param args Unused, the load test is configured through system properties.
+     * @throws Exception Thrown when the load test can't be run.
+     */
+    public static void
+    main(String[] args)
+    throws Exception
+    {
+        AzureBlobStub stub= new AzureBlobStub(StubConditions.fromSettings());
+        String endpoint= stub.start(LoadTestSettings.STUB_PORT);
+
+        LoadTarget target;
+        if(LoadTestSettings.TARGET.equals("direct"))
+        {
+        // Must be set before LinkCloud's settings are first read
+            System.setProperty("linkcloud.azureblob.endpoint", endpoint);
+            target= new DirectTarget(new AzureStorageObject(), LoadTestSettings.ACCOUNT, LoadTestSettings.ACCOUNT_KEY);
+        }
+        else
+        {
+            System.out.println("Azure Blob stub listening, run LinkCloud with -Dlinkcloud.azureblob.endpoint=" +
+                               endpoint);
+            target= new ServiceTarget(LoadTestSettings.TARGET, LoadTestSettings.PROVIDER, LoadTestSettings.ACCOUNT,
+                                      LoadTestSettings.ACCOUNT_KEY);
+        }
+
+        int exitCode;
+        try
+        {
+            exitCode= new LoadGenerator(target).run(stub);
+        }
+        finally
+        {
+            stub.stop();
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * Runs the load test and reports its results.
+     *
+     * @param stub The stub the load ends up in.
+     * @return The exit code of the process.
+     * @throws Exception Thrown when the load test can't be run.
+     */
+    private int
+    run(AzureBlobStub stub)
+    throws Exception
+    {
+        target.createContainer(LoadTestSettings.CONTAINER);
+
+        double elapsedSeconds;
+        if(LoadTestSettings.TRACE_REPLAY!= null)
+        {
+            elapsedSeconds= replay(Trace.read(Paths.get(LoadTestSettings.TRACE_REPLAY)));
+        }
+        else if(LoadTestSettings.BURST> 0)
+        {
+            elapsedSeconds= runBurst();
+        }
+        else
+        {
+            elapsedSeconds= runMixed();
+        }
+
+        report.print(System.out, elapsedSeconds);
+        System.out.println();
+        System.out.println("Azure requests:");
+        for(Map.Entry<String, Long> count : stub.requestCounts().entrySet())
+        {
+            System.out.printf("  %-24s %d%n", count.getKey(), count.getValue());
+        }
+
+        if(LoadTestSettings.REPORT!= null)        {report.writeBaseline(Paths.get(LoadTestSettings.REPORT));}
+        if(LoadTestSettings.HISTOGRAM_DIR!= null) {report.writeHistograms(Paths.get(LoadTestSettings.HISTOGRAM_DIR));}
+        if(LoadTestSettings.BASELINE== null)      {return 0;}
+
+        Properties baseline= new Properties();
+        try(InputStream input= Files.newInputStream(Paths.get(LoadTestSettings.BASELINE)))
+        {
+            baseline.load(input);
+        }
+        List<String> regressions= report.compare(baseline, LoadTestSettings.TOLERANCE);
+        for(String regression : regressions) {System.out.println("REGRESSION: " + regression);}
+
+        return regressions.isEmpty()? 0: EXIT_REGRESSION;
+    }
+
+    /**
+     * Sends a request.
+     *
+     * @param operation The operation of the request.
+     * @param container The container of the request.
+     * @param blob The blob of the request, if the operation has one.
+     * @param bytes The size of the upload in bytes, if the operation is one.
+     * @param intendedStart When the request was meant to be sent, as given by {@link System#nanoTime}.
+     * @param measured Whether or not the request is recorded into the report.
+     */
+    private void
+    send(Operation operation, String container, String blob, int bytes, long intendedStart, boolean measured)
+    {
+        boolean failed= false;
+        try
+        {
+            switch(operation)
+            {
+                case GET:  target.get(container, blob); break;
+                case HEAD: target.head(container, blob); break;
+                case POST: target.post(container, blob, uploadContents(bytes)); break;
+                case LIST: target.list(container); break;
+            }
+        }
+        catch(IOException | RuntimeException requestError)
+        {
+            failed= true;
+        }
+
+        if(measured) {report.record(operation, System.nanoTime() - intendedStart, failed);}
+    }
+
+    private static void
+    sleepUntil(long nanoTime)
+    throws InterruptedException
+    {
+        long remaining= nanoTime - System.nanoTime();
+        if(remaining> 0) {TimeUnit.NANOSECONDS.sleep(remaining);}
+    }
+
+    private static ExecutorService
+    newSenders()
+    {
+        final AtomicInteger threadCounter= new AtomicInteger();
+        return Executors.newFixedThreadPool(LoadTestSettings.THREADS, task ->
+        {
+            Thread thread= new Thread(task, "loadtest-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static void
+    awaitAll(List<Future<?>> tasks)
+    throws Exception
+    {
+        for(Future<?> task : tasks) {task.get();}
+    }
+
+/*----------------------
+* --- MIXED WORKLOAD ---
+* ----------------------*/
+
+    /**
+     * Parses the weights of the operations of the mixed workload.
+     *
+     * @param mix The weights, e.g. {@code GET:60,HEAD:20,POST:15,LIST:5}.
+     * @return The operations, each repeated as many times as its weight.
+     */
+    private static Operation[]
+    parseMix(String mix)
+    {
+        List<Operation> weighted= new ArrayList<>();
+        for(String weight : mix.split(","))
+        {
+            String[] parts= weight.trim().split(":");
+            Operation operation= Operation.valueOf(parts[0].trim());
+            for(int i= Integer.parseInt(parts[1].trim()); i> 0; i--) {weighted.add(operation);}
+        }
+        if(weighted.isEmpty()) {throw new IllegalArgumentException("Empty mix " + mix);}
+
+        return weighted.toArray(new Operation[0]);
+    }
+
+    private static String
+    blobName(int index)
+    {
+        return String.format("blob-%06d", index);
+    }
+
+    /**
+     * Uploads the blobs the mixed workload and the burst work on, in parallel and without measuring them.
+     *
+     * @param senders The threads that upload the blobs.
+     * @param container The container of the blobs.
+     * @throws Exception Thrown when the blobs can't be uploaded.
+     */
+    private void
+    uploadBlobs(ExecutorService senders, String container)
+    throws Exception
+    {
+        final AtomicInteger nextBlob= new AtomicInteger();
+        List<Future<?>> uploads= new ArrayList<>();
+        for(int thread= 0; thread< LoadTestSettings.THREADS; thread++)
+        {
+            uploads.add(senders.submit(() ->
+            {
+                for(int index= nextBlob.getAndIncrement(); index< LoadTestSettings.BLOBS;
+                    index= nextBlob.getAndIncrement())
+                {
+                    target.post(container, blobName(index), uploadContents(LoadTestSettings.BLOB_BYTES));
+                }
+                return null;
+            }));
+        }
+        awaitAll(uploads);
+    }
+
+    /**
+     * Uploads the blobs of the mixed workload, and then runs it for its warm up and its duration.
+     *
+     * @return How long the measured part of the workload ran, in seconds.
+     * @throws Exception Thrown when the blobs can't be uploaded, or the workload can't be run.
+     */
+    private double
+    runMixed()
+    throws Exception
+    {
+        final Operation[] mix= parseMix(LoadTestSettings.MIX);
+        final String container= LoadTestSettings.CONTAINER;
+        ExecutorService senders= newSenders();
+
+        try(Trace.Recorder recorder= LoadTestSettings.TRACE_RECORD== null? null:
+                                     new Trace.Recorder(Paths.get(LoadTestSettings.TRACE_RECORD)))
+        {
+            uploadBlobs(senders, container);
+
+            final long start= System.nanoTime();
+            final long measureFrom= start + TimeUnit.SECONDS.toNanos(LoadTestSettings.WARMUP_SECONDS);
+            final long end= measureFrom + TimeUnit.SECONDS.toNanos(LoadTestSettings.DURATION_SECONDS);
+            final long interval= LoadTestSettings.RATE> 0?
+                                 (long) (TimeUnit.SECONDS.toNanos(LoadTestSettings.THREADS) / LoadTestSettings.RATE):
+                                 0;
+
+            List<Future<?>> workers= new ArrayList<>();
+            for(int thread= 0; thread< LoadTestSettings.THREADS; thread++)
+            {
+            // Threads at a fixed rate are spread over the interval, so they don't all send at once
+                final long firstStart= start + interval * thread / LoadTestSettings.THREADS;
+                workers.add(senders.submit(() ->
+                {
+                    ThreadLocalRandom random= ThreadLocalRandom.current();
+                    long intendedStart= firstStart;
+                    while(true)
+                    {
+                        if(interval> 0) {sleepUntil(intendedStart);}
+                        else            {intendedStart= System.nanoTime();}
+                        if(intendedStart>= end) {return null;}
+
+                        Operation operation= mix[random.nextInt(mix.length)];
+                        String blob= blobName(random.nextInt(LoadTestSettings.BLOBS));
+                        if(recorder!= null)
+                        {
+                            recorder.record(new Trace.Entry(TimeUnit.NANOSECONDS.toMillis(intendedStart - start),
+                                                            operation, container, blob,
+                                                            operation== Operation.LIST? 0:
+                                                                                        LoadTestSettings.BLOB_BYTES));
+                        }
+
+                        send(operation, container, blob, LoadTestSettings.BLOB_BYTES, intendedStart,
+                             intendedStart>= measureFrom);
+                        intendedStart+= interval;
+                    }
+                }));
+            }
+            awaitAll(workers);
+
+            return (end - measureFrom) / 1e9;
+        }
+        finally
+        {
+            senders.shutdownNow();
+        }
+    }
+
+/*-------------
+* --- BURST ---
+* -------------*/
+
+    /**
+     * Uploads the blobs of the burst, and then sends {@code LoadTestSettings.BURST} downloads of them all at once. Each
+     * download, i.e., opening the blob and reading it whole, is a task of the {@link StorageExecutor}, just like the
+     * service runs them, so that running the burst with {@code -Dlinkcloud.virtualThreads=true} and then with
+     * {@code -Dlinkcloud.workerThreads=N} compares both execution modes. When the executor runs its tasks on the calling
+     * thread, each download gets a platform thread of its own instead. Downloads are timed from the start of the
+     * burst, so the time they spend waiting for a thread is measured too.
+     *
+     * @return How long the burst took, in seconds.
+     * @throws Exception Thrown when the blobs can't be uploaded, or the burst can't be sent.
+     */
+    private double
+    runBurst()
+    throws Exception
+    {
+        final String container= LoadTestSettings.CONTAINER;
+        ExecutorService senders= newSenders();
+        try
+        {
+            uploadBlobs(senders, container);
+        }
+        finally
+        {
+            senders.shutdownNow();
+        }
+
+        ThreadMXBean threads= ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        final long start= System.nanoTime();
+
+        List<CompletableFuture<Void>> downloads= new ArrayList<>(LoadTestSettings.BURST);
+        for(int index= 0; index< LoadTestSettings.BURST; index++)
+        {
+            final String blob= blobName(index % LoadTestSettings.BLOBS);
+            Runnable download= () -> send(Operation.GET, container, blob, 0, start, true);
+
+            if(!StorageExecutor.runsOnCallingThread())
+            {
+                downloads.add(StorageExecutor.run(download));
+                continue;
+            }
+
+            final CompletableFuture<Void> done= new CompletableFuture<>();
+            Thread thread= new Thread(null, () ->
+            {
+                try
+                {
+                    download.run();
+                }
+                finally
+                {
+                    done.complete(null);
+                }
+            }, "loadtest-burst-" + index, BURST_STACK_BYTES);
+            thread.setDaemon(true);
+            thread.start();
+            downloads.add(done);
+        }
+        CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0])).join();
+
+        double elapsedSeconds= (System.nanoTime() - start) / 1e9;
+        System.out.printf("Burst of %d downloads on %s, with at most %d live platform threads%n%n",
+                          LoadTestSettings.BURST,
+                          StorageExecutor.runsOnCallingThread()? "a platform thread each": StorageExecutor.describe(),
+                          threads.getPeakThreadCount());
+        return elapsedSeconds;
+    }
+
+/*--------------------
+* --- TRACE REPLAY ---
+* --------------------*/
+
+    /**
+     * Replays a trace, after uploading the blobs it reads before writing them. Requests are sent at their offsets,
+     * scaled by {@code LoadTestSettings.TRACE_SPEED}; those in the first {@code LoadTestSettings.WARMUP_SECONDS} of
+     * the trace aren't measured.
+     *
+     * @param entries The requests of the trace.
+     * @return How long the measured part of the trace ran, in seconds.
+     * @throws Exception Thrown when the blobs can't be uploaded, or the trace can't be replayed.
+     */
+    private double
+    replay(final List<Trace.Entry> entries)
+    throws Exception
+    {
+        if(entries.isEmpty()) {throw new IllegalArgumentException("Empty trace");}
+
+    // Blobs that are read before being written must exist beforehand, with their recorded size
+        Set<String> seen= new HashSet<>();
+        Set<String> containers= new HashSet<>();
+        for(Trace.Entry entry : entries)
+        {
+            if(containers.add(entry.container)) {target.createContainer(entry.container);}
+            if(entry.operation== Operation.LIST || !seen.add(entry.container + "/" + entry.blob)) {continue;}
+            if(entry.operation!= Operation.POST)
+            {
+                target.post(entry.container, entry.blob, uploadContents(entry.bytes));
+            }
+        }
+
+        final long start= System.nanoTime();
+        final long warmupMillis= TimeUnit.SECONDS.toMillis(LoadTestSettings.WARMUP_SECONDS);
+        final AtomicInteger nextEntry= new AtomicInteger();
+        ExecutorService senders= newSenders();
+        try
+        {
+            List<Future<?>> workers= new ArrayList<>();
+            for(int thread= 0; thread< LoadTestSettings.THREADS; thread++)
+            {
+                workers.add(senders.submit(() ->
+                {
+                    for(int index= nextEntry.getAndIncrement(); index< entries.size();
+                        index= nextEntry.getAndIncrement())
+                    {
+                        Trace.Entry entry= entries.get(index);
+                        long intendedStart= start + (long) (TimeUnit.MILLISECONDS.toNanos(entry.offsetMillis) /
+                                                            LoadTestSettings.TRACE_SPEED);
+                        sleepUntil(intendedStart);
+
+                        send(entry.operation, entry.container, entry.blob, entry.bytes, intendedStart,
+                             entry.offsetMillis>= warmupMillis);
+                    }
+                    return null;
+                }));
+            }
+            awaitAll(workers);
+        }
+        finally
+        {
+            senders.shutdownNow();
+        }
+
+        long lastOffset= entries.get(entries.size() - 1).offsetMillis;
+        return Math.max(lastOffset - warmupMillis, 1) / 1000.0 / LoadTestSettings.TRACE_SPEED;
+    }
+}
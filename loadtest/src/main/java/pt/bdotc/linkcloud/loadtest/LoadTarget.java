@@ -0,0 +1,67 @@
+package pt.bdotc.linkcloud.loadtest;
+
+import java.io.IOException;
+
+/**
+ * Where a load test sends its requests: a LinkCloud service, or the StorageObject classes themselves. Every method
+ * fails with an {@link IOException} when its request fails, whatever the reason.
+ */
+public interface
+LoadTarget
+{
+    /**
+     * Creates a container, unless it already exists.
+     *
+     * @param container The name of the container.
+     * @throws IOException Thrown when the request fails.
+     */
+    void
+    createContainer(String container)
+    throws IOException;
+
+    /**
+     * Downloads a blob, reading its contents whole.
+     *
+     * @param container The name of the container.
+     * @param blob The name of the blob.
+     * @return The number of bytes read.
+     * @throws IOException Thrown when the request fails.
+     */
+    long
+    get(String container, String blob)
+    throws IOException;
+
+    /**
+     * Tests the existence of a blob.
+     *
+     * @param container The name of the container.
+     * @param blob The name of the blob.
+     * @return The size of the blob in bytes.
+     * @throws IOException Thrown when the request fails, or the blob doesn't exist.
+     */
+    long
+    head(String container, String blob)
+    throws IOException;
+
+    /**
+     * Uploads a blob, overwriting it if it exists.
+     *
+     * @param container The name of the container.
+     * @param blob The name of the blob.
+     * @param contents The contents of the blob.
+     * @throws IOException Thrown when the request fails.
+     */
+    void
+    post(String container, String blob, byte[] contents)
+    throws IOException;
+
+    /**
+     * Lists the blobs of a container, reading the listing whole.
+     *
+     * @param container The name of the container.
+     * @throws IOException Thrown when the request fails.
+     */
+    void
+    list(String container)
+    throws IOException;
+}
@@ -0,0 +1,89 @@
+package pt.bdotc.linkcloud.loadtest;
+
+/**
+ * The settings of the load test, read once from the JVM's system properties, e.g.
+ * {@code -Dloadtest.threads=32}. See the README for what each of them does.
+ */
+public final class
+LoadTestSettings
+{
+    /** Where the load is sent: {@code direct} to call the StorageObject classes in this JVM, or the base URI of a
+     *  running LinkCloud service, e.g. {@code http://localhost:8080/LinkCloud/api}. */
+    public static final String TARGET= System.getProperty("loadtest.target", "direct");
+
+    /** The CSP the service is asked to use. */
+    public static final String PROVIDER= System.getProperty("loadtest.provider", "azureblob");
+
+    /** The account name and key of the load test, which the stub accepts whatever they are. */
+    public static final String ACCOUNT= System.getProperty("loadtest.account", "loadtest");
+    public static final String ACCOUNT_KEY= System.getProperty("loadtest.accountKey", "bG9hZHRlc3Q=");
+
+    /** The container the load test works on. */
+    public static final String CONTAINER= System.getProperty("loadtest.container", "loadtest");
+
+    /** Number of threads sending requests. */
+    public static final int THREADS= Integer.getInteger("loadtest.threads", 16);
+
+    /** Length of the mixed workload, in seconds, after its warm up. */
+    public static final int DURATION_SECONDS= Integer.getInteger("loadtest.durationSeconds", 60);
+
+    /** Length of the warm up, in seconds, whose requests are left out of the report. */
+    public static final int WARMUP_SECONDS= Integer.getInteger("loadtest.warmupSeconds", 10);
+
+    /** Requests per second sent by all threads together; 0 or less sends them as fast as they're answered. */
+    public static final double RATE= Double.parseDouble(System.getProperty("loadtest.rate", "0"));
+
+    /** Weights of the operations of the mixed workload. */
+    public static final String MIX= System.getProperty("loadtest.mix", "GET:60,HEAD:20,POST:15,LIST:5");
+
+    /** Number of blobs the mixed workload works on, which are uploaded before it starts. */
+    public static final int BLOBS= Integer.getInteger("loadtest.blobs", 1000);
+
+    /** Size in bytes of the blobs uploaded by the mixed workload. */
+    public static final int BLOB_BYTES= Integer.getInteger("loadtest.blobBytes", 64 * 1024);
+
+    /** Number of downloads sent all at once instead of the mixed workload, e.g. 10000; 0 or less runs the mixed
+     *  workload. */
+    public static final int BURST= Integer.getInteger("loadtest.burst", 0);
+
+    /** File into which the requests of the mixed workload are recorded, if set. */
+    public static final String TRACE_RECORD= System.getProperty("loadtest.trace.record");
+
+    /** File of recorded requests that's replayed instead of running the mixed workload, if set. */
+    public static final String TRACE_REPLAY= System.getProperty("loadtest.trace.replay");
+
+    /** Speed at which a trace is replayed, e.g. 2 for twice as fast as it was recorded. */
+    public static final double TRACE_SPEED= Double.parseDouble(System.getProperty("loadtest.trace.speed", "1"));
+
+    /** File into which the results are written, in the format of a baseline, if set. */
+    public static final String REPORT= System.getProperty("loadtest.report");
+
+    /** Directory into which the full percentile distribution of every operation is written, if set. */
+    public static final String HISTOGRAM_DIR= System.getProperty("loadtest.histogramDir");
+
+    /** Results of a previous run that this one is compared against, if set. */
+    public static final String BASELINE= System.getProperty("loadtest.baseline");
+
+    /** How much worse than the baseline a percentile or error rate may get, e.g. 0.2 for 20%. */
+    public static final double TOLERANCE= Double.parseDouble(System.getProperty("loadtest.tolerance", "0.2"));
+
+    /** Port of the Azure Blob stub; 0 picks a free one, which only works when targeting {@code direct}. */
+    public static final int STUB_PORT= Integer.getInteger("loadtest.stub.port", 10000);
+
+    /** Time the stub takes before answering each request, in milliseconds, plus a random jitter of up to
+     *  {@link #STUB_JITTER_MILLIS}. */
+    public static final int STUB_LATENCY_MILLIS= Integer.getInteger("loadtest.stub.latencyMillis", 20);
+    public static final int STUB_JITTER_MILLIS= Integer.getInteger("loadtest.stub.jitterMillis", 10);
+
+    /** Bytes per second at which the stub reads and writes the contents of each request; 0 or less is unlimited. */
+    public static final long STUB_BANDWIDTH= Long.getLong("loadtest.stub.bandwidthBytesPerSecond", 0);
+
+    /** Fraction of the requests the stub fails on purpose, from 0 to 1. */
+    public static final double STUB_FAULT_RATE= Double.parseDouble(System.getProperty("loadtest.stub.faultRate", "0"));
+
+    /** HTTP code of the requests the stub fails on purpose: 503 (server busy, retried by the SDK) or 500. */
+    public static final int STUB_FAULT_STATUS= Integer.getInteger("loadtest.stub.faultStatus", 503);
+
+    private
+    LoadTestSettings() {}
+}
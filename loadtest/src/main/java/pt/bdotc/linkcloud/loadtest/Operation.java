@@ -0,0 +1,17 @@
+package pt.bdotc.linkcloud.loadtest;
+
+/**
+ * The operations a load test sends to its {@link LoadTarget}.
+ */
+public enum
+Operation
+{
+    /** Download of a blob. */
+    GET,
+    /** Existence and size of a blob. */
+    HEAD,
+    /** Upload of a blob, overwriting it. */
+    POST,
+    /** Listing of the blobs of the container. */
+    LIST
+}
@@ -0,0 +1,176 @@
+package pt.bdotc.linkcloud.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Sends the load to a running LinkCloud service through its REST interface, the way its clients do. The service has
+ * to be configured with the endpoint of the load test's {@link AzureBlobStub} for the CSP's requests to reach it.
+ */
+public class
+ServiceTarget
+implements LoadTarget
+{
+    /** Size in bytes of the buffer into which responses are read and dropped. */
+    private static final int DRAIN_BUFFER_BYTES= 64 * 1024;
+    private static final ThreadLocal<byte[]> drainBuffers= ThreadLocal.withInitial(() -> new byte[DRAIN_BUFFER_BYTES]);
+
+    private final String providerUri;
+    private final String authorization;
+
+    /**
+     * Prepares the target.
+     *
+     * @param serviceUri The base URI of the service's REST interface, e.g. {@code http://localhost:8080/LinkCloud/api}.
+     * @param provider The CSP the service is asked to use.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     */
+    public
+    ServiceTarget(String serviceUri, String provider, String username, String password)
+    {
+        this.providerUri= (serviceUri.endsWith("/")? serviceUri: serviceUri + "/") + provider + "/";
+        this.authorization= "Basic " + Base64.getEncoder()
+                                             .encodeToString((username + ":" + password)
+                                                             .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a stream to its end, dropping its contents.
+     *
+     * @param contents The stream.
+     * @return The number of bytes read.
+     * @throws IOException Thrown when the stream fails.
+     */
+    static long
+    drain(InputStream contents)
+    throws IOException
+    {
+        byte[] buffer= drainBuffers.get();
+        long total= 0;
+        int read;
+        while((read= contents.read(buffer))!= -1) {total+= read;}
+
+        return total;
+    }
+
+    private HttpURLConnection
+    open(String method, String path)
+    throws IOException
+    {
+        HttpURLConnection connection= (HttpURLConnection) new URL(providerUri + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Authorization", authorization);
+        return connection;
+    }
+
+    /**
+     * Waits for the response of a request, failing if it isn't a success.
+     *
+     * @param connection The request.
+     * @return The HTTP code of the response.
+     * @throws IOException Thrown when the response isn't a success.
+     */
+    private static int
+    check(HttpURLConnection connection)
+    throws IOException
+    {
+        int status= connection.getResponseCode();
+        if(status>= 400)
+        {
+            InputStream error= connection.getErrorStream();
+            if(error!= null) {try(InputStream body= error) {drain(body);}}
+            throw new IOException("HTTP " + status);
+        }
+
+        return status;
+    }
+
+    private static String
+    encode(String segment)
+    {
+        try
+        {
+            return URLEncoder.encode(segment, "UTF-8").replace("+", "%20");
+        }
+        catch(UnsupportedEncodingException e)
+        {
+        // Should never happen
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void
+    createContainer(String container)
+    throws IOException
+    {
+        HttpURLConnection connection= open("POST", encode(container));
+        connection.setFixedLengthStreamingMode(0);
+        connection.setDoOutput(true);
+        connection.getOutputStream().close();
+        check(connection);
+    }
+
+    @Override
+    public long
+    get(String container, String blob)
+    throws IOException
+    {
+        HttpURLConnection connection= open("GET", encode(container) + "/" + encode(blob));
+        check(connection);
+        try(InputStream contents= connection.getInputStream())
+        {
+            return drain(contents);
+        }
+    }
+
+    @Override
+    public long
+    head(String container, String blob)
+    throws IOException
+    {
+        HttpURLConnection connection= open("HEAD", encode(container) + "/" + encode(blob));
+        check(connection);
+
+        String size= connection.getHeaderField("LinkCloud-Blob-Size");
+        return size== null? -1: Long.parseLong(size);
+    }
+
+    @Override
+    public void
+    post(String container, String blob, byte[] contents)
+    throws IOException
+    {
+        HttpURLConnection connection= open("POST", encode(container) + "/" + encode(blob));
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+        connection.setFixedLengthStreamingMode(contents.length);
+        connection.setDoOutput(true);
+        try(OutputStream body= connection.getOutputStream())
+        {
+            body.write(contents);
+        }
+        check(connection);
+        try(InputStream response= connection.getInputStream()) {drain(response);}
+    }
+
+    @Override
+    public void
+    list(String container)
+    throws IOException
+    {
+        HttpURLConnection connection= open("GET", encode(container));
+        check(connection);
+        try(InputStream listing= connection.getInputStream())
+        {
+            drain(listing);
+        }
+    }
+}
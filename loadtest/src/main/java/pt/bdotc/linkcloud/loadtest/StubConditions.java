@@ -0,0 +1,159 @@
+package pt.bdotc.linkcloud.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The network conditions the {@link AzureBlobStub} simulates: a latency before each answer, a bandwidth at which
+ * contents are read and written, and a fraction of requests that fail on purpose.
+ */
+public class
+StubConditions
+{
+    /** Size in bytes of the chunks in which contents are read and written. */
+    private static final int CHUNK_BYTES= 64 * 1024;
+
+    private final int latencyMillis;
+    private final int jitterMillis;
+    private final long bandwidth;
+    private final double faultRate;
+    private final int faultStatus;
+
+    /**
+     * Describes the conditions of the stub.
+     *
+     * @param latencyMillis Time taken before answering each request, in milliseconds.
+     * @param jitterMillis Maximum random time added to the latency, in milliseconds.
+     * @param bandwidth Bytes per second at which contents are read and written; 0 or less is unlimited.
+     * @param faultRate Fraction of the requests that fail on purpose, from 0 to 1.
+     * @param faultStatus HTTP code of the requests that fail on purpose.
+     */
+    public
+    StubConditions(int latencyMillis, int jitterMillis, long bandwidth, double faultRate, int faultStatus)
+    {
+        this.latencyMillis= latencyMillis;
+        this.jitterMillis= jitterMillis;
+        this.bandwidth= bandwidth;
+        this.faultRate= faultRate;
+        this.faultStatus= faultStatus;
+    }
+
+    /**
+     * Reads the conditions from the {@link LoadTestSettings}.
+     *
+     * @return The conditions.
+     */
+    public static StubConditions
+    fromSettings()
+    {
+        return new StubConditions(LoadTestSettings.STUB_LATENCY_MILLIS, LoadTestSettings.STUB_JITTER_MILLIS,
+                                  LoadTestSettings.STUB_BANDWIDTH, LoadTestSettings.STUB_FAULT_RATE,
+                                  LoadTestSettings.STUB_FAULT_STATUS);
+    }
+
+    /**
+     * Waits out the latency of a request.
+     *
+     * @throws InterruptedException Thrown when the stub is stopped meanwhile.
+     */
+    void
+    delay()
+    throws InterruptedException
+    {
+        int jitter= jitterMillis> 0? ThreadLocalRandom.current().nextInt(jitterMillis + 1): 0;
+        if(latencyMillis + jitter> 0) {Thread.sleep(latencyMillis + jitter);}
+    }
+
+    /**
+     * Decides whether or not a request fails on purpose.
+     *
+     * @return The HTTP code to fail the request with, or 0 if it doesn't fail.
+     */
+    int
+    fault()
+    {
+        return faultRate> 0 && ThreadLocalRandom.current().nextDouble()< faultRate? faultStatus: 0;
+    }
+
+    /**
+     * Reads contents at the stub's bandwidth.
+     *
+     * @param input The stream to read from.
+     * @param length The number of bytes to read.
+     * @return The contents.
+     * @throws IOException Thrown when the stream ends early or fails.
+     */
+    byte[]
+    read(InputStream input, int length)
+    throws IOException
+    {
+        byte[] contents= new byte[length];
+        long start= System.nanoTime();
+        int position= 0;
+        while(position< length)
+        {
+            int read= input.read(contents, position, Math.min(CHUNK_BYTES, length - position));
+            if(read== -1) {throw new IOException("Request body is shorter than its Content-Length");}
+
+            position+= read;
+            throttle(start, position);
+        }
+
+        return contents;
+    }
+
+    /**
+     * Writes contents at the stub's bandwidth.
+     *
+     * @param output The stream to write into.
+     * @param contents The array that holds the contents.
+     * @param offset The position of the contents in the array.
+     * @param length The number of bytes to write.
+     * @throws IOException Thrown when the stream fails.
+     */
+    void
+    write(OutputStream output, byte[] contents, int offset, int length)
+    throws IOException
+    {
+        long start= System.nanoTime();
+        int written= 0;
+        while(written< length)
+        {
+            int chunk= Math.min(CHUNK_BYTES, length - written);
+            output.write(contents, offset + written, chunk);
+
+            written+= chunk;
+            throttle(start, written);
+        }
+    }
+
+    /**
+     * Sleeps for as long as it takes the bytes transferred so far to fit into the bandwidth.
+     *
+     * @param start When the transfer started, as given by {@link System#nanoTime}.
+     * @param transferred The number of bytes transferred so far.
+     * @throws IOException Thrown when the stub is stopped meanwhile.
+     */
+    private void
+    throttle(long start, long transferred)
+    throws IOException
+    {
+        if(bandwidth<= 0) {return;}
+
+        long ahead= transferred * TimeUnit.SECONDS.toNanos(1) / bandwidth - (System.nanoTime() - start);
+        if(ahead<= 0) {return;}
+
+        try
+        {
+            TimeUnit.NANOSECONDS.sleep(ahead);
+        }
+        catch(InterruptedException interrupted)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while throttling", interrupted);
+        }
+    }
+}
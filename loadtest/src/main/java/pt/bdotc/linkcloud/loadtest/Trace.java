@@ -0,0 +1,133 @@
+package pt.bdotc.linkcloud.loadtest;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A recorded sequence of requests, which can be replayed at the times they were first sent. Traces are text files with
+ * one request per line, made of tab separated fields:
+ *
+ * <pre>
+ * {@code
+ *
+ * # offsetMillis  operation  container  blob        bytes
+ * 0               POST       loadtest   blob-000012 65536
+ * 3               GET        loadtest   blob-000731 65536
+ * }
+ * </pre>
+ *
+ * The offset is the time since the start of the trace, and the bytes are the size of the upload, or of the blob that's
+ * read. Lines that start with {@code #} are comments.
+ */
+public final class
+Trace
+{
+    /** A request of a trace. */
+    public static final class
+    Entry
+    {
+        public final long offsetMillis;
+        public final Operation operation;
+        public final String container;
+        public final String blob;
+        public final int bytes;
+
+        public
+        Entry(long offsetMillis, Operation operation, String container, String blob, int bytes)
+        {
+            this.offsetMillis= offsetMillis;
+            this.operation= operation;
+            this.container= container;
+            this.blob= blob;
+            this.bytes= bytes;
+        }
+    }
+
+    /** Writes the requests of a running load test into a trace, in the order they're recorded. */
+    public static final class
+    Recorder
+    implements Closeable
+    {
+        private final BufferedWriter writer;
+
+        /**
+         * Creates a trace file, overwriting it if it exists.
+         *
+         * @param file The trace file.
+         * @throws IOException Thrown when the file can't be created.
+         */
+        public
+        Recorder(Path file)
+        throws IOException
+        {
+            writer= Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            writer.write("# offsetMillis\toperation\tcontainer\tblob\tbytes\n");
+        }
+
+        /**
+         * Records a request.
+         *
+         * @param entry The request.
+         * @throws IOException Thrown when the file can't be written.
+         */
+        public synchronized void
+        record(Entry entry)
+        throws IOException
+        {
+            writer.write(entry.offsetMillis + "\t" + entry.operation + "\t" + entry.container + "\t" + entry.blob +
+                         "\t" + entry.bytes + "\n");
+        }
+
+        @Override
+        public synchronized void
+        close()
+        throws IOException
+        {
+            writer.close();
+        }
+    }
+
+    private
+    Trace() {}
+
+    /**
+     * Reads a trace, sorting its requests by offset.
+     *
+     * @param file The trace file.
+     * @return The requests of the trace.
+     * @throws IOException Thrown when the file can't be read, or a line isn't a valid request.
+     */
+    public static List<Entry>
+    read(Path file)
+    throws IOException
+    {
+        List<Entry> entries= new ArrayList<>();
+        int lineNumber= 0;
+        for(String line : Files.readAllLines(file, StandardCharsets.UTF_8))
+        {
+            lineNumber++;
+            if(line.isEmpty() || line.startsWith("#")) {continue;}
+
+            String[] fields= line.split("\t");
+            try
+            {
+                entries.add(new Entry(Long.parseLong(fields[0]), Operation.valueOf(fields[1]), fields[2], fields[3],
+                                      Integer.parseInt(fields[4])));
+            }
+            catch(IllegalArgumentException | ArrayIndexOutOfBoundsException badLine)
+            {
+                throw new IOException("Invalid request at line " + lineNumber + " of " + file, badLine);
+            }
+        }
+
+        entries.sort(Comparator.comparingLong(entry -> entry.offsetMillis));
+        return entries;
+    }
+}
@@ -1,5 +1,7 @@
 package pt.bdotc.linkcloud;
 
+import pt.bdotc.linkcloud.resources.CredentialsFilter;
+import pt.bdotc.linkcloud.resources.MetricsResource;
 import pt.bdotc.linkcloud.resources.RequestResource;
 
 import javax.ws.rs.ApplicationPath;
@@ -18,6 +20,8 @@ public class CloudWebApp extends Application
     {
         Set<Class<?>> classes = new java.util.HashSet<>();
         classes.add(RequestResource.class);
+        classes.add(MetricsResource.class);
+        classes.add(CredentialsFilter.class);
 
         return classes;
     }
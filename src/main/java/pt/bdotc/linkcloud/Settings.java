@@ -0,0 +1,180 @@
+package pt.bdotc.linkcloud;
+
+/**
+ * Holds the tunable settings of the application. Every setting is read once, at class initialization, from a JVM
+ * system property (e.g., {@code -Dlinkcloud.virtualThreads=true} in the application server's JVM options), falling
+ * back to a default value when the property isn't set.
+ */
+public final class
+Settings
+{
+    /** Whether or not the blocking {@link pt.bdotc.linkcloud.objects.StorageObject StorageObject} calls of each request
+     *  should run on virtual threads. Only has an effect on JDKs that do support virtual threads (21 and above). */
+    public static final boolean VIRTUAL_THREADS= Boolean.getBoolean("linkcloud.virtualThreads");
+
+    /** Number of platform threads used to run blocking {@link pt.bdotc.linkcloud.objects.StorageObject StorageObject}
+     *  calls when virtual threads aren't in use. A value of 0 runs these calls on the application server's own request
+     *  threads, which is the default. */
+    public static final int WORKER_THREADS= Integer.getInteger("linkcloud.workerThreads", 0);
+
+    /** Whether or not a local index of the blobs' metadata is kept for every container that's queried by prefix or
+     *  by size. See {@link pt.bdotc.linkcloud.index.BlobIndex}. */
+    public static final boolean BLOB_INDEX= Boolean.getBoolean("linkcloud.index");
+
+    /** Number of seconds between two background reconciliations of a container's index with its CSP. */
+    public static final int BLOB_INDEX_RECONCILE_SECONDS= Integer.getInteger("linkcloud.index.reconcileSeconds", 300);
+
+    /** Maximum number of containers that are indexed at once. The least recently queried index is dropped to make room
+     *  for a new one. */
+    public static final int BLOB_INDEX_MAX_CONTAINERS= Integer.getInteger("linkcloud.index.maxContainers", 1000);
+
+    /** Maximum number of blobs that are indexed at once, in all containers. The least recently queried indexes are
+     *  dropped to make room for a new one, and a container with more blobs than this isn't indexed. */
+    public static final long BLOB_INDEX_MAX_ENTRIES= Long.getLong("linkcloud.index.maxEntries", 1000000);
+
+    /** Number of seconds after which the index of a container that isn't queried anymore is dropped. */
+    public static final int BLOB_INDEX_IDLE_SECONDS= Integer.getInteger("linkcloud.index.idleSeconds", 3600);
+
+    /** Number of blobs that are prefetched in parallel while a ZIP archive is being streamed. */
+    public static final int ARCHIVE_PREFETCH_BLOBS= Integer.getInteger("linkcloud.archive.prefetchBlobs", 4);
+
+    /** Number of bytes of each prefetched blob that are read into memory ahead of time. Together with
+     *  {@link #ARCHIVE_PREFETCH_BLOBS}, it bounds the memory used by each archive being streamed. */
+    public static final int ARCHIVE_PREFETCH_BYTES= Integer.getInteger("linkcloud.archive.prefetchBytes", 1024 * 1024);
+
+    /** Deflate compression level of ZIP archives, from 0 (stored as is) to 9 (smallest archive). */
+    public static final int ARCHIVE_COMPRESSION_LEVEL= Integer.getInteger("linkcloud.archive.compressionLevel", 1);
+
+    /** Uploads with a content hash up to this size in bytes are read into a local file and checked against the hash
+     *  before being deduplicated; larger ones are uploaded straight into the CSP, and only checked once they're there.
+     *  See {@link pt.bdotc.linkcloud.resources.RequestResource}. */
+    public static final long DEDUP_MAX_BUFFER_BYTES= Long.getLong("linkcloud.dedup.maxBufferBytes",
+                                                                  1024L * 1024 * 1024);
+
+    /** Maximum number of files of an uploaded tar stream that are uploaded in parallel. */
+    public static final int BULK_PARALLEL_UPLOADS= Integer.getInteger("linkcloud.bulk.parallelUploads", 8);
+
+    /** Files of an uploaded tar stream up to this size in bytes are buffered in memory and uploaded in parallel;
+     *  larger ones are streamed into the CSP one at a time. */
+    public static final int BULK_BUFFER_BYTES= Integer.getInteger("linkcloud.bulk.bufferBytes", 4 * 1024 * 1024);
+
+    /** Number of seconds for which the signed URIs handed out by redirected downloads and uploads are valid. */
+    public static final int SIGNED_URI_VALIDITY_SECONDS= Integer.getInteger("linkcloud.redirect.validitySeconds", 600);
+
+    /** A cached signed URI is only handed out again if it's valid for at least this many more seconds. */
+    public static final int SIGNED_URI_RENEW_SECONDS= Integer.getInteger("linkcloud.redirect.renewSeconds", 120);
+
+    /** Directory in which uploads are spooled before being uploaded into their CSP, for the clients that ask for it.
+     *  Spooling is disabled when it isn't set, which is the default. See {@link pt.bdotc.linkcloud.spool.UploadSpool}.
+     */
+    public static final String SPOOL_DIR= System.getProperty("linkcloud.spool.dir");
+
+    /** Maximum number of spooled uploads that are uploaded into their CSP in parallel. */
+    public static final int SPOOL_PARALLEL_UPLOADS= Integer.getInteger("linkcloud.spool.parallelUploads", 4);
+
+    /** Number of attempts made at uploading a spooled upload into its CSP before giving up on it. */
+    public static final int SPOOL_MAX_ATTEMPTS= Integer.getInteger("linkcloud.spool.maxAttempts", 10);
+
+    /** Maximum number of bytes held by the spool. Uploads that don't fit go straight to their CSP instead. */
+    public static final long SPOOL_MAX_BYTES= Long.getLong("linkcloud.spool.maxBytes", 10L * 1024 * 1024 * 1024);
+
+    /** Number of seconds for which the spool keeps the record of an upload it gave up on, so that its client can learn
+     *  about the failure. */
+    public static final int SPOOL_FAILED_RETENTION_SECONDS= Integer.getInteger("linkcloud.spool.failedRetentionSeconds",
+                                                                               24 * 60 * 60);
+
+    /** Size in bytes of the pooled buffers through which blob contents are copied. See
+     *  {@link pt.bdotc.linkcloud.transfer.BufferPool}. */
+    public static final int TRANSFER_BUFFER_BYTES= Integer.getInteger("linkcloud.transfer.bufferBytes", 1024 * 1024);
+
+    /** Maximum number of idle buffers kept in the pool for reuse. */
+    public static final int TRANSFER_POOLED_BUFFERS= Integer.getInteger("linkcloud.transfer.pooledBuffers", 64);
+
+    /** Whether or not the buffers through which contents are copied from a file into another are allocated outside of
+     *  the heap. Copies that involve any other stream always go through heap buffers, which those streams read and
+     *  write without an extra copy. */
+    public static final boolean TRANSFER_DIRECT_BUFFERS= Boolean.getBoolean("linkcloud.transfer.directBuffers");
+
+    /** Minimum number of bytes the Azure SDK reads from a blob per request while it's being downloaded, from 16 KiB
+     *  up. */
+    public static final int AZURE_STREAM_READ_BYTES= Integer.getInteger("linkcloud.azureblob.streamReadBytes",
+                                                                        4 * 1024 * 1024);
+
+    /** Size in bytes of the blocks the Azure SDK uploads large blobs in, from 16 KiB up to 4 MiB. */
+    public static final int AZURE_STREAM_WRITE_BYTES= Integer.getInteger("linkcloud.azureblob.streamWriteBytes",
+                                                                         4 * 1024 * 1024);
+
+    /** Blobs up to this size in bytes are uploaded into Azure in a single request, which requires the SDK to buffer
+     *  them whole; larger ones are streamed in blocks of {@link #AZURE_STREAM_WRITE_BYTES}. From 1 MiB up to 64 MiB. */
+    public static final int AZURE_SINGLE_PUT_BYTES= Integer.getInteger("linkcloud.azureblob.singlePutBytes",
+                                                                       4 * 1024 * 1024);
+
+    /** Blob service endpoint of the Azure accounts, in which {@code {account}} stands for the account's name, e.g.
+     *  {@code http://127.0.0.1:10000/{account}} for a local emulator or stub. Unset by default, which uses Azure's
+     *  public endpoints. */
+    public static final String AZURE_BLOB_ENDPOINT= System.getProperty("linkcloud.azureblob.endpoint");
+
+    /** Number of containers that are counted in parallel by the usage requests, across all of them. Defaults to four
+     *  per available processor, seeing as counting a container mostly waits on the CSP. */
+    public static final int USAGE_PARALLELISM= Integer.getInteger("linkcloud.usage.parallelism",
+                                                                   4 * Runtime.getRuntime().availableProcessors());
+
+    /** Longest time, in milliseconds, that an append to a blob waits for other appends to the same blob, so that
+     *  they're all written into the CSP at once. */
+    public static final long APPEND_MAX_DELAY_MILLIS= Long.getLong("linkcloud.append.maxDelayMillis", 10);
+
+    /** Maximum number of bytes of appends that are written into the CSP at once, up to the 4 MiB Azure takes per
+     *  append. */
+    public static final int APPEND_MAX_BATCH_BYTES= Math.min(Integer.getInteger("linkcloud.append.maxBatchBytes",
+                                                                                4 * 1024 * 1024),
+                                                             4 * 1024 * 1024);
+
+    /** Mirrored providers, each made of several replicas that are written together and read from the fastest, as
+     *  {@code <name>=<replica>|<replica>...}, separated by {@code ;}. A replica is either a provider, which is accessed
+     *  with the client's credentials, or {@code <provider>:<account>:<key>}. Unset by default. See
+     *  {@link pt.bdotc.linkcloud.objects.MirroredStorageObject}. */
+    public static final String MIRRORS= System.getProperty("linkcloud.mirrors");
+
+    /** Number of replicas of a mirrored provider that must complete a write before it's acknowledged. Defaults to a
+     *  majority of the replicas. */
+    public static final int MIRROR_WRITE_QUORUM= Integer.getInteger("linkcloud.mirror.writeQuorum", 0);
+
+    /** Number of seconds a write into a mirrored provider waits for its quorum, and an upload waits for enough
+     *  replicas to take the next part of its contents, before it fails. */
+    public static final int MIRROR_WRITE_TIMEOUT_SECONDS= Integer.getInteger("linkcloud.mirror.writeTimeoutSeconds",
+                                                                             300);
+
+    /** Smallest block, in bytes, into which delta uploads split a blob. */
+    public static final int DELTA_MIN_BLOCK_BYTES= Integer.getInteger("linkcloud.delta.minBlockBytes", 256 * 1024);
+
+    /** Average distance, in bytes, between two block boundaries of a delta upload once past the smallest block.
+     *  Rounded down to a power of two. */
+    public static final int DELTA_AVG_BLOCK_BYTES= Integer.getInteger("linkcloud.delta.avgBlockBytes", 1024 * 1024);
+
+    /** Largest block, in bytes, into which delta uploads split a blob, up to the 4 MiB Azure takes per block. */
+    public static final int DELTA_MAX_BLOCK_BYTES= Math.min(Integer.getInteger("linkcloud.delta.maxBlockBytes",
+                                                                               4 * 1024 * 1024),
+                                                            4 * 1024 * 1024);
+
+    /** Number of blocks of each delta upload that are sent into the CSP in parallel. */
+    public static final int DELTA_PARALLEL_BLOCKS= Integer.getInteger("linkcloud.delta.parallelBlocks", 4);
+
+    /** Maximum number of decoded Authorization headers kept by the {@code CredentialsFilter}, and of headers it
+     *  remembers as refused. */
+    public static final int AUTH_CACHE_ENTRIES= Integer.getInteger("linkcloud.auth.cacheEntries", 10000);
+
+    /** Number of seconds during which requests whose Authorization header was refused by a CSP are refused without
+     *  reaching it. */
+    public static final int AUTH_NEGATIVE_TTL_SECONDS= Integer.getInteger("linkcloud.auth.negativeTtlSeconds", 60);
+
+    /** Number of seconds during which a cached listing of a container is served without reaching the CSP. 0 disables
+     *  the cache, which is the default: changes made without this service may take that long to show up once it's
+     *  on, seeing as there's nothing cheaper than a new listing to tell whether a container's blobs changed. */
+    public static final int LISTING_CACHE_SECONDS= Integer.getInteger("linkcloud.listing.cacheSeconds", 0);
+
+    /** Maximum number of bytes of cached listings. */
+    public static final long LISTING_CACHE_BYTES= Long.getLong("linkcloud.listing.cacheBytes", 64L * 1024 * 1024);
+
+    private
+    Settings() {}
+}
@@ -0,0 +1,76 @@
+package pt.bdotc.linkcloud.account;
+
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+/**
+ * Streams the containers of an account to the client as an XML file, while their listing is being fetched from the
+ * CSP. Seeing as the number of containers isn't known until the end, the root element has no count:
+ *
+ * <pre>
+ * {@code
+ *
+ * <containers>
+ *     <container name="photos" />
+ *     <container name="videos" />
+ * </containers>
+ * }
+ * </pre>
+ */
+public class
+ContainerListStreamer
+implements StreamingOutput
+{
+    /** The names of the containers, as they're fetched from the CSP. */
+    private final Iterator<String> containerNames;
+
+    /**
+     * Prepares the streaming of a listing of containers.
+     *
+     * @param containerNames The names of the containers, as they're fetched from the CSP.
+     */
+    public
+    ContainerListStreamer(Iterator<String> containerNames)
+    {
+        this.containerNames= containerNames;
+    }
+
+    /**
+     * Writes the XML file into the client's response.
+     *
+     * @param output The stream of the client's response.
+     * @throws IOException Thrown when the XML file can't be written. Seeing as the response has already started by
+     *         then, the client sees it as a truncated file.
+     */
+    @Override
+    public void
+    write(OutputStream output)
+    throws IOException
+    {
+        try
+        {
+            XMLStreamWriter xmlWriter= XMLOutputFactory.newInstance().createXMLStreamWriter(output, "UTF-8");
+            xmlWriter.writeStartDocument("UTF-8", "1.0");
+            xmlWriter.writeStartElement("containers");
+
+            while(containerNames.hasNext())
+            {
+                xmlWriter.writeEmptyElement("container");
+                xmlWriter.writeAttribute("name", containerNames.next());
+            }
+
+            xmlWriter.writeEndElement();
+            xmlWriter.writeEndDocument();
+            xmlWriter.flush();
+        }
+        catch(XMLStreamException xmlError)
+        {
+            throw new IOException("Error writing the list of containers", xmlError);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package pt.bdotc.linkcloud.account;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import pt.bdotc.linkcloud.Settings;
+import pt.bdotc.linkcloud.index.BlobIndex;
+import pt.bdotc.linkcloud.index.ContainerIndex;
+import pt.bdotc.linkcloud.objects.BlobInfo;
+import pt.bdotc.linkcloud.objects.StorageObject;
+
+import javax.ws.rs.NotFoundException;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes the number of blobs and bytes of every container of an account. Containers are counted in parallel, each
+ * one by a task of a fork-join pool that walks the container's segmented listing, while the listing of the containers
+ * themselves is still being fetched. Containers that are indexed are answered from their {@link ContainerIndex}
+ * without any listing.
+ *
+ * The pool is shared by all requests and has {@code Settings.USAGE_PARALLELISM} threads, so the time taken grows with
+ * the number of containers divided by the number of threads, and the load put on the CSP stays bounded regardless of
+ * how many requests are running.
+ *
+ * The usage is returned as an XML file with the following format:
+ *
+ * <pre>
+ * {@code
+ *
+ * <usage containers="2" blobs="3" bytes="1536">
+ *     <container name="photos" blobs="2" bytes="1024" />
+ *     <container name="videos" blobs="1" bytes="512" />
+ * </usage>
+ * }
+ * </pre>
+ */
+public final class
+UsageCollector
+{
+    /** The pool on which containers are counted. */
+    private static final ForkJoinPool pool= new ForkJoinPool(Settings.USAGE_PARALLELISM);
+
+    /** The usage of a single container. */
+    private static final class
+    ContainerUsage
+    {
+        final String containerName;
+        final long blobs;
+        final long bytes;
+
+        ContainerUsage(String containerName, long blobs, long bytes)
+        {
+            this.containerName= containerName;
+            this.blobs= blobs;
+            this.bytes= bytes;
+        }
+    }
+
+    /** Counts the blobs and bytes of a single container. */
+    private static final class
+    CountContainer
+    extends RecursiveTask<ContainerUsage>
+    {
+        private static final long serialVersionUID= 1L;
+
+        final String provider;
+        final StorageObject storageObject;
+        final String containerName;
+        final String username;
+        final String password;
+
+        CountContainer(String provider, StorageObject storageObject, String containerName, String username,
+                       String password)
+        {
+            this.provider= provider;
+            this.storageObject= storageObject;
+            this.containerName= containerName;
+            this.username= username;
+            this.password= password;
+        }
+
+        /**
+         * Counts the container, from its index if it has one, or else from its listing.
+         *
+         * @return The usage of the container, or {@code null} if it was deleted in the meantime.
+         */
+        @Override
+        protected ContainerUsage
+        compute()
+        {
+            ContainerIndex index= BlobIndex.find(provider, username, containerName);
+            if(index!= null) {return new ContainerUsage(containerName, index.count(), index.totalBytes());}
+
+            long blobs= 0;
+            long bytes= 0;
+            try
+            {
+                for(BlobInfo blob : storageObject.listBlobInfo(containerName, null, username, password))
+                {
+                    blobs++;
+                    bytes+= blob.getSize();
+                }
+            }
+            catch(NotFoundException containerDeleted)
+            {
+                return null;
+            }
+
+            return new ContainerUsage(containerName, blobs, bytes);
+        }
+    }
+
+    private
+    UsageCollector() {}
+
+    /**
+     * Computes the usage of every container of an account.
+     *
+     * @param provider The name of the CSP.
+     * @param storageObject The CSP in which the account resides.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @return An {@link InputStream} with the XML file describing the usage of the account.
+     * @throws ParserConfigurationException Thrown when the XML file can't be created.
+     * @throws TransformerException Thrown when the XML file can't be written.
+     */
+    public static InputStream
+    collect(String provider, StorageObject storageObject, String username, String password)
+    throws ParserConfigurationException, TransformerException
+    {
+        List<ForkJoinTask<ContainerUsage>> counts= new ArrayList<>();
+        try
+        {
+        // Containers are counted as soon as they're listed
+            for(String containerName : storageObject.listContainers(username, password))
+            {
+                counts.add(pool.submit(new CountContainer(provider, storageObject, containerName,
+                                                          username, password)));
+            }
+
+            List<ContainerUsage> usages= new ArrayList<>(counts.size());
+            for(ForkJoinTask<ContainerUsage> count : counts)
+            {
+                ContainerUsage usage= count.join();
+                if(usage!= null) {usages.add(usage);}
+            }
+
+            return toXml(usages);
+        }
+        finally
+        {
+        // Don't keep listing containers for a request that already failed
+            for(ForkJoinTask<ContainerUsage> count : counts) {count.cancel(false);}
+        }
+    }
+
+    /**
+     * Builds the XML file that describes the usage of an account.
+     *
+     * @param usages The usage of every container, sorted by container name.
+     * @return An {@link InputStream} with the XML file.
+     * @throws ParserConfigurationException Thrown when the XML document can't be created.
+     * @throws TransformerException Thrown when the XML document can't be written.
+     */
+    private static InputStream
+    toXml(List<ContainerUsage> usages)
+    throws ParserConfigurationException, TransformerException
+    {
+        Document doc= DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        doc.setXmlStandalone(true);
+        long totalBlobs= 0;
+        long totalBytes= 0;
+
+        Element rootElement= doc.createElement("usage");
+        doc.appendChild(rootElement);
+
+        for(ContainerUsage usage : usages)
+        {
+            Element containerEntry= doc.createElement("container");
+            containerEntry.setAttribute("name", usage.containerName);
+            containerEntry.setAttribute("blobs", Long.toString(usage.blobs));
+            containerEntry.setAttribute("bytes", Long.toString(usage.bytes));
+            rootElement.appendChild(containerEntry);
+
+            totalBlobs+= usage.blobs;
+            totalBytes+= usage.bytes;
+        }
+        rootElement.setAttribute("containers", Integer.toString(usages.size()));
+        rootElement.setAttribute("blobs", Long.toString(totalBlobs));
+        rootElement.setAttribute("bytes", Long.toString(totalBytes));
+
+        ByteArrayOutputStream outStream= new ByteArrayOutputStream();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(outStream));
+        return new ByteArrayInputStream(outStream.toByteArray());
+    }
+}
@@ -0,0 +1,130 @@
+package pt.bdotc.linkcloud.append;
+
+import pt.bdotc.linkcloud.Settings;
+import pt.bdotc.linkcloud.metrics.Metrics;
+import pt.bdotc.linkcloud.objects.StorageObject;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Group commit of the appends made to blobs. Appends to the same blob that arrive close together are gathered into a
+ * batch, which is written into the CSP with a single append once it's been open for
+ * {@code Settings.APPEND_MAX_DELAY_MILLIS} or has gathered {@code Settings.APPEND_MAX_BATCH_BYTES}, whichever comes
+ * first. While a batch is being written, the following ones keep gathering appends, so that a blob under a high rate of
+ * small appends gets a few large writes instead of one write per append.
+ *
+ * Every append is acknowledged once the batch it's in is in the CSP, with the offset at which its contents were
+ * written. Batches of the same blob are written one at a time and in order, so the contents of every append are in the
+ * blob in the order in which the appends arrived. Appends are only batched together when they're made with the same
+ * credentials, so that no append is written with the credentials of another client.
+ */
+public final class
+AppendBatcher
+{
+    /** The appender of every blob that has appends waiting or being written, keyed by {@link #key}. */
+    private static final ConcurrentHashMap<String, BlobAppender> appenders= new ConcurrentHashMap<>();
+
+    /** Closes the batches that have been open for {@code Settings.APPEND_MAX_DELAY_MILLIS}. */
+    static final ScheduledThreadPoolExecutor timer= createTimer();
+
+    /** Number of appends made. */
+    static final LongAdder appendRequests= Metrics.counter("append.requests");
+    /** Number of batches written into the CSPs. */
+    static final LongAdder appendBatches= Metrics.counter("append.batches");
+    /** Number of bytes written into the CSPs by appends. */
+    static final LongAdder appendBytes= Metrics.counter("append.bytes");
+
+    private
+    AppendBatcher() {}
+
+    /**
+     * Builds the timer of the batches, made of a single daemon thread so that it doesn't keep the application server
+     * from shutting down. The timer only closes batches; they're written by the {@code StorageExecutor}.
+     *
+     * @return The timer.
+     */
+    private static ScheduledThreadPoolExecutor
+    createTimer()
+    {
+        ScheduledThreadPoolExecutor timer= new ScheduledThreadPoolExecutor(1, task ->
+        {
+            Thread thread= new Thread(task, "linkcloud-append-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+
+        return timer;
+    }
+
+    /**
+     * Builds the key under which the appender of a blob is kept.
+     *
+     * @param provider The name of the CSP.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @param containerName The name of the container.
+     * @param blobName The name of the blob.
+     * @return The key of the appender.
+     */
+    private static String
+    key(String provider, String username, String password, String containerName, String blobName)
+    {
+        return provider + '/' + username + '/' + password + '/' + containerName + '/' + blobName;
+    }
+
+    /**
+     * Appends contents to the end of a blob, creating the blob if it doesn't exist yet. The contents are batched with
+     * the other appends made to the blob in the meantime.
+     *
+     * @param provider The name of the CSP.
+     * @param storageObject The CSP in which the blob resides.
+     * @param containerName The name of the container of the blob.
+     * @param blobName The name of the blob.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @param contents The contents to append, of at most {@code Settings.APPEND_MAX_BATCH_BYTES}.
+     * @return A future that completes with the offset at which the contents were written once they're in the CSP, or
+     *         exceptionally with whatever the CSP threw when writing their batch. See
+     *         {@link StorageObject#appendBlob}.
+     * @throws IllegalArgumentException Thrown when the contents are empty or larger than
+     *         {@code Settings.APPEND_MAX_BATCH_BYTES}.
+     */
+    public static CompletableFuture<Long>
+    append(String provider, StorageObject storageObject, String containerName, String blobName, String username,
+           String password, byte[] contents)
+    throws IllegalArgumentException
+    {
+        if(contents.length== 0 || contents.length> Settings.APPEND_MAX_BATCH_BYTES)
+        {
+            throw new IllegalArgumentException("Appends must be between 1 and " + Settings.APPEND_MAX_BATCH_BYTES +
+                                               " bytes long");
+        }
+        appendRequests.increment();
+
+        String key= key(provider, username, password, containerName, blobName);
+        CompletableFuture<Long> offset= new CompletableFuture<>();
+
+    // An appender that's just gone idle refuses the append, so it's made to a new one
+        while(!appenders.computeIfAbsent(key, newAppender -> new BlobAppender(key, storageObject, containerName,
+                                                                            blobName, username, password))
+                        .append(contents, offset)) {}
+
+        return offset;
+    }
+
+    /**
+     * Forgets the appender of a blob, which has no appends left to write.
+     *
+     * @param key The key of the appender.
+     * @param appender The appender.
+     */
+    static void
+    remove(String key, BlobAppender appender)
+    {
+        appenders.remove(key, appender);
+    }
+}
@@ -0,0 +1,204 @@
+package pt.bdotc.linkcloud.append;
+
+import pt.bdotc.linkcloud.Settings;
+import pt.bdotc.linkcloud.execution.StorageExecutor;
+import pt.bdotc.linkcloud.objects.StorageObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers the appends made to a single blob into batches, and writes them into the CSP one batch at a time. See
+ * {@link AppendBatcher}.
+ *
+ * An appender goes idle, and is forgotten by the {@link AppendBatcher}, once it has no appends left to write. From
+ * then on it refuses any append, which has to be made to a new appender instead.
+ */
+class
+BlobAppender
+{
+    /** An append that's waiting for its batch to be written. */
+    private static final class
+    PendingAppend
+    {
+        final byte[] contents;
+        final CompletableFuture<Long> offset;
+
+        PendingAppend(byte[] contents, CompletableFuture<Long> offset)
+        {
+            this.contents= contents;
+            this.offset= offset;
+        }
+    }
+
+    /** The key of this appender in the {@link AppendBatcher}. */
+    private final String key;
+    private final StorageObject storageObject;
+    private final String containerName;
+    private final String blobName;
+    private final String username;
+    private final String password;
+
+    /** The batch that's gathering appends, which may be empty. */
+    private List<PendingAppend> openBatch= new ArrayList<>();
+    /** Number of bytes in {@link #openBatch}. */
+    private int openBytes= 0;
+    /** Closes {@link #openBatch} once it's been open for too long, or {@code null} if it's empty. */
+    private ScheduledFuture<?> openBatchTimer;
+    /** The batches that are closed and waiting to be written, in order. */
+    private final ArrayDeque<List<PendingAppend>> closedBatches= new ArrayDeque<>();
+    /** Whether or not a batch is being written. */
+    private boolean writing= false;
+    /** Whether or not this appender went idle. */
+    private boolean idle= false;
+
+    BlobAppender(String key, StorageObject storageObject, String containerName, String blobName, String username,
+                 String password)
+    {
+        this.key= key;
+        this.storageObject= storageObject;
+        this.containerName= containerName;
+        this.blobName= blobName;
+        this.username= username;
+        this.password= password;
+    }
+
+    /**
+     * Adds an append to the open batch, closing the batch if it's full.
+     *
+     * @param contents The contents to append.
+     * @param offset The future to complete once the contents are in the CSP.
+     * @return Whether or not the append was accepted, which it isn't if this appender went idle.
+     */
+    synchronized boolean
+    append(byte[] contents, CompletableFuture<Long> offset)
+    {
+        if(idle) {return false;}
+
+        if(openBytes + contents.length> Settings.APPEND_MAX_BATCH_BYTES) {closeOpenBatch();}
+        openBatch.add(new PendingAppend(contents, offset));
+        openBytes+= contents.length;
+
+        if(openBytes== Settings.APPEND_MAX_BATCH_BYTES) {closeOpenBatch();}
+        else if(openBatchTimer== null)
+        {
+            final List<PendingAppend> batch= openBatch;
+            openBatchTimer= AppendBatcher.timer.schedule(() -> closeBatchOnTimeout(batch),
+                                                         Settings.APPEND_MAX_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        writeNextBatch();
+        return true;
+    }
+
+    /**
+     * Closes a batch that's been open for {@code Settings.APPEND_MAX_DELAY_MILLIS}, unless it was closed already.
+     *
+     * @param batch The batch.
+     */
+    private synchronized void
+    closeBatchOnTimeout(List<PendingAppend> batch)
+    {
+        if(batch!= openBatch) {return;}
+
+        closeOpenBatch();
+        writeNextBatch();
+    }
+
+    /** Moves the open batch, if it isn't empty, to the end of the batches that are waiting to be written. */
+    private void
+    closeOpenBatch()
+    {
+        if(openBatch.isEmpty()) {return;}
+
+        closedBatches.addLast(openBatch);
+        openBatch= new ArrayList<>();
+        openBytes= 0;
+
+        openBatchTimer.cancel(false);
+        openBatchTimer= null;
+    }
+
+    /** Starts writing the next closed batch, unless a batch is being written already. */
+    private void
+    writeNextBatch()
+    {
+        if(writing || closedBatches.isEmpty()) {return;}
+
+        final List<PendingAppend> batch= closedBatches.pollFirst();
+        writing= true;
+        StorageExecutor.supplyInBackground(() -> write(batch)).whenComplete((batchOffset, error) ->
+        {
+            acknowledge(batch, batchOffset, error);
+            batchWritten();
+        });
+    }
+
+    /**
+     * Writes a batch into the CSP with a single append.
+     *
+     * @param batch The batch.
+     * @return The offset at which the batch was written.
+     */
+    private long
+    write(List<PendingAppend> batch)
+    {
+        int batchBytes= 0;
+        for(PendingAppend pending : batch) {batchBytes+= pending.contents.length;}
+
+        byte[] contents= new byte[batchBytes];
+        int position= 0;
+        for(PendingAppend pending : batch)
+        {
+            System.arraycopy(pending.contents, 0, contents, position, pending.contents.length);
+            position+= pending.contents.length;
+        }
+
+        long batchOffset= storageObject.appendBlob(containerName, blobName, username, password, contents);
+        AppendBatcher.appendBatches.increment();
+        AppendBatcher.appendBytes.add(batchBytes);
+
+        return batchOffset;
+    }
+
+    /**
+     * Completes the futures of every append of a batch that was written, or failed to be.
+     *
+     * @param batch The batch.
+     * @param batchOffset The offset at which the batch was written.
+     * @param error What the write threw, or {@code null} if it succeeded.
+     */
+    private static void
+    acknowledge(List<PendingAppend> batch, Long batchOffset, Throwable error)
+    {
+        Throwable cause= error instanceof CompletionException? error.getCause(): error;
+        long offset= cause== null? batchOffset: 0;
+
+        for(PendingAppend pending : batch)
+        {
+            if(cause== null) {pending.offset.complete(offset);}
+            else             {pending.offset.completeExceptionally(cause);}
+
+            offset+= pending.contents.length;
+        }
+    }
+
+    /** Moves on to the next batch once a batch is written, or goes idle if there's none left. */
+    private synchronized void
+    batchWritten()
+    {
+        writing= false;
+        writeNextBatch();
+
+        if(!writing && openBatch.isEmpty())
+        {
+            idle= true;
+            AppendBatcher.remove(key, this);
+        }
+    }
+}
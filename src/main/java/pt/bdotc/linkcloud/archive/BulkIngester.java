@@ -0,0 +1,229 @@
+package pt.bdotc.linkcloud.archive;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import pt.bdotc.linkcloud.Settings;
+import pt.bdotc.linkcloud.execution.StorageExecutor;
+import pt.bdotc.linkcloud.index.BlobIndex;
+import pt.bdotc.linkcloud.objects.StorageObject;
+import pt.bdotc.linkcloud.objects.StorageObject.ContainerUploader;
+import pt.bdotc.linkcloud.transfer.ContentDigests;
+
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.WebApplicationException;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Splits an uploaded tar stream into individual blobs while it's being read. Small files are read into memory and
+ * handed to a bounded number of parallel uploads, so that the next files can be read from the client in the meantime;
+ * files larger than {@code Settings.BULK_BUFFER_BYTES} are streamed straight from the tar stream into the CSP. The
+ * container is opened once for the whole tar stream (see {@link StorageObject#openContainer}), rather than checked
+ * again for every file.
+ *
+ * The outcome of every file is collected and returned, once the whole tar stream has been read, as an XML file with
+ * the following format:
+ *
+ * <pre>
+ * {@code
+ *
+ * <results count="2" failed="1">
+ *     <result name="photos/1.jpg" status="200" />
+ *     <result name="photos/Bad:Name.jpg" status="400" />
+ * </results>
+ * }
+ * </pre>
+ */
+public class
+BulkIngester
+{
+    /** The outcome of the upload of a single file of the tar stream. */
+    private static final class
+    Result
+    {
+        final String blobName;
+        volatile int status;
+
+        Result(String blobName)
+        {
+            this.blobName= blobName;
+        }
+    }
+
+    /** The name of the CSP. */
+    private final String provider;
+    /** The CSP in which the container resides. */
+    private final StorageObject storageObject;
+    /** The container into which blobs are uploaded. */
+    private final String containerName;
+    /** The username of the CSP account. */
+    private final String username;
+    /** The password of the CSP account. */
+    private final String password;
+
+    /**
+     * Prepares the ingestion of a tar stream into a container.
+     *
+     * @param provider The name of the CSP.
+     * @param storageObject The CSP in which the container resides.
+     * @param containerName The container into which blobs are uploaded.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     */
+    public
+    BulkIngester(String provider, StorageObject storageObject, String containerName, String username, String password)
+    {
+        this.provider= provider;
+        this.storageObject= storageObject;
+        this.containerName= containerName;
+        this.username= username;
+        this.password= password;
+    }
+
+    /**
+     * Uploads every file of a tar stream as a blob named after the file's path.
+     *
+     * @param tarStream The tar stream sent by the client.
+     * @return An {@link InputStream} with the XML file describing the outcome of every file.
+     * @throws NotFoundException Thrown when the container doesn't exist. See also the StorageObject classes
+     *         implemented.
+     * @throws IOException Thrown when the tar stream can't be read or is malformed.
+     * @throws InterruptedException Thrown when the thread is interrupted while waiting for an upload slot.
+     * @throws ParserConfigurationException Thrown when the XML file can't be created.
+     * @throws TransformerException Thrown when the XML file can't be written.
+     */
+    public InputStream
+    ingest(InputStream tarStream)
+    throws NotFoundException, IOException, InterruptedException, ParserConfigurationException, TransformerException
+    {
+        ContainerUploader uploader= storageObject.openContainer(containerName, username, password);
+        TarArchiveReader tarReader= new TarArchiveReader(tarStream);
+        Semaphore uploadSlots= new Semaphore(Settings.BULK_PARALLEL_UPLOADS);
+        List<Result> results= new ArrayList<>();
+        List<CompletableFuture<Void>> uploads= new ArrayList<>();
+
+        String blobName;
+        while((blobName= tarReader.nextEntry())!= null)
+        {
+            Result result= new Result(blobName);
+            results.add(result);
+            long size= tarReader.entrySize();
+
+        // Large files go straight from the tar stream into the CSP
+            if(size> Settings.BULK_BUFFER_BYTES)
+            {
+                upload(uploader, result, tarReader.entryStream(), size);
+                continue;
+            }
+
+        // Small files are buffered, and uploaded while the next ones are being read
+            uploadSlots.acquire();
+            byte[] contents= new byte[(int) size];
+            readFully(tarReader.entryStream(), contents);
+
+            uploads.add(StorageExecutor.supplyInBackground(() ->
+            {
+                try     {upload(uploader, result, new ByteArrayInputStream(contents), size);}
+                finally {uploadSlots.release();}
+                return null;
+            }));
+        }
+
+        CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[uploads.size()])).join();
+        return toXml(results);
+    }
+
+    /**
+     * Uploads a single file, recording its outcome.
+     *
+     * @param uploader The container into which the file is uploaded.
+     * @param result The outcome of the file's upload.
+     * @param contents The contents of the file.
+     * @param size The size of the file in bytes.
+     */
+    private void
+    upload(ContainerUploader uploader, Result result, InputStream contents, long size)
+    {
+        try
+        {
+            MessageDigest md5= ContentDigests.create("MD5");
+            uploader.uploadBlob(result.blobName, ContentDigests.hashed(contents, md5), size);
+            BlobIndex.recordUpload(provider, username, containerName, result.blobName, size, ContentDigests.encode(md5));
+            result.status= 200;
+        }
+        catch(WebApplicationException uploadError)
+        {
+            result.status= uploadError.getResponse().getStatus();
+        }
+        catch(RuntimeException uploadError)
+        {
+            result.status= 500;
+        }
+    }
+
+    /**
+     * Reads a file of the tar stream into memory.
+     *
+     * @param contents The file's stream.
+     * @param buffer The buffer that's to hold the whole file.
+     * @throws IOException Thrown when the tar stream can't be read.
+     */
+    private static void
+    readFully(InputStream contents, byte[] buffer)
+    throws IOException
+    {
+        int offset= 0;
+        while(offset< buffer.length)
+        {
+            int read= contents.read(buffer, offset, buffer.length - offset);
+            if(read== -1) {throw new EOFException("Truncated tar entry");}
+            offset+= read;
+        }
+    }
+
+    /**
+     * Builds the XML file that describes the outcome of every file.
+     *
+     * @param results The outcomes, in the order the files appeared in the tar stream.
+     * @return An {@link InputStream} with the XML file.
+     * @throws ParserConfigurationException Thrown when the XML document can't be created.
+     * @throws TransformerException Thrown when the XML document can't be written.
+     */
+    private static InputStream
+    toXml(List<Result> results)
+    throws ParserConfigurationException, TransformerException
+    {
+        Document doc= DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        doc.setXmlStandalone(true);
+        long failed= 0;
+
+        Element rootElement= doc.createElement("results");
+        doc.appendChild(rootElement);
+
+        for(Result result : results)
+        {
+            Element resultEntry= doc.createElement("result");
+            resultEntry.setAttribute("name", result.blobName);
+            resultEntry.setAttribute("status", Integer.toString(result.status));
+            rootElement.appendChild(resultEntry);
+
+            if(result.status!= 200) {failed++;}
+        }
+        rootElement.setAttribute("count", Integer.toString(results.size()));
+        rootElement.setAttribute("failed", Long.toString(failed));
+
+        ByteArrayOutputStream outStream= new ByteArrayOutputStream();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(outStream));
+        return new ByteArrayInputStream(outStream.toByteArray());
+    }
+}
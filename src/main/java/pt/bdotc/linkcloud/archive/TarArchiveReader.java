@@ -0,0 +1,382 @@
+package pt.bdotc.linkcloud.archive;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal reader of tar streams, enough to split an uploaded tar file into its regular files as it's being read. It
+ * understands the ustar format, along with GNU long names and the {@code path} record of POSIX extended headers, which
+ * is what common tar implementations produce for long file names. Entries other than regular files (directories,
+ * links, ...) are skipped.
+ *
+ * File names are given relative to the root of the archive: leading {@code /} and {@code ./}, as well as empty and
+ * {@code .} segments, are dropped, and a name with a {@code ..} segment makes the stream malformed, seeing as the
+ * names end up as blob names.
+ */
+public class
+TarArchiveReader
+{
+    /** Size of a tar block; headers take one block and file contents are padded to a multiple of it. */
+    private static final int BLOCK_SIZE= 512;
+
+    /** The tar stream. */
+    private final InputStream input;
+    /** Buffer of the header that's being parsed. */
+    private final byte[] header= new byte[BLOCK_SIZE];
+    /** The contents of the current entry, or {@code null} if there's none. */
+    private EntryStream currentEntry;
+
+    /**
+     * Creates a reader over a tar stream.
+     *
+     * @param input The tar stream.
+     */
+    public
+    TarArchiveReader(InputStream input)
+    {
+        this.input= input;
+    }
+
+    /**
+     * Moves to the next regular file of the tar stream, skipping whatever was left unread of the current one.
+     *
+     * @return The normalised name of the next file, or {@code null} if there are no more files.
+     * @throws IOException Thrown when the tar stream can't be read or is malformed, or when a file's name has a
+     *         {@code ..} segment.
+     */
+    public String
+    nextEntry()
+    throws IOException
+    {
+        if(currentEntry!= null) {currentEntry.skipRemaining();}
+        currentEntry= null;
+        String longName= null;
+
+        while(true)
+        {
+        // Two empty blocks (or the end of the stream) mark the end of the archive
+            if(!readBlock(header) || isEmptyBlock(header)) {return null;}
+
+            long size= parseOctal(header, 124, 12);
+            byte type= header[156];
+
+            if(type== 'L' || type== 'x')
+            {
+            // GNU long name or POSIX extended header: its contents describe the next entry
+                byte[] contents= readContents(size);
+                longName= type== 'L'? cString(contents, 0, contents.length): paxPath(contents, longName);
+                continue;
+            }
+
+            currentEntry= new EntryStream(size);
+            if(type!= '0' && type!= 0)
+            {
+            // Directories, links and other special entries carry no blob
+                currentEntry.skipRemaining();
+                currentEntry= null;
+                longName= null;
+                continue;
+            }
+
+            String name= longName;
+            if(name== null)
+            {
+                name= cString(header, 0, 100);
+                String prefix= isUstar(header)? cString(header, 345, 155): "";
+                if(!prefix.isEmpty()) {name= prefix + '/' + name;}
+            }
+
+            boolean directory= name.endsWith("/");
+            name= normalise(name);
+            if(directory || name.isEmpty())
+            {
+            // Old tar implementations mark directories with a trailing slash only, and "./" is the archive's root
+                currentEntry.skipRemaining();
+                currentEntry= null;
+                longName= null;
+                continue;
+            }
+            return name;
+        }
+    }
+
+    /**
+     * Gives the size of the current file.
+     *
+     * @return The size of the current file in bytes.
+     */
+    public long
+    entrySize()
+    {
+        return currentEntry.size;
+    }
+
+    /**
+     * Gives the contents of the current file. The stream ends with the file, and closing it has no effect on the tar
+     * stream.
+     *
+     * @return An {@link InputStream} with the contents of the current file.
+     */
+    public InputStream
+    entryStream()
+    {
+        return currentEntry;
+    }
+
+/*---------------
+* --- PARSING ---
+* ---------------*/
+
+    /**
+     * Makes a file name relative to the root of the archive, dropping its empty and {@code .} segments, so that
+     * {@code ./a//b} and {@code /a/./b} both become {@code a/b}.
+     *
+     * @param name The name of a file, as written in the tar stream.
+     * @return The normalised name, which is empty if nothing's left of it.
+     * @throws IOException Thrown when the name has a {@code ..} segment.
+     */
+    private static String
+    normalise(String name)
+    throws IOException
+    {
+        StringBuilder normalised= new StringBuilder(name.length());
+        for(String segment : name.split("/"))
+        {
+            if(segment.isEmpty() || segment.equals(".")) {continue;}
+            if(segment.equals("..")) {throw new IOException("Tar entry name leaves the archive: " + name);}
+
+            if(normalised.length()> 0) {normalised.append('/');}
+            normalised.append(segment);
+        }
+
+        return normalised.toString();
+    }
+
+    /**
+     * Reads a full block from the tar stream.
+     *
+     * @param block The buffer that's to hold the block.
+     * @return {@code true} if a block was read; {@code false} if the stream ended right before it.
+     * @throws IOException Thrown when the stream can't be read or ends in the middle of the block.
+     */
+    private boolean
+    readBlock(byte[] block)
+    throws IOException
+    {
+        int offset= 0;
+        while(offset< block.length)
+        {
+            int read= input.read(block, offset, block.length - offset);
+            if(read== -1)
+            {
+                if(offset== 0) {return false;}
+                throw new EOFException("Truncated tar header");
+            }
+            offset+= read;
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads the contents of a metadata entry, such as a long name, into memory.
+     *
+     * @param size The size of the contents.
+     * @return The contents of the entry.
+     * @throws IOException Thrown when the stream can't be read or the entry is too large to be metadata.
+     */
+    private byte[]
+    readContents(long size)
+    throws IOException
+    {
+        if(size> 1024 * 1024) {throw new IOException("Tar metadata entry too large");}
+
+        EntryStream entry= new EntryStream(size);
+        byte[] contents= new byte[(int) size];
+        int offset= 0;
+        while(offset< contents.length)
+        {
+            int read= entry.read(contents, offset, contents.length - offset);
+            if(read== -1) {throw new EOFException("Truncated tar entry");}
+            offset+= read;
+        }
+        entry.skipRemaining();
+
+        return contents;
+    }
+
+    private static boolean
+    isEmptyBlock(byte[] block)
+    {
+        for(byte value : block) {if(value!= 0) {return false;}}
+        return true;
+    }
+
+    private static boolean
+    isUstar(byte[] block)
+    {
+        return block[257]== 'u' && block[258]== 's' && block[259]== 't' && block[260]== 'a' && block[261]== 'r';
+    }
+
+    /**
+     * Parses a NUL or space terminated octal number from a header. Also understands the base-256 encoding that GNU tar
+     * uses for sizes of 8 GiB and above, flagged by the high bit of the field's first byte.
+     *
+     * @param block The header.
+     * @param offset The offset of the field.
+     * @param length The length of the field.
+     * @return The value of the field.
+     * @throws IOException Thrown when the field isn't an octal number.
+     */
+    private static long
+    parseOctal(byte[] block, int offset, int length)
+    throws IOException
+    {
+        long value= 0;
+
+        if((block[offset] & 0x80)!= 0)
+        {
+            value= block[offset] & 0x7f;
+            for(int index= offset + 1; index< offset + length; index++) {value= (value<< 8) | (block[index] & 0xff);}
+            return value;
+        }
+
+        for(int index= offset; index< offset + length; index++)
+        {
+            byte digit= block[index];
+            if(digit== 0 || digit== ' ')
+            {
+                if(value== 0) {continue;}
+                break;
+            }
+            if(digit< '0' || digit> '7') {throw new IOException("Invalid number in tar header");}
+
+            value= (value<< 3) + (digit - '0');
+        }
+
+        return value;
+    }
+
+    /**
+     * Reads a NUL terminated string from a header.
+     *
+     * @param block The header.
+     * @param offset The offset of the field.
+     * @param length The maximum length of the field.
+     * @return The string in the field.
+     */
+    private static String
+    cString(byte[] block, int offset, int length)
+    {
+        int end= offset;
+        while(end< offset + length && block[end]!= 0) {end++;}
+
+        return new String(block, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the {@code path} record of a POSIX extended header, whose records have the form
+     * {@code "<length> <key>=<value>\n"}.
+     *
+     * @param contents The contents of the extended header.
+     * @param fallback The name to use if the header has no {@code path} record.
+     * @return The path in the extended header, or {@code fallback}.
+     * @throws IOException Thrown when a record's length isn't a number or doesn't fit the header.
+     */
+    private static String
+    paxPath(byte[] contents, String fallback)
+    throws IOException
+    {
+        String records= new String(contents, StandardCharsets.UTF_8);
+        int position= 0;
+
+        while(position< records.length())
+        {
+            int space= records.indexOf(' ', position);
+            if(space< 0) {break;}
+
+            int recordLength;
+            try                            {recordLength= Integer.parseInt(records.substring(position, space));}
+            catch(NumberFormatException e) {throw new IOException("Invalid record length in tar extended header");}
+            if(position + recordLength - 1< space + 1 || position + recordLength> records.length())
+            {
+                throw new IOException("Invalid record length in tar extended header");
+            }
+
+            String record= records.substring(space + 1, position + recordLength - 1);
+            if(record.startsWith("path=")) {return record.substring("path=".length());}
+
+            position+= recordLength;
+        }
+
+        return fallback;
+    }
+
+    /**
+     * The contents of a tar entry: reads at most the entry's size from the tar stream, and skips the padding that
+     * follows it once the entry is fully read.
+     */
+    private final class
+    EntryStream
+    extends InputStream
+    {
+        final long size;
+        long remaining;
+
+        EntryStream(long size)
+        {
+            this.size= size;
+            this.remaining= size;
+        }
+
+        @Override
+        public int
+        read()
+        throws IOException
+        {
+            byte[] single= new byte[1];
+            return read(single, 0, 1)== -1? -1: single[0] & 0xff;
+        }
+
+        @Override
+        public int
+        read(byte[] buffer, int offset, int length)
+        throws IOException
+        {
+            if(remaining== 0) {return -1;}
+
+            int read= input.read(buffer, offset, (int) Math.min(length, remaining));
+            if(read== -1) {throw new EOFException("Truncated tar entry");}
+
+            remaining-= read;
+            return read;
+        }
+
+        /**
+         * Skips whatever is left of the entry, along with its padding.
+         *
+         * @throws IOException Thrown when the tar stream can't be read.
+         */
+        void
+        skipRemaining()
+        throws IOException
+        {
+            long toSkip= remaining + (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+            remaining= 0;
+
+            byte[] buffer= new byte[BLOCK_SIZE * 16];
+            while(toSkip> 0)
+            {
+                int read= input.read(buffer, 0, (int) Math.min(buffer.length, toSkip));
+                if(read== -1) {throw new EOFException("Truncated tar entry");}
+                toSkip-= read;
+            }
+        }
+
+        @Override
+        public void
+        close() {}
+    }
+}
@@ -0,0 +1,240 @@
+package pt.bdotc.linkcloud.archive;
+
+import pt.bdotc.linkcloud.Settings;
+import pt.bdotc.linkcloud.execution.StorageExecutor;
+import pt.bdotc.linkcloud.objects.StorageObject;
+import pt.bdotc.linkcloud.transfer.TransferEngine;
+
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams several blobs of a container to the client as a single ZIP file, without using any temporary files.
+ *
+ * While a blob is being written into the ZIP file, the next few blobs are prefetched in parallel: each one is opened
+ * and its first {@code Settings.ARCHIVE_PREFETCH_BYTES} bytes are read into memory. The rest of a blob is only read
+ * once its turn comes, so the memory used by an archive is bounded regardless of the size of its blobs. Java's
+ * {@link ZipOutputStream} switches to ZIP64 records by itself whenever an entry or the archive grows past the limits of
+ * the original ZIP format.
+ *
+ * Blobs that no longer exist by the time their turn comes, e.g., deleted after they were listed, are left out of the
+ * archive, seeing as the response has already started and can't be turned into an error anymore.
+ */
+public class
+ZipArchiveStreamer
+implements StreamingOutput
+{
+    /** A blob that has been opened, along with the first bytes that were read from it. */
+    private static final class
+    PrefetchedBlob
+    {
+        final String name;
+        final byte[] head;
+        final int headLength;
+        /** The rest of the blob, or {@code null} if the whole blob fit in {@link #head}. */
+        final InputStream rest;
+
+        PrefetchedBlob(String name, byte[] head, int headLength, InputStream rest)
+        {
+            this.name= name;
+            this.head= head;
+            this.headLength= headLength;
+            this.rest= rest;
+        }
+    }
+
+    /** The CSP in which the container resides. */
+    private final StorageObject storageObject;
+    /** The container from which blobs are archived. */
+    private final String containerName;
+    /** The username of the CSP account. */
+    private final String username;
+    /** The password of the CSP account. */
+    private final String password;
+    /** The names of the blobs to archive, in the order they're to be written. */
+    private final Iterator<String> blobNames;
+
+    /**
+     * Prepares the archive of a set of blobs. No blob is read until the application server asks for the archive to be
+     * written.
+     *
+     * @param storageObject The CSP in which the container resides.
+     * @param containerName The container from which blobs are archived.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @param blobNames The names of the blobs to archive, in the order they're to be written.
+     */
+    public
+    ZipArchiveStreamer(StorageObject storageObject, String containerName, String username, String password,
+                       Iterator<String> blobNames)
+    {
+        this.storageObject= storageObject;
+        this.containerName= containerName;
+        this.username= username;
+        this.password= password;
+        this.blobNames= blobNames;
+    }
+
+    /**
+     * Opens a blob and reads its first bytes.
+     *
+     * @param blobName The name of the blob to prefetch.
+     * @return The prefetched blob, or {@code null} if it doesn't exist.
+     * @throws CompletionException Thrown when reading the blob fails.
+     */
+    private PrefetchedBlob
+    prefetch(String blobName)
+    throws CompletionException
+    {
+        InputStream blobStream;
+        try
+        {
+            blobStream= storageObject.downloadBlob(containerName, blobName, username, password);
+        }
+        catch(NotFoundException blobMissing)
+        {
+            return null;
+        }
+
+        byte[] head= new byte[Settings.ARCHIVE_PREFETCH_BYTES];
+        int headLength= 0;
+
+        try
+        {
+            int read= 0;
+            while(headLength< head.length && (read= blobStream.read(head, headLength, head.length - headLength))!= -1)
+            {
+                headLength+= read;
+            }
+
+        // Blob fit entirely in memory
+            if(read== -1)
+            {
+                blobStream.close();
+                return new PrefetchedBlob(blobName, head, headLength, null);
+            }
+
+            return new PrefetchedBlob(blobName, head, headLength, blobStream);
+        }
+        catch(IOException readError)
+        {
+            closeQuietly(blobStream);
+            throw new CompletionException(readError);
+        }
+    }
+
+    /**
+     * Starts prefetching blobs until the prefetch window is full or there are no more blobs to archive.
+     *
+     * @param window The blobs being prefetched, in archive order.
+     */
+    private void
+    fillWindow(Deque<CompletableFuture<PrefetchedBlob>> window)
+    {
+        while(window.size()< Settings.ARCHIVE_PREFETCH_BLOBS && blobNames.hasNext())
+        {
+            String blobName= blobNames.next();
+            window.addLast(StorageExecutor.supplyInBackground(() -> prefetch(blobName)));
+        }
+    }
+
+    /**
+     * Writes the ZIP file into the client's response.
+     *
+     * @param output The stream of the client's response.
+     * @throws IOException Thrown when a blob can't be read or the response can't be written. Seeing as the response
+     *         has already started by then, the client sees it as a truncated archive.
+     */
+    @Override
+    public void
+    write(OutputStream output)
+    throws IOException
+    {
+        Deque<CompletableFuture<PrefetchedBlob>> window= new ArrayDeque<>();
+        ZipOutputStream zipStream= new ZipOutputStream(output);
+        zipStream.setLevel(Settings.ARCHIVE_COMPRESSION_LEVEL);
+
+        try
+        {
+            fillWindow(window);
+            while(!window.isEmpty())
+            {
+                PrefetchedBlob blob= await(window.removeFirst());
+                fillWindow(window);
+                if(blob== null) {continue;}
+
+            // Write the entry, starting with the bytes that are already in memory
+                zipStream.putNextEntry(new ZipEntry(blob.name));
+                zipStream.write(blob.head, 0, blob.headLength);
+                if(blob.rest!= null)
+                {
+                    try
+                    {
+                        TransferEngine.copy(blob.rest, zipStream, -1);
+                    }
+                    finally
+                    {
+                        closeQuietly(blob.rest);
+                    }
+                }
+                zipStream.closeEntry();
+            }
+
+            zipStream.finish();
+            zipStream.flush();
+        }
+        finally
+        {
+        // Release the blobs that were prefetched but never written
+            for(CompletableFuture<PrefetchedBlob> pending : window)
+            {
+                pending.thenAccept(blob -> closeQuietly(blob== null? null: blob.rest));
+            }
+        }
+    }
+
+    /**
+     * Waits for a blob to be prefetched.
+     *
+     * @param prefetch The prefetch of the blob.
+     * @return The prefetched blob.
+     * @throws IOException Thrown when the blob couldn't be prefetched.
+     */
+    private static PrefetchedBlob
+    await(CompletableFuture<PrefetchedBlob> prefetch)
+    throws IOException
+    {
+        try
+        {
+            return prefetch.join();
+        }
+        catch(CompletionException prefetchError)
+        {
+            throw new IOException("Error prefetching blob", prefetchError.getCause());
+        }
+    }
+
+    /**
+     * Closes a stream, ignoring any errors, seeing as there's nothing left to do with it.
+     *
+     * @param stream The stream to close; may be {@code null}.
+     */
+    private static void
+    closeQuietly(InputStream stream)
+    {
+        if(stream== null) {return;}
+
+        try                        {stream.close();}
+        catch(IOException ignored) {}
+    }
+}
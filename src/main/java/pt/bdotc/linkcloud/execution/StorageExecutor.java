@@ -0,0 +1,173 @@
+package pt.bdotc.linkcloud.execution;
+
+import pt.bdotc.linkcloud.Settings;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * The executor on which the blocking work of each request, i.e., the calls to the
+ * {@link pt.bdotc.linkcloud.objects.StorageObject StorageObject} implementations, is run. Depending on the application's
+ * {@link Settings}, this work is run in one of three ways:
+ * <ul>
+ *    <li>On a new virtual thread per task {@code (Settings.VIRTUAL_THREADS)}, if the running JDK supports them;</li>
+ *    <li>On a fixed pool of platform threads {@code (Settings.WORKER_THREADS)};</li>
+ *    <li>Directly on the application server's request thread, which is the default.</li>
+ * </ul>
+ *
+ * Virtual threads are created through reflection, seeing as this application still targets Java 8. When they're asked
+ * for on a JDK that doesn't have them, a warning is logged and the platform thread settings apply instead.
+ *
+ * Responses are resumed on this executor as well, so that the contents of downloads are copied to the client by the
+ * same kind of thread that fetched them, rather than by the application server's.
+ */
+public final class
+StorageExecutor
+{
+    private static final Logger LOGGER= Logger.getLogger(StorageExecutor.class.getName());
+
+    /** The executor in use, or {@code null} if tasks are to run on the calling thread. */
+    private static final ExecutorService EXECUTOR= createExecutor();
+    /** The executor used by {@link #supplyInBackground}: the virtual threads of {@link #EXECUTOR} if it has them, or
+     *  else a cached pool, so that requests that wait for background tasks can't take up every thread of a fixed pool
+     *  that those tasks are queued on. */
+    private static final ExecutorService BACKGROUND=
+        EXECUTOR!= null && !(EXECUTOR instanceof ThreadPoolExecutor)?
+            EXECUTOR: Executors.newCachedThreadPool(daemonThreads("linkcloud-background-"));
+
+    private
+    StorageExecutor() {}
+
+    /**
+     * Builds the executor that matches the application's settings.
+     *
+     * @return The executor to use, or {@code null} if tasks should run on the calling thread.
+     */
+    private static ExecutorService
+    createExecutor()
+    {
+        if(Settings.VIRTUAL_THREADS)
+        {
+            try
+            {
+                Method factory= Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            }
+            catch(ReflectiveOperationException unsupported)
+            {
+                LOGGER.warning("linkcloud.virtualThreads is set, but Java " + System.getProperty("java.version") +
+                               " has no virtual threads; running storage calls on " +
+                               (Settings.WORKER_THREADS> 0? Settings.WORKER_THREADS + " platform threads instead":
+                                                            "the request threads instead"));
+            }
+        }
+
+        if(Settings.WORKER_THREADS> 0)
+        {
+            return Executors.newFixedThreadPool(Settings.WORKER_THREADS, daemonThreads("linkcloud-storage-"));
+        }
+
+        return null;
+    }
+
+    /**
+     * Builds a factory of numbered daemon threads, so that they don't keep the application server from shutting down.
+     *
+     * @param namePrefix The prefix of the names of the threads.
+     * @return The thread factory.
+     */
+    public static ThreadFactory
+    daemonThreads(String namePrefix)
+    {
+        final AtomicInteger threadCounter= new AtomicInteger();
+        return task ->
+        {
+            Thread thread= new Thread(task, namePrefix + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Describes the execution mode in use, e.g., for load test reports.
+     *
+     * @return {@code "virtual threads"}, the number of platform threads of the pool, or {@code "calling thread"}.
+     */
+    public static String
+    describe()
+    {
+        if(EXECUTOR== null)                           {return "calling thread";}
+        if(!(EXECUTOR instanceof ThreadPoolExecutor)) {return "virtual threads";}
+        return ((ThreadPoolExecutor) EXECUTOR).getCorePoolSize() + " platform threads";
+    }
+
+    /**
+     * Tells whether tasks run on the thread that hands them over, i.e., whether neither virtual threads nor a pool of
+     * platform threads is in use.
+     *
+     * @return {@code true} if tasks run on the calling thread.
+     */
+    public static boolean
+    runsOnCallingThread()
+    {
+        return EXECUTOR== null;
+    }
+
+    /**
+     * Runs a given task according to the application's execution mode.
+     *
+     * @param task The task to run.
+     */
+    public static void
+    execute(Runnable task)
+    {
+        if(EXECUTOR== null) {task.run();}
+        else                {EXECUTOR.execute(task);}
+    }
+
+    /**
+     * Runs a given task according to the application's execution mode, giving back its result through a future.
+     *
+     * @param task The task to run.
+     * @param <T> The type of the result of the task.
+     * @return A future that completes with the result of the task, or exceptionally with whatever it throws.
+     */
+    public static <T> CompletableFuture<T>
+    supply(Supplier<T> task)
+    {
+        return CompletableFuture.supplyAsync(task, StorageExecutor::execute);
+    }
+
+    /**
+     * Runs a given task according to the application's execution mode, signaling its completion through a future.
+     *
+     * @param task The task to run.
+     * @return A future that completes when the task is done, or exceptionally with whatever it throws.
+     */
+    public static CompletableFuture<Void>
+    run(Runnable task)
+    {
+        return CompletableFuture.runAsync(task, StorageExecutor::execute);
+    }
+
+    /**
+     * Runs a given task off the calling thread, even when the application's execution mode would run it on the calling
+     * thread. Meant for work that's to overlap with the caller's own, such as prefetching.
+     *
+     * @param task The task to run.
+     * @param <T> The type of the result of the task.
+     * @return A future that completes with the result of the task, or exceptionally with whatever it throws.
+     */
+    public static <T> CompletableFuture<T>
+    supplyInBackground(Supplier<T> task)
+    {
+        return CompletableFuture.supplyAsync(task, BACKGROUND);
+    }
+}
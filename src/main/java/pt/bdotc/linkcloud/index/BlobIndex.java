@@ -0,0 +1,423 @@
+package pt.bdotc.linkcloud.index;
+
+import pt.bdotc.linkcloud.Settings;
+import pt.bdotc.linkcloud.execution.StorageExecutor;
+import pt.bdotc.linkcloud.objects.BlobInfo;
+import pt.bdotc.linkcloud.objects.StorageObject;
+
+import javax.ws.rs.NotFoundException;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of the {@link ContainerIndex} objects kept by the application, one per CSP, account and container. A
+ * container is indexed the first time it's queried through {@link #get}, and is then reconciled with its CSP in the
+ * background, a pass starting {@code Settings.BLOB_INDEX_RECONCILE_SECONDS} seconds after the previous one ended. Each
+ * pass walks the listing {@value #RECONCILE_BATCH_BLOBS} blobs at a time, on a pool of {@value #RECONCILER_THREADS}
+ * threads shared by every index, so that large containers take turns with the others.
+ *
+ * Indexes that aren't queried for {@code Settings.BLOB_INDEX_IDLE_SECONDS} are dropped, and so are the least recently
+ * queried ones when more than {@code Settings.BLOB_INDEX_MAX_CONTAINERS} containers, or more than
+ * {@code Settings.BLOB_INDEX_MAX_ENTRIES} blobs in all, would be indexed. A container with more blobs than that isn't
+ * indexed at all, and isn't tried again until a reconciliation interval went by.
+ */
+public final class
+BlobIndex
+{
+    /** Number of blobs a reconciliation walks at a time, which is the size of a segment of an Azure listing. */
+    private static final int RECONCILE_BATCH_BLOBS= 5000;
+    /** Number of threads on which the reconciliations run. */
+    private static final int RECONCILER_THREADS= 4;
+
+    /** The indexes of all containers, keyed by {@link #key}. */
+    private static final ConcurrentHashMap<String, ContainerIndex> indexes= new ConcurrentHashMap<>();
+    /** The time, in milliseconds since the epoch, until which a container that was too large isn't indexed, keyed by
+     *  {@link #key}. */
+    private static final ConcurrentHashMap<String, Long> tooLarge= new ConcurrentHashMap<>();
+
+    /** The threads that run the background reconciliations of every index. */
+    private static final ScheduledExecutorService reconciler=
+        new ScheduledThreadPoolExecutor(RECONCILER_THREADS,
+                                        StorageExecutor.daemonThreads("linkcloud-index-reconciler-"));
+
+    private
+    BlobIndex() {}
+
+    /**
+     * Builds the key under which the index of a container is kept.
+     *
+     * @param provider The name of the CSP.
+     * @param username The username of the CSP account.
+     * @param containerName The name of the container.
+     * @return The key of the container's index.
+     */
+    private static String
+    key(String provider, String username, String containerName)
+    {
+        return provider + '/' + username + '/' + containerName;
+    }
+
+    /**
+     * Gives the index of a container, building it if it doesn't exist yet. Building an index requires a full listing
+     * of the container, so the first call for a container is as slow as that listing. When the given credentials
+     * aren't the ones the index was built with, they're validated against the CSP before the index is handed out.
+     *
+     * @param provider The name of the CSP.
+     * @param storageObject The CSP in which the container resides.
+     * @param containerName The name of the container.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @return The up-to-date index of the container, or {@code null} if the container has more blobs than
+     *         {@code Settings.BLOB_INDEX_MAX_ENTRIES}, in which case it has to be listed from the CSP.
+     * @throws NotFoundException Thrown when the container doesn't exist. See also the StorageObject classes
+     *         implemented.
+     */
+    public static ContainerIndex
+    get(String provider, StorageObject storageObject, String containerName, String username, String password)
+    throws NotFoundException
+    {
+        String key= key(provider, username, containerName);
+        ContainerIndex index= indexes.get(key);
+
+        if(index== null)
+        {
+            Long refusedUntil= tooLarge.get(key);
+            if(refusedUntil!= null && refusedUntil> System.currentTimeMillis()) {return null;}
+
+            ContainerIndex candidate= new ContainerIndex(storageObject, containerName, username, password);
+            index= indexes.putIfAbsent(key, candidate);
+
+        // This call won the race, so it fills the index and schedules its reconciliation
+            if(index== null)
+            {
+                try
+                {
+                    boolean filled= false;
+                    while(!filled && candidate.count()<= Settings.BLOB_INDEX_MAX_ENTRIES)
+                    {
+                        filled= candidate.reconcile(RECONCILE_BATCH_BLOBS);
+                    }
+                }
+                catch(RuntimeException listingError)
+                {
+                    indexes.remove(key, candidate);
+                    candidate.ready().completeExceptionally(listingError);
+                    throw listingError;
+                }
+
+            // Stop the listing as soon as the container turns out too large, so that it isn't held in memory
+                if(candidate.count()> Settings.BLOB_INDEX_MAX_ENTRIES)
+                {
+                    candidate.endPass();
+                    refuse(key, candidate);
+                    candidate.ready().complete(false);
+                    return null;
+                }
+
+                tooLarge.remove(key);
+                schedule(key, candidate, Settings.BLOB_INDEX_RECONCILE_SECONDS);
+                evictLeastRecentlyUsed(candidate);
+                return candidate;
+            }
+        }
+
+    // Wait for whichever call is filling the index
+        try
+        {
+            if(!index.ready().join()) {return null;}
+        }
+        catch(CompletionException listingError)
+        {
+            throw (RuntimeException) listingError.getCause();
+        }
+
+    // Make sure that the client may access this container
+        if(!index.hasCredentials(username, password))
+        {
+            if(!storageObject.containerExists(containerName, username, password))
+            {
+                throw new NotFoundException("Container " + containerName + " doesn't exist.");
+            }
+            index.setCredentials(username, password);
+        }
+
+        index.markUsed();
+        return index;
+    }
+
+    /**
+     * Gives the index of a container, but only if it's already being kept.
+     *
+     * @param provider The name of the CSP.
+     * @param username The username of the CSP account.
+     * @param containerName The name of the container.
+     * @return The index of the container, or {@code null} if it isn't indexed.
+     */
+    public static ContainerIndex
+    find(String provider, String username, String containerName)
+    {
+        ContainerIndex index= indexes.get(key(provider, username, containerName));
+        if(index== null || !index.ready().isDone() || index.ready().isCompletedExceptionally() ||
+           !index.ready().join())
+        {
+            return null;
+        }
+
+        index.markUsed();
+        return index;
+    }
+
+    /**
+     * Records a blob that was just uploaded through this service into the index of its container, if there's one, and
+     * drops the container's cached listing.
+     *
+     * @param provider The name of the CSP.
+     * @param username The username of the CSP account.
+     * @param containerName The name of the container.
+     * @param blobName The name of the uploaded blob.
+     * @param size The size of the uploaded blob in bytes.
+     * @param contentMD5 The Base64 encoded MD5 hash of the uploaded content, or {@code null} if it isn't known.
+     */
+    public static void
+    recordUpload(String provider, String username, String containerName, String blobName, long size,
+                 String contentMD5)
+    {
+        recordUpload(provider, username, containerName, blobName, size, contentMD5, null);
+    }
+
+    /**
+     * Records a blob that was just uploaded through this service into the index of its container, if there's one,
+     * along with the SHA-256 hash of its content, and drops the container's cached listing.
+     *
+     * @param provider The name of the CSP.
+     * @param username The username of the CSP account.
+     * @param containerName The name of the container.
+     * @param blobName The name of the uploaded blob.
+     * @param size The size of the uploaded blob in bytes.
+     * @param contentMD5 The Base64 encoded MD5 hash of the uploaded content, or {@code null} if it isn't known.
+     * @param contentSHA256 The Base64 encoded SHA-256 hash of the uploaded content, or {@code null} if it isn't known.
+     */
+    public static void
+    recordUpload(String provider, String username, String containerName, String blobName, long size,
+                 String contentMD5, String contentSHA256)
+    {
+        ListingCache.invalidate(provider, username, containerName);
+
+        ContainerIndex index= indexes.get(key(provider, username, containerName));
+        if(index!= null)
+        {
+            index.put(new BlobInfo(blobName, size, null, System.currentTimeMillis(), contentMD5, contentSHA256));
+        }
+    }
+
+    /**
+     * Records an append that was just made through this service into the index of its container, if there's one, and
+     * drops the container's cached listing. Appends of the same blob may finish out of order, so the blob only ever
+     * grows to the end of the append.
+     *
+     * @param provider The name of the CSP.
+     * @param username The username of the CSP account.
+     * @param containerName The name of the container.
+     * @param blobName The name of the blob appended to.
+     * @param endOffset The offset at which the append ended, in bytes.
+     */
+    public static void
+    recordAppend(String provider, String username, String containerName, String blobName, long endOffset)
+    {
+        ListingCache.invalidate(provider, username, containerName);
+
+        ContainerIndex index= indexes.get(key(provider, username, containerName));
+        if(index!= null) {index.grow(blobName, endOffset);}
+    }
+
+    /**
+     * Records that a client was handed a signed URI with which it can upload a blob straight into the CSP. The index
+     * of the container, if there's one, forgets the blob's content hashes, and the container's listing isn't cached
+     * until the URI expires (see {@link ListingCache#writeRedirected}).
+     *
+     * @param provider The name of the CSP.
+     * @param username The username of the CSP account.
+     * @param containerName The name of the container.
+     * @param blobName The name of the blob the URI gives access to.
+     * @param expiryTime The time at which the signed URI expires, in milliseconds since the epoch.
+     */
+    public static void
+    recordRedirectedUpload(String provider, String username, String containerName, String blobName,
+                           long expiryTime)
+    {
+        ListingCache.writeRedirected(provider, username, containerName, expiryTime);
+
+        ContainerIndex index= indexes.get(key(provider, username, containerName));
+        if(index!= null) {index.forgetContent(blobName);}
+    }
+
+    /**
+     * Removes a blob that was just deleted through this service from the index of its container, if there's one, and
+     * drops the container's cached listing.
+     *
+     * @param provider The name of the CSP.
+     * @param username The username of the CSP account.
+     * @param containerName The name of the container.
+     * @param blobName The name of the deleted blob.
+     */
+    public static void
+    recordDeletion(String provider, String username, String containerName, String blobName)
+    {
+        ListingCache.invalidate(provider, username, containerName);
+
+        ContainerIndex index= indexes.get(key(provider, username, containerName));
+        if(index!= null) {index.remove(blobName);}
+    }
+
+    /**
+     * Drops the index and the cached listing of a container that was just deleted through this service, if there are
+     * any.
+     *
+     * @param provider The name of the CSP.
+     * @param username The username of the CSP account.
+     * @param containerName The name of the container.
+     */
+    public static void
+    forget(String provider, String username, String containerName)
+    {
+        ListingCache.invalidate(provider, username, containerName);
+
+        String key= key(provider, username, containerName);
+        ContainerIndex index= indexes.get(key);
+        if(index!= null) {drop(key, index);}
+    }
+
+    /**
+     * Drops the least recently queried indexes while more containers are indexed than
+     * {@code Settings.BLOB_INDEX_MAX_CONTAINERS}, or more blobs than {@code Settings.BLOB_INDEX_MAX_ENTRIES}.
+     *
+     * @param kept An index that's not to be dropped, such as the one that was just built.
+     */
+    private static void
+    evictLeastRecentlyUsed(ContainerIndex kept)
+    {
+        while(true)
+        {
+            long entries= 0;
+            Map.Entry<String, ContainerIndex> leastRecentlyUsed= null;
+            for(Map.Entry<String, ContainerIndex> entry : indexes.entrySet())
+            {
+                entries+= entry.getValue().count();
+                if(entry.getValue()!= kept && (leastRecentlyUsed== null ||
+                                               entry.getValue().lastUsed()< leastRecentlyUsed.getValue().lastUsed()))
+                {
+                    leastRecentlyUsed= entry;
+                }
+            }
+            if(leastRecentlyUsed== null ||
+               indexes.size()<= Settings.BLOB_INDEX_MAX_CONTAINERS && entries<= Settings.BLOB_INDEX_MAX_ENTRIES)
+            {
+                return;
+            }
+
+            drop(leastRecentlyUsed.getKey(), leastRecentlyUsed.getValue());
+        }
+    }
+
+    /**
+     * Drops the index of a container that has too many blobs to be indexed, and remembers not to index it again until
+     * a reconciliation interval went by. Containers that are no longer refused are forgotten first, and none is
+     * remembered while {@code Settings.BLOB_INDEX_MAX_CONTAINERS} of them are.
+     *
+     * @param key The key of the index.
+     * @param index The index to drop.
+     */
+    private static void
+    refuse(String key, ContainerIndex index)
+    {
+        drop(key, index);
+
+        long now= System.currentTimeMillis();
+        if(tooLarge.size()>= Settings.BLOB_INDEX_MAX_CONTAINERS) {tooLarge.values().removeIf(until -> until<= now);}
+        if(tooLarge.size()< Settings.BLOB_INDEX_MAX_CONTAINERS)
+        {
+            tooLarge.put(key, now + Settings.BLOB_INDEX_RECONCILE_SECONDS * 1000L);
+        }
+    }
+
+    /**
+     * Schedules the next batch of the background reconciliation of an index.
+     *
+     * @param key The key of the index.
+     * @param index The index to reconcile.
+     * @param delaySeconds The time to wait before the batch, in seconds.
+     */
+    private static void
+    schedule(String key, ContainerIndex index, long delaySeconds)
+    {
+        index.setReconciliation(reconciler.schedule(() -> reconcileQuietly(key, index), delaySeconds,
+                                                    TimeUnit.SECONDS));
+    }
+
+    /**
+     * Drops an index and stops its background reconciliation, unless it has already been replaced.
+     *
+     * @param key The key of the index.
+     * @param index The index to drop.
+     */
+    private static void
+    drop(String key, ContainerIndex index)
+    {
+        if(indexes.remove(key, index)) {index.cancelReconciliation();}
+    }
+
+    /**
+     * Runs a batch of the background reconciliation of an index, and schedules the next one: right away while the
+     * pass isn't over, behind the batches of other indexes that are already due, or after a reconciliation interval
+     * once it is. If the container no longer exists, has grown too large, or the index hasn't been queried for
+     * {@code Settings.BLOB_INDEX_IDLE_SECONDS}, the index is dropped. Other failures give up the pass, seeing as the
+     * next one will try again; the index keeps serving its last known state in the meantime.
+     *
+     * @param key The key of the index.
+     * @param index The index to reconcile.
+     */
+    private static void
+    reconcileQuietly(String key, ContainerIndex index)
+    {
+        if(System.currentTimeMillis() - index.lastUsed()> Settings.BLOB_INDEX_IDLE_SECONDS * 1000L)
+        {
+            drop(key, index);
+            return;
+        }
+
+        boolean passOver;
+        try
+        {
+            passOver= index.reconcile(RECONCILE_BATCH_BLOBS);
+        }
+        catch(NotFoundException containerMissing)
+        {
+            drop(key, index);
+            return;
+        }
+        catch(RuntimeException listingError)
+        {
+        // Transient CSP error or revoked credentials; keep the last known state until the next attempt
+            schedule(key, index, Settings.BLOB_INDEX_RECONCILE_SECONDS);
+            return;
+        }
+
+        if(index.count()> Settings.BLOB_INDEX_MAX_ENTRIES)
+        {
+            index.endPass();
+            refuse(key, index);
+            return;
+        }
+
+        if(passOver)
+        {
+            schedule(key, index, Settings.BLOB_INDEX_RECONCILE_SECONDS);
+            evictLeastRecentlyUsed(index);
+        }
+        else {schedule(key, index, 0);}
+    }
+}
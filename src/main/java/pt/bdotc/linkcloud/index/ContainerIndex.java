@@ -0,0 +1,515 @@
+package pt.bdotc.linkcloud.index;
+
+import pt.bdotc.linkcloud.objects.BlobInfo;
+import pt.bdotc.linkcloud.objects.StorageObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Local, sorted copy of the metadata of the blobs of a single container. It's kept by name, by size and by content
+ * hashes (MD5, and SHA-256 for the blobs uploaded through this service), so that prefix queries, size-ordered
+ * queries, content lookups and the container's statistics can be answered from memory instead of listing the
+ * container in the CSP.
+ *
+ * The index is brought up to date by the service's own uploads and deletions as soon as they succeed, and reconciled
+ * with the CSP in the background by {@link #reconcile}. A reconciliation pass walks the container's listing a batch
+ * at a time, so that passes of many containers can take turns, and stamps the blobs it sees with a new generation
+ * number; only those whose ETag or size changed are updated. Blobs left with an older generation once the pass is
+ * over no longer exist and are dropped. Blobs that the service uploads or deletes while a pass is running are left
+ * alone by that pass, seeing as its listing may predate those changes.
+ */
+public class
+ContainerIndex
+{
+    /** Orders blobs from the largest to the smallest, breaking ties by name. */
+    private static final Comparator<BlobInfo> LARGEST_FIRST= Comparator.comparingLong(BlobInfo::getSize).reversed()
+                                                                       .thenComparing(BlobInfo::getName);
+
+    /** A blob of the index, along with the generation of the reconciliation pass that last saw it. */
+    private static final class
+    Entry
+    {
+        final BlobInfo blob;
+        final long generation;
+
+        Entry(BlobInfo blob, long generation)
+        {
+            this.blob= blob;
+            this.generation= generation;
+        }
+    }
+
+    /** The CSP in which the container resides. */
+    private final StorageObject storageObject;
+    /** The name of the indexed container. */
+    private final String containerName;
+    /** Blobs of the container, sorted by name. */
+    private final ConcurrentSkipListMap<String, Entry> byName= new ConcurrentSkipListMap<>();
+    /** Blobs of the container, sorted by {@link #LARGEST_FIRST}. */
+    private final ConcurrentSkipListSet<BlobInfo> bySize= new ConcurrentSkipListSet<>(LARGEST_FIRST);
+    /** Name of a blob for every known content MD5 hash of the container. */
+    private final ConcurrentHashMap<String, String> byContentMD5= new ConcurrentHashMap<>();
+    /** Name of a blob for every known content SHA-256 hash of the container. */
+    private final ConcurrentHashMap<String, String> byContentSHA256= new ConcurrentHashMap<>();
+    /** Completes once the index has been filled for the first time, with {@code false} if it was given up. */
+    private final CompletableFuture<Boolean> ready= new CompletableFuture<>();
+
+    /** Generation of the reconciliation pass that's currently running or that ran last. */
+    private long generation= 0;
+    /** The listing walked by the running reconciliation pass, or {@code null} when no pass is running. Only used by
+     *  the thread running the pass's current batch. */
+    private Iterator<BlobInfo> pass= null;
+    /** Generation of the running reconciliation pass. */
+    private long passGeneration;
+    /** Names of the blobs uploaded or deleted through this service since the running reconciliation pass began, or
+     *  {@code null} when no pass is running. */
+    private Set<String> changedDuringPass= null;
+    /** Sum of the sizes of all blobs in the index. */
+    private long totalBytes= 0;
+    /** Username of the CSP account used to reconcile the index. */
+    private volatile String username;
+    /** Password of the CSP account used to reconcile the index. */
+    private volatile String password;
+    /** The next scheduled batch of the background reconciliation of this index. */
+    private volatile ScheduledFuture<?> reconciliation;
+    /** Whether the index was dropped, so that its reconciliation isn't scheduled anymore. */
+    private volatile boolean cancelled;
+    /** Time at which the index was last queried, in milliseconds since the epoch. */
+    private volatile long lastUsed= System.currentTimeMillis();
+
+    /**
+     * Creates an empty index for a container.
+     *
+     * @param storageObject The CSP in which the container resides.
+     * @param containerName The name of the container.
+     * @param username The username of the CSP account used to list the container.
+     * @param password The password of the CSP account used to list the container.
+     */
+    ContainerIndex(StorageObject storageObject, String containerName, String username, String password)
+    {
+        this.storageObject= storageObject;
+        this.containerName= containerName;
+        this.username= username;
+        this.password= password;
+    }
+
+/*----------------
+* --- UPDATING ---
+* ----------------*/
+
+    /**
+     * Adds a blob to the index or replaces the blob with the same name.
+     *
+     * @param blob The blob to add.
+     */
+    public synchronized void
+    put(BlobInfo blob)
+    {
+        if(changedDuringPass!= null) {changedDuringPass.add(blob.getName());}
+        put(blob, generation);
+    }
+
+    /**
+     * Adds a blob to the index, stamped with a given generation, or replaces the blob with the same name. The SHA-256
+     * hash of the replaced blob is kept when the CSP doesn't give one and the content is the same, as far as its size
+     * and MD5 hash tell.
+     *
+     * @param blob The blob to add.
+     * @param blobGeneration The generation to stamp the blob with.
+     */
+    private synchronized void
+    put(BlobInfo blob, long blobGeneration)
+    {
+        Entry current= byName.get(blob.getName());
+        if(current!= null && blob.getContentSHA256()== null && current.blob.getContentSHA256()!= null &&
+           blob.getContentMD5()!= null && blob.getContentMD5().equals(current.blob.getContentMD5()) &&
+           blob.getSize()== current.blob.getSize())
+        {
+            blob= new BlobInfo(blob.getName(), blob.getSize(), blob.getETag(), blob.getLastModified(),
+                               blob.getContentMD5(), current.blob.getContentSHA256());
+        }
+
+        Entry previous= byName.put(blob.getName(), new Entry(blob, blobGeneration));
+        if(previous!= null) {unlink(previous.blob);}
+
+        bySize.add(blob);
+        totalBytes+= blob.getSize();
+        if(blob.getContentMD5()!= null)    {byContentMD5.put(blob.getContentMD5(), blob.getName());}
+        if(blob.getContentSHA256()!= null) {byContentSHA256.put(blob.getContentSHA256(), blob.getName());}
+    }
+
+    /**
+     * Removes a blob that has just been taken out of {@link #byName} from the other structures of the index.
+     *
+     * @param blob The blob to remove.
+     */
+    private synchronized void
+    unlink(BlobInfo blob)
+    {
+        bySize.remove(blob);
+        totalBytes-= blob.getSize();
+        if(blob.getContentMD5()!= null)    {byContentMD5.remove(blob.getContentMD5(), blob.getName());}
+        if(blob.getContentSHA256()!= null) {byContentSHA256.remove(blob.getContentSHA256(), blob.getName());}
+    }
+
+    /**
+     * Makes a blob at least a given size, adding it to the index if it isn't there. Its content hashes are forgotten,
+     * seeing as its content changed.
+     *
+     * @param blobName The name of the blob.
+     * @param minimumSize The size the blob is known to have at least, in bytes.
+     */
+    public synchronized void
+    grow(String blobName, long minimumSize)
+    {
+        Entry entry= byName.get(blobName);
+        long size= entry== null? minimumSize: Math.max(entry.blob.getSize(), minimumSize);
+
+        put(new BlobInfo(blobName, size, null, System.currentTimeMillis(), null));
+    }
+
+    /**
+     * Forgets the content hashes of a blob that may be overwritten behind the service's back, so that it isn't taken
+     * to have its current content until the next reconciliation says so. Its size is left as is until then.
+     *
+     * @param blobName The name of the blob.
+     */
+    public synchronized void
+    forgetContent(String blobName)
+    {
+        Entry entry= byName.get(blobName);
+        if(entry== null) {return;}
+
+        BlobInfo blob= entry.blob;
+        put(new BlobInfo(blob.getName(), blob.getSize(), blob.getETag(), blob.getLastModified(), null));
+    }
+
+    /**
+     * Removes a blob from the index, if it's there.
+     *
+     * @param blobName The name of the blob to remove.
+     */
+    public synchronized void
+    remove(String blobName)
+    {
+        if(changedDuringPass!= null) {changedDuringPass.add(blobName);}
+
+        Entry previous= byName.remove(blobName);
+        if(previous!= null) {unlink(previous.blob);}
+    }
+
+    /**
+     * Updates a blob seen by a reconciliation pass. A blob whose ETag and size didn't change is only stamped with the
+     * pass's generation, keeping what the index knows about its content.
+     *
+     * @param blob The blob as listed by the CSP.
+     * @param blobGeneration The generation of the pass.
+     */
+    private synchronized void
+    refresh(BlobInfo blob, long blobGeneration)
+    {
+        Entry current= byName.get(blob.getName());
+        if(current!= null && blob.getETag()!= null && blob.getETag().equals(current.blob.getETag()) &&
+           blob.getSize()== current.blob.getSize())
+        {
+            byName.put(blob.getName(), new Entry(current.blob, blobGeneration));
+        }
+        else {put(blob, blobGeneration);}
+    }
+
+    /**
+     * Walks the next batch of the container's listing in the CSP, starting a reconciliation pass if none is running.
+     * Once the listing is over, the blobs that the pass didn't see no longer exist and are dropped. Only one segment of
+     * the listing is held in memory at a time. Batches of a pass mustn't run at the same time.
+     *
+     * @param batch The largest number of blobs to walk.
+     * @return {@code true} if the pass is over, {@code false} if there's more of the listing to walk.
+     * @throws RuntimeException Thrown when the listing fails, in which case the pass is given up. See the
+     *         StorageObject classes implemented.
+     */
+    boolean
+    reconcile(int batch)
+    throws RuntimeException
+    {
+        try
+        {
+            if(pass== null)
+            {
+                synchronized(this)
+                {
+                    passGeneration= ++generation;
+                    changedDuringPass= new HashSet<>();
+                }
+                pass= storageObject.listBlobInfo(containerName, null, username, password).iterator();
+            }
+
+            for(int walked= 0; walked< batch && pass.hasNext(); walked++)
+            {
+                BlobInfo blob= pass.next();
+            // The listing may have been taken before the blob was changed, in which case it would undo the change
+                synchronized(this)
+                {
+                    if(!changedDuringPass.contains(blob.getName())) {refresh(blob, passGeneration);}
+                }
+            }
+            if(pass.hasNext()) {return false;}
+
+        // Drop blobs that this pass didn't see, unless they were changed while it was running
+            synchronized(this)
+            {
+                Iterator<Map.Entry<String, Entry>> entries= byName.entrySet().iterator();
+                while(entries.hasNext())
+                {
+                    Map.Entry<String, Entry> entry= entries.next();
+                    if(entry.getValue().generation< passGeneration && !changedDuringPass.contains(entry.getKey()))
+                    {
+                        entries.remove();
+                        unlink(entry.getValue().blob);
+                    }
+                }
+            }
+        }
+        catch(RuntimeException listingError)
+        {
+            endPass();
+            throw listingError;
+        }
+
+        endPass();
+        ready.complete(true);
+        return true;
+    }
+
+    /**
+     * Ends the running reconciliation pass, whether it's over or given up.
+     */
+    void
+    endPass()
+    {
+        pass= null;
+        synchronized(this) {changedDuringPass= null;}
+    }
+
+/*---------------
+* --- QUERIES ---
+* ---------------*/
+
+    /**
+     * Lists the blobs whose names start with a given prefix, sorted by name.
+     *
+     * @param prefix The prefix of the blobs' names; {@code null} matches every blob.
+     * @param limit The maximum number of blobs to return; 0 or less returns all of them.
+     * @return The blobs that match the prefix.
+     */
+    public List<BlobInfo>
+    byPrefix(String prefix, int limit)
+    {
+        List<BlobInfo> result= new ArrayList<>();
+        Map<String, Entry> candidates= prefix== null? byName: byName.tailMap(prefix);
+
+        for(Map.Entry<String, Entry> candidate : candidates.entrySet())
+        {
+            if(prefix!= null && !candidate.getKey().startsWith(prefix)) {break;}
+            if(limit> 0 && result.size()>= limit)                        {break;}
+
+            result.add(candidate.getValue().blob);
+        }
+
+        return result;
+    }
+
+    /**
+     * Lists the blobs whose names start with a given prefix, from the largest to the smallest.
+     *
+     * @param prefix The prefix of the blobs' names; {@code null} matches every blob.
+     * @param limit The maximum number of blobs to return; 0 or less returns all of them.
+     * @return The blobs that match the prefix.
+     */
+    public List<BlobInfo>
+    largest(String prefix, int limit)
+    {
+        List<BlobInfo> result= new ArrayList<>();
+
+        if(prefix== null)
+        {
+            for(BlobInfo blob : bySize)
+            {
+                if(limit> 0 && result.size()>= limit) {break;}
+                result.add(blob);
+            }
+            return result;
+        }
+
+    // Only the blobs with the prefix are walked, keeping the largest ones seen so far, smallest at the head
+        PriorityQueue<BlobInfo> largest= new PriorityQueue<>(LARGEST_FIRST.reversed());
+        for(Map.Entry<String, Entry> candidate : byName.tailMap(prefix).entrySet())
+        {
+            if(!candidate.getKey().startsWith(prefix)) {break;}
+
+            largest.add(candidate.getValue().blob);
+            if(limit> 0 && largest.size()> limit) {largest.poll();}
+        }
+
+        result.addAll(largest);
+        Collections.sort(result, LARGEST_FIRST);
+        return result;
+    }
+
+    /**
+     * Gives a blob of the index.
+     *
+     * @param blobName The name of the blob.
+     * @return The blob, or {@code null} if it isn't in the index.
+     */
+    public BlobInfo
+    find(String blobName)
+    {
+        Entry entry= byName.get(blobName);
+        return entry== null? null: entry.blob;
+    }
+
+    /**
+     * Finds a blob with a given content, through the MD5 hash of its content.
+     *
+     * @param contentMD5 The Base64 encoded MD5 hash of the content.
+     * @return The name of a blob with that content, or {@code null} if there's none in the index.
+     */
+    public String
+    findByContentMD5(String contentMD5)
+    {
+        return byContentMD5.get(contentMD5);
+    }
+
+    /**
+     * Finds a blob with a given content, through the SHA-256 hash of its content.
+     *
+     * @param contentSHA256 The Base64 encoded SHA-256 hash of the content.
+     * @return The name of a blob with that content, or {@code null} if there's none in the index.
+     */
+    public String
+    findByContentSHA256(String contentSHA256)
+    {
+        return byContentSHA256.get(contentSHA256);
+    }
+
+    /**
+     * Gives the number of blobs in the container.
+     *
+     * @return The number of blobs in the index.
+     */
+    public long
+    count()
+    {
+        return byName.size();
+    }
+
+    /**
+     * Gives the number of bytes used by the container.
+     *
+     * @return The sum of the sizes of all blobs in the index.
+     */
+    public synchronized long
+    totalBytes()
+    {
+        return totalBytes;
+    }
+
+/*----------------------------
+* --- INTERNAL BOOKKEEPING ---
+* ----------------------------*/
+
+    /**
+     * Tells whether or not the given credentials are the ones this index was last reconciled with.
+     *
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @return {@code true} if both the username and the password match.
+     */
+    boolean
+    hasCredentials(String username, String password)
+    {
+        return this.username.equals(username) && this.password.equals(password);
+    }
+
+    /**
+     * Replaces the credentials used to reconcile the index, e.g., after the account's key has been rotated.
+     *
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     */
+    void
+    setCredentials(String username, String password)
+    {
+        this.username= username;
+        this.password= password;
+    }
+
+    /**
+     * Records that the index was just queried, so that it isn't dropped for being idle.
+     */
+    void
+    markUsed()
+    {
+        lastUsed= System.currentTimeMillis();
+    }
+
+    /**
+     * Gives the time at which the index was last queried.
+     *
+     * @return The time, in milliseconds since the epoch.
+     */
+    long
+    lastUsed()
+    {
+        return lastUsed;
+    }
+
+    /**
+     * Gives the future that completes once the index has been filled for the first time, with {@code true}, or with
+     * {@code false} if the container was too large to be indexed.
+     *
+     * @return The readiness future of the index.
+     */
+    CompletableFuture<Boolean>
+    ready()
+    {
+        return ready;
+    }
+
+    /**
+     * Stores the next scheduled batch of the background reconciliation of this index, so that it can be cancelled when
+     * the index is dropped. It's cancelled right away if the index was already dropped.
+     *
+     * @param reconciliation The scheduled batch.
+     */
+    void
+    setReconciliation(ScheduledFuture<?> reconciliation)
+    {
+        this.reconciliation= reconciliation;
+        if(cancelled) {reconciliation.cancel(false);}
+    }
+
+    /**
+     * Stops the background reconciliation of this index, including the batches scheduled from now on.
+     */
+    void
+    cancelReconciliation()
+    {
+        cancelled= true;
+        ScheduledFuture<?> scheduled= reconciliation;
+        if(scheduled!= null) {scheduled.cancel(false);}
+    }
+}
@@ -0,0 +1,330 @@
+package pt.bdotc.linkcloud.index;
+
+import pt.bdotc.linkcloud.Settings;
+import pt.bdotc.linkcloud.metrics.Metrics;
+import pt.bdotc.linkcloud.objects.StorageObject;
+
+import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.NotFoundException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the full listings of containers, as built by {@link StorageObject#listBlobs}, so that clients that poll a
+ * container don't have it listed again on every request. Each listing has a strong ETag, the MD5 hash of its contents,
+ * with which clients can ask for it only if it changed.
+ *
+ * A listing is served as is until it's {@code Settings.LISTING_CACHE_SECONDS} old, and is then listed again. There's
+ * nothing cheaper to check it against in the meantime: CSPs such as Azure don't change a container's ETag when its
+ * blobs change, so that age bounds how long changes made by others take to show up. Changes made through this service
+ * drop the container's listing right away, through {@link #invalidate}. Containers into which clients were handed
+ * signed URIs to upload blobs straight into the CSP aren't cached at all until those URIs expire (see
+ * {@link #writeRedirected}), since there's no telling when the uploads happen.
+ *
+ * Listings are cached per CSP, account and container, and are only served to clients with the same password as the
+ * one they were listed with.
+ */
+public final class
+ListingCache
+{
+    /** A cached listing of a container. */
+    public static final class
+    Listing
+    {
+        private final byte[] contents;
+        private final String etag;
+        private final String password;
+        /** Time at which the container was listed, in milliseconds since the epoch. */
+        private final long listedAt;
+
+        private
+        Listing(byte[] contents, String password, long listedAt)
+        {
+            this.contents= contents;
+            this.etag= hash(contents);
+            this.password= password;
+            this.listedAt= listedAt;
+        }
+
+        /**
+         * Gives the XML file of the listing.
+         *
+         * @return The contents of the XML file, which mustn't be changed.
+         */
+        public byte[]
+        getContents()
+        {
+            return contents;
+        }
+
+        /**
+         * Gives the strong ETag of the listing, which only changes when its contents change.
+         *
+         * @return The ETag, without quotes.
+         */
+        public String
+        getETag()
+        {
+            return etag;
+        }
+
+        private boolean
+        readableWith(String password)
+        {
+            return MessageDigest.isEqual(this.password.getBytes(StandardCharsets.UTF_8),
+                                         password.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** The cached listings, keyed by {@link #key}. */
+    private static final ConcurrentHashMap<String, Listing> listings= new ConcurrentHashMap<>();
+    /** A token for every listing being made, which is dropped when the container changes meanwhile, so that a listing
+     *  that may be out of date isn't cached. */
+    private static final ConcurrentHashMap<String, Object> pendingListings= new ConcurrentHashMap<>();
+    /** Time until which each container may be written through a signed URI, in milliseconds since the epoch, keyed
+     *  by {@link #key}. */
+    private static final ConcurrentHashMap<String, Long> redirectedWrites= new ConcurrentHashMap<>();
+    /** Number of containers above which expired entries are dropped from {@link #redirectedWrites}. */
+    private static final int MAX_REDIRECTED_WRITES= 10000;
+    /** Number of bytes of the cached listings. */
+    private static final AtomicLong cachedBytes= new AtomicLong();
+
+    /** Number of listings served from the cache without reaching the CSP. */
+    private static final LongAdder cacheHits= Metrics.counter("listing.cacheHits");
+    /** Number of listings that had to be listed by the CSP. */
+    private static final LongAdder cacheMisses= Metrics.counter("listing.cacheMisses");
+    static
+    {
+        Metrics.gauge("listing.cachedBytes", cachedBytes::get);
+    }
+
+    private
+    ListingCache() {}
+
+    /**
+     * Builds the key under which the listing of a container is kept.
+     *
+     * @param provider The name of the CSP.
+     * @param username The username of the CSP account.
+     * @param containerName The name of the container.
+     * @return The key of the container's listing.
+     */
+    private static String
+    key(String provider, String username, String containerName)
+    {
+        return provider + '/' + username + '/' + containerName;
+    }
+
+    /**
+     * Computes the ETag of the contents of a listing.
+     *
+     * @param contents The contents.
+     * @return The hexadecimal MD5 hash of the contents.
+     */
+    private static String
+    hash(byte[] contents)
+    {
+        try
+        {
+            StringBuilder hex= new StringBuilder();
+            for(byte value : MessageDigest.getInstance("MD5").digest(contents))
+            {
+                hex.append(String.format("%02x", value));
+            }
+            return hex.toString();
+        }
+        catch(NoSuchAlgorithmException e)
+        {
+        // Should never happen
+            throw new InternalServerErrorException("MD5 not available");
+        }
+    }
+
+    /**
+     * Gives the listing of a container, either from the cache or freshly listed by the CSP.
+     *
+     * @param provider The name of the CSP.
+     * @param storageObject The CSP in which the container resides.
+     * @param containerName The name of the container.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @return The listing of the container.
+     * @throws NotFoundException Thrown when the container doesn't exist. See also the StorageObject classes
+     *         implemented.
+     * @throws InternalServerErrorException Thrown when the listing can't be read. See also the StorageObject classes
+     *         implemented.
+     */
+    public static Listing
+    get(String provider, StorageObject storageObject, String containerName, String username, String password)
+    throws NotFoundException, InternalServerErrorException
+    {
+        long now= System.currentTimeMillis();
+        String key= key(provider, username, containerName);
+        if(Settings.LISTING_CACHE_SECONDS<= 0 || writableUntilLater(key, now))
+        {
+            return new Listing(read(storageObject.listBlobs(containerName, username, password), containerName),
+                               password, now);
+        }
+
+        Listing cached= listings.get(key);
+        if(cached!= null && cached.readableWith(password) &&
+           now - cached.listedAt< Settings.LISTING_CACHE_SECONDS * 1000L)
+        {
+            cacheHits.increment();
+            return cached;
+        }
+
+        cacheMisses.increment();
+        Object token= new Object();
+        pendingListings.put(key, token);
+        try
+        {
+            Listing listing= new Listing(read(storageObject.listBlobs(containerName, username, password),
+                                              containerName),
+                                         password, now);
+
+            if(pendingListings.remove(key, token)) {store(key, listing);}
+            return listing;
+        }
+        finally
+        {
+            pendingListings.remove(key, token);
+        }
+    }
+
+    /**
+     * Reads the XML file of a listing.
+     *
+     * @param listing The XML file, which is closed.
+     * @param containerName The name of the listed container.
+     * @return The contents of the XML file.
+     * @throws InternalServerErrorException Thrown when the XML file can't be read.
+     */
+    private static byte[]
+    read(InputStream listing, String containerName)
+    throws InternalServerErrorException
+    {
+        try(InputStream xml= listing)
+        {
+            ByteArrayOutputStream contents= new ByteArrayOutputStream();
+            byte[] buffer= new byte[8192];
+            int read;
+            while((read= xml.read(buffer))!= -1) {contents.write(buffer, 0, read);}
+
+            return contents.toByteArray();
+        }
+        catch(IOException readError)
+        {
+            throw new InternalServerErrorException("Error reading the listing of container " + containerName);
+        }
+    }
+
+    /**
+     * Caches a listing, making room for it if needed: listings that are too old to be served are dropped first, and
+     * then every listing if that's not enough. Listings larger than the whole cache aren't cached.
+     *
+     * @param key The key of the listing.
+     * @param listing The listing.
+     */
+    private static void
+    store(String key, Listing listing)
+    {
+        int size= listing.contents.length;
+        if(size> Settings.LISTING_CACHE_BYTES) {return;}
+
+        if(cachedBytes.get() + size> Settings.LISTING_CACHE_BYTES)
+        {
+            long oldest= System.currentTimeMillis() - Settings.LISTING_CACHE_SECONDS * 1000L;
+            for(Map.Entry<String, Listing> cached : listings.entrySet())
+            {
+                if(cached.getValue().listedAt< oldest) {remove(cached.getKey(), cached.getValue());}
+            }
+        }
+        if(cachedBytes.get() + size> Settings.LISTING_CACHE_BYTES) {clear();}
+
+        Listing replaced= listings.put(key, listing);
+        cachedBytes.addAndGet(size - (replaced== null? 0: replaced.contents.length));
+    }
+
+    /**
+     * Drops the cached listing of a container that was just changed through this service, if there's one. A listing
+     * that's being made meanwhile isn't cached either.
+     *
+     * @param provider The name of the CSP.
+     * @param username The username of the CSP account.
+     * @param containerName The name of the container.
+     */
+    public static void
+    invalidate(String provider, String username, String containerName)
+    {
+        String key= key(provider, username, containerName);
+        pendingListings.remove(key);
+
+        Listing removed= listings.remove(key);
+        if(removed!= null) {cachedBytes.addAndGet(-removed.contents.length);}
+    }
+
+    /**
+     * Stops caching the listing of a container until a signed URI that lets clients upload blobs into it expires, and
+     * drops the listing that's cached, if there's one.
+     *
+     * @param provider The name of the CSP.
+     * @param username The username of the CSP account.
+     * @param containerName The name of the container.
+     * @param expiryTime The time at which the signed URI expires, in milliseconds since the epoch.
+     */
+    public static void
+    writeRedirected(String provider, String username, String containerName, long expiryTime)
+    {
+        if(redirectedWrites.size()>= MAX_REDIRECTED_WRITES)
+        {
+            long now= System.currentTimeMillis();
+            redirectedWrites.values().removeIf(until -> until<= now);
+        }
+
+        redirectedWrites.merge(key(provider, username, containerName), expiryTime, Math::max);
+        invalidate(provider, username, containerName);
+    }
+
+    /**
+     * Tells whether or not a container may still be written through a signed URI.
+     *
+     * @param key The key of the container's listing.
+     * @param now The current time, in milliseconds since the epoch.
+     * @return {@code true} if a signed URI that lets clients upload blobs into the container hasn't expired yet.
+     */
+    private static boolean
+    writableUntilLater(String key, long now)
+    {
+        Long until= redirectedWrites.get(key);
+        if(until== null) {return false;}
+        if(until> now)   {return true;}
+
+        redirectedWrites.remove(key, until);
+        return false;
+    }
+
+    private static void
+    remove(String key, Listing listing)
+    {
+        if(listings.remove(key, listing)) {cachedBytes.addAndGet(-listing.contents.length);}
+    }
+
+    private static void
+    clear()
+    {
+        for(String key : listings.keySet())
+        {
+            Listing removed= listings.remove(key);
+            if(removed!= null) {cachedBytes.addAndGet(-removed.contents.length);}
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package pt.bdotc.linkcloud.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the application's metrics, which are either counters, incremented by the code they measure, or gauges,
+ * computed whenever the metrics are read. All metrics are exposed by the
+ * {@link pt.bdotc.linkcloud.resources.MetricsResource MetricsResource}.
+ */
+public final class
+Metrics
+{
+    /** The counters, keyed by name. */
+    private static final ConcurrentHashMap<String, LongAdder> counters= new ConcurrentHashMap<>();
+    /** The gauges, keyed by name. */
+    private static final ConcurrentHashMap<String, LongSupplier> gauges= new ConcurrentHashMap<>();
+
+    private
+    Metrics() {}
+
+    /**
+     * Gives the counter with a given name, creating it if it doesn't exist yet.
+     *
+     * @param name The name of the counter, e.g. {@code transfer.bytes}.
+     * @return The counter.
+     */
+    public static LongAdder
+    counter(String name)
+    {
+        return counters.computeIfAbsent(name, newCounter -> new LongAdder());
+    }
+
+    /**
+     * Registers a gauge, replacing any other gauge with the same name.
+     *
+     * @param name The name of the gauge.
+     * @param value Computes the value of the gauge.
+     */
+    public static void
+    gauge(String name, LongSupplier value)
+    {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Reads the current value of every metric.
+     *
+     * @return The value of every metric, sorted by name.
+     */
+    public static SortedMap<String, Long>
+    snapshot()
+    {
+        SortedMap<String, Long> values= new TreeMap<>();
+        for(Map.Entry<String, LongAdder> counter : counters.entrySet())
+        {
+            values.put(counter.getKey(), counter.getValue().sum());
+        }
+        for(Map.Entry<String, LongSupplier> gauge : gauges.entrySet())
+        {
+            values.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+
+        return values;
+    }
+}
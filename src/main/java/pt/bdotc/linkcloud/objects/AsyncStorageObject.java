@@ -0,0 +1,123 @@
+package pt.bdotc.linkcloud.objects;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Non-blocking counterpart of the {@link StorageObject} interface. Each method starts the operation it describes and
+ * returns straight away with a {@link CompletionStage} that completes once the CSP is done with it. Failures are
+ * reported by completing the stage exceptionally with the same exceptions that the matching {@link StorageObject}
+ * methods would throw.
+ *
+ * CSPs that have a non-blocking SDK should implement this interface directly. All others are run through a
+ * {@link BlockingStorageObjectAdapter}.
+ */
+public interface
+AsyncStorageObject
+{
+/*---------------------
+* --- BLOB REQUESTS ---
+* ---------------------*/
+
+    /**
+     * Non-blocking version of {@link StorageObject#downloadBlob}.
+     *
+     * @param containerName The name of the container to access.
+     * @param blobName The name of the blob to download.
+     * @param username The name of the account to use in some CSP.
+     * @param password The password of the account in the CSP.
+     * @return A stage that completes with the {@link java.io.InputStream} that the application server will use to
+     *         send the content to the client.
+     */
+    CompletionStage<InputStream>
+    downloadBlobAsync(String containerName, String blobName, String username, String password);
+
+    /**
+     * Non-blocking version of {@link StorageObject#uploadBlob}.
+     *
+     * @param containerName The name of the container to access.
+     * @param blobName The name of the blob to create or overwrite.
+     * @param username The name of the account to use in some CSP.
+     * @param password The password of the account in the CSP.
+     * @param blobContents An {@link java.io.InputStream} with the contents to upload.
+     * @param size The size of the contents to upload in bytes.
+     * @return A stage that completes once the blob has been fully uploaded.
+     */
+    CompletionStage<Void>
+    uploadBlobAsync(String containerName, String blobName, String username, String password,
+                    InputStream blobContents, long size);
+
+    /**
+     * Non-blocking version of {@link StorageObject#blobExists}.
+     *
+     * @param containerName The name of the container to access.
+     * @param blobName Name of the blob to check whether or not it exists.
+     * @param username Name of the CSP account to access.
+     * @param password Password of the CSP account.
+     * @return A stage that completes with the size of the blob in bytes.
+     */
+    CompletionStage<Long>
+    blobExistsAsync(String containerName, String blobName, String username, String password);
+
+    /**
+     * Non-blocking version of {@link StorageObject#deleteBlob}.
+     *
+     * @param containerName The name of the container to access.
+     * @param blobName The name of the blob to delete.
+     * @param username The username of the account on a CSP.
+     * @param password The password of the account to use on a CSP.
+     * @return A stage that completes once the blob has been deleted.
+     */
+    CompletionStage<Void>
+    deleteBlobAsync(String containerName, String blobName, String username, String password);
+
+/*--------------------------
+* --- CONTAINER REQUESTS ---
+* --------------------------*/
+
+    /**
+     * Non-blocking version of {@link StorageObject#listBlobs}. The XML file has the same format as the one described
+     * in that method.
+     *
+     * @param containerName The name of the container to access.
+     * @param username The name of the account in a CSP.
+     * @param password The password of the account to use in a CSP.
+     * @return A stage that completes with an {@link java.io.InputStream} that the application server will use to
+     *         stream the XML file to the client.
+     */
+    CompletionStage<InputStream>
+    listBlobsAsync(String containerName, String username, String password);
+
+    /**
+     * Non-blocking version of {@link StorageObject#createContainerIfNotExists}.
+     *
+     * @param containerName The name of the container to create.
+     * @param username The username of the account of the CSP used.
+     * @param password The password of the account of the CSP used.
+     * @return A stage that completes once the container exists.
+     */
+    CompletionStage<Void>
+    createContainerIfNotExistsAsync(String containerName, String username, String password);
+
+    /**
+     * Non-blocking version of {@link StorageObject#containerExists}.
+     *
+     * @param containerName The name of the container to test.
+     * @param username The username of the account to use in a CSP.
+     * @param password The password of the CSP account.
+     * @return A stage that completes with {@code true} if container exists; {@code false} if it doesn't.
+     */
+    CompletionStage<Boolean>
+    containerExistsAsync(String containerName, String username, String password);
+
+    /**
+     * Non-blocking version of {@link StorageObject#deleteContainer}.
+     *
+     * @param containerName The name of the container to delete.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @return A stage that completes once the container has been deleted.
+     */
+    CompletionStage<Void>
+    deleteContainerAsync(String containerName, String username, String password);
+}
@@ -1,25 +1,52 @@
 package pt.bdotc.linkcloud.objects;
 
+import com.microsoft.azure.storage.AccessCondition;
 import com.microsoft.azure.storage.CloudStorageAccount;
 import com.microsoft.azure.storage.StorageErrorCodeStrings;
 import com.microsoft.azure.storage.StorageException;
 import com.microsoft.azure.storage.blob.*;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import pt.bdotc.linkcloud.Settings;
+import pt.bdotc.linkcloud.execution.StorageExecutor;
+import pt.bdotc.linkcloud.metrics.Metrics;
+import pt.bdotc.linkcloud.transfer.ContentChunker;
 
 import javax.ejb.Stateless;
 import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.ForbiddenException;
 import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.NotFoundException;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
 import java.io.*;
 import java.net.HttpURLConnection;
+import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.StreamSupport;
 
 /**
  * An implementation of the {@link StorageObject} interface for the Microsoft Azure Storage Service. All content that's
@@ -32,6 +59,43 @@ implements StorageObject
 {
     /** Variable that defines the maximum waiting time for the creation of a container. */
     private final double CREATE_CONTAINER_TIMEOUT= 60.0;
+    /** Variable that defines the maximum waiting time for a server-side copy of a blob. */
+    private final double COPY_BLOB_TIMEOUT= 60.0;
+    /** Variable that defines the time to wait between two checks of the state of a server-side copy, in ms. */
+    private final long COPY_BLOB_POLL_INTERVAL= 100;
+    /** Variable that defines how far back the start of a shared access signature is set, in ms, to make up for clock
+     *  differences between this server and Azure. */
+    private final long SAS_CLOCK_SKEW= 5 * 60 * 1000;
+    /** Valid names of storage accounts: 3 to 24 lowercase letters and digits. */
+    private static final Pattern ACCOUNT_NAME= Pattern.compile("[a-z0-9]{3,24}");
+    /** Maximum number of storage accounts kept in {@link #accounts}. */
+    private static final int MAX_ACCOUNTS= 10000;
+    /** The storage accounts parsed so far, keyed by {@link #accountKey}, from the least to the most recently used. */
+    private static final Map<String, CloudStorageAccount> accounts=
+        Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true));
+
+    /** Largest number of blocks a block blob can have. */
+    private static final int MAX_BLOCKS= 50000;
+    /** Prefix of the block IDs of delta uploads. Along with the 32 bytes of a SHA-256 hash, it makes IDs of 45 bytes,
+     *  60 characters in Base64, which is as long as the IDs of the blocks the SDK uploads (a UUID, a dash and a
+     *  6-digit number). Azure requires every block of a blob to have an ID of the same length. */
+    private static final byte[] DELTA_BLOCK_ID_PREFIX= "linkcloud-d1:".getBytes(StandardCharsets.US_ASCII);
+    /** Length of the Base64 encoded block IDs of delta uploads. */
+    private static final int DELTA_BLOCK_ID_LENGTH= 60;
+
+    /** Number of bytes sent into Azure by delta uploads. */
+    private static final LongAdder deltaSentBytes= Metrics.counter("delta.sentBytes");
+    /** Number of bytes of delta uploads that Azure already had, and weren't sent. */
+    private static final LongAdder deltaSkippedBytes= Metrics.counter("delta.skippedBytes");
+
+    /** An operation on a blob, as run by {@link #onAnyBlobType}. */
+    private interface
+    BlobOperation<T>
+    {
+        T
+        apply(CloudBlob blob)
+        throws StorageException;
+    }
 
 /*----------------------------
 * --- CSP-SPECIFIC METHODS ---
@@ -40,7 +104,9 @@ implements StorageObject
     /**
      * Gives the caller a {@link com.microsoft.azure.storage.CloudStorageAccount CloudStorageAccount} object that can
      * be used to access a storage account. Also validates the username of the storage account, seeing as Azure's
-     * Storage SDK doesn't do that out-of-the-box.
+     * Storage SDK doesn't do that out-of-the-box. The account is reached through {@code Settings.AZURE_BLOB_ENDPOINT}
+     * when it's set, such as a local stand-in for load tests. Accounts are parsed once, and kept for the following
+     * requests with the same credentials; the least recently used one is evicted once {@value #MAX_ACCOUNTS} are kept.
      *
      * @param username The name of the storage account.
      * @param password The access key of the storage account.
@@ -53,16 +119,24 @@ implements StorageObject
     initStorageConnection(String username, String password)
     throws BadRequestException, InternalServerErrorException
     {
+        String key= accountKey(username, password);
+        CloudStorageAccount account= accounts.get(key);
+        if(account!= null) {return account;}
+
     // Validate username and build connection string
         /* Azure SDK doesn't validate username for us. */
-        if(!username.matches("[a-z1-9]+")) {throw new BadRequestException("Invalid container name");}
-        final String storageConnectionString= "DefaultEndpointsProtocol=https;" +
-                                              "AccountName=" + username + ";" +
-                                              "AccountKey=" + password;
+        if(!ACCOUNT_NAME.matcher(username).matches()) {throw new BadRequestException("Invalid account name");}
+        String storageConnectionString= "DefaultEndpointsProtocol=https;" +
+                                        "AccountName=" + username + ";" +
+                                        "AccountKey=" + password;
+        if(Settings.AZURE_BLOB_ENDPOINT!= null)
+        {
+            storageConnectionString+= ";BlobEndpoint=" + Settings.AZURE_BLOB_ENDPOINT.replace("{account}", username);
+        }
 
         try
         {
-            return CloudStorageAccount.parse(storageConnectionString);
+            account= CloudStorageAccount.parse(storageConnectionString);
         }
         catch(InvalidKeyException keyException)
         {
@@ -72,6 +146,51 @@ implements StorageObject
         {
             throw new InternalServerErrorException("Error parsing connection string");
         }
+
+        synchronized(accounts)
+        {
+            accounts.put(key, account);
+
+            Iterator<CloudStorageAccount> eldest= accounts.values().iterator();
+            while(accounts.size()> MAX_ACCOUNTS && eldest.hasNext())
+            {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return account;
+    }
+
+    /**
+     * Builds the key under which a storage account is kept in {@link #accounts}.
+     *
+     * @param username The name of the storage account.
+     * @param password The access key of the storage account.
+     * @return The key of the storage account.
+     */
+    private static String
+    accountKey(String username, String password)
+    {
+        return username + "\n" + password;
+    }
+
+    /**
+     * Builds the exception for an error of Azure that the operation that got it doesn't expect. Requests that Azure
+     * refused are answered with a 403 HTTP code, seeing as it's the client's credentials that are wrong; anything else
+     * is answered with a 500 HTTP code.
+     *
+     * @param error The error of Azure.
+     * @return A {@link ForbiddenException} or an {@link InternalServerErrorException}.
+     */
+    private static WebApplicationException
+    unexpectedError(StorageException error)
+    {
+        if(error.getHttpStatusCode()== HttpURLConnection.HTTP_FORBIDDEN)
+        {
+            return new ForbiddenException("Azure refused the credentials");
+        }
+
+        return new InternalServerErrorException("Unknown error encountered");
     }
 
     /**
@@ -104,7 +223,7 @@ implements StorageObject
             int httpStatusCode= containerError.getHttpStatusCode();
 
             if(httpStatusCode== 400) {throw new BadRequestException("Invalid container name " + containerName);}
-            else                     {throw new InternalServerErrorException("Unknown error encountered");}
+            else                     {throw unexpectedError(containerError);}
         }
         catch(URISyntaxException error)
         {
@@ -141,11 +260,65 @@ implements StorageObject
         }
         catch(StorageException error)
         {
+            if(error.getHttpStatusCode()== HttpURLConnection.HTTP_FORBIDDEN) {throw unexpectedError(error);}
             throw new InternalServerErrorException("Error encountered when checking if container " + containerName +
                                                    " exists or not.");
         }
     }
 
+    /**
+     * Runs an operation on a blob whose type isn't known. The blob is first taken to be a block blob, which is what
+     * uploads create; if the SDK finds out that it's actually an append blob, the operation is run again on an append
+     * blob reference. Only operations that check the blob's type, such as downloads, need this.
+     *
+     * @param container The container of the blob.
+     * @param blobName The name of the blob.
+     * @param operation The operation to run.
+     * @param <T> The type of the result of the operation.
+     * @return The result of the operation.
+     * @throws StorageException Thrown when the operation fails for any other reason.
+     * @throws URISyntaxException Thrown when the blob's name can't be parsed.
+     */
+    private static <T> T
+    onAnyBlobType(CloudBlobContainer container, String blobName, BlobOperation<T> operation)
+    throws StorageException, URISyntaxException
+    {
+        try
+        {
+            return operation.apply(container.getBlockBlobReference(blobName));
+        }
+        catch(StorageException blobError)
+        {
+            if(!StorageErrorCodeStrings.INCORRECT_BLOB_TYPE.equals(blobError.getErrorCode())) {throw blobError;}
+            return operation.apply(container.getAppendBlobReference(blobName));
+        }
+    }
+
+    /**
+     * Describes a blob with the properties that Azure returned along with it.
+     *
+     * @param blob The blob to describe.
+     * @return A {@link BlobInfo} with the blob's name, size, ETag, last modification time and content MD5 hash.
+     * @throws InternalServerErrorException Thrown when the blob's name can't be parsed.
+     */
+    private static BlobInfo
+    toBlobInfo(CloudBlob blob)
+    {
+        BlobProperties properties= blob.getProperties();
+        Date lastModified= properties.getLastModified();
+
+        try
+        {
+            return new BlobInfo(blob.getName(), properties.getLength(), properties.getEtag(),
+                                lastModified== null? 0: lastModified.getTime(), properties.getContentMD5());
+        }
+        catch(URISyntaxException e)
+        {
+        // Should never happen
+            throw new InternalServerErrorException("Error encountered when parsing a blob's name");
+        }
+    }
+
 /*---------------------
 * --- BLOB REQUESTS ---
 * ---------------------*/
@@ -177,8 +350,11 @@ implements StorageObject
         try
         {
         // Download blob
-            CloudBlockBlob blockBlob= container.getBlockBlobReference(blobName);
-            return blockBlob.openInputStream();
+            return onAnyBlobType(container, blobName, blob ->
+            {
+                blob.setStreamMinimumReadSizeInBytes(Settings.AZURE_STREAM_READ_BYTES);
+                return blob.openInputStream();
+            });
         }
         catch(StorageException blobError)
         {
@@ -187,7 +363,7 @@ implements StorageObject
 
             if     (httpStatusCode== 400) {throw new BadRequestException("Invalid blob name " + blobName);}
             else if(httpStatusCode== 404) {throw new NotFoundException("Blob " + blobName + " not found");}
-            else                          {throw new InternalServerErrorException("Unknown error encountered");}
+            else                          {throw unexpectedError(blobError);}
         }
         catch(URISyntaxException e)
         {
@@ -220,13 +396,59 @@ implements StorageObject
     // Setup access to container
         CloudBlobContainer container= initBlobContainerIfExists(username, password, containerName);
 
+        upload(container, blobName, blobContents, size);
+    }
+
+    /**
+     * Opens a container of a given Azure Storage account for many uploads. The container is checked once, here, and
+     * each upload through the returned uploader goes straight to the blob, without checking the container again.
+     *
+     * @param containerName The name of the container in which the blobs will be created.
+     * @param username The username of the Azure Storage account to use.
+     * @param password The password of the Azure Storage account.
+     * @return A {@link ContainerUploader} that uploads blobs into the container, as {@link #uploadBlob} does.
+     * @throws BadRequestException See the {@link #initBlobContainerIfExists} method of this class.
+     * @throws InternalServerErrorException See the {@link #initBlobContainerIfExists} method of this class.
+     * @throws NotFoundException See the {@link #initBlobContainerIfExists} method of this class.
+     */
+    public ContainerUploader
+    openContainer(String containerName, String username, String password)
+    throws BadRequestException, InternalServerErrorException, NotFoundException
+    {
+        CloudBlobContainer container= initBlobContainerIfExists(username, password, containerName);
+
+        return (blobName, blobContents, size) -> upload(container, blobName, blobContents, size);
+    }
+
+    /**
+     * Uploads a blob into a container whose access has already been set up.
+     *
+     * @param container The container in which the blob will be created.
+     * @param blobName The name of the blob to create or overwrite.
+     * @param blobContents An {@link java.io.InputStream InputStream} with the contents to upload.
+     * @param size The size of the contents to upload in bytes.
+     * @throws BadRequestException Thrown when the given blob name is invalid.
+     * @throws InternalServerErrorException Thrown when a non 400 HTTP error is encountered, when an IO error occurs
+     *         while sending the content into the Storage account, or when an error is encountered when trying to get
+     *         the blob's URI.
+     */
+    private static void
+    upload(CloudBlobContainer container, String blobName, InputStream blobContents, long size)
+    throws BadRequestException, InternalServerErrorException
+    {
         try
         {
             /* AFAIK, the upload() method is still streaming, not caching. This also has the
              * advantage of guaranteeing that there'll be no SegFaults while reading from the
-             * InputStream given, since it'll read exactly size bytes from it. */
+             * InputStream given, since it'll read exactly size bytes from it. The MD5 hash of
+             * the content is computed while streaming and stored with the blob. */
+            BlobRequestOptions uploadOptions= new BlobRequestOptions();
+            uploadOptions.setStoreBlobContentMD5(true);
+            uploadOptions.setSingleBlobPutThresholdInBytes(Settings.AZURE_SINGLE_PUT_BYTES);
+
             CloudBlockBlob blockBlob= container.getBlockBlobReference(blobName);
-            blockBlob.upload(blobContents, size);
+            blockBlob.setStreamWriteSizeInBytes(Settings.AZURE_STREAM_WRITE_BYTES);
+            blockBlob.upload(blobContents, size, null, uploadOptions, null);
         }
         catch(StorageException blobError)
         {
@@ -234,14 +456,13 @@ implements StorageObject
             int httpStatusCode= blobError.getHttpStatusCode();
 
             if(httpStatusCode== 400) {throw new BadRequestException("Invalid blob name " + blobName);}
-            else                     {throw new InternalServerErrorException("Unknown error encountered");}
+            else                     {throw unexpectedError(blobError);}
         }
         catch(IOException | URISyntaxException e)
         {
         // Should never happen
             throw new InternalServerErrorException("Error encountered when parsing blob " + blobName);
         }
-
     }
 
     /**
@@ -269,11 +490,12 @@ implements StorageObject
 
         try
         {
-            CloudBlockBlob blockBlob= container.getBlockBlobReference(blobName);
-
         // If blob exists, return its size
-            if(blockBlob.exists()) {return blockBlob.getProperties().getLength();}
-            else                   {throw new NotFoundException("Blob " + blobName + " doesn't exist");}
+            return onAnyBlobType(container, blobName, blob ->
+            {
+                if(blob.exists()) {return blob.getProperties().getLength();}
+                else              {throw new NotFoundException("Blob " + blobName + " doesn't exist");}
+            });
         }
         catch(StorageException blobError)
         {
@@ -281,7 +503,7 @@ implements StorageObject
             int httpStatusCode= blobError.getHttpStatusCode();
 
             if (httpStatusCode== 400) {throw new BadRequestException("Invalid blob name " + blobName);}
-            else                      {throw new InternalServerErrorException("Unknown error encountered");}
+            else                      {throw unexpectedError(blobError);}
         }
         catch(URISyntaxException e)
         {
@@ -323,7 +545,177 @@ implements StorageObject
 
             if     (httpStatusCode== 400) {throw new BadRequestException("Invalid blob name " + blobName);}
             else if(httpStatusCode== 404) {throw new NotFoundException("Blob " + blobName + " not found");}
-            else                          {throw new InternalServerErrorException("Unknown error encountered");}
+            else                          {throw unexpectedError(blobError);}
+        }
+        catch(URISyntaxException e)
+        {
+        // Should never happen
+            throw new InternalServerErrorException("Error encountered when parsing blob " + blobName);
+        }
+    }
+
+    /**
+     * Describes a given blob of a given container in an Azure account.
+     *
+     * @param containerName The name of the container to access.
+     * @param blobName The name of the blob to describe.
+     * @param username Name of the CSP account to access.
+     * @param password Password of the CSP account.
+     * @return The description of the blob, including the MD5 hash of its content if Azure has one.
+     * @throws BadRequestException Thrown when the given blob name is invalid. See also the
+     *         {@link #initBlobContainerIfExists} method of this class.
+     * @throws InternalServerErrorException Thrown when a non 400 or 404 HTTP error is encountered. See also the
+     *         {@link #initBlobContainerIfExists} method of this class.
+     * @throws NotFoundException Thrown when the blob doesn't exist. See also the {@link #initBlobContainerIfExists}
+     *         method of this class.
+     */
+    public BlobInfo
+    getBlobInfo(String containerName, String blobName, String username, String password)
+    throws BadRequestException, InternalServerErrorException, NotFoundException
+    {
+    // Setup access to container
+        CloudBlobContainer container= initBlobContainerIfExists(username, password, containerName);
+
+        try
+        {
+            return onAnyBlobType(container, blobName, blob ->
+            {
+                blob.downloadAttributes();
+                return toBlobInfo(blob);
+            });
+        }
+        catch(StorageException blobError)
+        {
+        // 400 for invalid name; 404 for missing; anything else is error
+            int httpStatusCode= blobError.getHttpStatusCode();
+
+            if     (httpStatusCode== 400) {throw new BadRequestException("Invalid blob name " + blobName);}
+            else if(httpStatusCode== 404) {throw new NotFoundException("Blob " + blobName + " not found");}
+            else                          {throw unexpectedError(blobError);}
+        }
+        catch(URISyntaxException e)
+        {
+        // Should never happen
+            throw new InternalServerErrorException("Error encountered when parsing blob " + blobName);
+        }
+    }
+
+    /**
+     * Copies a blob into another blob of the same container, using Azure's server-side copy. Copies within the same
+     * storage account are usually done by the time Azure replies; otherwise, this method waits for the copy to end.
+     *
+     * @param containerName The name of the container to access.
+     * @param sourceBlobName The name of the blob to copy.
+     * @param targetBlobName The name of the blob to create or overwrite.
+     * @param username Name of the CSP account to access.
+     * @param password Password of the CSP account.
+     * @throws BadRequestException Thrown when one of the given blob names is invalid. See also the
+     *         {@link #initBlobContainerIfExists} method of this class.
+     * @throws InternalServerErrorException Thrown when the copy fails or times out, or when a non 400 or 404 HTTP
+     *         error is encountered. See also the {@link #initBlobContainerIfExists} method of this class.
+     * @throws NotFoundException Thrown when the source blob doesn't exist. See also the
+     *         {@link #initBlobContainerIfExists} method of this class.
+     */
+    public void
+    copyBlob(String containerName, String sourceBlobName, String targetBlobName, String username, String password)
+    throws BadRequestException, InternalServerErrorException, NotFoundException
+    {
+    // Setup access to container
+        CloudBlobContainer container= initBlobContainerIfExists(username, password, containerName);
+
+        try
+        {
+            CloudBlockBlob sourceBlob= container.getBlockBlobReference(sourceBlobName);
+            CloudBlockBlob targetBlob= container.getBlockBlobReference(targetBlobName);
+            targetBlob.startCopy(sourceBlob);
+
+        // Wait for the copy to end
+            /* Timeout used to avoid going into an infinite loop. */
+            long timeStart= System.currentTimeMillis();
+            while(true)
+            {
+                targetBlob.downloadAttributes();
+                CopyStatus copyStatus= targetBlob.getCopyState().getStatus();
+
+                if(copyStatus== CopyStatus.SUCCESS) {return;}
+                if(copyStatus!= CopyStatus.PENDING ||
+                   (System.currentTimeMillis() - timeStart) / 1000.0> COPY_BLOB_TIMEOUT)
+                {
+                    throw new InternalServerErrorException("Error copying blob " + sourceBlobName);
+                }
+
+                Thread.sleep(COPY_BLOB_POLL_INTERVAL);
+            }
+        }
+        catch(StorageException blobError)
+        {
+        // 400 for invalid name; 404 for missing; anything else is error
+            int httpStatusCode= blobError.getHttpStatusCode();
+
+            if     (httpStatusCode== 400) {throw new BadRequestException("Invalid blob name " + targetBlobName);}
+            else if(httpStatusCode== 404) {throw new NotFoundException("Blob " + sourceBlobName + " not found");}
+            else                          {throw unexpectedError(blobError);}
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InternalServerErrorException("Interrupted while copying blob " + sourceBlobName);
+        }
+        catch(URISyntaxException e)
+        {
+        // Should never happen
+            throw new InternalServerErrorException("Error encountered when parsing blob " + sourceBlobName);
+        }
+    }
+
+    /**
+     * Creates a URI with a shared access signature (SAS) for a single blob. The signature is computed locally from the
+     * account's key, so no request is made to Azure; a wrong key only shows up once the client uses the URI.
+     *
+     * @param containerName The name of the container to access.
+     * @param blobName The name of the blob the URI gives access to.
+     * @param username Name of the CSP account to access.
+     * @param password Password of the CSP account.
+     * @param write {@code true} for a URI that only allows uploading the blob; {@code false} for one that only allows
+     *        downloading it.
+     * @param expiryTime The time at which the URI stops working, in milliseconds since the epoch.
+     * @return The blob's URI, with the shared access signature as its query.
+     * @throws BadRequestException Thrown when the given blob name or key is invalid. See also the
+     *         {@link #initBlobContainer} method of this class.
+     * @throws InternalServerErrorException Thrown when the signature can't be created. See also the
+     *         {@link #initBlobContainer} method of this class.
+     */
+    public URI
+    signBlobUri(String containerName, String blobName, String username, String password, boolean write,
+                long expiryTime)
+    throws BadRequestException, InternalServerErrorException
+    {
+    // Setup access to container, without checking its existence
+        CloudBlobContainer container= initBlobContainer(username, password, containerName);
+
+        try
+        {
+            SharedAccessBlobPolicy policy= new SharedAccessBlobPolicy();
+            policy.setPermissions(EnumSet.of(write? SharedAccessBlobPermissions.WRITE:
+                                                    SharedAccessBlobPermissions.READ));
+            policy.setSharedAccessStartTime(new Date(System.currentTimeMillis() - SAS_CLOCK_SKEW));
+            policy.setSharedAccessExpiryTime(new Date(expiryTime));
+
+            CloudBlockBlob blockBlob= container.getBlockBlobReference(blobName);
+            String signature= blockBlob.generateSharedAccessSignature(policy, null);
+            return new URI(blockBlob.getUri().toString() + '?' + signature);
+        }
+        catch(StorageException blobError)
+        {
+        // 400 for invalid name; anything else is error
+            int httpStatusCode= blobError.getHttpStatusCode();
+
+            if(httpStatusCode== 400) {throw new BadRequestException("Invalid blob name " + blobName);}
+            else                     {throw unexpectedError(blobError);}
+        }
+        catch(InvalidKeyException keyException)
+        {
+            throw new BadRequestException("Bad key given");
         }
         catch(URISyntaxException e)
         {
@@ -332,6 +724,273 @@ implements StorageObject
         }
     }
 
+    /**
+     * Appends contents to an append blob of a given container in an Azure account, in a single append block. The
+     * first append to a blob creates it, so appending doesn't cost more than one request in the common case. Unlike
+     * other blob operations, the existence of the container isn't checked beforehand, for the same reason.
+     *
+     * @param containerName The name of the container to access.
+     * @param blobName The name of the blob to append to.
+     * @param username Name of the CSP account to access.
+     * @param password Password of the CSP account.
+     * @param contents The contents to append, at most 4 MiB long, which is as much as an append block can take.
+     * @return The offset, in bytes, at which the contents were appended.
+     * @throws BadRequestException Thrown when the given blob name is invalid. See also the
+     *         {@link #initBlobContainer} method of this class.
+     * @throws NotFoundException Thrown when the container doesn't exist.
+     * @throws ClientErrorException Thrown, with a 409 HTTP code, when the blob exists but isn't an append blob.
+     * @throws InternalServerErrorException Thrown when any other HTTP error is encountered. See also the
+     *         {@link #initBlobContainer} method of this class.
+     */
+    public long
+    appendBlob(String containerName, String blobName, String username, String password, byte[] contents)
+    throws BadRequestException, NotFoundException, ClientErrorException, InternalServerErrorException
+    {
+    // Setup access to container, without checking its existence
+        CloudBlobContainer container= initBlobContainer(username, password, containerName);
+
+        try
+        {
+            CloudAppendBlob appendBlob= container.getAppendBlobReference(blobName);
+            try
+            {
+                return appendBlob.appendBlock(new ByteArrayInputStream(contents), contents.length);
+            }
+            catch(StorageException appendError)
+            {
+                if(!StorageErrorCodeStrings.BLOB_NOT_FOUND.equals(appendError.getErrorCode())) {throw appendError;}
+            }
+
+        // First append to this blob: create it, unless another append just did
+            try
+            {
+                appendBlob.createOrReplace(AccessCondition.generateIfNotExistsCondition(), null, null);
+            }
+            catch(StorageException createError)
+            {
+                if(createError.getHttpStatusCode()!= HttpURLConnection.HTTP_CONFLICT) {throw createError;}
+            }
+
+            return appendBlob.appendBlock(new ByteArrayInputStream(contents), contents.length);
+        }
+        catch(StorageException blobError)
+        {
+        // 400 for invalid name; 404 for missing container; 409 for other blob types; anything else is error
+            int httpStatusCode= blobError.getHttpStatusCode();
+
+            if     (httpStatusCode== 400) {throw new BadRequestException("Invalid blob name " + blobName);}
+            else if(httpStatusCode== 404)
+            {
+                throw new NotFoundException("Container " + containerName + " doesn't exist.");
+            }
+            else if(httpStatusCode== 409)
+            {
+                throw new ClientErrorException("Blob " + blobName + " isn't an append blob", Response.Status.CONFLICT);
+            }
+            else                          {throw unexpectedError(blobError);}
+        }
+        catch(IOException | URISyntaxException e)
+        {
+        // Should never happen
+            throw new InternalServerErrorException("Error encountered when parsing blob " + blobName);
+        }
+    }
+
+    /**
+     * Uploads a blob into a given container of an Azure account as a delta of its current contents. The contents are
+     * split into content-defined blocks (see {@link ContentChunker}), each named after the SHA-256 hash of its
+     * contents (see {@link #deltaBlockId}), and only the blocks the blob doesn't have yet, committed or not, are sent
+     * into Azure, up to {@code Settings.DELTA_PARALLEL_BLOCKS} at a time while the contents are read. The new block
+     * list is then committed, along with the MD5 hash of the contents.
+     *
+     * Blocks that are sent aren't lost when the upload fails: they're left uncommitted, and the next delta upload of
+     * the blob reuses them. Blobs that aren't block blobs, such as those created by appends, are uploaded whole, and
+     * so are blobs with blocks whose IDs aren't as long as those of delta uploads, such as blobs uploaded by other
+     * tools, seeing as Azure refuses blocks of another length.
+     *
+     * @param containerName The name of the container to access.
+     * @param blobName The name of the blob to create or overwrite.
+     * @param username Name of the CSP account to access.
+     * @param password Password of the CSP account.
+     * @param blobContents An {@link java.io.InputStream} with the contents to upload.
+     * @param size The size of the contents to upload in bytes.
+     * @return The number of bytes that were sent into Azure.
+     * @throws BadRequestException Thrown when the given blob name is invalid, or the contents aren't {@code size}
+     *         bytes long. See also the {@link #initBlobContainerIfExists} method of this class.
+     * @throws NotFoundException Thrown when the container doesn't exist.
+     * @throws ClientErrorException Thrown, with a 409 HTTP code, when the blob was overwritten by someone else during
+     *         the upload, or got blocks of another upload meanwhile, or with a 413 HTTP code, when the contents take
+     *         more blocks than a blob can have.
+     * @throws InternalServerErrorException Thrown when any other HTTP error is encountered. See also the
+     *         {@link #initBlobContainerIfExists} method of this class.
+     */
+    public long
+    uploadBlobDelta(String containerName, String blobName, String username, String password,
+                    InputStream blobContents, long size)
+    throws BadRequestException, NotFoundException, ClientErrorException, InternalServerErrorException
+    {
+    // Setup access to container
+        CloudBlobContainer container= initBlobContainerIfExists(username, password, containerName);
+
+        try
+        {
+            CloudBlockBlob blockBlob= container.getBlockBlobReference(blobName);
+
+        // Find which blocks the blob already has, whether they're committed or left over from a failed upload
+            Set<String> storedBlocks= new HashSet<>();
+            try
+            {
+                for(BlockEntry block : blockBlob.downloadBlockList(BlockListingFilter.ALL, null, null, null))
+                {
+                    storedBlocks.add(block.getId());
+                }
+            }
+            catch(StorageException listError)
+            {
+                if(StorageErrorCodeStrings.INVALID_BLOB_TYPE.equals(listError.getErrorCode()))
+                {
+                    upload(container, blobName, blobContents, size);
+                    return size;
+                }
+                if(!StorageErrorCodeStrings.BLOB_NOT_FOUND.equals(listError.getErrorCode())) {throw listError;}
+            }
+
+        // Blocks of another length can't be mixed with those of the delta, so the blob is replaced whole
+            for(String storedBlock : storedBlocks)
+            {
+                if(storedBlock.length()!= DELTA_BLOCK_ID_LENGTH)
+                {
+                    upload(container, blobName, blobContents, size);
+                    return size;
+                }
+            }
+
+            MessageDigest md5= MessageDigest.getInstance("MD5");
+            MessageDigest sha256= MessageDigest.getInstance("SHA-256");
+            ContentChunker chunker= new ContentChunker(new DigestInputStream(blobContents, md5),
+                                                       Settings.DELTA_MIN_BLOCK_BYTES, Settings.DELTA_AVG_BLOCK_BYTES,
+                                                       Settings.DELTA_MAX_BLOCK_BYTES);
+
+            List<BlockEntry> blockList= new ArrayList<>();
+            Deque<CompletableFuture<Void>> pendingBlocks= new ArrayDeque<>();
+            long totalBytes= 0;
+            long sentBytes= 0;
+            while(chunker.next())
+            {
+                if(blockList.size()== MAX_BLOCKS)
+                {
+                    throw new ClientErrorException("Blob " + blobName + " takes more than " + MAX_BLOCKS + " blocks",
+                                                   Response.Status.REQUEST_ENTITY_TOO_LARGE);
+                }
+
+                totalBytes+= chunker.length();
+                sha256.update(chunker.buffer(), chunker.offset(), chunker.length());
+                String blockId= deltaBlockId(sha256.digest());
+                blockList.add(new BlockEntry(blockId, BlockSearchMode.LATEST));
+
+            // Repeated blocks are only sent once
+                if(!storedBlocks.add(blockId)) {continue;}
+
+                byte[] block= Arrays.copyOfRange(chunker.buffer(), chunker.offset(),
+                                                 chunker.offset() + chunker.length());
+                sentBytes+= block.length;
+                if(pendingBlocks.size()>= Settings.DELTA_PARALLEL_BLOCKS) {awaitBlock(pendingBlocks.removeFirst());}
+
+                CloudBlockBlob blockTarget= container.getBlockBlobReference(blobName);
+                pendingBlocks.addLast(StorageExecutor.supplyInBackground(() ->
+                {
+                    try
+                    {
+                        blockTarget.uploadBlock(blockId, new ByteArrayInputStream(block), block.length);
+                        return null;
+                    }
+                    catch(StorageException | IOException blockError)
+                    {
+                        throw new CompletionException(blockError);
+                    }
+                }));
+            }
+            while(!pendingBlocks.isEmpty()) {awaitBlock(pendingBlocks.removeFirst());}
+
+            if(totalBytes!= size)
+            {
+                throw new BadRequestException("Blob " + blobName + " has " + totalBytes + " bytes instead of " + size);
+            }
+
+            blockBlob.getProperties().setContentMD5(Base64.getEncoder().encodeToString(md5.digest()));
+            blockBlob.commitBlockList(blockList);
+
+            deltaSentBytes.add(sentBytes);
+            deltaSkippedBytes.add(totalBytes - sentBytes);
+            return sentBytes;
+        }
+        catch(StorageException blobError)
+        {
+        // 400 for invalid name, for committed blocks that were replaced meanwhile, or for blocks of another upload
+        // that were sent meanwhile; anything else is error
+            int httpStatusCode= blobError.getHttpStatusCode();
+            String errorCode= blobError.getErrorCode();
+
+            if(StorageErrorCodeStrings.INVALID_BLOCK_LIST.equals(errorCode))
+            {
+                throw new ClientErrorException("Blob " + blobName + " was overwritten during the upload",
+                                               Response.Status.CONFLICT);
+            }
+            else if(StorageErrorCodeStrings.INVALID_BLOB_OR_BLOCK.equals(errorCode) ||
+                    StorageErrorCodeStrings.INVALID_BLOCK_ID.equals(errorCode))
+            {
+                throw new ClientErrorException("Blob " + blobName + " got blocks of another upload during the upload",
+                                               Response.Status.CONFLICT);
+            }
+            else if(httpStatusCode== 400) {throw new BadRequestException("Invalid blob name " + blobName);}
+            else                          {throw unexpectedError(blobError);}
+        }
+        catch(IOException | URISyntaxException | NoSuchAlgorithmException e)
+        {
+        // Should never happen
+            throw new InternalServerErrorException("Error encountered when parsing blob " + blobName);
+        }
+    }
+
+    /**
+     * Builds the ID of a block of a delta upload, which is {@value #DELTA_BLOCK_ID_LENGTH} characters long.
+     *
+     * @param hash The SHA-256 hash of the block's contents.
+     * @return The Base64 encoded ID of the block.
+     */
+    private static String
+    deltaBlockId(byte[] hash)
+    {
+        byte[] blockId= Arrays.copyOf(DELTA_BLOCK_ID_PREFIX, DELTA_BLOCK_ID_PREFIX.length + hash.length);
+        System.arraycopy(hash, 0, blockId, DELTA_BLOCK_ID_PREFIX.length, hash.length);
+
+        return Base64.getEncoder().encodeToString(blockId);
+    }
+
+    /**
+     * Waits for a block of a delta upload to be sent.
+     *
+     * @param pendingBlock The sending of the block.
+     * @throws StorageException Thrown when Azure fails to take the block.
+     * @throws IOException Thrown when the block can't be read.
+     */
+    private static void
+    awaitBlock(CompletableFuture<Void> pendingBlock)
+    throws StorageException, IOException
+    {
+        try
+        {
+            pendingBlock.join();
+        }
+        catch(CompletionException blockError)
+        {
+            Throwable cause= blockError.getCause();
+            if(cause instanceof StorageException) {throw (StorageException) cause;}
+            if(cause instanceof IOException)      {throw (IOException) cause;}
+            throw blockError;
+        }
+    }
+
 /*--------------------------
 * --- CONTAINER REQUESTS ---
 * --------------------------*/
@@ -359,51 +1018,14 @@ implements StorageObject
 
         try
         {
-        // Prepare XML building
-            DocumentBuilderFactory xmlFactory= DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder= xmlFactory.newDocumentBuilder();
-            Document doc= docBuilder.newDocument();
-            doc.setXmlStandalone(true);
-            long blobCounter= 0;
-
-        // Create root element
-            Element rootElement= doc.createElement(XML_CONTAINER_ROOT);
-            rootElement.setAttribute(XML_CONTAINER_ROOT_COUNT, Long.toString(blobCounter));
-            doc.appendChild(rootElement);
-
-        // Iterate through all blobs
+        // Describe every blob of the container's root
+            List<BlobInfo> blobs= new ArrayList<>();
             for(ListBlobItem blobItem : container.listBlobs())
             {
-                if(blobItem instanceof CloudBlob)
-                {
-                // Get blob metadata
-                    CloudBlob blob= (CloudBlob) blobItem;
-                    String blobName= blob.getName();
-                    long blobSize= blob.getProperties().getLength();
-
-                    Element blobEntry= doc.createElement(XML_BLOB);
-                    blobEntry.setAttribute(XML_BLOB_NAME, blobName);
-                    blobEntry.setAttribute(XML_BLOB_SIZE, Long.toString(blobSize));
-
-                // Create blob entry and update blob count in root element
-                    blobCounter++;
-                    rootElement.appendChild(blobEntry);
-                    rootElement.setAttribute(XML_CONTAINER_ROOT_COUNT, Long.toString(blobCounter));
-                }
+                if(blobItem instanceof CloudBlob) {blobs.add(toBlobInfo((CloudBlob) blobItem));}
             }
 
-        // Prepare XML file output
-            TransformerFactory transformerFactory= TransformerFactory.newInstance();
-            Transformer transformer= transformerFactory.newTransformer();
-            DOMSource source= new DOMSource(doc);
-
-        // Output XML file to memory
-            ByteArrayOutputStream outStream= new ByteArrayOutputStream();
-            Result result= new StreamResult(outStream);
-            transformer.transform(source, result);
-
-        // Return InputStream to XML file
-            return new ByteArrayInputStream(outStream.toByteArray());
+            return BlobListWriter.toXml(blobs);
         }
         catch (Exception exception)
         {
@@ -411,6 +1033,34 @@ implements StorageObject
         }
     }
 
+    /**
+     * Lists the blobs of a given container, including those inside virtual directories, as they're iterated. Azure
+     * returns the listing in segments sorted by blob name, so only one segment is kept in memory at a time.
+     *
+     * @param containerName The name of the container that's to be accessed.
+     * @param prefix Lists only the blobs whose names start with this prefix; {@code null} lists all blobs.
+     * @param username The username of the Storage account to use.
+     * @param password The password of the Storage account.
+     * @return An {@link Iterable} over the descriptions of the blobs of the container.
+     * @throws BadRequestException See the {@link #initBlobContainerIfExists} method of this class.
+     * @throws InternalServerErrorException See the {@link #initBlobContainerIfExists} method of this class.
+     * @throws NotFoundException See the {@link #initBlobContainerIfExists} method of this class.
+     */
+    public Iterable<BlobInfo>
+    listBlobInfo(String containerName, String prefix, String username, String password)
+    throws BadRequestException, InternalServerErrorException, NotFoundException
+    {
+    // Setup access to container
+        CloudBlobContainer container= initBlobContainerIfExists(username, password, containerName);
+        Iterable<ListBlobItem> blobItems= container.listBlobs(prefix, true, EnumSet.noneOf(BlobListingDetails.class),
+                                                              null, null);
+
+        return () -> translateListingErrors(StreamSupport.stream(blobItems.spliterator(), false)
+                                                         .filter(blobItem -> blobItem instanceof CloudBlob)
+                                                         .map(blobItem -> toBlobInfo((CloudBlob) blobItem))
+                                                         .iterator());
+    }
+
     /**
      * Creates a container, but only if it doesn't exist.
      *
@@ -480,6 +1130,41 @@ implements StorageObject
         }
     }
 
+    /**
+     * Gets the ETag of a given container. Azure only changes it when the container's metadata or access policy
+     * change, or when the container is deleted and created again, not when its blobs change.
+     *
+     * @param containerName The name of the container to describe.
+     * @param username The username of the account to use in a CSP.
+     * @param password The password of the CSP account.
+     * @return The ETag of the container.
+     * @throws BadRequestException See {@link #initBlobContainer}.
+     * @throws NotFoundException Thrown when the given container doesn't exist.
+     * @throws InternalServerErrorException Thrown when an unknown error is encountered. See also
+     *         {@link #initBlobContainer}.
+     */
+    public String
+    getContainerETag(String containerName, String username, String password)
+    throws BadRequestException, NotFoundException, InternalServerErrorException
+    {
+    // Setup access to container, whose existence is checked by fetching its properties
+        CloudBlobContainer container= initBlobContainer(username, password, containerName);
+
+        try
+        {
+            container.downloadAttributes();
+            return container.getProperties().getEtag();
+        }
+        catch(StorageException containerError)
+        {
+        // 404 for missing; anything else is error
+            int httpStatusCode= containerError.getHttpStatusCode();
+
+            if(httpStatusCode== 404) {throw new NotFoundException("Container " + containerName + " doesn't exist.");}
+            else                     {throw unexpectedError(containerError);}
+        }
+    }
+
     /**
      * Deletes a container.
      *
@@ -510,7 +1195,78 @@ implements StorageObject
 
             if     (httpStatusCode== 400) {throw new BadRequestException("Invalid container name " + containerName);}
             else if(httpStatusCode== 404) {throw new NotFoundException("Container " + containerName + " not found");}
-            else                          {throw new InternalServerErrorException("Unknown error encountered");}
+            else                          {throw unexpectedError(blobError);}
         }
     }
-}
\ No newline at end of file
+
+/*------------------------
+* --- ACCOUNT REQUESTS ---
+* ------------------------*/
+
+    /**
+     * Lists the containers of a given Storage account as they're iterated. Azure returns the listing in segments sorted
+     * by container name, so only one segment is kept in memory at a time.
+     *
+     * @param username The username of the Storage account to use.
+     * @param password The password of the Storage account.
+     * @return An {@link Iterable} over the names of the containers of the account.
+     * @throws BadRequestException See the {@link #initStorageConnection} method of this class.
+     * @throws InternalServerErrorException See the {@link #initStorageConnection} method of this class.
+     */
+    public Iterable<String>
+    listContainers(String username, String password)
+    throws BadRequestException, InternalServerErrorException
+    {
+        CloudBlobClient blobClient= initStorageConnection(username, password).createCloudBlobClient();
+        Iterable<CloudBlobContainer> containers= blobClient.listContainers();
+
+        return () -> translateListingErrors(StreamSupport.stream(containers.spliterator(), false)
+                                                         .map(CloudBlobContainer::getName)
+                                                         .iterator());
+    }
+
+    /**
+     * Wraps the iterator of a lazy listing so that the errors Azure runs into while fetching a segment are turned into
+     * the proper HTTP codes. The SDK reports them as a {@link NoSuchElementException} caused by the
+     * {@link StorageException}.
+     *
+     * @param listing The iterator of the listing.
+     * @param <T> The type of the listed items.
+     * @return The wrapped iterator.
+     * @throws ForbiddenException Thrown, while iterating, when Azure refuses the account's credentials.
+     * @throws InternalServerErrorException Thrown, while iterating, when any other error is encountered.
+     */
+    private static <T> Iterator<T>
+    translateListingErrors(Iterator<T> listing)
+    throws ForbiddenException, InternalServerErrorException
+    {
+        return new Iterator<T>()
+        {
+            @Override
+            public boolean
+            hasNext()
+            {
+                try
+                {
+                    return listing.hasNext();
+                }
+                catch(NoSuchElementException segmentError)
+                {
+                    if(!(segmentError.getCause() instanceof StorageException)) {throw segmentError;}
+
+                    int httpStatusCode= ((StorageException) segmentError.getCause()).getHttpStatusCode();
+                    if(httpStatusCode== 403) {throw new ForbiddenException("Access denied by Azure");}
+                    else                     {throw new InternalServerErrorException("Unknown error encountered");}
+                }
+            }
+
+            @Override
+            public T
+            next()
+            {
+                if(!hasNext()) {throw new NoSuchElementException();}
+                return listing.next();
+            }
+        };
+    }
+}
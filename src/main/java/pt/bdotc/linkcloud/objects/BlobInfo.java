@@ -0,0 +1,76 @@
+package pt.bdotc.linkcloud.objects;
+
+/**
+ * Immutable description of a blob, as returned by the listing methods of a {@link StorageObject}.
+ */
+public final class
+BlobInfo
+{
+    /** The name of the blob. */
+    private final String name;
+    /** The size of the blob in bytes. */
+    private final long size;
+    /** The ETag of the blob, or {@code null} if it isn't known. */
+    private final String eTag;
+    /** The last time the blob was modified, in milliseconds since the epoch. */
+    private final long lastModified;
+    /** The Base64 encoded MD5 hash of the blob's content, or {@code null} if it isn't known. */
+    private final String contentMD5;
+    /** The Base64 encoded SHA-256 hash of the blob's content, or {@code null} if it isn't known. CSPs don't keep it, so
+     *  it's only known for blobs that were uploaded through this service. */
+    private final String contentSHA256;
+
+    /**
+     * Creates the description of a blob.
+     *
+     * @param name The name of the blob.
+     * @param size The size of the blob in bytes.
+     * @param eTag The ETag of the blob, or {@code null} if it isn't known.
+     * @param lastModified The last time the blob was modified, in milliseconds since the epoch.
+     * @param contentMD5 The Base64 encoded MD5 hash of the blob's content, or {@code null} if it isn't known.
+     */
+    public
+    BlobInfo(String name, long size, String eTag, long lastModified, String contentMD5)
+    {
+        this(name, size, eTag, lastModified, contentMD5, null);
+    }
+
+    /**
+     * Creates the description of a blob whose SHA-256 hash is known.
+     *
+     * @param name The name of the blob.
+     * @param size The size of the blob in bytes.
+     * @param eTag The ETag of the blob, or {@code null} if it isn't known.
+     * @param lastModified The last time the blob was modified, in milliseconds since the epoch.
+     * @param contentMD5 The Base64 encoded MD5 hash of the blob's content, or {@code null} if it isn't known.
+     * @param contentSHA256 The Base64 encoded SHA-256 hash of the blob's content, or {@code null} if it isn't known.
+     */
+    public
+    BlobInfo(String name, long size, String eTag, long lastModified, String contentMD5, String contentSHA256)
+    {
+        this.name= name;
+        this.size= size;
+        this.eTag= eTag;
+        this.lastModified= lastModified;
+        this.contentMD5= contentMD5;
+        this.contentSHA256= contentSHA256;
+    }
+
+    public String
+    getName() {return name;}
+
+    public long
+    getSize() {return size;}
+
+    public String
+    getETag() {return eTag;}
+
+    public long
+    getLastModified() {return lastModified;}
+
+    public String
+    getContentMD5() {return contentMD5;}
+
+    public String
+    getContentSHA256() {return contentSHA256;}
+}
@@ -0,0 +1,76 @@
+package pt.bdotc.linkcloud.objects;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.*;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import static pt.bdotc.linkcloud.objects.StorageObject.*;
+
+/**
+ * Builds the XML file of a blob listing, with the format described in {@link StorageObject#listBlobs}. Shared by all
+ * the code that has to hand a listing of blobs to the client, regardless of where those blobs came from.
+ */
+public final class
+BlobListWriter
+{
+    private
+    BlobListWriter() {}
+
+    /**
+     * Builds the XML file that lists the given blobs. The file resides in memory until it's fully sent to the client.
+     *
+     * @param blobs The blobs to list, in the order they're to appear in the file.
+     * @return An {@link java.io.InputStream} object that the server will use to send the XML file.
+     * @throws ParserConfigurationException Thrown when the XML document can't be created.
+     * @throws TransformerException Thrown when the XML document can't be written.
+     */
+    public static InputStream
+    toXml(Iterable<BlobInfo> blobs)
+    throws ParserConfigurationException, TransformerException
+    {
+    // Prepare XML building
+        DocumentBuilderFactory xmlFactory= DocumentBuilderFactory.newInstance();
+        DocumentBuilder docBuilder= xmlFactory.newDocumentBuilder();
+        Document doc= docBuilder.newDocument();
+        doc.setXmlStandalone(true);
+        long blobCounter= 0;
+
+    // Create root element
+        Element rootElement= doc.createElement(XML_CONTAINER_ROOT);
+        doc.appendChild(rootElement);
+
+    // Iterate through all blobs
+        for(BlobInfo blob : blobs)
+        {
+            Element blobEntry= doc.createElement(XML_BLOB);
+            blobEntry.setAttribute(XML_BLOB_NAME, blob.getName());
+            blobEntry.setAttribute(XML_BLOB_SIZE, Long.toString(blob.getSize()));
+
+            blobCounter++;
+            rootElement.appendChild(blobEntry);
+        }
+        rootElement.setAttribute(XML_CONTAINER_ROOT_COUNT, Long.toString(blobCounter));
+
+    // Prepare XML file output
+        TransformerFactory transformerFactory= TransformerFactory.newInstance();
+        Transformer transformer= transformerFactory.newTransformer();
+        DOMSource source= new DOMSource(doc);
+
+    // Output XML file to memory
+        ByteArrayOutputStream outStream= new ByteArrayOutputStream();
+        Result result= new StreamResult(outStream);
+        transformer.transform(source, result);
+
+    // Return InputStream to XML file
+        return new ByteArrayInputStream(outStream.toByteArray());
+    }
+}
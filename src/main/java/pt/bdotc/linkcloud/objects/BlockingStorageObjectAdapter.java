@@ -0,0 +1,88 @@
+package pt.bdotc.linkcloud.objects;
+
+import pt.bdotc.linkcloud.execution.StorageExecutor;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Exposes a blocking {@link StorageObject} through the {@link AsyncStorageObject} interface. Every call is run on the
+ * {@link StorageExecutor}, so the thread that's blocked by the CSP is whichever one the application's execution mode
+ * picks (a virtual thread, a pooled thread or the caller's own thread).
+ */
+public class
+BlockingStorageObjectAdapter
+implements AsyncStorageObject
+{
+    /** The blocking implementation that does the actual work. */
+    private final StorageObject storageObject;
+
+    /**
+     * Wraps a blocking {@link StorageObject}.
+     *
+     * @param storageObject The implementation to wrap.
+     */
+    public
+    BlockingStorageObjectAdapter(StorageObject storageObject)
+    {
+        this.storageObject= storageObject;
+    }
+
+/*---------------------
+* --- BLOB REQUESTS ---
+* ---------------------*/
+
+    public CompletionStage<InputStream>
+    downloadBlobAsync(String containerName, String blobName, String username, String password)
+    {
+        return StorageExecutor.supply(() -> storageObject.downloadBlob(containerName, blobName, username, password));
+    }
+
+    public CompletionStage<Void>
+    uploadBlobAsync(String containerName, String blobName, String username, String password,
+                    InputStream blobContents, long size)
+    {
+        return StorageExecutor.run(() -> storageObject.uploadBlob(containerName, blobName, username, password,
+                                                                  blobContents, size));
+    }
+
+    public CompletionStage<Long>
+    blobExistsAsync(String containerName, String blobName, String username, String password)
+    {
+        return StorageExecutor.supply(() -> storageObject.blobExists(containerName, blobName, username, password));
+    }
+
+    public CompletionStage<Void>
+    deleteBlobAsync(String containerName, String blobName, String username, String password)
+    {
+        return StorageExecutor.run(() -> storageObject.deleteBlob(containerName, blobName, username, password));
+    }
+
+/*--------------------------
+* --- CONTAINER REQUESTS ---
+* --------------------------*/
+
+    public CompletionStage<InputStream>
+    listBlobsAsync(String containerName, String username, String password)
+    {
+        return StorageExecutor.supply(() -> storageObject.listBlobs(containerName, username, password));
+    }
+
+    public CompletionStage<Void>
+    createContainerIfNotExistsAsync(String containerName, String username, String password)
+    {
+        return StorageExecutor.run(() -> storageObject.createContainerIfNotExists(containerName, username, password));
+    }
+
+    public CompletionStage<Boolean>
+    containerExistsAsync(String containerName, String username, String password)
+    {
+        return StorageExecutor.supply(() -> storageObject.containerExists(containerName, username, password));
+    }
+
+    public CompletionStage<Void>
+    deleteContainerAsync(String containerName, String username, String password)
+    {
+        return StorageExecutor.run(() -> storageObject.deleteContainer(containerName, username, password));
+    }
+}
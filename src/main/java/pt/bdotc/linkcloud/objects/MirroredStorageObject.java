@@ -0,0 +1,1275 @@
+package pt.bdotc.linkcloud.objects;
+
+import pt.bdotc.linkcloud.Settings;
+import pt.bdotc.linkcloud.execution.StorageExecutor;
+import pt.bdotc.linkcloud.metrics.Metrics;
+import pt.bdotc.linkcloud.transfer.BufferPool;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ServerErrorException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A CSP made of several replicas, each of them a container of another CSP, that hold the same blobs. Writes are sent to
+ * every replica at once and acknowledged once {@code Settings.MIRROR_WRITE_QUORUM} of them are done, while the others
+ * carry on in the background. Reads are sent to the replica that has been answering the fastest, and fall back to the
+ * next fastest when it fails or doesn't have the blob, which may happen when it missed or is still behind on a write.
+ *
+ * The replicas of a mirror are set through {@code Settings.MIRRORS}. A replica may be accessed with the credentials of
+ * the client, or with an account of its own; in the latter case, the client has to present the account of the first
+ * replica, which then stands for the whole mirror. Replicas that fail {@value #UNHEALTHY_FAILURES} requests in a row
+ * are deemed unhealthy and only read from when every healthy replica failed, until they complete a request again.
+ *
+ * Uploads are streamed into the replicas at the pace of the quorum, and replicas that fall too far behind are dropped
+ * from them. Replicas that miss a write aren't repaired, but a replica is deemed stale for a blob from the moment a
+ * write of the blob starts until it completes that write, so it isn't read from while others have the blob as it was
+ * acknowledged. Stale replicas are only read from when no other replica answers, and are skipped by appends, until a
+ * later write of the whole blob reaches them. Failures are also counted in the {@code mirror.<name>.<replica>.errors}
+ * metric. Which blobs are stale is only known in memory: up to {@value #MAX_STALE_BLOBS} of them per replica, beyond
+ * which the replica is deemed stale for every blob until the application restarts.
+ */
+public class
+MirroredStorageObject
+implements StorageObject
+{
+    /** Number of failed requests in a row after which a replica is deemed unhealthy. */
+    private static final int UNHEALTHY_FAILURES= 3;
+    /** Weight of the latest request in the moving average of the latency of a replica. */
+    private static final double LATENCY_WEIGHT= 0.2;
+    /** Number of bytes of an upload that a replica may fall behind the quorum before it's dropped from the upload. */
+    private static final int MAX_LAG_BYTES= 4 * 1024 * 1024;
+    /** Number of stale blobs a replica keeps track of. */
+    private static final int MAX_STALE_BLOBS= 100000;
+
+    /** The threads on which the writes into the replicas run. They're of their own, rather than those of
+     *  {@link StorageExecutor}, which may be a fixed pool taken up by the requests that wait for these writes. */
+    private static final ExecutorService REPLICA_WRITES=
+        Executors.newCachedThreadPool(StorageExecutor.daemonThreads("linkcloud-mirror-"));
+
+    /** A call made to one of the replicas. */
+    @FunctionalInterface
+    private interface
+    ReplicaCall<T>
+    {
+        T apply(StorageObject storageObject, String username, String password);
+    }
+
+    /** A call made to one of the replicas, which reads a stream. */
+    @FunctionalInterface
+    private interface
+    StreamCall<T>
+    {
+        T apply(StorageObject storageObject, String username, String password, InputStream contents);
+    }
+
+    /** One of the CSPs of a mirror, along with how well it's been answering. */
+    private static final class
+    Replica
+    {
+        final String name;
+        final StorageObject storageObject;
+        /** The account of the replica, or {@code null} if it's accessed with the client's credentials. */
+        final String username;
+        final String password;
+        final LongAdder errors;
+        /** The blobs the replica missed or is still completing a write of, keyed by {@link #blobKey}. */
+        private final Set<String> staleBlobs= ConcurrentHashMap.newKeySet();
+        /** Whether the replica missed more writes than {@link #staleBlobs} keeps track of. */
+        private volatile boolean staleOverflow;
+
+        /** Moving average of the latency of the requests to the replica, in nanoseconds; negative until the first. */
+        private double latencyNanos= -1;
+        private volatile int consecutiveFailures;
+
+        Replica(String mirrorName, String name, StorageObject storageObject, String username, String password)
+        {
+            this.name= name;
+            this.storageObject= storageObject;
+            this.username= username;
+            this.password= password;
+
+            String metric= "mirror." + mirrorName + "." + name;
+            this.errors= Metrics.counter(metric + ".errors");
+            Metrics.gauge(metric + ".latencyMicros", () -> (long) (latency() / 1000));
+            Metrics.gauge(metric + ".healthy", () -> healthy()? 1: 0);
+            Metrics.gauge(metric + ".staleBlobs", () -> staleOverflow? -1: staleBlobs.size());
+        }
+
+        synchronized double
+        latency()
+        {
+            return latencyNanos;
+        }
+
+        synchronized void
+        succeeded(long elapsedNanos)
+        {
+            latencyNanos= latencyNanos< 0? elapsedNanos: latencyNanos + LATENCY_WEIGHT * (elapsedNanos - latencyNanos);
+            consecutiveFailures= 0;
+        }
+
+        synchronized void
+        failed()
+        {
+            consecutiveFailures++;
+            errors.increment();
+        }
+
+        boolean
+        healthy()
+        {
+            return consecutiveFailures< UNHEALTHY_FAILURES;
+        }
+
+        boolean
+        stale(String blob)
+        {
+            return blob!= null && (staleOverflow || staleBlobs.contains(blob));
+        }
+
+        void
+        markStale(String blob)
+        {
+            if(staleBlobs.size()>= MAX_STALE_BLOBS) {staleOverflow= true;}
+            else                                    {staleBlobs.add(blob);}
+        }
+
+        void
+        repaired(String blob)
+        {
+            staleBlobs.remove(blob);
+        }
+
+        void
+        containerDeleted(String containerName)
+        {
+            staleBlobs.removeIf(blob -> blob.startsWith(containerName + "/"));
+        }
+
+        <T> T
+        call(ReplicaCall<T> call, String clientUsername, String clientPassword)
+        {
+            return call.apply(storageObject, username== null? clientUsername: username,
+                              username== null? clientPassword: password);
+        }
+    }
+
+    /** Counts the answers of the replicas to a write, completing {@link #done} once the write has its quorum. */
+    private final class
+    WriteTally<T>
+    {
+        final CompletableFuture<T> done= new CompletableFuture<>();
+        private final boolean missingIsDone;
+        private int successes;
+        private int missing;
+        private int failures;
+        private T result;
+        private RuntimeException firstFailure;
+
+        WriteTally(boolean missingIsDone)
+        {
+            this.missingIsDone= missingIsDone;
+        }
+
+        synchronized void
+        answer(T value, Throwable error)
+        {
+            RuntimeException failure= error== null? null: unwrap(error);
+            if(failure== null)
+            {
+                successes++;
+                if(result== null) {result= value;}
+            }
+            else if(missingIsDone && failure instanceof NotFoundException) {missing++;}
+            else
+            {
+                failures++;
+                if(firstFailure== null) {firstFailure= failure;}
+            }
+
+        // A write that finds nothing on a quorum of replicas waits for the others, in case any of them had something
+            boolean answered= successes + missing + failures== replicas.size();
+            if(successes> 0 && successes + missing>= writeQuorum) {done.complete(result);}
+            else if(failures> replicas.size() - writeQuorum)      {done.completeExceptionally(firstFailure);}
+            else if(answered)                                     {done.completeExceptionally(new NotFoundException());}
+        }
+    }
+
+    /**
+     * Streams the contents of an upload into every replica at once, through a pipe per replica. The contents are fed
+     * at the pace of the quorum, not at that of the slowest replica: once the quorum took a part of the contents,
+     * replicas that are still {@value #MAX_LAG_BYTES} bytes behind are dropped, so that reading them fails.
+     *
+     * The parts of the contents are pooled buffers shared by the pipes that took them, which hand them back to the
+     * {@link BufferPool} once the last of them read or dropped them. The tee is guarded by a lock rather than by its
+     * monitor, so that virtual threads waiting on it don't pin their carrier thread.
+     */
+    private static final class
+    Tee
+    {
+        /** A part of the contents, shared by the pipes that took it. */
+        private static final class
+        Chunk
+        {
+            final ByteBuffer buffer;
+            final int length;
+            /** Number of pipes that still have to read the part. */
+            int readers;
+
+            Chunk(ByteBuffer buffer, int length)
+            {
+                this.buffer= buffer;
+                this.length= length;
+            }
+        }
+
+        /** The pipe from which one replica reads the contents. */
+        final class
+        Pipe
+        extends InputStream
+        {
+            private final ArrayDeque<Chunk> chunks= new ArrayDeque<>();
+            private final byte[] single= new byte[1];
+            private long queuedBytes;
+            /** The part being read, or {@code null} between parts. */
+            private Chunk current;
+            private int position;
+            /** Whether the replica stopped reading, being done or having failed. */
+            private boolean closed;
+            /** Why the replica was dropped, or {@code null} if it wasn't. */
+            private IOException dropped;
+
+            @Override
+            public int
+            read()
+            throws IOException
+            {
+                return read(single, 0, 1)== -1? -1: single[0] & 0xff;
+            }
+
+            @Override
+            public int
+            read(byte[] buffer, int offset, int length)
+            throws IOException
+            {
+                if(length== 0) {return 0;}
+
+                lock.lock();
+                try
+                {
+                    while(current== null)
+                    {
+                        if(dropped!= null) {throw dropped;}
+                        if(closed)         {throw new IOException("Pipe closed");}
+
+                        current= chunks.poll();
+                        if(current!= null)
+                        {
+                            position= 0;
+                            queuedBytes-= current.length;
+                            changed.signalAll();
+                        }
+                        else if(ended)
+                        {
+                            if(sourceError!= null) {throw sourceError;}
+                            return -1;
+                        }
+                        else {waitForChange(Long.MAX_VALUE);}
+                    }
+
+                    int read= Math.min(length, current.length - position);
+                    System.arraycopy(current.buffer.array(), position, buffer, offset, read);
+                    position+= read;
+                    if(position== current.length)
+                    {
+                        readBy(current);
+                        current= null;
+                    }
+                    return read;
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void
+            close()
+            {
+                lock.lock();
+                try
+                {
+                    closed= true;
+                    clear();
+                    changed.signalAll();
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+            }
+
+            private boolean
+            open()
+            {
+                return !closed && dropped== null;
+            }
+
+            private void
+            drop(String reason)
+            {
+                dropped= new IOException(reason);
+                clear();
+            }
+
+            /** Lets go of the parts the pipe still holds. */
+            private void
+            clear()
+            {
+                if(current!= null)
+                {
+                    readBy(current);
+                    current= null;
+                }
+                for(Chunk chunk : chunks) {readBy(chunk);}
+                chunks.clear();
+                queuedBytes= 0;
+            }
+        }
+
+        final List<Pipe> pipes= new ArrayList<>();
+        private final ReentrantLock lock= new ReentrantLock();
+        /** Signaled whenever a pipe takes, reads or lets go of a part, or the contents end. */
+        private final Condition changed= lock.newCondition();
+        private final int quorum;
+        private boolean ended;
+        private IOException sourceError;
+
+        Tee(int replicas, int quorum)
+        {
+            this.quorum= quorum;
+            for(int i= 0; i< replicas; i++) {pipes.add(new Pipe());}
+        }
+
+        /**
+         * Tells whether any replica is still reading the contents.
+         *
+         * @return {@code false} once every pipe was closed or dropped.
+         */
+        boolean
+        reading()
+        {
+            lock.lock();
+            try
+            {
+                for(Pipe pipe : pipes)
+                {
+                    if(pipe.open()) {return true;}
+                }
+                return false;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Hands a part of the contents to every replica still reading them. Waits until the quorum took it, and then
+         * drops the replicas that are too far behind to take it. Replicas are also dropped when the quorum can't take
+         * it anymore, since enough of them failed, or doesn't within {@code Settings.MIRROR_WRITE_TIMEOUT_SECONDS}.
+         *
+         * @param buffer The part of the contents, a buffer of the {@link BufferPool} that's handed over to the tee: it
+         *        goes back to the pool once every replica that took it read it.
+         * @param length The number of bytes of the part, at the start of the buffer's array.
+         * @throws InterruptedIOException Thrown when interrupted while waiting for the replicas.
+         */
+        void
+        write(ByteBuffer buffer, int length)
+        throws InterruptedIOException
+        {
+            Chunk chunk= new Chunk(buffer, length);
+            List<Pipe> behind= new ArrayList<>(pipes);
+            int taken= 0;
+            long deadline= System.nanoTime() + TimeUnit.SECONDS.toNanos(Settings.MIRROR_WRITE_TIMEOUT_SECONDS);
+
+            lock.lock();
+        // Held by the writer until it's handed out, so that pipes reading it fast don't hand it back too soon
+            chunk.readers= 1;
+            try
+            {
+                while(true)
+                {
+                    for(Iterator<Pipe> waiting= behind.iterator(); waiting.hasNext();)
+                    {
+                        Pipe pipe= waiting.next();
+                        if(!pipe.open()) {waiting.remove();}
+                        else if(pipe.queuedBytes< MAX_LAG_BYTES)
+                        {
+                            pipe.chunks.add(chunk);
+                            pipe.queuedBytes+= length;
+                            chunk.readers++;
+                            taken++;
+                            waiting.remove();
+                        }
+                    }
+                    changed.signalAll();
+                    if(behind.isEmpty()) {return;}
+
+                    long remaining= deadline - System.nanoTime();
+                    if(taken>= quorum || taken + behind.size()< quorum || remaining<= 0)
+                    {
+                        String reason= taken>= quorum? "Replica fell too far behind the others":
+                                                       "Too few replicas are left to take the upload in time";
+                        for(Pipe pipe : behind) {pipe.drop(reason);}
+                        changed.signalAll();
+                        return;
+                    }
+
+                    waitForChange(remaining);
+                }
+            }
+            finally
+            {
+                readBy(chunk);
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Signals the end of the contents to the replicas.
+         *
+         * @param error The error that ended the contents early, which the replicas are given so that none of them
+         *        stores truncated contents, or {@code null} if they were read whole.
+         */
+        void
+        end(IOException error)
+        {
+            lock.lock();
+            try
+            {
+                ended= true;
+                sourceError= error;
+                changed.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Counts a reader of a part as done with it, handing its buffer back to the pool after the last one. Must be
+         * called with the lock held.
+         *
+         * @param chunk The part.
+         */
+        private static void
+        readBy(Chunk chunk)
+        {
+            if(--chunk.readers== 0) {BufferPool.release(chunk.buffer);}
+        }
+
+        /**
+         * Waits for a pipe to change. Must be called with the lock held.
+         *
+         * @param timeoutNanos The longest time to wait, in nanoseconds.
+         * @throws InterruptedIOException Thrown when interrupted while waiting.
+         */
+        private void
+        waitForChange(long timeoutNanos)
+        throws InterruptedIOException
+        {
+            try
+            {
+                changed.awaitNanos(timeoutNanos);
+            }
+            catch(InterruptedException interrupted)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while streaming an upload into the replicas");
+            }
+        }
+    }
+
+    private final String name;
+    private final List<Replica> replicas;
+    private final int writeQuorum;
+
+    /**
+     * Builds the mirrors set in {@code Settings.MIRRORS}.
+     *
+     * @param providers The CSPs the replicas of the mirrors may use, keyed by name.
+     * @return The mirrors, keyed by name.
+     * @throws IllegalStateException Thrown when a mirror is set wrongly, or its name is taken by another CSP.
+     */
+    public static Map<String, MirroredStorageObject>
+    fromSettings(Map<String, StorageObject> providers)
+    throws IllegalStateException
+    {
+        Map<String, MirroredStorageObject> mirrors= new LinkedHashMap<>();
+        if(Settings.MIRRORS== null || Settings.MIRRORS.trim().isEmpty()) {return mirrors;}
+
+        for(String mirror : Settings.MIRRORS.split(";"))
+        {
+            int separator= mirror.indexOf('=');
+            if(separator< 1) {throw new IllegalStateException("Mirror without a name: " + mirror);}
+
+            String mirrorName= mirror.substring(0, separator).trim();
+            if(providers.containsKey(mirrorName) || mirrors.containsKey(mirrorName))
+            {
+                throw new IllegalStateException("Mirror name already taken: " + mirrorName);
+            }
+
+            List<Replica> replicas= new ArrayList<>();
+            for(String replica : mirror.substring(separator + 1).split("\\|"))
+            {
+                String[] fields= replica.trim().split(":", 3);
+                StorageObject storageObject= providers.get(fields[0]);
+                if(storageObject== null || fields.length== 2)
+                {
+                    throw new IllegalStateException("Invalid replica of mirror " + mirrorName + ": " + fields[0]);
+                }
+
+                if(fields.length== 1) {replicas.add(new Replica(mirrorName, replicas.size() + "-" + fields[0],
+                                                                storageObject, null, null));}
+                else                  {replicas.add(new Replica(mirrorName, replicas.size() + "-" + fields[1],
+                                                                storageObject, fields[1], fields[2]));}
+            }
+
+            mirrors.put(mirrorName, new MirroredStorageObject(mirrorName, replicas));
+        }
+
+        return mirrors;
+    }
+
+    private
+    MirroredStorageObject(String name, List<Replica> replicas)
+    throws IllegalStateException
+    {
+        boolean ownAccounts= false;
+        for(Replica replica : replicas) {ownAccounts|= replica.username!= null;}
+        if(ownAccounts && replicas.get(0).username== null)
+        {
+            throw new IllegalStateException("The first replica of mirror " + name + " needs an account, since " +
+                                            "other replicas have one");
+        }
+
+        this.name= name;
+        this.replicas= replicas;
+        this.writeQuorum= Settings.MIRROR_WRITE_QUORUM> 0? Math.min(Settings.MIRROR_WRITE_QUORUM, replicas.size()):
+                                                           replicas.size() / 2 + 1;
+    }
+
+    /**
+     * Checks the credentials of the client. When the replicas have accounts of their own, the client must present the
+     * account of the first replica; otherwise, its credentials are handed to the replicas, which check them.
+     *
+     * @param username The username presented by the client.
+     * @param password The password presented by the client.
+     * @throws ForbiddenException Thrown when the client didn't present the account of the first replica.
+     */
+    private void
+    authenticate(String username, String password)
+    throws ForbiddenException
+    {
+        Replica first= replicas.get(0);
+        if(first.username== null) {return;}
+
+        boolean valid= MessageDigest.isEqual(first.username.getBytes(StandardCharsets.UTF_8),
+                                             username.getBytes(StandardCharsets.UTF_8));
+        valid&= MessageDigest.isEqual(first.password.getBytes(StandardCharsets.UTF_8),
+                                      password.getBytes(StandardCharsets.UTF_8));
+        if(!valid) {throw new ForbiddenException("Invalid credentials for mirror " + name);}
+    }
+
+    /**
+     * Turns whatever a replica threw into a runtime exception, unwrapping those of futures.
+     *
+     * @param error What the replica threw.
+     * @return The runtime exception.
+     */
+    private static RuntimeException
+    unwrap(Throwable error)
+    {
+        while((error instanceof CompletionException || error instanceof ExecutionException) &&
+              error.getCause()!= null)
+        {
+            error= error.getCause();
+        }
+
+        return error instanceof RuntimeException? (RuntimeException) error: new InternalServerErrorException(error);
+    }
+
+    /**
+     * Tells whether or not an error means that the replica itself failed, rather than the request being wrong.
+     *
+     * @param error The error.
+     * @return {@code true} for server errors and unexpected exceptions; {@code false} for client errors.
+     */
+    private static boolean
+    replicaFailed(RuntimeException error)
+    {
+        return !(error instanceof WebApplicationException) ||
+               ((WebApplicationException) error).getResponse().getStatus()>= 500;
+    }
+
+    /**
+     * Builds the key under which a replica keeps track of a stale blob.
+     *
+     * @param containerName The name of the container.
+     * @param blobName The name of the blob.
+     * @return The key of the blob.
+     */
+    private static String
+    blobKey(String containerName, String blobName)
+    {
+        return containerName + "/" + blobName;
+    }
+
+    /**
+     * Orders the replicas by how fast they've been answering, healthy ones first and those stale for the blob read
+     * last. Replicas that were never read from come first, so that they get a latency. Unhealthy ones are left in the
+     * order they're set, and so are stale ones.
+     *
+     * @param blob The key of the blob read, or {@code null} if no blob is read.
+     * @return The replicas, from the one to read first to the one to read last.
+     */
+    private List<Replica>
+    readOrder(String blob)
+    {
+    // Sort on a snapshot, since the latencies keep changing under other requests
+        Map<Replica, Double> latencies= new HashMap<>();
+        for(Replica replica : replicas)
+        {
+            latencies.put(replica, replica.stale(blob)?  Double.POSITIVE_INFINITY:
+                                   replica.healthy()?    replica.latency():
+                                                         Double.MAX_VALUE);
+        }
+
+        List<Replica> ordered= new ArrayList<>(replicas);
+        ordered.sort(Comparator.comparing(latencies::get));
+        return ordered;
+    }
+
+/*-------------------
+* --- REPLICATION ---
+* -------------------*/
+
+    /**
+     * Reads from the fastest replica, falling back to the next fastest when it fails or doesn't have what's read.
+     * Client errors other than a missing blob or container are thrown right away, since every replica would give the
+     * same. Replicas that are stale for the blob are only read when none of the others answered, since a blob they
+     * have may be one that was since deleted or overwritten.
+     *
+     * @param username The username presented by the client.
+     * @param password The password presented by the client.
+     * @param blob The key of the blob read (see {@link #blobKey}), or {@code null} if no blob is read.
+     * @param call The read.
+     * @param <T> The type of the result of the read.
+     * @return The result of the first replica that succeeded.
+     * @throws WebApplicationException Thrown when every replica failed: the first server error if any replica had
+     *         one, or else the first {@link NotFoundException}.
+     */
+    private <T> T
+    read(String username, String password, String blob, ReplicaCall<T> call)
+    throws WebApplicationException
+    {
+        authenticate(username, password);
+
+        RuntimeException notFound= null;
+        RuntimeException serverError= null;
+        for(Replica replica : readOrder(blob))
+        {
+            if(notFound!= null && replica.stale(blob)) {break;}
+
+            long start= System.nanoTime();
+            try
+            {
+                T result= replica.call(call, username, password);
+                replica.succeeded(System.nanoTime() - start);
+                return result;
+            }
+            catch(NotFoundException missing)
+            {
+                replica.succeeded(System.nanoTime() - start);
+                if(notFound== null) {notFound= missing;}
+            }
+            catch(RuntimeException error)
+            {
+                if(!replicaFailed(error)) {throw error;}
+
+                replica.failed();
+                if(serverError== null) {serverError= error;}
+            }
+        }
+
+        throw serverError!= null? serverError: notFound;
+    }
+
+    /**
+     * Sends a write to every replica, waiting for the quorum to succeed. The remaining writes carry on in the
+     * background.
+     *
+     * @param username The username presented by the client.
+     * @param password The password presented by the client.
+     * @param missingIsDone Whether a {@link NotFoundException} counts towards the quorum, as it does for deletes.
+     *        Such a write only fails with a NotFoundException when no replica had what was to be written.
+     * @param blob The key of the blob the write replaces whole (see {@link #blobKey}), which every replica is stale
+     *        for until it completes the write, or {@code null} if it replaces no blob.
+     * @param completed What to do on each replica that completes the write, or {@code null} if nothing.
+     * @param call The write.
+     * @param <T> The type of the result of the write.
+     * @return The result of the first replica that succeeded.
+     * @throws WebApplicationException Thrown when too many replicas failed for the write to have its quorum; the
+     *         first failure is thrown.
+     */
+    private <T> T
+    write(String username, String password, boolean missingIsDone, String blob, Consumer<Replica> completed,
+          ReplicaCall<T> call)
+    throws WebApplicationException
+    {
+        authenticate(username, password);
+        return await(start(username, password, missingIsDone, blob, completed, call));
+    }
+
+    /**
+     * Starts a write on every replica, in the background.
+     *
+     * @param username The username presented by the client.
+     * @param password The password presented by the client.
+     * @param missingIsDone See {@link #write}.
+     * @param blob See {@link #write}.
+     * @param completed See {@link #write}.
+     * @param call The write.
+     * @param <T> The type of the result of the write.
+     * @return The tally of the write.
+     */
+    private <T> WriteTally<T>
+    start(String username, String password, boolean missingIsDone, String blob, Consumer<Replica> completed,
+          ReplicaCall<T> call)
+    {
+        WriteTally<T> tally= new WriteTally<>(missingIsDone);
+        for(Replica replica : replicas)
+        {
+            if(blob!= null) {replica.markStale(blob);}
+
+            submit(replica, username, password, call).whenComplete((result, error) ->
+            {
+                boolean done= error== null || missingIsDone && unwrap(error) instanceof NotFoundException;
+                if(done && blob!= null)      {replica.repaired(blob);}
+                if(done && completed!= null) {completed.accept(replica);}
+                tally.answer(result, error);
+            });
+        }
+
+        return tally;
+    }
+
+    /**
+     * Sends a call to a replica, in the background, keeping track of how well the replica answers it.
+     *
+     * @param replica The replica.
+     * @param username The username presented by the client.
+     * @param password The password presented by the client.
+     * @param call The call.
+     * @param <T> The type of the result of the call.
+     * @return A future that completes with the result of the call, or exceptionally with whatever it threw.
+     */
+    private static <T> CompletableFuture<T>
+    submit(Replica replica, String username, String password, ReplicaCall<T> call)
+    {
+        return CompletableFuture.supplyAsync(() ->
+        {
+            long start= System.nanoTime();
+            try
+            {
+                T result= replica.call(call, username, password);
+                replica.succeeded(System.nanoTime() - start);
+                return result;
+            }
+            catch(RuntimeException error)
+            {
+                if(replicaFailed(error)) {replica.failed();}
+                throw error;
+            }
+        }, REPLICA_WRITES);
+    }
+
+    /**
+     * Waits for a write to have its quorum, for up to {@code Settings.MIRROR_WRITE_TIMEOUT_SECONDS}.
+     *
+     * @param tally The tally of the write.
+     * @param <T> The type of the result of the write.
+     * @return The result of the write.
+     * @throws WebApplicationException Thrown when the write failed, or with a 504 status when it didn't have its
+     *         quorum in time; the replicas that are still writing carry on in the background.
+     */
+    private <T> T
+    await(WriteTally<T> tally)
+    throws WebApplicationException
+    {
+        try
+        {
+            return tally.done.get(Settings.MIRROR_WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        catch(ExecutionException failure)
+        {
+            throw unwrap(failure);
+        }
+        catch(TimeoutException timeout)
+        {
+            throw new ServerErrorException("Too few replicas of mirror " + name + " completed the write in time",
+                                           Response.Status.GATEWAY_TIMEOUT);
+        }
+        catch(InterruptedException interrupted)
+        {
+            Thread.currentThread().interrupt();
+            throw new InternalServerErrorException(interrupted);
+        }
+    }
+
+    /**
+     * Sends a write that reads a stream to every replica, like {@link #write}. The stream is read once, and teed into
+     * a pipe per replica at the pace of the quorum (see {@link Tee}); the pipe of a replica that's done, that failed or
+     * that fell behind is dropped, so the others carry on. If the stream can't be read, every replica is given the
+     * error, so that none of them stores truncated contents.
+     *
+     * @param username The username presented by the client.
+     * @param password The password presented by the client.
+     * @param blob The key of the blob written, which every replica is stale for until it completes the write.
+     * @param contents The stream.
+     * @param call The write, given the pipe from which each replica reads the stream.
+     * @param <T> The type of the result of the write.
+     * @return The result of the first replica that succeeded.
+     * @throws WebApplicationException Thrown when too many replicas failed for the write to have its quorum; the
+     *         first failure is thrown.
+     */
+    private <T> T
+    teeWrite(String username, String password, String blob, InputStream contents, StreamCall<T> call)
+    throws WebApplicationException
+    {
+        authenticate(username, password);
+
+        Tee tee= new Tee(replicas.size(), writeQuorum);
+    // The pipes are alike, so each replica takes whichever one is left
+        Queue<InputStream> replicaSources= new ConcurrentLinkedQueue<>(tee.pipes);
+        WriteTally<T> tally= start(username, password, false, blob, null, (storageObject, user, pass) ->
+        {
+            InputStream source= replicaSources.poll();
+            try
+            {
+                return call.apply(storageObject, user, pass, source);
+            }
+            finally
+            {
+                try {source.close();} catch(IOException ignored) {}
+            }
+        });
+
+        IOException readError= null;
+        try
+        {
+        // Each part is read into a buffer of its own, since the replicas read it at their own pace
+            while(tee.reading())
+            {
+                ByteBuffer buffer= BufferPool.acquire();
+                int read;
+                try
+                {
+                    read= contents.read(buffer.array());
+                }
+                catch(IOException error)
+                {
+                    BufferPool.release(buffer);
+                    throw error;
+                }
+
+                if(read<= 0)
+                {
+                    BufferPool.release(buffer);
+                    if(read== -1) {break;}
+                }
+                else {tee.write(buffer, read);}
+            }
+        }
+        catch(IOException error)
+        {
+            readError= error;
+        }
+        finally
+        {
+            tee.end(readError);
+        }
+
+        return await(tally);
+    }
+
+    /**
+     * Makes a lazy listing fetch its first page right away, so that a replica that fails to list can fall back to the
+     * next one before the listing is handed over.
+     *
+     * @param listing The listing.
+     * @param <T> The type of the listed elements.
+     * @return An iterable that gives the already started iterator first, and new iterators afterwards.
+     */
+    private static <T> Iterable<T>
+    prime(Iterable<T> listing)
+    {
+        Iterator<T> first= listing.iterator();
+        first.hasNext();
+
+        return new Iterable<T>()
+        {
+            private Iterator<T> started= first;
+
+            @Override
+            public synchronized Iterator<T>
+            iterator()
+            {
+                Iterator<T> iterator= started!= null? started: listing.iterator();
+                started= null;
+                return iterator;
+            }
+        };
+    }
+
+/*---------------------
+* --- BLOB REQUESTS ---
+* ---------------------*/
+
+    @Override
+    public InputStream
+    downloadBlob(String containerName, String blobName, String username, String password)
+    {
+        return read(username, password, blobKey(containerName, blobName), (storageObject, user, pass) ->
+                                        storageObject.downloadBlob(containerName, blobName, user, pass));
+    }
+
+    /**
+     * Uploads a blob into every replica at once (see {@link #teeWrite}).
+     */
+    @Override
+    public void
+    uploadBlob(String containerName, String blobName, String username, String password,
+               InputStream blobContents, long size)
+    {
+        teeWrite(username, password, blobKey(containerName, blobName), blobContents,
+                 (storageObject, user, pass, source) ->
+        {
+            storageObject.uploadBlob(containerName, blobName, user, pass, source, size);
+            return null;
+        });
+    }
+
+    /**
+     * Opens a container of the mirror for many uploads. The client is authenticated once, here; each upload is sent to
+     * every replica at once, as {@link #uploadBlob} does, and each replica checks the container on its own.
+     */
+    @Override
+    public ContainerUploader
+    openContainer(String containerName, String username, String password)
+    {
+        authenticate(username, password);
+
+        return (blobName, blobContents, size) -> uploadBlob(containerName, blobName, username, password,
+                                                            blobContents, size);
+    }
+
+    /**
+     * Makes a delta upload of a blob into every replica at once (see {@link #teeWrite}). Each replica only sends the
+     * parts it doesn't have; the number of bytes sent is that of the first replica to finish.
+     */
+    @Override
+    public long
+    uploadBlobDelta(String containerName, String blobName, String username, String password,
+                    InputStream blobContents, long size)
+    {
+        return teeWrite(username, password, blobKey(containerName, blobName), blobContents,
+                        (storageObject, user, pass, source) -> storageObject.uploadBlobDelta(containerName, blobName,
+                                                                                              user, pass, source,
+                                                                                              size));
+    }
+
+    @Override
+    public long
+    blobExists(String containerName, String blobName, String username, String password)
+    {
+        return read(username, password, blobKey(containerName, blobName), (storageObject, user, pass) ->
+                                        storageObject.blobExists(containerName, blobName, user, pass));
+    }
+
+    @Override
+    public void
+    deleteBlob(String containerName, String blobName, String username, String password)
+    {
+        write(username, password, true, blobKey(containerName, blobName), null, (storageObject, user, pass) ->
+        {
+            storageObject.deleteBlob(containerName, blobName, user, pass);
+            return null;
+        });
+    }
+
+    @Override
+    public BlobInfo
+    getBlobInfo(String containerName, String blobName, String username, String password)
+    {
+        return read(username, password, blobKey(containerName, blobName), (storageObject, user, pass) ->
+                                        storageObject.getBlobInfo(containerName, blobName, user, pass));
+    }
+
+    /**
+     * Copies a blob in every replica. A replica that was stale for the source when the copy started stays stale for
+     * the target.
+     */
+    @Override
+    public void
+    copyBlob(String containerName, String sourceBlobName, String targetBlobName, String username, String password)
+    {
+        String source= blobKey(containerName, sourceBlobName);
+        String target= blobKey(containerName, targetBlobName);
+        Set<Replica> staleSources= new HashSet<>();
+        for(Replica replica : replicas)
+        {
+            if(replica.stale(source)) {staleSources.add(replica);}
+        }
+
+        write(username, password, false, target, replica ->
+        {
+            if(staleSources.contains(replica)) {replica.markStale(target);}
+        }, (storageObject, user, pass) ->
+        {
+            storageObject.copyBlob(containerName, sourceBlobName, targetBlobName, user, pass);
+            return null;
+        });
+    }
+
+    /**
+     * Signs a URI on the fastest replica. Only downloads can be redirected, since an upload made straight into a
+     * replica wouldn't reach the others.
+     *
+     * @throws BadRequestException Thrown when a URI for an upload is asked for.
+     */
+    @Override
+    public URI
+    signBlobUri(String containerName, String blobName, String username, String password, boolean write,
+                long expiryTime)
+    throws BadRequestException
+    {
+        if(write) {throw new BadRequestException("Uploads into mirror " + name + " can't be redirected");}
+
+        return read(username, password, blobKey(containerName, blobName), (storageObject, user, pass) ->
+                                        storageObject.signBlobUri(containerName, blobName, user, pass, false,
+                                                                  expiryTime));
+    }
+
+    /**
+     * Appends to the blob in every replica that isn't stale for it, which would append at another offset, and waits
+     * for all of them rather than for the quorum, so that the offsets they append at can be compared. The append is
+     * acknowledged when the quorum appended at the same offset; replicas that failed, appended elsewhere or didn't
+     * answer in time are deemed stale for the blob, so that they're no longer read from nor appended to.
+     *
+     * @throws ServerErrorException Thrown with a 503 status when too few replicas are up to date with the blob to
+     *         append to it, or with a 504 status when too few of them appended in time.
+     */
+    @Override
+    public long
+    appendBlob(String containerName, String blobName, String username, String password, byte[] contents)
+    throws ServerErrorException
+    {
+        authenticate(username, password);
+
+        String blob= blobKey(containerName, blobName);
+        Map<Replica, CompletableFuture<Long>> appends= new LinkedHashMap<>();
+        for(Replica replica : replicas)
+        {
+            if(replica.stale(blob)) {continue;}
+            appends.put(replica, submit(replica, username, password, (storageObject, user, pass) ->
+                                        storageObject.appendBlob(containerName, blobName, user, pass, contents)));
+        }
+        if(appends.size()< writeQuorum)
+        {
+            throw new ServerErrorException("Too few replicas of mirror " + name + " are up to date with blob " +
+                                           blobName, Response.Status.SERVICE_UNAVAILABLE);
+        }
+
+        try
+        {
+            CompletableFuture.allOf(appends.values().toArray(new CompletableFuture<?>[0]))
+                             .get(Settings.MIRROR_WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        catch(ExecutionException | TimeoutException failedOrLate)
+        {
+        // Sorted out below, replica by replica
+        }
+        catch(InterruptedException interrupted)
+        {
+            Thread.currentThread().interrupt();
+            throw new InternalServerErrorException(interrupted);
+        }
+
+    // The offset most replicas appended at is the one acknowledged
+        Map<Long, Integer> offsets= new HashMap<>();
+        RuntimeException firstFailure= null;
+        for(CompletableFuture<Long> append : appends.values())
+        {
+            if(!append.isDone()) {continue;}
+            try
+            {
+                offsets.merge(append.join(), 1, Integer::sum);
+            }
+            catch(CompletionException failure)
+            {
+                if(firstFailure== null) {firstFailure= unwrap(failure);}
+            }
+        }
+        Long offset= null;
+        for(Map.Entry<Long, Integer> agreed : offsets.entrySet())
+        {
+            if(offset== null || agreed.getValue()> offsets.get(offset)) {offset= agreed.getKey();}
+        }
+
+    // Once any replica appended, the others differ from it; otherwise, only those that failed themselves may
+        for(Map.Entry<Replica, CompletableFuture<Long>> append : appends.entrySet())
+        {
+            CompletableFuture<Long> result= append.getValue();
+            boolean stale;
+            try
+            {
+                stale= !result.isDone() || !result.join().equals(offset);
+            }
+            catch(CompletionException failure)
+            {
+                stale= offset!= null || replicaFailed(unwrap(failure));
+            }
+            if(stale) {append.getKey().markStale(blob);}
+        }
+
+        if(offset!= null && offsets.get(offset)>= writeQuorum) {return offset;}
+        if(firstFailure!= null) {throw firstFailure;}
+        throw new ServerErrorException("Too few replicas of mirror " + name + " appended to blob " + blobName +
+                                       " in time", Response.Status.GATEWAY_TIMEOUT);
+    }
+
+/*--------------------------
+* --- CONTAINER REQUESTS ---
+* --------------------------*/
+
+    @Override
+    public InputStream
+    listBlobs(String containerName, String username, String password)
+    {
+        return read(username, password, null, (storageObject, user, pass) ->
+                                        storageObject.listBlobs(containerName, user, pass));
+    }
+
+    @Override
+    public Iterable<BlobInfo>
+    listBlobInfo(String containerName, String prefix, String username, String password)
+    {
+        return read(username, password, null, (storageObject, user, pass) ->
+                                        prime(storageObject.listBlobInfo(containerName, prefix, user, pass)));
+    }
+
+    @Override
+    public void
+    createContainerIfNotExists(String containerName, String username, String password)
+    {
+        write(username, password, false, null, null, (storageObject, user, pass) ->
+        {
+            storageObject.createContainerIfNotExists(containerName, user, pass);
+            return null;
+        });
+    }
+
+    /** A container that the fastest replica doesn't have is looked for in the others, like a missing blob. */
+    @Override
+    public boolean
+    containerExists(String containerName, String username, String password)
+    {
+        try
+        {
+            return read(username, password, null, (storageObject, user, pass) ->
+            {
+                if(!storageObject.containerExists(containerName, user, pass)) {throw new NotFoundException();}
+                return true;
+            });
+        }
+        catch(NotFoundException missing)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Gives the ETag of the container in the fastest replica. Replicas have ETags of their own, so the ETag may change
+     * when another replica becomes the fastest.
+     */
+    @Override
+    public String
+    getContainerETag(String containerName, String username, String password)
+    {
+        return read(username, password, null, (storageObject, user, pass) ->
+                                        storageObject.getContainerETag(containerName, user, pass));
+    }
+
+    @Override
+    public void
+    deleteContainer(String containerName, String username, String password)
+    {
+        write(username, password, true, null, replica -> replica.containerDeleted(containerName),
+              (storageObject, user, pass) ->
+        {
+            storageObject.deleteContainer(containerName, user, pass);
+            return null;
+        });
+    }
+
+/*------------------------
+* --- ACCOUNT REQUESTS ---
+* ------------------------*/
+
+    @Override
+    public Iterable<String>
+    listContainers(String username, String password)
+    {
+        return read(username, password, null, (storageObject, user, pass) ->
+                                        prime(storageObject.listContainers(user, pass)));
+    }
+}
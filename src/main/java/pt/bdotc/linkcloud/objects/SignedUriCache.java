@@ -0,0 +1,99 @@
+package pt.bdotc.linkcloud.objects;
+
+import pt.bdotc.linkcloud.Settings;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the URIs created by {@link StorageObject#signBlobUri}. A signed URI is handed out again for as long as it
+ * still has at least {@code Settings.SIGNED_URI_RENEW_SECONDS} seconds of validity left, after which a new one is
+ * signed. URIs are cached per account key, so a client is never given a URI signed with someone else's key.
+ */
+public final class
+SignedUriCache
+{
+    /** Maximum number of URIs kept in the cache. */
+    private static final int MAX_ENTRIES= 10000;
+
+    /** A signed URI, along with the time at which it expires. */
+    private static final class
+    SignedUri
+    {
+        final URI uri;
+        final long expiryTime;
+
+        SignedUri(URI uri, long expiryTime)
+        {
+            this.uri= uri;
+            this.expiryTime= expiryTime;
+        }
+    }
+
+    /** The cached URIs, keyed by {@link #key}. */
+    private static final ConcurrentHashMap<String, SignedUri> signedUris= new ConcurrentHashMap<>();
+
+    private
+    SignedUriCache() {}
+
+    /**
+     * Gives a signed URI for a blob, either from the cache or freshly signed by the CSP.
+     *
+     * @param provider The name of the CSP.
+     * @param storageObject The CSP in which the blob resides.
+     * @param containerName The name of the container to access.
+     * @param blobName The name of the blob the URI gives access to.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @param write {@code true} for a URI that allows uploading the blob; {@code false} for one that allows downloading
+     *        it.
+     * @return The signed URI of the blob.
+     */
+    public static URI
+    get(String provider, StorageObject storageObject, String containerName, String blobName,
+        String username, String password, boolean write)
+    {
+        String key= key(provider, containerName, blobName, username, password, write);
+        long now= System.currentTimeMillis();
+
+        SignedUri cached= signedUris.get(key);
+        if(cached!= null && cached.expiryTime - now> Settings.SIGNED_URI_RENEW_SECONDS * 1000L) {return cached.uri;}
+
+        long expiryTime= now + Settings.SIGNED_URI_VALIDITY_SECONDS * 1000L;
+        URI uri= storageObject.signBlobUri(containerName, blobName, username, password, write, expiryTime);
+
+        if(signedUris.size()>= MAX_ENTRIES) {evict(now);}
+        signedUris.put(key, new SignedUri(uri, expiryTime));
+
+        return uri;
+    }
+
+    /**
+     * Builds the key under which a signed URI is cached.
+     *
+     * @param provider The name of the CSP.
+     * @param containerName The name of the container.
+     * @param blobName The name of the blob.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @param write Whether the URI allows uploading or downloading the blob.
+     * @return The key of the signed URI.
+     */
+    private static String
+    key(String provider, String containerName, String blobName, String username, String password, boolean write)
+    {
+        return (write? "w/": "r/") + provider + '/' + username + '/' + password + '/' + containerName + '/' + blobName;
+    }
+
+    /**
+     * Makes room in the cache, dropping every URI that can no longer be handed out, or every URI if that's not enough.
+     *
+     * @param now The current time, in milliseconds since the epoch.
+     */
+    private static void
+    evict(long now)
+    {
+        signedUris.values().removeIf(cached -> cached.expiryTime - now<= Settings.SIGNED_URI_RENEW_SECONDS * 1000L);
+        if(signedUris.size()>= MAX_ENTRIES) {signedUris.clear();}
+    }
+}
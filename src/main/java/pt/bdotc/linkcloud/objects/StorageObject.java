@@ -1,15 +1,19 @@
 package pt.bdotc.linkcloud.objects;
 
 import java.io.InputStream;
+import java.net.URI;
 
 /**
  * Interface for creating interaction classes for different Cloud Service Providers (CSP). This Interface contains
  * the following methods:
  * <ul>
  *    <li>Blob download {@code (downloadBlob)};</li>
- *    <li>Blob upload {@code (uploadBlob)};</li>
+ *    <li>Blob upload and append {@code (uploadBlob, openContainer, uploadBlobDelta, appendBlob)};</li>
  *    <li>Blob deletion {@code (deleteBlob)};</li>
- *    <li>Blob listing {@code (listBlobs)}.</li>
+ *    <li>Blob description and copy {@code (getBlobInfo, copyBlob)};</li>
+ *    <li>Direct blob access {@code (signBlobUri)};</li>
+ *    <li>Blob listing {@code (listBlobs, listBlobInfo)};</li>
+ *    <li>Container listing {@code (listContainers)}.</li>
  * </ul>
  */
 public interface
@@ -28,6 +32,22 @@ StorageObject
      *  in bytes. This element should be a {@code long} value. */
     String XML_BLOB_SIZE= "size";
 
+    /** Uploads blobs into a container opened through {@link #openContainer}. */
+    @FunctionalInterface
+    interface
+    ContainerUploader
+    {
+        /**
+         * Uploads a blob into the opened container, just like {@link StorageObject#uploadBlob} does.
+         *
+         * @param blobName The name of the blob to create or overwrite.
+         * @param blobContents An {@link java.io.InputStream} with the contents to upload.
+         * @param size The size of the contents to upload in bytes.
+         */
+        void
+        uploadBlob(String blobName, InputStream blobContents, long size);
+    }
+
 /*---------------------
 * --- BLOB REQUESTS ---
 * ---------------------*/
@@ -62,6 +82,19 @@ StorageObject
     uploadBlob(String containerName, String blobName, String username, String password,
                InputStream blobContents, long size);
 
+    /**
+     * Interface for opening a container for many uploads in a row, such as the files of an archive. Classes that
+     * implement this interface should check the container and set up access to it once, here, instead of once per
+     * upload. The returned uploader may be used by several threads at once.
+     *
+     * @param containerName The name of the container to access.
+     * @param username The name of the account to use in some CSP.
+     * @param password The password of the account in the CSP.
+     * @return A {@link ContainerUploader} that uploads blobs into the container.
+     */
+    ContainerUploader
+    openContainer(String containerName, String username, String password);
+
     /**
      * Interface for testing the existence of a blob in a given container. If it does exist, this method should return
      * the size of the blob in bytes.
@@ -86,6 +119,84 @@ StorageObject
     void
     deleteBlob(String containerName, String blobName, String username, String password);
 
+    /**
+     * Interface for getting the description of a blob, namely its size, its ETag and the MD5 hash of its content, if
+     * the CSP keeps one.
+     *
+     * @param containerName The name of the container to access.
+     * @param blobName The name of the blob to describe.
+     * @param username The username of the account on a CSP.
+     * @param password The password of the account to use on a CSP.
+     * @return The description of the blob.
+     */
+    BlobInfo
+    getBlobInfo(String containerName, String blobName, String username, String password);
+
+    /**
+     * Interface for copying a blob into another blob of the same container. The copy should be made by the CSP itself,
+     * without the content going through this application, and this method should only return once it's done. Like an
+     * upload, a copy overwrites an existing blob with the same name.
+     *
+     * @param containerName The name of the container to access.
+     * @param sourceBlobName The name of the blob to copy.
+     * @param targetBlobName The name of the blob to create or overwrite.
+     * @param username The username of the account on a CSP.
+     * @param password The password of the account to use on a CSP.
+     */
+    void
+    copyBlob(String containerName, String sourceBlobName, String targetBlobName, String username, String password);
+
+    /**
+     * Interface for creating a short-lived URI through which a client can access a single blob directly in the CSP,
+     * without going through this application. The URI should be signed locally, with no requests to the CSP, and only
+     * allow the access that was asked for.
+     *
+     * @param containerName The name of the container to access.
+     * @param blobName The name of the blob the URI gives access to.
+     * @param username The username of the account on a CSP.
+     * @param password The password of the account to use on a CSP.
+     * @param write {@code true} for a URI that allows uploading the blob; {@code false} for one that allows downloading
+     *        it.
+     * @param expiryTime The time at which the URI stops working, in milliseconds since the epoch.
+     * @return The signed URI of the blob.
+     */
+    URI
+    signBlobUri(String containerName, String blobName, String username, String password, boolean write,
+                long expiryTime);
+
+    /**
+     * Interface for appending contents to the end of a blob, creating the blob if it doesn't exist. The contents
+     * should be appended atomically, i.e., they must never be interleaved with those of other appends, and this method
+     * should only return once they're durably stored by the CSP. Blobs created by uploads may not support appends.
+     *
+     * @param containerName The name of the container to access.
+     * @param blobName The name of the blob to append to.
+     * @param username The username of the account on a CSP.
+     * @param password The password of the account to use on a CSP.
+     * @param contents The contents to append.
+     * @return The offset, in bytes, at which the contents were appended.
+     */
+    long
+    appendBlob(String containerName, String blobName, String username, String password, byte[] contents);
+
+    /**
+     * Interface for uploading a blob as a delta of its current contents. Like {@link #uploadBlob}, it creates or
+     * overwrites the blob, but it should only send the CSP the parts of the contents that the blob doesn't have yet,
+     * so that re-uploading a large blob with a few changes costs about as much as the changes. CSPs that can't tell
+     * which parts they already have may upload the blob whole.
+     *
+     * @param containerName The name of the container to access.
+     * @param blobName The name of the blob to create or overwrite.
+     * @param username The username of the account on a CSP.
+     * @param password The password of the account to use on a CSP.
+     * @param blobContents An {@link java.io.InputStream} with the contents to upload.
+     * @param size The size of the contents to upload in bytes.
+     * @return The number of bytes that were actually sent into the CSP.
+     */
+    long
+    uploadBlobDelta(String containerName, String blobName, String username, String password,
+                    InputStream blobContents, long size);
+
 /*--------------------------
 * --- CONTAINER REQUESTS ---
 * --------------------------*/
@@ -128,6 +239,20 @@ StorageObject
     InputStream
     listBlobs(String containerName, String username, String password);
 
+    /**
+     * Interface for a flat listing of the blobs that belong to a certain container, i.e., one that also includes blobs
+     * whose names look like paths. Unlike {@link #listBlobs}, this listing isn't built in memory: it should be fetched
+     * from the CSP lazily, as it's iterated, and it should be sorted by the names of the blobs.
+     *
+     * @param containerName The name of the container to access.
+     * @param prefix Lists only the blobs whose names start with this prefix; {@code null} lists all blobs.
+     * @param username The name of the account in a CSP.
+     * @param password The password of the account to use in a CSP.
+     * @return An {@link Iterable} over the descriptions of the blobs of the container.
+     */
+    Iterable<BlobInfo>
+    listBlobInfo(String containerName, String prefix, String username, String password);
+
     /**
      * Interface for the creation of a container if and only if it doesn't exist. Should give no feedback in regards to
      * whether or not the container was created.
@@ -150,6 +275,18 @@ StorageObject
     boolean
     containerExists(String containerName, String username, String password);
 
+    /**
+     * Interface for getting the ETag of a container, i.e., a value that changes whenever the container itself is
+     * changed or replaced. Whether or not it changes when the blobs of the container change depends on the CSP.
+     *
+     * @param containerName The name of the container to describe.
+     * @param username The username of the account to use in a CSP.
+     * @param password The password of the CSP account.
+     * @return The ETag of the container.
+     */
+    String
+    getContainerETag(String containerName, String username, String password);
+
     /**
      * Interface for deleting a container.
      *
@@ -159,4 +296,20 @@ StorageObject
      */
     void
     deleteContainer(String containerName, String username, String password);
+
+/*------------------------
+* --- ACCOUNT REQUESTS ---
+* ------------------------*/
+
+    /**
+     * Interface for a listing of the names of the containers that belong to an account. Just like
+     * {@link #listBlobInfo}, this listing should be fetched from the CSP lazily, as it's iterated, and it should be
+     * sorted by name.
+     *
+     * @param username The name of the account in a CSP.
+     * @param password The password of the account to use in a CSP.
+     * @return An {@link Iterable} over the names of the containers of the account.
+     */
+    Iterable<String>
+    listContainers(String username, String password);
 }
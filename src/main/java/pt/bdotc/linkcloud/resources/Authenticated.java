@@ -0,0 +1,19 @@
+package pt.bdotc.linkcloud.resources;
+
+import javax.ws.rs.NameBinding;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Indicates that the annotated resource needs the CSP credentials of the client, which are then read by the
+ * {@link CredentialsFilter} before the resource is called.
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@NameBinding
+public @interface
+Authenticated
+{
+}
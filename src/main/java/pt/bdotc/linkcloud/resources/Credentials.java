@@ -0,0 +1,58 @@
+package pt.bdotc.linkcloud.resources;
+
+import java.security.Principal;
+
+/**
+ * The CSP credentials a client sent in its {@code Authorization} header, as decoded by the {@link CredentialsFilter}.
+ * They're handed to the resources as the user principal of the request's {@link javax.ws.rs.core.SecurityContext}.
+ */
+public final class
+Credentials
+implements Principal
+{
+    private final String username;
+    private final String password;
+
+    /**
+     * Describes a client's credentials.
+     *
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     */
+    Credentials(String username, String password)
+    {
+        this.username= username;
+        this.password= password;
+    }
+
+    /**
+     * Gives the username of the CSP account.
+     *
+     * @return The username.
+     */
+    @Override
+    public String
+    getName()
+    {
+        return username;
+    }
+
+    /**
+     * Gives the password of the CSP account.
+     *
+     * @return The password.
+     */
+    public String
+    getPassword()
+    {
+        return password;
+    }
+
+    /** Leaves the password out, so that the credentials can be logged. */
+    @Override
+    public String
+    toString()
+    {
+        return "Credentials[" + username + "]";
+    }
+}
@@ -0,0 +1,229 @@
+package pt.bdotc.linkcloud.resources;
+
+import pt.bdotc.linkcloud.Settings;
+import pt.bdotc.linkcloud.metrics.Metrics;
+import pt.bdotc.linkcloud.spool.UploadSpool;
+
+import javax.annotation.Priority;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads the CSP credentials of the client from the {@code Basic} Authorization header of every request to a resource
+ * that's {@link Authenticated}, and hands them to the resource as the {@link Credentials} principal of the request's
+ * {@link SecurityContext}.
+ *
+ * Decoded credentials are cached, keyed by the raw header, so that the clients that keep sending the same header don't
+ * have it decoded on every request. Headers that a CSP refused, i.e., that got a 403 HTTP code, are remembered for
+ * {@code Settings.AUTH_NEGATIVE_TTL_SECONDS} along with the CSP that refused them, and further requests with them are
+ * refused right away, without reaching the CSP. Both caches are bounded by {@code Settings.AUTH_CACHE_ENTRIES}: a full
+ * cache makes room by evicting its least recently used header, or its earliest refused one, which is the first to
+ * expire, so that a flood of new headers can't wipe the cache.
+ *
+ * The credentials also resume the uploads that the {@link UploadSpool} recovered from a previous run with them, see
+ * {@link UploadSpool#resume}.
+ */
+@Authenticated
+@Priority(Priorities.AUTHENTICATION)
+public class
+CredentialsFilter
+implements ContainerRequestFilter, ContainerResponseFilter
+{
+    /** Name of the request property that holds the key of the request in {@link #refusedHeaders}. */
+    private static final String REFUSAL_KEY_PROPERTY= CredentialsFilter.class.getName() + ".refusalKey";
+
+    /** The decoded credentials, keyed by the raw Authorization header, from the least to the most recently used. */
+    private static final Map<String, Credentials> decodedHeaders=
+        Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true));
+    /** The time, in milliseconds since the epoch, until which a header is refused, keyed by {@link #refusalKey}, from
+     *  the earliest to the latest refused, and so from the first to the last to expire. */
+    private static final Map<String, Long> refusedHeaders= Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /** Number of headers that had been decoded already. */
+    private static final LongAdder cacheHits= Metrics.counter("auth.cacheHits");
+    /** Number of headers that had to be decoded. */
+    private static final LongAdder cacheMisses= Metrics.counter("auth.cacheMisses");
+    /** Number of requests refused because their header was refused before. */
+    private static final LongAdder refusedRequests= Metrics.counter("auth.refused");
+
+    /**
+     * Builds the key under which a refused header is remembered. Headers are refused per CSP, seeing as mirrors may
+     * refuse credentials that the CSPs they're made of accept.
+     *
+     * @param provider The CSP the request is for.
+     * @param header The raw Authorization header.
+     * @return The key of the header.
+     */
+    private static String
+    refusalKey(String provider, String header)
+    {
+        return provider + "\n" + header;
+    }
+
+    /**
+     * Decodes the credentials of a {@code Basic} Authorization header.
+     *
+     * @param header The raw header.
+     * @return The credentials.
+     * @throws BadRequestException Thrown when the header isn't of the {@code Basic} type, isn't valid Base64, or
+     *         doesn't have a username, a password or both.
+     */
+    private static Credentials
+    decode(String header)
+    throws BadRequestException
+    {
+        if(!header.startsWith("Basic ")) {throw new BadRequestException();}
+
+        String decoded;
+        try
+        {
+            decoded= new String(Base64.getDecoder().decode(header.substring("Basic ".length())),
+                                StandardCharsets.UTF_8);
+        }
+        catch(IllegalArgumentException notBase64)
+        {
+            throw new BadRequestException();
+        }
+
+        int separator= decoded.indexOf(':');
+        if(separator<= 0 || separator== decoded.length() - 1 || decoded.indexOf(':', separator + 1)!= -1)
+        {
+            throw new BadRequestException();
+        }
+
+        return new Credentials(decoded.substring(0, separator), decoded.substring(separator + 1));
+    }
+
+    /**
+     * Puts an entry last in a cache, evicting its first entries while it holds more than
+     * {@code Settings.AUTH_CACHE_ENTRIES}.
+     *
+     * @param cache The cache, a synchronized {@link LinkedHashMap}.
+     * @param key The key of the entry.
+     * @param value The value of the entry.
+     * @param <V> The type of the values of the cache.
+     */
+    private static <V> void
+    remember(Map<String, V> cache, String key, V value)
+    {
+        synchronized(cache)
+        {
+            cache.remove(key);
+            cache.put(key, value);
+
+            Iterator<V> eldest= cache.values().iterator();
+            while(cache.size()> Settings.AUTH_CACHE_ENTRIES && eldest.hasNext())
+            {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Reads the credentials of a request, refusing it if its header was refused recently.
+     *
+     * @param requestContext The request.
+     * @throws ForbiddenException Thrown when there's no Authorization header, or it was refused recently.
+     * @throws BadRequestException See {@link #decode}.
+     */
+    @Override
+    public void
+    filter(ContainerRequestContext requestContext)
+    throws ForbiddenException, BadRequestException
+    {
+        String header= requestContext.getHeaderString(HttpHeaders.AUTHORIZATION);
+        if(header== null) {throw new ForbiddenException();}
+
+    // Refuse headers the CSP refused, for as long as they're remembered
+        String key= refusalKey(requestContext.getUriInfo().getPathParameters().getFirst("provider"), header);
+        Long refusedUntil= refusedHeaders.get(key);
+        if(refusedUntil!= null)
+        {
+            if(refusedUntil> System.currentTimeMillis())
+            {
+                refusedRequests.increment();
+                throw new ForbiddenException();
+            }
+            refusedHeaders.remove(key, refusedUntil);
+        }
+        requestContext.setProperty(REFUSAL_KEY_PROPERTY, key);
+
+        Credentials credentials= decodedHeaders.get(header);
+        if(credentials!= null) {cacheHits.increment();}
+        else
+        {
+            cacheMisses.increment();
+            credentials= decode(header);
+            remember(decodedHeaders, header, credentials);
+        }
+
+    // Uploads spooled by a previous run may wait for these credentials
+        UploadSpool.resume(credentials.getName(), credentials.getPassword());
+
+        SecurityContext original= requestContext.getSecurityContext();
+        Credentials principal= credentials;
+        requestContext.setSecurityContext(new SecurityContext()
+        {
+            @Override
+            public Principal
+            getUserPrincipal()
+            {
+                return principal;
+            }
+
+            @Override
+            public boolean
+            isUserInRole(String role)
+            {
+                return false;
+            }
+
+            @Override
+            public boolean
+            isSecure()
+            {
+                return original.isSecure();
+            }
+
+            @Override
+            public String
+            getAuthenticationScheme()
+            {
+                return SecurityContext.BASIC_AUTH;
+            }
+        });
+    }
+
+    /**
+     * Remembers the header of a request that was refused with a 403 HTTP code.
+     *
+     * @param requestContext The request.
+     * @param responseContext The response.
+     */
+    @Override
+    public void
+    filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
+    {
+        Object key= requestContext.getProperty(REFUSAL_KEY_PROPERTY);
+        if(key== null || responseContext.getStatus()!= Response.Status.FORBIDDEN.getStatusCode()) {return;}
+
+        remember(refusedHeaders, (String) key, System.currentTimeMillis() + Settings.AUTH_NEGATIVE_TTL_SECONDS * 1000L);
+    }
+}
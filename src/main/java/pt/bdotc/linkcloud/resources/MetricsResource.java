@@ -0,0 +1,38 @@
+package pt.bdotc.linkcloud.resources;
+
+import pt.bdotc.linkcloud.metrics.Metrics;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.util.Map;
+
+/**
+ * A JAX-RS resource that exposes the application's {@link Metrics}. It holds no CSP data nor credentials, so it
+ * requires no authentication.
+ */
+@Path("metrics")
+public class
+MetricsResource
+{
+    /**
+     * A {@code GET} HTTP request for the current value of every metric. It returns a {@code text/plain} with one
+     * {@code "<name> <value>"} line per metric, sorted by name.
+     *
+     * @return The values of the metrics.
+     */
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    public String
+    getMetrics()
+    {
+        StringBuilder metrics= new StringBuilder();
+        for(Map.Entry<String, Long> metric : Metrics.snapshot().entrySet())
+        {
+            metrics.append(metric.getKey()).append(' ').append(metric.getValue()).append('\n');
+        }
+
+        return metrics.toString();
+    }
+}
@@ -1,19 +1,64 @@
 package pt.bdotc.linkcloud.resources;
 
+import pt.bdotc.linkcloud.Settings;
+import pt.bdotc.linkcloud.account.ContainerListStreamer;
+import pt.bdotc.linkcloud.append.AppendBatcher;
+import pt.bdotc.linkcloud.account.UsageCollector;
+import pt.bdotc.linkcloud.archive.BulkIngester;
+import pt.bdotc.linkcloud.archive.ZipArchiveStreamer;
+import pt.bdotc.linkcloud.execution.StorageExecutor;
+import pt.bdotc.linkcloud.index.BlobIndex;
+import pt.bdotc.linkcloud.index.ContainerIndex;
+import pt.bdotc.linkcloud.index.ListingCache;
+import pt.bdotc.linkcloud.objects.AsyncStorageObject;
+import pt.bdotc.linkcloud.objects.BlobInfo;
+import pt.bdotc.linkcloud.objects.BlobListWriter;
 import pt.bdotc.linkcloud.objects.AzureStorageObject;
+import pt.bdotc.linkcloud.objects.BlockingStorageObjectAdapter;
+import pt.bdotc.linkcloud.objects.MirroredStorageObject;
+import pt.bdotc.linkcloud.objects.SignedUriCache;
 import pt.bdotc.linkcloud.objects.StorageObject;
+import pt.bdotc.linkcloud.spool.SpooledUpload;
+import pt.bdotc.linkcloud.spool.UploadSpool;
+import pt.bdotc.linkcloud.sync.ManifestDiff;
+import pt.bdotc.linkcloud.transfer.ContentDigests;
+import pt.bdotc.linkcloud.transfer.TransferEngine;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.*;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.StreamSupport;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.Principal;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
 
 /**
  * A JAX-RS resource that implements the interface of the RESTful service. All CSP implementations for this program
  * should pay close attention to the exceptions that are being thrown by the methods of this class.
+ *
+ * Every request is handled asynchronously: the credentials, read by the {@link CredentialsFilter}, are validated on
+ * the request thread, and the call to the CSP is then made through its {@link AsyncStorageObject} interface, whose
+ * completion resumes the suspended response. Calls that have no non-blocking counterpart are handed to the
+ * {@link StorageExecutor}.
  */
 @Path("api")
+@Authenticated
 public class
 RequestResource
 {
@@ -21,49 +66,624 @@ RequestResource
 
     /** String that defines the name of the custom header field of HEAD requests for blobs. */
     private static final String BLOB_SIZE_HEADER= "LinkCloud-Blob-Size";
+    /** String that defines the name of the custom header field with the number of blobs of an indexed container. */
+    private static final String CONTAINER_COUNT_HEADER= "LinkCloud-Blob-Count";
+    /** String that defines the name of the custom header field with the total size in bytes of an indexed
+     *  container. */
+    private static final String CONTAINER_SIZE_HEADER= "LinkCloud-Container-Size";
+    /** Value of the {@code sort} query parameter of blob listings that sorts blobs from the largest to the smallest. */
+    private static final String SORT_BY_SIZE= "size";
+    /** String that defines the name of the header field with the Base64 encoded MD5 hash of an upload's content. */
+    private static final String CONTENT_MD5_HEADER= "Content-MD5";
+    /** String that defines the name of the custom header field with the Base64 encoded SHA-256 hash of an upload's
+     *  content. */
+    private static final String CONTENT_SHA256_HEADER= "LinkCloud-Content-SHA256";
+    /** String that defines the name of the custom header field that tells how an upload was deduplicated, if it was:
+     *  {@code existing} if the blob already had the content, {@code copy} if it was copied from another blob. */
+    private static final String DEDUPLICATED_HEADER= "LinkCloud-Deduplicated";
+    /** String that defines the name of the custom header field with which a client asks to be redirected to the CSP,
+     *  through a signed URI, instead of having the blob's content go through this application. */
+    private static final String REDIRECT_HEADER= "LinkCloud-Redirect";
+    /** String that defines the name of the header field with which a client states its preferences (RFC 7240). */
+    private static final String PREFER_HEADER= "Prefer";
+    /** String that defines the name of the header field that tells which of the client's preferences were applied. */
+    private static final String PREFERENCE_APPLIED_HEADER= "Preference-Applied";
+    /** Preference with which a client asks for an upload to be acknowledged once it's in the local spool. */
+    private static final String RESPOND_ASYNC= "respond-async";
+    /** String that defines the name of the custom header field with the ID of a spooled upload. */
+    private static final String SPOOL_ID_HEADER= "LinkCloud-Spool-Id";
+    /** String that defines the name of the custom header field with the offset at which an append was written. */
+    private static final String APPEND_OFFSET_HEADER= "LinkCloud-Append-Offset";
+    /** String that defines the name of the custom header field with which a client asks for an upload to only send
+     *  the CSP the parts of the blob it doesn't have yet. */
+    private static final String DELTA_HEADER= "LinkCloud-Delta";
+    /** String that defines the name of the custom header field with the number of bytes a delta upload sent into the
+     *  CSP. */
+    private static final String DELTA_SENT_HEADER= "LinkCloud-Delta-Sent";
+    /** String that defines the media type of ZIP archives. */
+    private static final String APPLICATION_ZIP= "application/zip";
+    /** String that defines the media type of tar archives. */
+    private static final String APPLICATION_TAR= "application/x-tar";
+
+    /** The security context of the request, whose principal holds the client's {@link Credentials}. */
+    @Context
+    private SecurityContext securityContext;
+
+    private static final Logger LOGGER= Logger.getLogger(RequestResource.class.getName());
 
     /** Hash Map that contains the StorageObject implementations for all supported CSPs. */
     private static final HashMap<String, StorageObject> providersSet=  new HashMap<>();
     static
     {
         providersSet.put("azureblob", new AzureStorageObject());
+        providersSet.putAll(MirroredStorageObject.fromSettings(providersSet));
+    }
+
+    /** Hash Map with the non-blocking interface of every CSP in {@link #providersSet}. CSPs that don't implement
+     *  {@link AsyncStorageObject} themselves are wrapped in a {@link BlockingStorageObjectAdapter}. */
+    private static final HashMap<String, AsyncStorageObject> asyncProvidersSet= new HashMap<>();
+    static
+    {
+        for(Map.Entry<String, StorageObject> provider : providersSet.entrySet())
+        {
+            StorageObject storageObject= provider.getValue();
+            asyncProvidersSet.put(provider.getKey(), storageObject instanceof AsyncStorageObject?
+                                                     (AsyncStorageObject) storageObject:
+                                                     new BlockingStorageObjectAdapter(storageObject));
+        }
+    }
+
+    /* Pick up the uploads left in the spool by a previous run. Failing to doesn't keep the other requests from being
+     * served, so it's only logged. */
+    static
+    {
+        try
+        {
+            UploadSpool.recover(providersSet);
+        }
+        catch(IOException | RuntimeException spoolError)
+        {
+            LOGGER.log(Level.SEVERE, "Unable to recover the uploads in the spool directory " + Settings.SPOOL_DIR,
+                       spoolError);
+        }
     }
 
     /**
-     * Validates the Authorization HTTP header of the client and retrieve username and password from it. Also checks if
-     * the CSP the user is trying to access is valid, i.e., it's a supported CSP.
+     * Gives the credentials the client sent in its Authorization HTTP header, as read by the {@link CredentialsFilter}.
+     * Also checks if the CSP the user is trying to access is valid, i.e., it's a supported CSP.
      *
-     * @param headers The HTTP headers of the client's request.
      * @param provider The CSP the user wants to access.
      * @return A list of {@code String} of 2 elements with the username at position 0 and the password at position 1.
-     * @throws ForbiddenException Thrown when there's no Authorization header in the client's request.
-     * @throws BadRequestException Thrown when the Authorization header is not of the {@code Basic} type or if it
-     *         doesn't have a username, a password or both.
+     * @throws ForbiddenException Thrown when there are no credentials in the client's request. See also
+     *         {@link CredentialsFilter}.
      * @throws NotSupportedException Thrown when the user is trying to use an unsupported CSP.
      */
     private String[]
-    getCredentialsValidateCSP(HttpHeaders headers, String provider)
-    throws ForbiddenException, BadRequestException, NotSupportedException
+    getCredentialsValidateCSP(String provider)
+    throws ForbiddenException, NotSupportedException
     {
-    // Get Authorization HTTP header
-        List<String> authHeadersList= headers.getRequestHeader(HttpHeaders.AUTHORIZATION);
-        if(authHeadersList.isEmpty()) {throw new ForbiddenException();}
-        String authHeader= authHeadersList.get(0);
-
-    // Make sure authorization is of the Basic type
-        String authType= authHeader.split(" ")[0];
-        if(!authType.equals("Basic")) {throw new BadRequestException();}
-
-    // Decode header and get username and password from it
-        String authDigest= authHeader.substring("Basic ".length());
-        java.util.Base64.Decoder decoder= java.util.Base64.getDecoder();
-        String[] result= new String(decoder.decode(authDigest)).split(":");
-        if(result.length!= 2 || result[0].equals("") || result[1].equals("")) {throw new BadRequestException();}
+        Principal principal= securityContext.getUserPrincipal();
+        if(!(principal instanceof Credentials)) {throw new ForbiddenException();}
 
     // Make sure client is using valid CSP
         if(!providersSet.containsKey(provider)) {throw new NotSupportedException();}
 
-        return result;
+        String username= principal.getName();
+        String password= ((Credentials) principal).getPassword();
+        return new String[] {username, password};
+    }
+
+    /**
+     * Resumes the suspended response of a request once the CSP operation it started is done, either with the result of
+     * the operation or with the exception it failed with. The latter is then mapped into the proper HTTP error code by
+     * the application server.
+     *
+     * The response is resumed on the {@link StorageExecutor}, even when the operation is already done, seeing as its
+     * entity is written by the thread that resumes it: the contents of downloads are then copied to the client on the
+     * executor's threads, e.g., virtual threads, rather than on the application server's.
+     *
+     * @param asyncResponse The suspended response of the client's request.
+     * @param operation The CSP operation, completing with the entity or {@link Response} to send to the client.
+     */
+    private static void
+    resume(final AsyncResponse asyncResponse, CompletionStage<?> operation)
+    {
+        operation.whenCompleteAsync((result, error) ->
+        {
+            if     (error== null)                         {asyncResponse.resume(result);}
+            else if(error instanceof CompletionException) {asyncResponse.resume(error.getCause());}
+            else                                          {asyncResponse.resume(error);}
+        }, StorageExecutor::execute);
+    }
+
+    /**
+     * Answers the listing of a whole container from the {@link ListingCache}. The listing is sent along with its ETag,
+     * unless the client already has it, i.e., the ETag is one of those in the client's {@code If-None-Match} header.
+     *
+     * @param provider The CSP that's to be accessed.
+     * @param container The container that's to be listed.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @param ifNoneMatch The client's {@code If-None-Match} header, or {@code null} if it didn't send one.
+     * @return A 200 HTTP code with the XML file, or a 304 HTTP code if the client already has it.
+     * @throws NotFoundException See the StorageObject classes implemented.
+     * @throws InternalServerErrorException See {@link ListingCache#get} and the StorageObject classes implemented.
+     */
+    private static Response
+    cachedListing(String provider, String container, String username, String password, String ifNoneMatch)
+    throws NotFoundException, InternalServerErrorException
+    {
+        ListingCache.Listing listing= ListingCache.get(provider, providersSet.get(provider), container, username,
+                                                       password);
+        EntityTag etag= new EntityTag(listing.getETag());
+
+        if(ifNoneMatch!= null && matchesETag(ifNoneMatch, listing.getETag()))
+        {
+            return Response.notModified(etag).build();
+        }
+        return Response.ok(listing.getContents(), MediaType.APPLICATION_XML).tag(etag).build();
+    }
+
+    /**
+     * Tells whether an {@code If-None-Match} header matches an ETag. The comparison is weak, as the header requires,
+     * so the {@code W/} prefix of the client's ETags is ignored.
+     *
+     * @param ifNoneMatch The header, i.e., {@code *} or a comma separated list of quoted ETags.
+     * @param etag The ETag, without quotes.
+     * @return {@code true} if the header matches the ETag.
+     */
+    private static boolean
+    matchesETag(String ifNoneMatch, String etag)
+    {
+        for(String candidate : ifNoneMatch.split(","))
+        {
+            candidate= candidate.trim();
+            if(candidate.startsWith("W/")) {candidate= candidate.substring(2);}
+
+            if(candidate.equals("*") || candidate.equals('"' + etag + '"')) {return true;}
+        }
+
+        return false;
+    }
+
+    /**
+     * Answers a blob listing that has a prefix, a sort order or a limit. When the blob index is enabled, the listing
+     * is answered from the container's {@link ContainerIndex}; otherwise, or when the container is too large to be
+     * indexed, it's answered from a flat listing of the container in the CSP, which can't be sorted by size.
+     *
+     * @param provider The CSP that's to be accessed.
+     * @param container The container that's to be listed.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @param prefix Lists only the blobs whose names start with this prefix; {@code null} lists all blobs.
+     * @param sort {@link #SORT_BY_SIZE} to sort blobs from the largest to the smallest; anything else sorts them by
+     *        name.
+     * @param limit The maximum number of blobs to list; 0 or less lists all of them.
+     * @return A 200 HTTP code with the XML file, along with the container's statistics if it's indexed.
+     * @throws BadRequestException Thrown when sorting by size without the blob index, or a container too large for it.
+     *         See also the StorageObject classes implemented.
+     * @throws InternalServerErrorException Thrown when the XML file can't be built. See also the StorageObject
+     *         classes implemented.
+     */
+    private static Response
+    queryBlobs(String provider, String container, String username, String password,
+               String prefix, String sort, int limit)
+    throws BadRequestException, InternalServerErrorException
+    {
+        StorageObject storageObject= providersSet.get(provider);
+        Response.ResponseBuilder response= Response.ok();
+        List<BlobInfo> blobs;
+
+        ContainerIndex index= Settings.BLOB_INDEX? BlobIndex.get(provider, storageObject, container, username,
+                                                                 password): null;
+        if(index!= null)
+        {
+            blobs= SORT_BY_SIZE.equals(sort)? index.largest(prefix, limit): index.byPrefix(prefix, limit);
+            response.header(CONTAINER_COUNT_HEADER, index.count()).header(CONTAINER_SIZE_HEADER, index.totalBytes());
+        }
+        else
+        {
+            if(SORT_BY_SIZE.equals(sort))
+            {
+                throw new BadRequestException(Settings.BLOB_INDEX? "Container " + container + " has too many blobs " +
+                                                                   "to be sorted by size":
+                                                                   "Sorting by size requires the blob index");
+            }
+
+            blobs= new ArrayList<>();
+            for(BlobInfo blob : storageObject.listBlobInfo(container, prefix, username, password))
+            {
+                if(limit> 0 && blobs.size()>= limit) {break;}
+                blobs.add(blob);
+            }
+        }
+
+        try
+        {
+            return response.entity(BlobListWriter.toXml(blobs)).build();
+        }
+        catch(Exception exception)
+        {
+            throw new InternalServerErrorException("Error generating XML file for container " + container);
+        }
+    }
+
+    /**
+     * Uploads a blob whose content hash was given by the client, without sending the content into the CSP if possible.
+     * The content is first read into a local file, hashing it on the way, and the upload is refused if it doesn't
+     * match the given hashes, so that a client can't claim contents it doesn't have. The content is then only sent
+     * into the CSP if neither the blob itself nor any other blob of the container (as far as the container's
+     * {@link ContainerIndex} knows, when the blob index is enabled) already has that hash. A matching blob is copied
+     * by the CSP, and the copy is checked against the hash before the upload is deemed done.
+     *
+     * Contents larger than {@code Settings.DEDUP_MAX_BUFFER_BYTES} aren't read into a local file: they're sent
+     * straight into the CSP, hashing them on the way, and are only checked against the given hashes once they're
+     * there. Such a blob keeps the contents that were sent even if they don't match.
+     *
+     * When the client gives a SHA-256 hash, blobs only match if their SHA-256 hash is known and is the same. CSPs
+     * don't keep that hash, so only blobs uploaded through this service into an indexed container can match.
+     *
+     * @param provider The CSP that's to be accessed.
+     * @param container The container into which the blob is to be uploaded.
+     * @param blob The name of the blob.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @param content The contents to be uploaded.
+     * @param size The size of the contents in bytes.
+     * @param contentMD5 The Base64 encoded MD5 hash of the contents, as given by the client, or {@code null}.
+     * @param contentSHA256 The Base64 encoded SHA-256 hash of the contents, as given by the client, or {@code null}.
+     * @return A 200 HTTP code in case of success, with the {@link #DEDUPLICATED_HEADER} header field if the contents
+     *         weren't sent into the CSP.
+     * @throws BadRequestException Thrown when the contents don't match their size or the given hashes.
+     * @throws InternalServerErrorException Thrown when the contents can't be read into a local file. See also the
+     *         StorageObject classes implemented.
+     */
+    private static Response
+    deduplicatedUpload(String provider, String container, String blob, String username, String password,
+                       InputStream content, long size, String contentMD5, String contentSHA256)
+    throws BadRequestException, InternalServerErrorException
+    {
+        StorageObject storageObject= providersSet.get(provider);
+        MessageDigest md5= ContentDigests.create("MD5");
+        MessageDigest sha256= contentSHA256== null? null: ContentDigests.create("SHA-256");
+        InputStream hashedContent= sha256== null? ContentDigests.hashed(content, md5):
+                                                  ContentDigests.hashed(content, md5, sha256);
+
+    // Contents too large to be buffered can only be checked once they're in the CSP
+        if(size> Settings.DEDUP_MAX_BUFFER_BYTES)
+        {
+            storageObject.uploadBlob(container, blob, username, password, hashedContent, size);
+            String actualMD5= ContentDigests.encode(md5);
+            String actualSHA256= sha256== null? null: ContentDigests.encode(sha256);
+            BlobIndex.recordUpload(provider, username, container, blob, size, actualMD5, actualSHA256);
+
+            checkHashes(contentMD5, contentSHA256, actualMD5, actualSHA256);
+            return Response.ok().build();
+        }
+
+    // Check the given hashes against the contents before trusting them
+        java.nio.file.Path buffered= buffer(blob, hashedContent, size);
+        try
+        {
+            String actualMD5= ContentDigests.encode(md5);
+            String actualSHA256= sha256== null? null: ContentDigests.encode(sha256);
+            checkHashes(contentMD5, contentSHA256, actualMD5, actualSHA256);
+
+        // The blob may already have this content
+            ContainerIndex index= Settings.BLOB_INDEX? BlobIndex.get(provider, storageObject, container, username,
+                                                                     password): null;
+            if(actualSHA256!= null)
+            {
+                BlobInfo current= index== null? null: index.find(blob);
+                if(current!= null && actualSHA256.equals(current.getContentSHA256()) && current.getSize()== size)
+                {
+                    return Response.ok().header(DEDUPLICATED_HEADER, "existing").build();
+                }
+            }
+            else
+            {
+                try
+                {
+                    BlobInfo current= storageObject.getBlobInfo(container, blob, username, password);
+                    if(actualMD5.equals(current.getContentMD5()) && current.getSize()== size)
+                    {
+                        return Response.ok().header(DEDUPLICATED_HEADER, "existing").build();
+                    }
+                }
+                catch(NotFoundException blobMissing)
+                {
+                // Blob doesn't exist yet, so there's nothing to compare
+                }
+            }
+
+        // Or another blob of the container may have it, in which case it's copied
+            if(index!= null)
+            {
+                String sourceBlob= actualSHA256!= null? index.findByContentSHA256(actualSHA256):
+                                                        index.findByContentMD5(actualMD5);
+
+                if(sourceBlob!= null && !sourceBlob.equals(blob))
+                {
+                    try
+                    {
+                        storageObject.copyBlob(container, sourceBlob, blob, username, password);
+                        BlobInfo copy= storageObject.getBlobInfo(container, blob, username, password);
+
+                        if(actualMD5.equals(copy.getContentMD5()) && copy.getSize()== size)
+                        {
+                            BlobIndex.recordUpload(provider, username, container, blob, size, actualMD5,
+                                                   actualSHA256);
+                            return Response.ok().header(DEDUPLICATED_HEADER, "copy").build();
+                        }
+                    }
+                    catch(NotFoundException sourceMissing)
+                    {
+                    // Index was out of date; fall back to a regular upload
+                    }
+                }
+            }
+
+        // Nothing matched, so the content has to be uploaded
+            try(InputStream bufferedContent= Files.newInputStream(buffered))
+            {
+                storageObject.uploadBlob(container, blob, username, password, bufferedContent, size);
+            }
+            catch(IOException readError)
+            {
+                throw new InternalServerErrorException("Error reading the buffered contents of blob " + blob);
+            }
+            BlobIndex.recordUpload(provider, username, container, blob, size, actualMD5, actualSHA256);
+            return Response.ok().build();
+        }
+        finally
+        {
+            try {Files.deleteIfExists(buffered);} catch(IOException ignored) {}
+        }
+    }
+
+    /**
+     * Checks the hashes of the contents of an upload against the ones given by the client.
+     *
+     * @param contentMD5 The Base64 encoded MD5 hash given by the client, or {@code null}.
+     * @param contentSHA256 The Base64 encoded SHA-256 hash given by the client, or {@code null}.
+     * @param actualMD5 The Base64 encoded MD5 hash of the contents.
+     * @param actualSHA256 The Base64 encoded SHA-256 hash of the contents, or {@code null} if it wasn't computed.
+     * @throws BadRequestException Thrown when a given hash doesn't match the contents.
+     */
+    private static void
+    checkHashes(String contentMD5, String contentSHA256, String actualMD5, String actualSHA256)
+    throws BadRequestException
+    {
+        if(contentMD5!= null && !contentMD5.equals(actualMD5))
+        {
+            throw new BadRequestException("Content-MD5 doesn't match the contents");
+        }
+        if(contentSHA256!= null && !contentSHA256.equals(actualSHA256))
+        {
+            throw new BadRequestException(CONTENT_SHA256_HEADER + " doesn't match the contents");
+        }
+    }
+
+    /**
+     * Reads the contents of an upload into a local temporary file, which only the application can read, through the
+     * {@link TransferEngine}. No more than one byte past the given size is read, so that a client can't fill the disk
+     * with more contents than it announced.
+     *
+     * @param blob The name of the blob.
+     * @param content The contents to be read.
+     * @param size The size of the contents in bytes.
+     * @return The path of the temporary file, which the caller has to delete.
+     * @throws BadRequestException Thrown when the contents aren't as long as their Content-Length.
+     * @throws InternalServerErrorException Thrown when the contents can't be read or written into the file.
+     */
+    private static java.nio.file.Path
+    buffer(String blob, InputStream content, long size)
+    throws BadRequestException, InternalServerErrorException
+    {
+        java.nio.file.Path buffered;
+        try
+        {
+            buffered= Files.createTempFile("linkcloud-upload-", ".tmp");
+        }
+        catch(IOException fileError)
+        {
+            throw new InternalServerErrorException("Error buffering the contents of blob " + blob);
+        }
+
+        try(OutputStream file= new FileOutputStream(buffered.toFile()))
+        {
+            if(TransferEngine.copy(content, file, size + 1)!= size)
+            {
+                throw new BadRequestException("Contents don't match their Content-Length");
+            }
+            return buffered;
+        }
+        catch(IOException | RuntimeException readError)
+        {
+            try {Files.deleteIfExists(buffered);} catch(IOException ignored) {}
+
+            if(readError instanceof BadRequestException) {throw (BadRequestException) readError;}
+            throw new InternalServerErrorException("Error buffering the contents of blob " + blob);
+        }
+    }
+
+    /**
+     * Uploads a blob straight into the CSP, hashing its contents on the way, so that the blob is recorded into its
+     * container's index along with its MD5 hash and can be found by {@link #deduplicatedUpload} right away.
+     *
+     * @param provider The CSP that's to be accessed.
+     * @param container The container into which the blob is to be uploaded.
+     * @param blob The name of the blob.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @param content The contents to be uploaded.
+     * @param size The size of the contents in bytes.
+     */
+    private static void
+    upload(String provider, String container, String blob, String username, String password, InputStream content,
+           long size)
+    {
+        MessageDigest md5= ContentDigests.create("MD5");
+        providersSet.get(provider).uploadBlob(container, blob, username, password,
+                                              ContentDigests.hashed(content, md5), size);
+        BlobIndex.recordUpload(provider, username, container, blob, size, ContentDigests.encode(md5));
+    }
+
+    /**
+     * Non-blocking version of {@link #upload}, made through the CSP's {@link AsyncStorageObject} interface.
+     *
+     * @param provider The CSP that's to be accessed.
+     * @param container The container into which the blob is to be uploaded.
+     * @param blob The name of the blob.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @param content The contents to be uploaded.
+     * @param size The size of the contents in bytes.
+     * @return A stage that completes with a 200 HTTP code once the blob is uploaded and recorded.
+     */
+    private static CompletionStage<Response>
+    uploadAsync(String provider, String container, String blob, String username, String password,
+                InputStream content, long size)
+    {
+        MessageDigest md5= ContentDigests.create("MD5");
+        return asyncProvidersSet.get(provider)
+                                .uploadBlobAsync(container, blob, username, password,
+                                                 ContentDigests.hashed(content, md5), size)
+                                .thenApply(done ->
+                                {
+                                    BlobIndex.recordUpload(provider, username, container, blob, size,
+                                                           ContentDigests.encode(md5));
+                                    return Response.ok().build();
+                                });
+    }
+
+    /**
+     * Tells whether or not the client asked to be redirected to the CSP, through the {@link #REDIRECT_HEADER} header.
+     *
+     * @param headers The HTTP headers of the client's request.
+     * @return {@code true} if the header is set to {@code true}.
+     */
+    private static boolean
+    wantsRedirect(HttpHeaders headers)
+    {
+        return Boolean.parseBoolean(headers.getHeaderString(REDIRECT_HEADER));
+    }
+
+    /**
+     * Tells whether or not the client asked for a delta upload, through the {@link #DELTA_HEADER} header.
+     *
+     * @param headers The HTTP headers of the client's request.
+     * @return {@code true} if the header is set to {@code true}.
+     */
+    private static boolean
+    wantsDelta(HttpHeaders headers)
+    {
+        return Boolean.parseBoolean(headers.getHeaderString(DELTA_HEADER));
+    }
+
+    /**
+     * Builds a 307 HTTP response that sends the client straight to a blob in the CSP, through a signed URI. The
+     * service doesn't see redirected uploads happen, so the container's listing isn't cached and the blob's content
+     * hashes aren't trusted until the URI expires (see {@link BlobIndex#recordRedirectedUpload}).
+     *
+     * @param provider The CSP that's to be accessed.
+     * @param container The container in which the blob resides.
+     * @param blob The name of the blob.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @param write {@code true} to redirect an upload; {@code false} to redirect a download.
+     * @return A 307 HTTP code, with the signed URI in the {@code Location} header field.
+     */
+    private static Response
+    redirect(String provider, String container, String blob, String username, String password, boolean write)
+    {
+    // A cached URI expires no later than one that's signed now
+        if(write)
+        {
+            BlobIndex.recordRedirectedUpload(provider, username, container, blob,
+                                             System.currentTimeMillis() + Settings.SIGNED_URI_VALIDITY_SECONDS * 1000L);
+        }
+
+        return Response.temporaryRedirect(SignedUriCache.get(provider, providersSet.get(provider), container, blob,
+                                                             username, password, write))
+                       .build();
+    }
+
+    /**
+     * Tells whether or not the client asked for its upload to be acknowledged once it's in the local spool, through
+     * the {@code respond-async} preference of the {@link #PREFER_HEADER} header. Always {@code false} when spooling is
+     * disabled.
+     *
+     * @param headers The HTTP headers of the client's request.
+     * @return {@code true} if the upload is to be spooled.
+     */
+    private static boolean
+    wantsSpool(HttpHeaders headers)
+    {
+        if(!UploadSpool.ENABLED) {return false;}
+
+        for(String prefer : headers.getRequestHeader(PREFER_HEADER))
+        {
+            for(String preference : prefer.split(","))
+            {
+                if(preference.trim().toLowerCase().startsWith(RESPOND_ASYNC)) {return true;}
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Writes an upload into the local spool, from which it's uploaded into the CSP in the background. If the spool is
+     * full, the upload goes straight into the CSP instead. The credentials and the container are checked against the
+     * CSP first, so that an upload that the CSP would refuse isn't acknowledged.
+     *
+     * @param provider The CSP that's to be accessed.
+     * @param container The container into which the blob is to be uploaded.
+     * @param blob The name of the blob.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @param content The contents to be uploaded.
+     * @param size The size of the contents in bytes.
+     * @return A 202 HTTP code with the ID of the spooled upload in the {@link #SPOOL_ID_HEADER} header field, or a 200
+     *         HTTP code if the upload went straight into the CSP.
+     * @throws ForbiddenException Thrown when the CSP refuses the credentials. See also the StorageObject classes
+     *         implemented.
+     * @throws NotFoundException Thrown when the container doesn't exist. See also the StorageObject classes
+     *         implemented.
+     * @throws InternalServerErrorException Thrown when the upload can't be written into the spool. See also the
+     *         StorageObject classes implemented.
+     */
+    private static Response
+    spooledUpload(String provider, String container, String blob, String username, String password,
+                  InputStream content, long size)
+    throws ForbiddenException, NotFoundException, InternalServerErrorException
+    {
+        StorageObject storageObject= providersSet.get(provider);
+        storageObject.getContainerETag(container, username, password);
+
+        SpooledUpload upload;
+        try
+        {
+            upload= UploadSpool.spool(provider, storageObject, container, blob, username, password, content, size);
+        }
+        catch(IOException spoolError)
+        {
+            throw new InternalServerErrorException("Error spooling blob " + blob);
+        }
+
+    // No room in the spool, so the client waits for the CSP after all
+        if(upload== null)
+        {
+            UploadSpool.discard(provider, container, blob, username, password);
+            upload(provider, container, blob, username, password, TransferEngine.metered(content, size), size);
+            return Response.ok().build();
+        }
+
+        return Response.accepted()
+                       .header(SPOOL_ID_HEADER, upload.getId())
+                       .header(PREFERENCE_APPLIED_HEADER, RESPOND_ASYNC)
+                       .build();
     }
 
 /*---------------------
@@ -74,13 +694,26 @@ RequestResource
      * A {@code GET} HTTP request for the download of a blob. Its path is {@code "{provider}/{container}/{blob}"} and
      * it returns an {@code application/octet_stream}.
      *
+     * If the client sets the {@link #REDIRECT_HEADER} header field to {@code true}, it's instead redirected (307) to a
+     * short-lived signed URI from which it can download the blob straight from the CSP.
+     *
+     * Blobs whose spooled uploads haven't made it into the CSP yet are served from the local spool.
+     *
+     * With {@code spool=<id>}, where {@code id} is the ID handed out by {@link #putBlob} for a spooled upload of the
+     * blob, the state of that upload is returned instead, as a {@code text/plain} with {@code pending} or
+     * {@code uploading} while the upload is in the spool, or {@code failed} followed by the HTTP code of the last
+     * attempt if it was given up on. Uploads that made it into the CSP are no longer in the spool, so they're reported
+     * with a 404 HTTP code, just like unknown IDs and uploads spooled with other credentials.
+     *
      * @param headers The HTTP headers of the client's request.
      * @param provider The provider the client's trying to access.
      * @param container The container in which the blob to download resides.
      * @param blob The name of the blob to download.
-     * @return An {@link InputStream} with the contents of the blob that's being downloaded.
+     * @param spoolId The ID of the spooled upload whose state is asked for, or {@code null} to download the blob.
+     * @param asyncResponse The response, resumed with an {@link InputStream} with the contents of the blob that's being
+     *        downloaded, or with the state of the spooled upload.
      * @throws ForbiddenException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
-     * @throws BadRequestException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws BadRequestException See {@link CredentialsFilter} and the StorageObject classes implemented.
      * @throws NotSupportedException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
      * @throws NotFoundException See the StorageObject classes implemented.
      * @throws InternalServerErrorException See the StorageObject classes implemented.
@@ -88,21 +721,52 @@ RequestResource
     @GET
     @Path("{provider}/{container}/{blob}")
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public InputStream
+    public void
     getBlob(@Context                HttpHeaders headers,
             @PathParam("provider")  String provider,
             @PathParam("container") String container,
-            @PathParam("blob")      String blob)
+            @PathParam("blob")      String blob,
+            @QueryParam("spool")    String spoolId,
+            @Suspended              AsyncResponse asyncResponse)
     throws ForbiddenException, BadRequestException, NotSupportedException, NotFoundException,
            InternalServerErrorException
     {
     // Get username and password from HTTP AUTHORIZATION header
-        String[] credentials= getCredentialsValidateCSP(headers, provider);
+        String[] credentials= getCredentialsValidateCSP(provider);
         String username= credentials[0];
         String password= credentials[1];
 
-    // Perform download of blob and return it to client
-        return providersSet.get(provider).downloadBlob(container, blob, username, password);
+        if(spoolId!= null)
+        {
+            SpooledUpload upload= UploadSpool.get(spoolId, provider, container, blob, username, password);
+            if(upload== null) {throw new NotFoundException("Upload " + spoolId + " isn't in the spool.");}
+
+            String state= upload.getState().name().toLowerCase();
+            if(upload.getState()== SpooledUpload.State.FAILED) {state+= " " + upload.getLastStatus();}
+            asyncResponse.resume(Response.ok(state, MediaType.TEXT_PLAIN_TYPE).build());
+            return;
+        }
+
+    // Serve blob from the spool if its latest contents are still there
+        SpooledUpload spooled= UploadSpool.find(provider, container, blob, username, password);
+        InputStream spooledContent= spooled== null? null: UploadSpool.open(spooled);
+        if(spooledContent!= null)
+        {
+            resume(asyncResponse, CompletableFuture.completedFuture(TransferEngine.stream(spooledContent)));
+            return;
+        }
+
+    // Send client straight to the CSP if asked to
+        if(wantsRedirect(headers))
+        {
+            asyncResponse.resume(redirect(provider, container, blob, username, password, false));
+            return;
+        }
+
+    // Perform download of blob and stream it to client
+        resume(asyncResponse, asyncProvidersSet.get(provider)
+                                               .downloadBlobAsync(container, blob, username, password)
+                                               .thenApply(TransferEngine::stream));
     }
 
     /**
@@ -113,40 +777,115 @@ RequestResource
      * programmed interaction, that is, it's not meant to be used with a web page alongside it. Changing this to a
      * multipart form shouldn't be too hard though. Also, this means that this isn't ideal for uploading large files.
      *
+     * Clients that send the MD5 hash of the contents in the {@code Content-MD5} header field, or their SHA-256 hash
+     * in the {@link #CONTENT_SHA256_HEADER} header field, let the upload be deduplicated: the contents are checked
+     * against the hash and, if the blob or another blob of the container already has those contents, they aren't sent
+     * into the CSP (see {@link #deduplicatedUpload}).
+     *
+     * If the client sets the {@link #REDIRECT_HEADER} header field to {@code true}, the contents aren't read either:
+     * the client is redirected (307) to a short-lived signed URI to which it can upload the blob straight into the
+     * CSP. For Azure, that upload has to be a {@code PUT} with the {@code x-ms-blob-type: BlockBlob} header field.
+     *
+     * If the client sets the {@link #DELTA_HEADER} header field to {@code true}, the upload is a delta of the blob's
+     * current contents: only the parts of the contents the CSP doesn't have yet are sent into it, and the number of
+     * bytes sent is given back in the {@link #DELTA_SENT_HEADER} header field. The {@code Content-MD5} header field
+     * isn't used by such uploads.
+     *
+     * If spooling is enabled and the client sends a {@code Prefer: respond-async} header field, the contents are
+     * written into the local spool and the client gets a 202 HTTP code as soon as they're on disk, along with the ID
+     * of the spooled upload in the {@link #SPOOL_ID_HEADER} header field (see {@link #spooledUpload}). The upload is
+     * then made in the background, and its progress can be followed through {@link #getBlob}, with the ID in its
+     * {@code spool} query parameter. Any other upload of the blob supersedes the spooled uploads that haven't started
+     * yet.
+     *
      * @param headers The HTTP headers of the client's request.
      * @param provider The CSP the user wants to use.
      * @param container The container into which the blob is to be uploaded.
      * @param blob The name of the blob.
      * @param content The contents to be uploaded.
-     * @return A 200 HTTP code in case of success.
+     * @param asyncResponse The response, resumed with a 200 HTTP code in case of success, or a 202 HTTP code if the
+     *        upload was spooled.
      * @throws ForbiddenException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
-     * @throws BadRequestException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws BadRequestException See {@link CredentialsFilter} and the StorageObject classes implemented.
      * @throws NotSupportedException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
      */
     @POST
     @Path("{provider}/{container}/{blob}")
     @Consumes(MediaType.APPLICATION_OCTET_STREAM)
-    public Response
+    public void
     putBlob(@Context                HttpHeaders headers,
             @PathParam("provider")  String provider,
             @PathParam("container") String container,
             @PathParam("blob")      String blob,
-            InputStream content)
+            InputStream content,
+            @Suspended              AsyncResponse asyncResponse)
     throws ForbiddenException, BadRequestException, NotSupportedException
     {
     // Get username and password from HTTP AUTHORIZATION header
-        String[] credentials= getCredentialsValidateCSP(headers, provider);
+        String[] credentials= getCredentialsValidateCSP(provider);
         String username= credentials[0];
         String password= credentials[1];
 
+    // Send client straight to the CSP if asked to, before the content is read
+        if(wantsRedirect(headers))
+        {
+            resume(asyncResponse, StorageExecutor.supply(() ->
+            {
+                UploadSpool.discard(provider, container, blob, username, password);
+                return redirect(provider, container, blob, username, password, true);
+            }));
+            return;
+        }
+
     // Get blob size from header Content-Length
         List<String> clHeadersList= headers.getRequestHeader(HttpHeaders.CONTENT_LENGTH);
         if(clHeadersList.isEmpty()) {throw new BadRequestException();}
         long size= Long.parseLong(clHeadersList.get(0));
 
-    // Try to upload blob
-        providersSet.get(provider).uploadBlob(container, blob, username, password, content, size);
-        return Response.ok().build();
+    // Acknowledge the upload once it's on local disk if asked to
+        if(wantsSpool(headers))
+        {
+            resume(asyncResponse, StorageExecutor.supply(() -> spooledUpload(provider, container, blob, username,
+                                                                             password, content, size)));
+            return;
+        }
+
+    // Uploads that go straight into the CSP supersede the blob's spooled uploads, and wait for one underway
+        CompletableFuture<Boolean> superseded= StorageExecutor.supply(() -> UploadSpool.discard(provider, container,
+                                                                                                blob, username,
+                                                                                                password));
+        InputStream blobContent= TransferEngine.metered(content, size);
+
+    // Only send the parts of the content the CSP doesn't have if asked to
+        if(wantsDelta(headers))
+        {
+            resume(asyncResponse, superseded.thenApplyAsync(discarded ->
+            {
+                MessageDigest md5= ContentDigests.create("MD5");
+                long sentBytes= providersSet.get(provider).uploadBlobDelta(container, blob, username, password,
+                                                                          ContentDigests.hashed(blobContent, md5),
+                                                                          size);
+                BlobIndex.recordUpload(provider, username, container, blob, size, ContentDigests.encode(md5));
+                return Response.ok().header(DELTA_SENT_HEADER, sentBytes).build();
+            }, StorageExecutor::execute));
+            return;
+        }
+
+    // Skip the upload if the content is already there, otherwise try to upload blob
+        String contentMD5= headers.getHeaderString(CONTENT_MD5_HEADER);
+        String contentSHA256= headers.getHeaderString(CONTENT_SHA256_HEADER);
+        if(contentMD5!= null || contentSHA256!= null)
+        {
+            resume(asyncResponse, superseded.thenApplyAsync(discarded ->
+                                                            deduplicatedUpload(provider, container, blob, username,
+                                                                               password, blobContent, size,
+                                                                               contentMD5, contentSHA256),
+                                                            StorageExecutor::execute));
+            return;
+        }
+
+        resume(asyncResponse, superseded.thenCompose(discarded -> uploadAsync(provider, container, blob, username,
+                                                                              password, blobContent, size)));
     }
 
     /**
@@ -157,66 +896,193 @@ RequestResource
      * @param provider The CSP the client wants to use.
      * @param container The container to access.
      * @param blob The blob to test.
-     * @return A 200 HTTP code in case of success.
+     * @param asyncResponse The response, resumed with a 200 HTTP code in case of success.
      * @throws ForbiddenException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
-     * @throws BadRequestException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws BadRequestException See {@link CredentialsFilter} and the StorageObject classes implemented.
      * @throws NotSupportedException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
      * @throws NotFoundException See the StorageObject classes implemented.
      * @throws InternalServerErrorException See the StorageObject classes implemented.
      */
     @HEAD
     @Path("{provider}/{container}/{blob}")
-    public Response
+    public void
     blobInfo(@Context                HttpHeaders headers,
              @PathParam("provider")  String provider,
              @PathParam("container") String container,
-             @PathParam("blob")      String blob)
+             @PathParam("blob")      String blob,
+             @Suspended              AsyncResponse asyncResponse)
     throws ForbiddenException, BadRequestException, NotSupportedException, NotFoundException,
            InternalServerErrorException
     {
     // Get username and password from HTTP AUTHORIZATION header
-        String[] credentials= getCredentialsValidateCSP(headers, provider);
+        String[] credentials= getCredentialsValidateCSP(provider);
         String username= credentials[0];
         String password= credentials[1];
 
+    // Blob may only be in the spool for now
+        SpooledUpload spooled= UploadSpool.find(provider, container, blob, username, password);
+        if(spooled!= null)
+        {
+            asyncResponse.resume(Response.ok().header(BLOB_SIZE_HEADER, spooled.getSize()).build());
+            return;
+        }
+
     // Get blob size and return it in the response's header
-        long blobSize= providersSet.get(provider).blobExists(container, blob, username, password);
-        return Response.ok().header(BLOB_SIZE_HEADER, blobSize).build();
+        resume(asyncResponse, asyncProvidersSet.get(provider)
+                                               .blobExistsAsync(container, blob, username, password)
+                                               .thenApply(blobSize -> Response.ok()
+                                                                              .header(BLOB_SIZE_HEADER, blobSize)
+                                                                              .build()));
     }
 
     /**
      * A {@code DELETE} HTTP request for the deletion of a blob. If the blob doesn't exist, this method returns a 404
-     * HTTP code.
+     * HTTP code. Spooled uploads of the blob that haven't started yet are dropped, so a blob that's only in the spool
+     * is deleted as well.
      *
      * @param headers The HTTP headers of the client's request.
      * @param provider The CSP that's to be accessed.
      * @param container The container that's to be altered.
      * @param blob The blob that's to be deleted.
-     * @return A 200 HTTP code in case of success.
+     * @param asyncResponse The response, resumed with a 200 HTTP code in case of success.
      * @throws ForbiddenException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
-     * @throws BadRequestException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws BadRequestException See {@link CredentialsFilter} and the StorageObject classes implemented.
      * @throws NotSupportedException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
      * @throws NotFoundException See the StorageObject classes implemented.
      * @throws InternalServerErrorException See the StorageObject classes implemented.
      */
     @DELETE
     @Path("{provider}/{container}/{blob}")
-    public Response
+    public void
     deleteBlob(@Context                HttpHeaders headers,
                @PathParam("provider")  String provider,
                @PathParam("container") String container,
-               @PathParam("blob")      String blob)
+               @PathParam("blob")      String blob,
+               @Suspended              AsyncResponse asyncResponse)
     throws ForbiddenException, BadRequestException, NotSupportedException, NotFoundException,
            InternalServerErrorException
     {
     // Get username and password from HTTP AUTHORIZATION header
-        String[] credentials= getCredentialsValidateCSP(headers, provider);
+        String[] credentials= getCredentialsValidateCSP(provider);
         String username= credentials[0];
         String password= credentials[1];
 
-    // Perform deletion of blob
-        providersSet.get(provider).deleteBlob(container, blob, username, password);
-        return Response.ok().build();
+    // Perform deletion of blob, which is found if it was at least in the spool
+    // after waiting for an upload of it underway, so that it doesn't land after the deletion
+        resume(asyncResponse, StorageExecutor.supply(() -> UploadSpool.discard(provider, container, blob, username,
+                                                                               password))
+                                             .thenCompose(discarded -> asyncProvidersSet.get(provider)
+                                             .deleteBlobAsync(container, blob, username, password)
+                                             .handle((done, error) ->
+                                             {
+                                                 Throwable cause= error instanceof CompletionException?
+                                                                  error.getCause(): error;
+                                                 boolean onlySpooled= discarded && cause instanceof NotFoundException;
+                                                 if(cause!= null && !onlySpooled)
+                                                 {
+                                                     throw new CompletionException(cause);
+                                                 }
+
+                                                 BlobIndex.recordDeletion(provider, username, container, blob);
+                                                 return Response.ok().build();
+                                             })));
+    }
+
+    /**
+     * A {@code PATCH} HTTP request that appends contents to the end of a blob, creating the blob if it doesn't exist
+     * yet. Its path is {@code "{provider}/{container}/{blob}"}, and the request must have a Content-Length header field
+     * of at most {@code Settings.APPEND_MAX_BATCH_BYTES}. Meant for blobs, such as logs, that are written by many small
+     * appends: appends to the same blob that arrive close together are written into the CSP at once, see
+     * {@link AppendBatcher}.
+     *
+     * The client is only answered once its contents are in the CSP, with the offset at which they were written in the
+     * {@link #APPEND_OFFSET_HEADER} header field. Only blobs created by appends can be appended to; in Azure, these are
+     * append blobs, which can be downloaded like any other blob.
+     *
+     * @param headers The HTTP headers of the client's request.
+     * @param provider The CSP the user wants to use.
+     * @param container The container of the blob.
+     * @param blob The name of the blob.
+     * @param content The contents to be appended.
+     * @param asyncResponse The response, resumed with a 200 HTTP code in case of success, or a 409 HTTP code if the
+     *        blob exists but can't be appended to.
+     * @throws ForbiddenException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws BadRequestException Thrown when there's no Content-Length header field or it's 0. See also
+     *         {@link CredentialsFilter} and the StorageObject classes implemented.
+     * @throws NotSupportedException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws ClientErrorException Thrown, with a 413 HTTP code, when the contents are too large to be appended at
+     *         once.
+     */
+    @PATCH
+    @Path("{provider}/{container}/{blob}")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    public void
+    appendBlob(@Context                HttpHeaders headers,
+               @PathParam("provider")  String provider,
+               @PathParam("container") String container,
+               @PathParam("blob")      String blob,
+               InputStream content,
+               @Suspended              AsyncResponse asyncResponse)
+    throws ForbiddenException, BadRequestException, NotSupportedException, ClientErrorException
+    {
+    // Get username and password from HTTP AUTHORIZATION header
+        String[] credentials= getCredentialsValidateCSP(provider);
+        String username= credentials[0];
+        String password= credentials[1];
+
+    // Get append size from header Content-Length, which has to fit into a single batch
+        List<String> clHeadersList= headers.getRequestHeader(HttpHeaders.CONTENT_LENGTH);
+        if(clHeadersList.isEmpty()) {throw new BadRequestException();}
+        long size= Long.parseLong(clHeadersList.get(0));
+        if(size<= 0) {throw new BadRequestException("Nothing to append");}
+        if(size> Settings.APPEND_MAX_BATCH_BYTES)
+        {
+            throw new ClientErrorException("Appends are limited to " + Settings.APPEND_MAX_BATCH_BYTES + " bytes",
+                                           Response.Status.REQUEST_ENTITY_TOO_LARGE);
+        }
+
+    // Read the contents and hand them to the blob's batch, answering once the batch is written
+        resume(asyncResponse, StorageExecutor.supply(() -> readAppend(content, (int) size))
+                                             .thenCompose(contents -> AppendBatcher.append(provider,
+                                                                                           providersSet.get(provider),
+                                                                                           container, blob, username,
+                                                                                           password, contents))
+                                             .thenApply(offset ->
+                                             {
+                                                 BlobIndex.recordAppend(provider, username, container, blob,
+                                                                        offset + size);
+                                                 return Response.ok().header(APPEND_OFFSET_HEADER, offset).build();
+                                             }));
+    }
+
+    /**
+     * Reads the whole contents of an append.
+     *
+     * @param content The contents, as sent by the client.
+     * @param size The size of the contents in bytes.
+     * @return The contents.
+     * @throws BadRequestException Thrown when the client sent fewer bytes than it announced.
+     * @throws InternalServerErrorException Thrown when the contents can't be read.
+     */
+    private static byte[]
+    readAppend(InputStream content, int size)
+    throws BadRequestException, InternalServerErrorException
+    {
+        byte[] contents= new byte[size];
+        try
+        {
+            new DataInputStream(content).readFully(contents);
+        }
+        catch(EOFException truncated)
+        {
+            throw new BadRequestException("Append is shorter than its Content-Length");
+        }
+        catch(IOException readError)
+        {
+            throw new InternalServerErrorException("Error reading the contents of the append");
+        }
+
+        return contents;
     }
 
 /*--------------------------
@@ -226,12 +1092,24 @@ RequestResource
     /**
      * A {@code GET} HTTP request that returns an XML file listing all of the blobs inside a container.
      *
+     * The listing can be narrowed down with the {@code prefix} and {@code limit} query parameters, and sorted from the
+     * largest to the smallest blob with {@code sort=size}. Such listings are flat, i.e., they also include blobs whose
+     * names look like paths, and are answered from the container's local index when the blob index is enabled, in
+     * which case the container's blob count and total size are also returned in the {@link #CONTAINER_COUNT_HEADER}
+     * and {@link #CONTAINER_SIZE_HEADER} header fields.
+     *
+     * Listings of whole containers are cached, see {@link ListingCache}, and sent with an ETag. Clients that send it
+     * back in an {@code If-None-Match} header get a 304 HTTP code, without the XML file, while the listing's unchanged.
+     *
      * @param headers The HTTP headers of the client's request.
      * @param provider The CSP that's to be accessed.
      * @param container The container that's to be listed.
-     * @return An {@link InputStream} with the XML file.
+     * @param prefix Lists only the blobs whose names start with this prefix.
+     * @param sort Sort order of the blobs; {@code size} sorts them from the largest to the smallest.
+     * @param limit The maximum number of blobs to list; 0 lists all of them.
+     * @param asyncResponse The response, resumed with the XML file, or with a 304 HTTP code.
      * @throws ForbiddenException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
-     * @throws BadRequestException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws BadRequestException See {@link CredentialsFilter} and the StorageObject classes implemented.
      * @throws NotSupportedException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
      * @throws InternalServerErrorException See the StorageObject classes implemented.
      * @throws NotFoundException See the StorageObject classes implemented.
@@ -239,20 +1117,34 @@ RequestResource
     @GET
     @Path("{provider}/{container}")
     @Produces(MediaType.APPLICATION_XML)
-    public InputStream
+    public void
     listBlobs(@Context                HttpHeaders headers,
               @PathParam("provider")  String provider,
-              @PathParam("container") String container)
+              @PathParam("container") String container,
+              @QueryParam("prefix")   String prefix,
+              @QueryParam("sort")     String sort,
+              @QueryParam("limit")    int limit,
+              @Suspended              AsyncResponse asyncResponse)
     throws ForbiddenException, BadRequestException, NotSupportedException, InternalServerErrorException,
            NotFoundException
     {
     // Get username and password from HTTP AUTHORIZATION header
-        String[] credentials= getCredentialsValidateCSP(headers, provider);
+        String[] credentials= getCredentialsValidateCSP(provider);
         String username= credentials[0];
         String password= credentials[1];
 
     // Get XML list and return it
-        return providersSet.get(provider).listBlobs(container, username, password);
+        if(prefix== null && sort== null && limit== 0)
+        {
+            String ifNoneMatch= headers.getHeaderString(HttpHeaders.IF_NONE_MATCH);
+            resume(asyncResponse, StorageExecutor.supply(() -> cachedListing(provider, container, username, password,
+                                                                             ifNoneMatch)));
+        }
+        else
+        {
+            resume(asyncResponse, StorageExecutor.supply(() -> queryBlobs(provider, container, username, password,
+                                                                          prefix, sort, limit)));
+        }
     }
 
     /**
@@ -261,59 +1153,81 @@ RequestResource
      * @param headers The HTTP headers of the client's request.
      * @param provider The CSP that's to be accessed.
      * @param container The container that's to be listed.
-     * @return 200 HTTP code if it all went well.
+     * @param asyncResponse The response, resumed with a 200 HTTP code if it all went well.
      * @throws ForbiddenException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
-     * @throws BadRequestException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws BadRequestException See {@link CredentialsFilter} and the StorageObject classes implemented.
      * @throws NotSupportedException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
      * @throws InternalServerErrorException See the StorageObject classes implemented.
      */
     @POST
     @Path("{provider}/{container}")
-    public Response
+    public void
     createContainer(@Context     HttpHeaders headers,
                     @PathParam("provider")  String provider,
-                    @PathParam("container") String container)
+                    @PathParam("container") String container,
+                    @Suspended              AsyncResponse asyncResponse)
     throws ForbiddenException, BadRequestException, NotSupportedException, InternalServerErrorException
     {
     // Get username and password from HTTP AUTHORIZATION header
-        String[] credentials= getCredentialsValidateCSP(headers, provider);
+        String[] credentials= getCredentialsValidateCSP(provider);
         String username= credentials[0];
         String password= credentials[1];
 
-        providersSet.get(provider).createContainerIfNotExists(container, username, password);
-        return Response.ok().build();
+        resume(asyncResponse, asyncProvidersSet.get(provider)
+                                               .createContainerIfNotExistsAsync(container, username, password)
+                                               .thenApply(done -> Response.ok().build()));
     }
 
     /**
-     * A {@code HEAD} HTTP request to check if a specific container exists.
+     * A {@code HEAD} HTTP request to check if a specific container exists. If the container is indexed, its blob count
+     * and total size are returned in the {@link #CONTAINER_COUNT_HEADER} and {@link #CONTAINER_SIZE_HEADER} header
+     * fields.
      *
      * @param headers The HTTP headers of the client's request.
      * @param provider The CSP that's to be accessed.
      * @param container The container that's to be listed.
-     * @return 200 if container exists.
+     * @param asyncResponse The response, resumed with a 200 HTTP code if container exists.
      * @throws ForbiddenException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
-     * @throws BadRequestException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws BadRequestException See {@link CredentialsFilter} and the StorageObject classes implemented.
      * @throws NotSupportedException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
      * @throws InternalServerErrorException See the StorageObject classes implemented.
      * @throws NotFoundException Thrown if container doesn't exist.
      */
     @HEAD
     @Path("{provider}/{container}")
-    public Response
+    public void
     containerExists(@Context     HttpHeaders headers,
                     @PathParam("provider")  String provider,
-                    @PathParam("container") String container)
+                    @PathParam("container") String container,
+                    @Suspended              AsyncResponse asyncResponse)
     throws ForbiddenException, BadRequestException, NotSupportedException, InternalServerErrorException,
            NotFoundException
     {
     // Get username and password from HTTP AUTHORIZATION header
-        String[] credentials= getCredentialsValidateCSP(headers, provider);
+        String[] credentials= getCredentialsValidateCSP(provider);
         String username= credentials[0];
         String password= credentials[1];
 
-        boolean result= providersSet.get(provider).containerExists(container, username ,password);
-        if(result) {return Response.ok().build();}
-        else       {throw new NotFoundException("Container " + container + " doesn't exist.");}
+        resume(asyncResponse, asyncProvidersSet.get(provider)
+                                               .containerExistsAsync(container, username, password)
+                                               .thenApply(exists ->
+                                               {
+                                                   if(!exists)
+                                                   {
+                                                       throw new NotFoundException("Container " + container +
+                                                                                   " doesn't exist.");
+                                                   }
+
+                                                   ContainerIndex index= BlobIndex.find(provider, username,
+                                                                                        container);
+                                                   if(index== null) {return Response.ok().build();}
+
+                                                   return Response.ok()
+                                                                  .header(CONTAINER_COUNT_HEADER, index.count())
+                                                                  .header(CONTAINER_SIZE_HEADER,
+                                                                          index.totalBytes())
+                                                                  .build();
+                                               }));
     }
 
     /**
@@ -322,29 +1236,337 @@ RequestResource
      * @param headers The HTTP headers of the client's request.
      * @param provider The CSP that's to be accessed.
      * @param container The container that's to be listed.
-     * @return A 200 HTTP code in case of success.
+     * @param asyncResponse The response, resumed with a 200 HTTP code in case of success.
      * @throws ForbiddenException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
-     * @throws BadRequestException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws BadRequestException See {@link CredentialsFilter} and the StorageObject classes implemented.
      * @throws NotSupportedException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
      * @throws InternalServerErrorException See the StorageObject classes implemented.
      * @throws NotFoundException Thrown if the given container doesn't exist.
      */
     @DELETE
     @Path("{provider}/{container}")
-    public Response
+    public void
     deleteContainer(@Context                HttpHeaders headers,
                     @PathParam("provider")  String provider,
-                    @PathParam("container") String container)
+                    @PathParam("container") String container,
+                    @Suspended              AsyncResponse asyncResponse)
     throws ForbiddenException, BadRequestException, NotSupportedException, NotFoundException,
            InternalServerErrorException
     {
     // Get username and password from HTTP AUTHORIZATION header
-        String[] credentials= getCredentialsValidateCSP(headers, provider);
+        String[] credentials= getCredentialsValidateCSP(provider);
         String username= credentials[0];
         String password= credentials[1];
 
     // Perform deletion of container
-        providersSet.get(provider).deleteContainer(container, username, password);
-        return Response.ok().build();
+        resume(asyncResponse, asyncProvidersSet.get(provider)
+                                               .deleteContainerAsync(container, username, password)
+                                               .thenApply(done ->
+                                               {
+                                                   BlobIndex.forget(provider, username, container);
+                                                   return Response.ok().build();
+                                               }));
+    }
+
+/*------------------------
+* --- ARCHIVE REQUESTS ---
+* ------------------------*/
+
+    /**
+     * Checks that every blob of a list exists, asking the CSP about all of them at once, and that none of them is
+     * listed twice, which a ZIP file can't hold.
+     *
+     * @param storageObject The CSP in which the container resides.
+     * @param container The container of the blobs.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @param blobNames The names of the blobs.
+     * @throws BadRequestException Thrown when a blob is listed twice.
+     * @throws NotFoundException Thrown when any of the blobs doesn't exist, naming the first of them. See also the
+     *         StorageObject classes implemented.
+     */
+    private static void
+    checkBlobsExist(StorageObject storageObject, String container, String username, String password,
+                    List<String> blobNames)
+    throws BadRequestException, NotFoundException
+    {
+        if(new HashSet<>(blobNames).size()!= blobNames.size())
+        {
+            throw new BadRequestException("A blob can only be archived once");
+        }
+
+        List<CompletableFuture<Long>> checks= new ArrayList<>();
+        for(String blobName : blobNames)
+        {
+            checks.add(StorageExecutor.supplyInBackground(() -> storageObject.blobExists(container, blobName,
+                                                                                         username, password)));
+        }
+
+        for(CompletableFuture<Long> check : checks)
+        {
+            try
+            {
+                check.join();
+            }
+            catch(CompletionException checkError)
+            {
+                throw (RuntimeException) checkError.getCause();
+            }
+        }
+    }
+
+    /**
+     * A {@code GET} HTTP request for the download of several blobs of a container as a single ZIP file. Its path is
+     * {@code "{provider}/{container}.zip"}. The blobs to archive are either listed one by one with the {@code name}
+     * query parameter, or selected by the {@code prefix} query parameter; with neither, the whole container is
+     * archived. The ZIP file is streamed to the client as it's built, using a bounded amount of memory. Blobs listed
+     * one by one are checked before the response starts, so that a wrong name is answered with an error rather than
+     * with a truncated archive.
+     *
+     * @param headers The HTTP headers of the client's request.
+     * @param provider The CSP that's to be accessed.
+     * @param container The container whose blobs are to be archived.
+     * @param prefix Archives the blobs whose names start with this prefix, if no {@code name} is given.
+     * @param names The names of the blobs to archive, in the order they're to be written.
+     * @param asyncResponse The response, resumed with the streamed ZIP file.
+     * @throws ForbiddenException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws BadRequestException Thrown if a blob is named twice. See also {@link CredentialsFilter} and the
+     *         StorageObject classes implemented.
+     * @throws NotSupportedException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws InternalServerErrorException See the StorageObject classes implemented.
+     * @throws NotFoundException Thrown if the given container or any of the named blobs doesn't exist.
+     */
+    @GET
+    @Path("{provider}/{container}.zip")
+    @Produces(APPLICATION_ZIP)
+    public void
+    getArchive(@Context                HttpHeaders headers,
+               @PathParam("provider")  String provider,
+               @PathParam("container") String container,
+               @QueryParam("prefix")   String prefix,
+               @QueryParam("name")     List<String> names,
+               @Suspended              AsyncResponse asyncResponse)
+    throws ForbiddenException, BadRequestException, NotSupportedException, InternalServerErrorException,
+           NotFoundException
+    {
+    // Get username and password from HTTP AUTHORIZATION header
+        String[] credentials= getCredentialsValidateCSP(provider);
+        String username= credentials[0];
+        String password= credentials[1];
+
+    // Make sure the container and the named blobs exist before the response starts, then stream the archive
+        StorageObject storageObject= providersSet.get(provider);
+        resume(asyncResponse, StorageExecutor.supply(() ->
+        {
+            Iterator<String> blobNames;
+            if(names.isEmpty())
+            {
+                Iterable<BlobInfo> blobs= storageObject.listBlobInfo(container, prefix, username, password);
+                blobNames= StreamSupport.stream(blobs.spliterator(), false).map(BlobInfo::getName).iterator();
+            }
+            else if(storageObject.containerExists(container, username, password))
+            {
+                checkBlobsExist(storageObject, container, username, password, names);
+                blobNames= names.iterator();
+            }
+            else
+            {
+                throw new NotFoundException("Container " + container + " doesn't exist.");
+            }
+
+            return Response.ok(new ZipArchiveStreamer(storageObject, container, username, password, blobNames))
+                           .header("Content-Disposition", "attachment; filename=\"" + container + ".zip\"")
+                           .build();
+        }));
+    }
+
+    /**
+     * A {@code POST} HTTP request for the upload of every file of a tar stream into a container. Its path is
+     * {@code "{provider}/{container}.tar"}, consuming an {@code application/x-tar}. Each file becomes a blob named
+     * after its path inside the tar stream, overwriting any existing blob with that name. Files are uploaded while the
+     * tar stream is being read, several at a time.
+     *
+     * Seeing as some files may fail while others succeed, this method returns a 200 HTTP code as long as the tar
+     * stream could be read, along with an XML file with the outcome of each file (see {@link BulkIngester}).
+     *
+     * @param headers The HTTP headers of the client's request.
+     * @param provider The CSP that's to be accessed.
+     * @param container The container into which the files are to be uploaded.
+     * @param content The tar stream.
+     * @param asyncResponse The response, resumed with the XML file with the outcome of each file.
+     * @throws ForbiddenException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws BadRequestException Thrown when the tar stream is malformed. See also {@link CredentialsFilter}
+     *         and the StorageObject classes implemented.
+     * @throws NotSupportedException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws InternalServerErrorException See the StorageObject classes implemented.
+     * @throws NotFoundException Thrown if the given container doesn't exist.
+     */
+    @POST
+    @Path("{provider}/{container}.tar")
+    @Consumes(APPLICATION_TAR)
+    @Produces(MediaType.APPLICATION_XML)
+    public void
+    putArchive(@Context                HttpHeaders headers,
+               @PathParam("provider")  String provider,
+               @PathParam("container") String container,
+               InputStream content,
+               @Suspended              AsyncResponse asyncResponse)
+    throws ForbiddenException, BadRequestException, NotSupportedException, InternalServerErrorException,
+           NotFoundException
+    {
+    // Get username and password from HTTP AUTHORIZATION header
+        String[] credentials= getCredentialsValidateCSP(provider);
+        String username= credentials[0];
+        String password= credentials[1];
+
+    // Open the container once, then split the tar stream into blobs
+        StorageObject storageObject= providersSet.get(provider);
+        resume(asyncResponse, StorageExecutor.supply(() ->
+        {
+            try
+            {
+                return new BulkIngester(provider, storageObject, container, username, password).ingest(content);
+            }
+            catch(IOException tarError)
+            {
+                throw new BadRequestException("Error reading tar stream");
+            }
+            catch(InterruptedException interrupted)
+            {
+                Thread.currentThread().interrupt();
+                throw new InternalServerErrorException("Interrupted while uploading tar stream");
+            }
+            catch(ParserConfigurationException | TransformerException xmlError)
+            {
+                throw new InternalServerErrorException("Error generating XML file for container " + container);
+            }
+        }));
+    }
+
+/*---------------------
+* --- SYNC REQUESTS ---
+* ---------------------*/
+
+    /**
+     * A {@code POST} HTTP request that compares a manifest of the client's local files against a container, returning
+     * only the actions needed to sync both. Its path is {@code "{provider}/{container}.sync"}, consuming and returning
+     * {@code text/plain}. See {@link ManifestDiff} for the format of the manifest and of the response.
+     *
+     * @param headers The HTTP headers of the client's request.
+     * @param provider The CSP that's to be accessed.
+     * @param container The container to compare the manifest against.
+     * @param direction {@code push} to make the container equal to the client's files, which is the default;
+     *        {@code pull} to make the client's files equal to the container.
+     * @param manifest The client's manifest, sorted by name.
+     * @param asyncResponse The response, resumed with the streamed list of actions.
+     * @throws ForbiddenException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws BadRequestException Thrown when the direction is neither {@code push} nor {@code pull}. See also
+     *         {@link CredentialsFilter} and the StorageObject classes implemented.
+     * @throws NotSupportedException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws InternalServerErrorException See the StorageObject classes implemented.
+     * @throws NotFoundException Thrown if the given container doesn't exist.
+     */
+    @POST
+    @Path("{provider}/{container}.sync")
+    @Consumes(MediaType.TEXT_PLAIN)
+    @Produces(MediaType.TEXT_PLAIN)
+    public void
+    syncManifest(@Context                                       HttpHeaders headers,
+                 @PathParam("provider")                         String provider,
+                 @PathParam("container")                        String container,
+                 @QueryParam("direction") @DefaultValue("push") String direction,
+                 InputStream manifest,
+                 @Suspended                                     AsyncResponse asyncResponse)
+    throws ForbiddenException, BadRequestException, NotSupportedException, InternalServerErrorException,
+           NotFoundException
+    {
+    // Get username and password from HTTP AUTHORIZATION header
+        String[] credentials= getCredentialsValidateCSP(provider);
+        String username= credentials[0];
+        String password= credentials[1];
+
+    // Validate the direction of the sync
+        ManifestDiff.Direction syncDirection;
+        try
+        {
+            syncDirection= ManifestDiff.Direction.valueOf(direction.toUpperCase());
+        }
+        catch(IllegalArgumentException badValue)
+        {
+            throw new BadRequestException("Invalid direction " + direction);
+        }
+
+    // Start the container's listing before the response starts, then merge it with the manifest
+        StorageObject storageObject= providersSet.get(provider);
+        resume(asyncResponse, StorageExecutor.supply(() ->
+        {
+            Iterable<BlobInfo> remoteBlobs= storageObject.listBlobInfo(container, null, username, password);
+            return Response.ok(new ManifestDiff(manifest, remoteBlobs.iterator(), syncDirection)).build();
+        }));
+    }
+
+/*------------------------
+* --- ACCOUNT REQUESTS ---
+* ------------------------*/
+
+    /**
+     * A {@code GET} HTTP request that returns an XML file listing all of the containers of an account. Its path is
+     * {@code "{provider}"}. The listing is streamed to the client while it's being fetched from the CSP (see
+     * {@link ContainerListStreamer}); only its first segment is fetched before the response starts, so that errors
+     * such as bad credentials are still answered with the proper HTTP code.
+     *
+     * With {@code usage=true}, the XML file also has the number of blobs and bytes of every container, along with the
+     * account's totals. Containers are then counted in parallel (see {@link UsageCollector}), and indexed containers
+     * are answered from their index, but the file is only sent once every container has been counted.
+     *
+     * @param headers The HTTP headers of the client's request.
+     * @param provider The CSP that's to be accessed.
+     * @param usage Whether to count the blobs and bytes of every container.
+     * @param asyncResponse The response, resumed with the XML file.
+     * @throws ForbiddenException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws BadRequestException See {@link CredentialsFilter} and the StorageObject classes implemented.
+     * @throws NotSupportedException See {@link #getCredentialsValidateCSP} and the StorageObject classes implemented.
+     * @throws InternalServerErrorException Thrown when the XML file with the usage can't be built. See also the
+     *         StorageObject classes implemented.
+     */
+    @GET
+    @Path("{provider}")
+    @Produces(MediaType.APPLICATION_XML)
+    public void
+    listContainers(@Context               HttpHeaders headers,
+                   @PathParam("provider") String provider,
+                   @QueryParam("usage")   boolean usage,
+                   @Suspended             AsyncResponse asyncResponse)
+    throws ForbiddenException, BadRequestException, NotSupportedException, InternalServerErrorException
+    {
+    // Get username and password from HTTP AUTHORIZATION header
+        String[] credentials= getCredentialsValidateCSP(provider);
+        String username= credentials[0];
+        String password= credentials[1];
+
+        StorageObject storageObject= providersSet.get(provider);
+        if(usage)
+        {
+            resume(asyncResponse, StorageExecutor.supply(() ->
+            {
+                try
+                {
+                    return UsageCollector.collect(provider, storageObject, username, password);
+                }
+                catch(ParserConfigurationException | TransformerException xmlError)
+                {
+                    throw new InternalServerErrorException("Error generating XML file for account " + username);
+                }
+            }));
+            return;
+        }
+
+    // Fetch the first segment of the listing before the response starts, then stream the rest
+        resume(asyncResponse, StorageExecutor.supply(() ->
+        {
+            Iterator<String> containerNames= storageObject.listContainers(username, password).iterator();
+            containerNames.hasNext();
+            return Response.ok(new ContainerListStreamer(containerNames)).build();
+        }));
     }
 }
@@ -0,0 +1,83 @@
+package pt.bdotc.linkcloud.spool;
+
+import pt.bdotc.linkcloud.objects.StorageObject;
+
+import java.nio.file.Path;
+
+/**
+ * An upload that was acknowledged to its client once written to the local spool, and that's still waiting to be
+ * uploaded into its CSP by the {@link UploadSpool}.
+ */
+public final class
+SpooledUpload
+{
+    /** The state of a spooled upload. */
+    public enum
+    State
+    {
+        /** Waiting for an upload slot or for its next attempt, or, if left over by a previous run, for its client to
+         *  present its credentials again. */
+        PENDING,
+        /** Being uploaded into the CSP. */
+        UPLOADING,
+        /** Given up on, either because the CSP refused it or because it ran out of attempts. */
+        FAILED
+    }
+
+    /** The ID handed out to the client. */
+    final String id;
+    /** The name of the CSP. */
+    final String provider;
+    /** The CSP into which the blob is to be uploaded. */
+    final StorageObject storageObject;
+    /** The username of the CSP account. */
+    final String username;
+    /** Hash of the credentials of the CSP account, which is kept instead of the password in the spool directory. */
+    final String identity;
+    /** The password of the CSP account, or {@code null} while unknown, for an upload left over by a previous run. */
+    volatile String password;
+    /** The container into which the blob is to be uploaded. */
+    final String containerName;
+    /** The name of the blob. */
+    final String blobName;
+    /** The size of the blob in bytes. */
+    final long size;
+    /** The file that holds the blob's contents. */
+    final Path dataFile;
+
+    /** Number of upload attempts made so far. */
+    int attempts= 0;
+    /** The state of the upload. */
+    volatile State state= State.PENDING;
+    /** The HTTP code of the last failed attempt, or 0 if there was none. */
+    volatile int lastStatus= 0;
+    /** Time at which the upload was given up on, in milliseconds since the epoch, or 0 if it wasn't. */
+    volatile long failedAt= 0;
+
+    SpooledUpload(String id, String provider, StorageObject storageObject, String username, String identity,
+                  String password, String containerName, String blobName, long size, Path dataFile)
+    {
+        this.id= id;
+        this.provider= provider;
+        this.storageObject= storageObject;
+        this.username= username;
+        this.identity= identity;
+        this.password= password;
+        this.containerName= containerName;
+        this.blobName= blobName;
+        this.size= size;
+        this.dataFile= dataFile;
+    }
+
+    public String
+    getId() {return id;}
+
+    public long
+    getSize() {return size;}
+
+    public State
+    getState() {return state;}
+
+    public int
+    getLastStatus() {return lastStatus;}
+}
@@ -0,0 +1,745 @@
+package pt.bdotc.linkcloud.spool;
+
+import pt.bdotc.linkcloud.Settings;
+import pt.bdotc.linkcloud.index.BlobIndex;
+import pt.bdotc.linkcloud.objects.StorageObject;
+import pt.bdotc.linkcloud.transfer.ContentDigests;
+import pt.bdotc.linkcloud.transfer.TransferEngine;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.WebApplicationException;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable, write-behind spool of uploads. A spooled upload is written sequentially into a file of the spool directory
+ * ({@code Settings.SPOOL_DIR}) and synced to disk before its client is acknowledged; a bounded pool of background
+ * uploaders ({@code Settings.SPOOL_PARALLEL_UPLOADS}) then drains the spool into the CSPs, retrying failed attempts
+ * with an exponential backoff.
+ *
+ * Every spooled upload is made of two files: {@code <id>.data}, with the blob's contents, and {@code <id>.meta}, with
+ * where it's to be uploaded. The latter is only renamed into place once the former is on disk, so a spooled upload
+ * either survives a crash whole or doesn't exist at all. Spooled uploads left over by a previous run are picked up
+ * again by {@link #recover}. Account keys are never written into the spool directory: uploads are only tied to a hash
+ * of the credentials they were spooled with, so those left over by a previous run wait for their client to present the
+ * same credentials again (see {@link #resume}) before they're uploaded. Uploads are also told apart by that hash, and
+ * only served to clients with the same credentials.
+ *
+ * Only the latest spooled upload of each blob is uploaded: older ones that are still waiting are dropped, and those
+ * that are being uploaded are waited for, so that the CSP always ends up with the latest contents. Until then, reads
+ * of the blob are served from the spool by the resource. Records of uploads that were given up on are kept for
+ * {@code Settings.SPOOL_FAILED_RETENTION_SECONDS}.
+ */
+public final class
+UploadSpool
+{
+    /** Suffix of the files with the contents of the spooled uploads. */
+    private static final String DATA_SUFFIX= ".data";
+    /** Suffix of the files with the metadata of the spooled uploads. */
+    private static final String META_SUFFIX= ".meta";
+    /** Suffix of the metadata files of failed uploads, which no longer hold contents. */
+    private static final String FAILED_SUFFIX= ".failed";
+    /** Suffix of metadata files that are still being written. */
+    private static final String TEMP_SUFFIX= ".tmp";
+    /** Delay, in milliseconds, before trying again an upload whose blob is already being uploaded. */
+    private static final long BUSY_RETRY_DELAY= 500;
+    /** Maximum delay, in milliseconds, between two attempts of the same upload. */
+    private static final long MAX_RETRY_DELAY= 5 * 60 * 1000;
+
+    /** Whether or not spooling is enabled. */
+    public static final boolean ENABLED= Settings.SPOOL_DIR!= null;
+
+    /** Every spooled upload that's waiting, being uploaded or failed, keyed by its ID. */
+    private static final ConcurrentHashMap<String, SpooledUpload> uploads= new ConcurrentHashMap<>();
+    /** The latest spooled upload of each blob, keyed by {@link #key}. */
+    private static final ConcurrentHashMap<String, SpooledUpload> latest= new ConcurrentHashMap<>();
+    /** Uploads left over by a previous run that wait for their client's credentials, of any CSP, keyed by username. */
+    private static final ConcurrentHashMap<String, List<SpooledUpload>> awaitingCredentials= new ConcurrentHashMap<>();
+    /** The blobs that are being uploaded, each with a future that completes once its upload is over, keyed by
+     *  {@link #key}. */
+    private static final ConcurrentHashMap<String, CompletableFuture<Void>> inFlight= new ConcurrentHashMap<>();
+    /** Total size in bytes of the contents held by the spool. */
+    private static final AtomicLong spooledBytes= new AtomicLong();
+
+    /** The background uploaders, which also wait out the backoff between attempts. */
+    private static final ScheduledThreadPoolExecutor uploaders= createUploaders();
+    static
+    {
+        if(ENABLED)
+        {
+            long period= Math.max(1, Math.min(Settings.SPOOL_FAILED_RETENTION_SECONDS, 60 * 60));
+            uploaders.scheduleWithFixedDelay(UploadSpool::reapFailed, period, period, TimeUnit.SECONDS);
+        }
+    }
+
+    private
+    UploadSpool() {}
+
+    /**
+     * Builds the pool of background uploaders, made of daemon threads so that they don't keep the application server
+     * from shutting down.
+     *
+     * @return The pool of background uploaders, or {@code null} if spooling is disabled.
+     */
+    private static ScheduledThreadPoolExecutor
+    createUploaders()
+    {
+        if(!ENABLED) {return null;}
+
+        final AtomicInteger threadCounter= new AtomicInteger();
+        return new ScheduledThreadPoolExecutor(Settings.SPOOL_PARALLEL_UPLOADS, task ->
+        {
+            Thread thread= new Thread(task, "linkcloud-spool-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Hashes the credentials of a CSP account, so that uploads can be tied to them without keeping the password.
+     *
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @return The URL-safe Base64 SHA-256 hash of the credentials.
+     */
+    private static String
+    identity(String username, String password)
+    {
+        MessageDigest sha256= ContentDigests.create("SHA-256");
+        sha256.update(username.getBytes(StandardCharsets.UTF_8));
+        sha256.update((byte) 0);
+        sha256.update(password.getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sha256.digest());
+    }
+
+    /**
+     * Builds the key under which the latest spooled upload of a blob is kept.
+     *
+     * @param provider The name of the CSP.
+     * @param username The username of the CSP account.
+     * @param identity The hash of the credentials of the CSP account.
+     * @param containerName The name of the container.
+     * @param blobName The name of the blob.
+     * @return The key of the blob.
+     */
+    private static String
+    key(String provider, String username, String identity, String containerName, String blobName)
+    {
+        return provider + '/' + username + '/' + identity + '/' + containerName + '/' + blobName;
+    }
+
+    /**
+     * Builds the key under which the latest spooled upload of a blob is kept.
+     *
+     * @param upload A spooled upload of the blob.
+     * @return The key of the blob.
+     */
+    private static String
+    key(SpooledUpload upload)
+    {
+        return key(upload.provider, upload.username, upload.identity, upload.containerName, upload.blobName);
+    }
+
+/*----------------
+* --- SPOOLING ---
+* ----------------*/
+
+    /**
+     * Writes an upload into the spool and schedules its upload into the CSP. When this method returns, the upload is
+     * on disk and survives a restart of the application. The credentials and the container must have been checked
+     * against the CSP beforehand, since the client is acknowledged before the upload is made.
+     *
+     * @param provider The name of the CSP.
+     * @param storageObject The CSP into which the blob is to be uploaded.
+     * @param containerName The container into which the blob is to be uploaded.
+     * @param blobName The name of the blob.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account.
+     * @param content The contents of the blob.
+     * @param size The size of the contents in bytes.
+     * @return The spooled upload, or {@code null} if the spool has no room for it, in which case the contents weren't
+     *         read and the upload should go straight to the CSP.
+     * @throws BadRequestException Thrown when the contents are shorter than their announced size.
+     * @throws IOException Thrown when the upload can't be written into the spool.
+     */
+    public static SpooledUpload
+    spool(String provider, StorageObject storageObject, String containerName, String blobName,
+          String username, String password, InputStream content, long size)
+    throws BadRequestException, IOException
+    {
+    // Reserve room for the contents, or let the caller upload them directly
+        if(spooledBytes.addAndGet(size)> Settings.SPOOL_MAX_BYTES)
+        {
+            spooledBytes.addAndGet(-size);
+            return null;
+        }
+
+        String id= UUID.randomUUID().toString();
+        Path spoolDir= spoolDir();
+        Path dataFile= spoolDir.resolve(id + DATA_SUFFIX);
+        SpooledUpload upload= new SpooledUpload(id, provider, storageObject, username, identity(username, password),
+                                                password, containerName, blobName, size, dataFile);
+
+        try
+        {
+        // Contents go first, so that the metadata never points to partial contents
+            writeContents(dataFile, content, size);
+
+            Properties meta= new Properties();
+            meta.setProperty("provider", provider);
+            meta.setProperty("username", username);
+            meta.setProperty("identity", upload.identity);
+            meta.setProperty("container", containerName);
+            meta.setProperty("blob", blobName);
+            meta.setProperty("size", Long.toString(size));
+            meta.setProperty("created", Long.toString(System.currentTimeMillis()));
+            writeAtomically(spoolDir.resolve(id + META_SUFFIX), meta);
+        }
+        catch(IOException | RuntimeException writeError)
+        {
+            Files.deleteIfExists(dataFile);
+            spooledBytes.addAndGet(-size);
+            throw writeError;
+        }
+
+        enqueue(upload);
+        return upload;
+    }
+
+    /**
+     * Gives the latest spooled upload of a blob that hasn't made it into the CSP yet.
+     *
+     * @param provider The name of the CSP.
+     * @param containerName The name of the container.
+     * @param blobName The name of the blob.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account, which must match the one the upload was spooled with.
+     * @return The spooled upload, or {@code null} if there's none.
+     */
+    public static SpooledUpload
+    find(String provider, String containerName, String blobName, String username, String password)
+    {
+        if(!ENABLED || latest.isEmpty()) {return null;}
+
+        return latest.get(key(provider, username, identity(username, password), containerName, blobName));
+    }
+
+    /**
+     * Opens the contents of a spooled upload for reading.
+     *
+     * @param upload The spooled upload.
+     * @return An {@link InputStream} with the contents of the blob, or {@code null} if the upload made it into the CSP
+     *         in the meantime and its contents are gone from the spool.
+     */
+    public static InputStream
+    open(SpooledUpload upload)
+    {
+        try
+        {
+            return Files.newInputStream(upload.dataFile);
+        }
+        catch(IOException contentsGone)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Gives a spooled upload of a blob by its ID, including failed ones.
+     *
+     * @param id The ID of the spooled upload.
+     * @param provider The name of the CSP.
+     * @param containerName The name of the container.
+     * @param blobName The name of the blob.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account, which must match the one the upload was spooled with.
+     * @return The spooled upload, or {@code null} if there's none with that ID for that blob and those credentials,
+     *         which includes the uploads that already made it into the CSP.
+     */
+    public static SpooledUpload
+    get(String id, String provider, String containerName, String blobName, String username, String password)
+    {
+        if(!ENABLED) {return null;}
+
+        SpooledUpload upload= uploads.get(id);
+        if(upload== null || upload.identity== null) {return null;}
+
+        boolean matches= upload.provider.equals(provider) && upload.username.equals(username) &&
+                         upload.containerName.equals(containerName) && upload.blobName.equals(blobName);
+        matches&= MessageDigest.isEqual(upload.identity.getBytes(StandardCharsets.UTF_8),
+                                        identity(username, password).getBytes(StandardCharsets.UTF_8));
+        return matches? upload: null;
+    }
+
+    /**
+     * Drops the spooled uploads of a blob that's about to be overwritten or deleted straight in the CSP, so that they
+     * aren't uploaded over it later. An upload of the blob that's already underway isn't interrupted, but waited for,
+     * so that it doesn't land after the direct write or delete. Meant to be called right before those, off the request
+     * thread.
+     *
+     * @param provider The name of the CSP.
+     * @param containerName The name of the container.
+     * @param blobName The name of the blob.
+     * @param username The username of the CSP account.
+     * @param password The password of the CSP account, which must match the one the uploads were spooled with.
+     * @return {@code true} if a spooled upload was dropped.
+     */
+    public static boolean
+    discard(String provider, String containerName, String blobName, String username, String password)
+    {
+        if(!ENABLED || latest.isEmpty() && inFlight.isEmpty()) {return false;}
+
+        String key= key(provider, username, identity(username, password), containerName, blobName);
+        SpooledUpload upload= latest.get(key);
+        boolean dropped= upload!= null && latest.remove(key, upload);
+
+    // The upload checks the latest one again once it's in flight, so either it sees the drop or it's seen here
+        CompletableFuture<Void> underway= inFlight.get(key);
+        if(underway!= null) {underway.join();}
+
+        return dropped;
+    }
+
+    /**
+     * Resumes the uploads left over by a previous run that were spooled with the given credentials, now that their
+     * client presented them again, whichever the CSP they were presented for. Meant to be called on every request,
+     * before its credentials are checked by the CSP: only credentials that hash to those the uploads were spooled with,
+     * which were checked back then, resume them. The credentials are only hashed if uploads of their username wait.
+     *
+     * @param username The username presented by the client.
+     * @param password The password presented by the client.
+     */
+    public static void
+    resume(String username, String password)
+    {
+        if(!ENABLED || awaitingCredentials.isEmpty()) {return;}
+
+        if(!awaitingCredentials.containsKey(username)) {return;}
+
+        String identity= identity(username, password);
+        List<SpooledUpload> resumed= new ArrayList<>();
+        awaitingCredentials.computeIfPresent(username, (name, waiting) ->
+        {
+            for(Iterator<SpooledUpload> iterator= waiting.iterator(); iterator.hasNext(); )
+            {
+                SpooledUpload upload= iterator.next();
+                if(upload.identity.equals(identity))
+                {
+                    resumed.add(upload);
+                    iterator.remove();
+                }
+            }
+            return waiting.isEmpty()? null: waiting;
+        });
+
+        for(SpooledUpload upload : resumed)
+        {
+            upload.password= password;
+            uploaders.execute(() -> drain(upload));
+        }
+    }
+
+/*-----------------
+* --- UPLOADING ---
+* -----------------*/
+
+    /**
+     * Makes a spooled upload the latest one of its blob, and schedules its upload, or has it wait for its client's
+     * credentials if they aren't known.
+     *
+     * @param upload The spooled upload.
+     */
+    private static void
+    enqueue(SpooledUpload upload)
+    {
+        uploads.put(upload.id, upload);
+        latest.put(key(upload), upload);
+
+        if(upload.password!= null) {uploaders.execute(() -> drain(upload));}
+        else
+        {
+            awaitingCredentials.compute(upload.username, (name, waiting) ->
+            {
+                List<SpooledUpload> uploads= waiting== null? new ArrayList<>(): waiting;
+                uploads.add(upload);
+                return uploads;
+            });
+        }
+    }
+
+    /**
+     * Makes an attempt at uploading a spooled upload into its CSP, scheduling the next attempt if it fails.
+     *
+     * @param upload The spooled upload.
+     */
+    private static void
+    drain(SpooledUpload upload)
+    {
+        String key= key(upload);
+
+    // A newer upload of the same blob, or a direct write into the CSP, makes this one pointless
+        if(latest.get(key)!= upload)
+        {
+            remove(upload);
+            return;
+        }
+
+    // Wait for an older upload of the same blob, so that it doesn't overwrite this one
+        CompletableFuture<Void> underway= new CompletableFuture<>();
+        if(inFlight.putIfAbsent(key, underway)!= null)
+        {
+            uploaders.schedule(() -> drain(upload), BUSY_RETRY_DELAY, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        try
+        {
+        // Check again now that the upload is in flight, in case a direct write dropped it meanwhile (see discard)
+            if(latest.get(key)!= upload)
+            {
+                remove(upload);
+                return;
+            }
+
+            upload.state= SpooledUpload.State.UPLOADING;
+            upload.attempts++;
+
+            MessageDigest md5= ContentDigests.create("MD5");
+            try(InputStream content= TransferEngine.metered(Files.newInputStream(upload.dataFile), upload.size))
+            {
+                upload.storageObject.uploadBlob(upload.containerName, upload.blobName, upload.username,
+                                                upload.password, ContentDigests.hashed(content, md5), upload.size);
+            }
+            BlobIndex.recordUpload(upload.provider, upload.username, upload.containerName, upload.blobName,
+                                   upload.size, ContentDigests.encode(md5));
+
+            latest.remove(key, upload);
+            remove(upload);
+        }
+        catch(WebApplicationException | IOException uploadError)
+        {
+            int status= uploadError instanceof WebApplicationException?
+                        ((WebApplicationException) uploadError).getResponse().getStatus(): 500;
+            retryOrFail(upload, key, status);
+        }
+        catch(RuntimeException uploadError)
+        {
+            retryOrFail(upload, key, 500);
+        }
+        finally
+        {
+            inFlight.remove(key, underway);
+            underway.complete(null);
+        }
+    }
+
+    /**
+     * Schedules the next attempt of a failed upload, or gives up on it if the CSP refused it (a 4xx HTTP code other
+     * than a timeout or throttling) or if it ran out of attempts.
+     *
+     * @param upload The spooled upload.
+     * @param key The key of the upload's blob.
+     * @param status The HTTP code the attempt failed with.
+     */
+    private static void
+    retryOrFail(SpooledUpload upload, String key, int status)
+    {
+        upload.lastStatus= status;
+        boolean refused= status>= 400 && status< 500 && status!= 408 && status!= 429;
+
+        if(refused || upload.attempts>= Settings.SPOOL_MAX_ATTEMPTS)
+        {
+            upload.state= SpooledUpload.State.FAILED;
+            upload.failedAt= System.currentTimeMillis();
+            latest.remove(key, upload);
+            fail(upload);
+            return;
+        }
+
+        upload.state= SpooledUpload.State.PENDING;
+        long delay= Math.min(MAX_RETRY_DELAY, 1000L<< Math.min(upload.attempts - 1, 20));
+        uploaders.schedule(() -> drain(upload), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Removes an upload that's done, or that's no longer needed, from the spool.
+     *
+     * @param upload The spooled upload.
+     */
+    private static void
+    remove(SpooledUpload upload)
+    {
+        try
+        {
+            Files.deleteIfExists(spoolDir().resolve(upload.id + META_SUFFIX));
+            Files.deleteIfExists(upload.dataFile);
+        }
+        catch(IOException deleteError)
+        {
+        // Left over files are dropped at the next recovery
+        }
+
+        uploads.remove(upload.id);
+        spooledBytes.addAndGet(-upload.size);
+    }
+
+    /**
+     * Replaces the files of an upload that was given up on with a record of its failure, without its contents. The
+     * failure is kept, so that its client can still learn about it, for {@code Settings.SPOOL_FAILED_RETENTION_SECONDS}
+     * (see {@link #reapFailed}).
+     *
+     * @param upload The spooled upload.
+     */
+    private static void
+    fail(SpooledUpload upload)
+    {
+        Properties record= new Properties();
+        record.setProperty("provider", upload.provider);
+        record.setProperty("username", upload.username);
+        record.setProperty("identity", upload.identity);
+        record.setProperty("container", upload.containerName);
+        record.setProperty("blob", upload.blobName);
+        record.setProperty("size", Long.toString(upload.size));
+        record.setProperty("status", Integer.toString(upload.lastStatus));
+        record.setProperty("failedAt", Long.toString(upload.failedAt));
+
+        try
+        {
+            writeAtomically(spoolDir().resolve(upload.id + FAILED_SUFFIX), record);
+            Files.deleteIfExists(spoolDir().resolve(upload.id + META_SUFFIX));
+            Files.deleteIfExists(upload.dataFile);
+        }
+        catch(IOException deleteError)
+        {
+        // The upload is retried at the next recovery, which is better than losing it
+        }
+
+        spooledBytes.addAndGet(-upload.size);
+    }
+
+    /**
+     * Drops the records of the uploads that were given up on more than {@code Settings.SPOOL_FAILED_RETENTION_SECONDS}
+     * ago, from memory and from the spool directory.
+     */
+    private static void
+    reapFailed()
+    {
+        long oldest= System.currentTimeMillis() - Settings.SPOOL_FAILED_RETENTION_SECONDS * 1000L;
+        for(SpooledUpload upload : uploads.values())
+        {
+            if(upload.state!= SpooledUpload.State.FAILED || upload.failedAt> oldest) {continue;}
+
+            try
+            {
+                Files.deleteIfExists(spoolDir().resolve(upload.id + FAILED_SUFFIX));
+                uploads.remove(upload.id, upload);
+            }
+            catch(IOException deleteError)
+            {
+            // Tried again at the next reaping
+            }
+        }
+    }
+
+/*----------------
+* --- RECOVERY ---
+* ----------------*/
+
+    /**
+     * Picks up the spooled uploads left over by a previous run of the application, in the order they were spooled,
+     * and cleans up the files of uploads that never made it whole into the spool. Meant to be called once, when the
+     * application starts. The uploads then wait for their clients to present their credentials again (see
+     * {@link #resume}), except for those spooled by older versions, whose metadata files still hold the password:
+     * these are uploaded right away, and their metadata files are rewritten without it.
+     *
+     * @param providers The CSPs supported by the application, keyed by name. Uploads for other CSPs are left alone.
+     * @throws IOException Thrown when the spool directory can't be read.
+     */
+    public static void
+    recover(Map<String, StorageObject> providers)
+    throws IOException
+    {
+        if(!ENABLED) {return;}
+
+        Path spoolDir= spoolDir();
+        List<Properties> metas= new ArrayList<>();
+        Set<String> ids= new HashSet<>();
+
+        try(DirectoryStream<Path> files= Files.newDirectoryStream(spoolDir))
+        {
+            for(Path file : files)
+            {
+                String fileName= file.getFileName().toString();
+                if(fileName.endsWith(TEMP_SUFFIX)) {Files.deleteIfExists(file); continue;}
+                if(!fileName.endsWith(META_SUFFIX) && !fileName.endsWith(FAILED_SUFFIX)) {continue;}
+
+                Properties meta= new Properties();
+                try(InputStream metaStream= Files.newInputStream(file)) {meta.load(metaStream);}
+
+                String id= fileName.substring(0, fileName.lastIndexOf('.'));
+                meta.setProperty("id", id);
+                meta.setProperty("failed", Boolean.toString(fileName.endsWith(FAILED_SUFFIX)));
+                metas.add(meta);
+                ids.add(id);
+            }
+        }
+
+    // Contents without metadata belong to uploads that were never acknowledged
+        try(DirectoryStream<Path> files= Files.newDirectoryStream(spoolDir, "*" + DATA_SUFFIX))
+        {
+            for(Path file : files)
+            {
+                String fileName= file.getFileName().toString();
+                if(!ids.contains(fileName.substring(0, fileName.length() - DATA_SUFFIX.length())))
+                {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        metas.sort(Comparator.comparingLong(meta -> Long.parseLong(meta.getProperty("created", "0"))));
+        for(Properties meta : metas)
+        {
+            String id= meta.getProperty("id");
+            String username= meta.getProperty("username");
+            String password= meta.getProperty("password");
+            String identity= password!= null? identity(username, password): meta.getProperty("identity");
+            StorageObject storageObject= providers.get(meta.getProperty("provider"));
+            SpooledUpload upload= new SpooledUpload(id, meta.getProperty("provider"), storageObject, username,
+                                                    identity, password, meta.getProperty("container"),
+                                                    meta.getProperty("blob"), Long.parseLong(meta.getProperty("size")),
+                                                    spoolDir.resolve(id + DATA_SUFFIX));
+
+            if(Boolean.parseBoolean(meta.getProperty("failed")))
+            {
+                upload.state= SpooledUpload.State.FAILED;
+                upload.lastStatus= Integer.parseInt(meta.getProperty("status", "0"));
+                upload.failedAt= Long.parseLong(meta.getProperty("failedAt",
+                                                                  Long.toString(System.currentTimeMillis())));
+                uploads.put(id, upload);
+            }
+            else if(storageObject!= null && identity!= null)
+            {
+                if(password!= null)
+                {
+                    meta.remove("password");
+                    meta.remove("id");
+                    meta.remove("failed");
+                    meta.setProperty("identity", identity);
+                    writeAtomically(spoolDir.resolve(id + META_SUFFIX), meta);
+                }
+
+                spooledBytes.addAndGet(upload.size);
+                enqueue(upload);
+            }
+        }
+    }
+
+/*-------------------
+* --- FILE WRITES ---
+* -------------------*/
+
+    /**
+     * Gives the spool directory, creating it, readable by its owner only where supported, if it doesn't exist.
+     *
+     * @return The spool directory.
+     * @throws IOException Thrown when the directory can't be created.
+     */
+    private static Path
+    spoolDir()
+    throws IOException
+    {
+        Path spoolDir= Paths.get(Settings.SPOOL_DIR);
+        if(Files.isDirectory(spoolDir)) {return spoolDir;}
+
+        try
+        {
+            FileAttribute<?> ownerOnly= PosixFilePermissions.asFileAttribute(
+                                                                PosixFilePermissions.fromString("rwx------"));
+            return Files.createDirectories(spoolDir, ownerOnly);
+        }
+        catch(UnsupportedOperationException notPosix)
+        {
+            return Files.createDirectories(spoolDir);
+        }
+    }
+
+    /**
+     * Writes contents sequentially into a new file, and syncs it to disk.
+     *
+     * @param file The file to write.
+     * @param content The contents to write.
+     * @param size The number of bytes to write.
+     * @throws BadRequestException Thrown when the contents are shorter than {@code size}.
+     * @throws IOException Thrown when the file can't be written.
+     */
+    private static void
+    writeContents(Path file, InputStream content, long size)
+    throws BadRequestException, IOException
+    {
+        try(FileChannel channel= FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+        {
+            long written= TransferEngine.copy(content, Channels.newOutputStream(channel), size);
+            if(written< size) {throw new BadRequestException("Content shorter than its Content-Length");}
+
+            channel.force(true);
+        }
+        catch(EOFException truncated)
+        {
+            throw new BadRequestException("Content shorter than its Content-Length");
+        }
+    }
+
+    /**
+     * Writes a metadata file through a temporary file that's synced to disk and then renamed into place, so that the
+     * file is either there whole or not at all.
+     *
+     * @param file The file to write.
+     * @param properties The contents of the file.
+     * @throws IOException Thrown when the file can't be written.
+     */
+    private static void
+    writeAtomically(Path file, Properties properties)
+    throws IOException
+    {
+        ByteArrayOutputStream contents= new ByteArrayOutputStream();
+        properties.store(contents, null);
+
+        Path tempFile= file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        try(FileChannel channel= FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                  StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer chunk= ByteBuffer.wrap(contents.toByteArray());
+            while(chunk.hasRemaining()) {channel.write(chunk);}
+            channel.force(true);
+        }
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+
+    // Sync the directory too, so that the rename itself survives a crash; not every platform allows it
+        try(FileChannel directory= FileChannel.open(file.getParent(), StandardOpenOption.READ))
+        {
+            directory.force(true);
+        }
+        catch(IOException unsupported)
+        {
+        // Rename is still atomic, only its durability is up to the file system
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package pt.bdotc.linkcloud.sync;
+
+import pt.bdotc.linkcloud.objects.BlobInfo;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Compares a client's manifest of local files against the listing of a container, streaming back only the actions
+ * needed to bring both sides in sync.
+ *
+ * The manifest is a text file with one line per local file, of the form {@code "<name>\t<size>[\t<md5>]"}, where
+ * {@code md5} is the optional Base64 encoded MD5 hash of the file. Lines must be sorted by name, in the same order as
+ * {@link String#compareTo} (which matches the CSP's listing order for all but the rarest characters). Both the manifest
+ * and the container's listing are read in a single merge pass, so the memory used doesn't depend on the number of
+ * files. Each action is written as a line of the form {@code "<action>\t<name>"}, where {@code action} is one of
+ * {@code upload}, {@code download} or {@code delete}.
+ *
+ * Files are deemed different when their sizes differ, or when both sides know their MD5 hashes and these differ.
+ */
+public class
+ManifestDiff
+implements StreamingOutput
+{
+    /** Which side of the sync is to be made equal to the other. */
+    public enum
+    Direction
+    {
+        /** Makes the container equal to the client's files: uploads new and changed files, deletes extra blobs. */
+        PUSH,
+        /** Makes the client's files equal to the container: downloads new and changed blobs, deletes extra files. */
+        PULL
+    }
+
+    /** The client's manifest. */
+    private final InputStream manifest;
+    /** The container's listing, sorted by name. */
+    private final Iterator<BlobInfo> remoteBlobs;
+    /** Which side of the sync is to be made equal to the other. */
+    private final Direction direction;
+
+    /**
+     * Prepares the comparison of a manifest against a container's listing. Nothing is read until the application server
+     * asks for the response to be written.
+     *
+     * @param manifest The client's manifest.
+     * @param remoteBlobs The container's listing, sorted by name.
+     * @param direction Which side of the sync is to be made equal to the other.
+     */
+    public
+    ManifestDiff(InputStream manifest, Iterator<BlobInfo> remoteBlobs, Direction direction)
+    {
+        this.manifest= manifest;
+        this.remoteBlobs= remoteBlobs;
+        this.direction= direction;
+    }
+
+    /**
+     * Merges the manifest with the container's listing, writing the needed actions into the client's response.
+     *
+     * @param output The stream of the client's response.
+     * @throws IOException Thrown when the manifest is malformed or out of order, or when the response can't be written.
+     *         Seeing as the response has already started by then, the client sees it as a truncated response.
+     */
+    @Override
+    public void
+    write(OutputStream output)
+    throws IOException
+    {
+        BufferedReader manifestReader= new BufferedReader(new InputStreamReader(manifest, StandardCharsets.UTF_8));
+        Writer actions= new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+
+        BlobInfo local= nextLocal(manifestReader, null);
+        BlobInfo remote= remoteBlobs.hasNext()? remoteBlobs.next(): null;
+
+        while(local!= null || remote!= null)
+        {
+            int order= local== null? 1: remote== null? -1: local.getName().compareTo(remote.getName());
+
+            if(order< 0)
+            {
+            // Only the client has it
+                writeAction(actions, direction== Direction.PUSH? "upload": "delete", local.getName());
+                local= nextLocal(manifestReader, local);
+            }
+            else if(order> 0)
+            {
+            // Only the container has it
+                writeAction(actions, direction== Direction.PUSH? "delete": "download", remote.getName());
+                remote= remoteBlobs.hasNext()? remoteBlobs.next(): null;
+            }
+            else
+            {
+            // Both have it, so it's only sent over if it changed
+                if(differ(local, remote))
+                {
+                    writeAction(actions, direction== Direction.PUSH? "upload": "download", local.getName());
+                }
+                local= nextLocal(manifestReader, local);
+                remote= remoteBlobs.hasNext()? remoteBlobs.next(): null;
+            }
+        }
+
+        actions.flush();
+    }
+
+    /**
+     * Reads the next file of the manifest, skipping empty lines.
+     *
+     * @param manifestReader The reader of the manifest.
+     * @param previous The file that was read before, to check the order of the manifest; {@code null} if none.
+     * @return The next file, or {@code null} if the manifest is over.
+     * @throws IOException Thrown when the manifest can't be read, is malformed or isn't sorted.
+     */
+    private static BlobInfo
+    nextLocal(BufferedReader manifestReader, BlobInfo previous)
+    throws IOException
+    {
+        String line;
+        do
+        {
+            line= manifestReader.readLine();
+            if(line== null) {return null;}
+        }
+        while(line.isEmpty());
+
+        String[] fields= line.split("\t");
+        if(fields.length< 2 || fields.length> 3) {throw new IOException("Malformed manifest line: " + line);}
+
+        BlobInfo local;
+        try
+        {
+            local= new BlobInfo(fields[0], Long.parseLong(fields[1]), null, 0, fields.length== 3? fields[2]: null);
+        }
+        catch(NumberFormatException badSize)
+        {
+            throw new IOException("Malformed manifest line: " + line);
+        }
+
+        if(previous!= null && previous.getName().compareTo(local.getName())>= 0)
+        {
+            throw new IOException("Manifest isn't sorted by name at " + local.getName());
+        }
+
+        return local;
+    }
+
+    /**
+     * Tells whether or not a local file and a blob with the same name have different contents.
+     *
+     * @param local The local file.
+     * @param remote The blob.
+     * @return {@code true} if their sizes differ, or if both MD5 hashes are known and differ.
+     */
+    private static boolean
+    differ(BlobInfo local, BlobInfo remote)
+    {
+        if(local.getSize()!= remote.getSize()) {return true;}
+
+        return local.getContentMD5()!= null && remote.getContentMD5()!= null &&
+               !local.getContentMD5().equals(remote.getContentMD5());
+    }
+
+    private static void
+    writeAction(Writer actions, String action, String name)
+    throws IOException
+    {
+        actions.write(action);
+        actions.write('\t');
+        actions.write(name);
+        actions.write('\n');
+    }
+}
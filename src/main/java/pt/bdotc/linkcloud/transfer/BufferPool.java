@@ -0,0 +1,98 @@
+package pt.bdotc.linkcloud.transfer;
+
+import pt.bdotc.linkcloud.Settings;
+import pt.bdotc.linkcloud.metrics.Metrics;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of the buffers through which the {@link TransferEngine} copies contents, so that large buffers are allocated
+ * once and reused by every transfer instead of being allocated per request. Buffers are
+ * {@code Settings.TRANSFER_BUFFER_BYTES} long. Heap buffers, whose array streams can read and write as is, are handed
+ * out by {@link #acquire}; buffers for copies between file channels are handed out by {@link #acquireDirect}, and are
+ * direct when {@code Settings.TRANSFER_DIRECT_BUFFERS} is set. At most {@code Settings.TRANSFER_POOLED_BUFFERS} idle
+ * buffers of each kind are kept; beyond that, released buffers are left to the garbage collector.
+ */
+public final class
+BufferPool
+{
+    /** The idle heap buffers. */
+    private static final ConcurrentLinkedQueue<ByteBuffer> idleBuffers= new ConcurrentLinkedQueue<>();
+    /** Number of buffers in {@link #idleBuffers}, which is slow to count on its own. */
+    private static final AtomicInteger idleCount= new AtomicInteger();
+    /** The idle direct buffers. */
+    private static final ConcurrentLinkedQueue<ByteBuffer> idleDirectBuffers= new ConcurrentLinkedQueue<>();
+    /** Number of buffers in {@link #idleDirectBuffers}. */
+    private static final AtomicInteger idleDirectCount= new AtomicInteger();
+
+    /** Number of buffers allocated by the pool. */
+    private static final LongAdder allocatedBuffers= Metrics.counter("transfer.buffers.allocated");
+    static
+    {
+        Metrics.gauge("transfer.buffers.idle", () -> idleCount.get() + idleDirectCount.get());
+    }
+
+    private
+    BufferPool() {}
+
+    /**
+     * Takes a heap buffer from the pool, allocating a new one if there's none idle. The buffer always has an array.
+     * It's cleared, and must be handed back through {@link #release} once it's no longer used.
+     *
+     * @return The buffer.
+     */
+    public static ByteBuffer
+    acquire()
+    {
+        return acquire(idleBuffers, idleCount, false);
+    }
+
+    /**
+     * Takes a buffer for copies between file channels from the pool, allocating a new one if there's none idle. The
+     * buffer is direct when {@code Settings.TRANSFER_DIRECT_BUFFERS} is set. It's cleared, and must be handed back
+     * through {@link #release} once it's no longer used.
+     *
+     * @return The buffer.
+     */
+    public static ByteBuffer
+    acquireDirect()
+    {
+        if(!Settings.TRANSFER_DIRECT_BUFFERS) {return acquire();}
+
+        return acquire(idleDirectBuffers, idleDirectCount, true);
+    }
+
+    private static ByteBuffer
+    acquire(ConcurrentLinkedQueue<ByteBuffer> idle, AtomicInteger count, boolean direct)
+    {
+        ByteBuffer buffer= idle.poll();
+        if(buffer!= null)
+        {
+            count.decrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+
+        allocatedBuffers.increment();
+        return direct? ByteBuffer.allocateDirect(Settings.TRANSFER_BUFFER_BYTES):
+                       ByteBuffer.allocate(Settings.TRANSFER_BUFFER_BYTES);
+    }
+
+    /**
+     * Hands a buffer back to the pool.
+     *
+     * @param buffer The buffer, which mustn't be used by the caller anymore.
+     */
+    public static void
+    release(ByteBuffer buffer)
+    {
+        ConcurrentLinkedQueue<ByteBuffer> idle= buffer.isDirect()? idleDirectBuffers: idleBuffers;
+        AtomicInteger count= buffer.isDirect()? idleDirectCount: idleCount;
+
+        if(count.incrementAndGet()<= Settings.TRANSFER_POOLED_BUFFERS) {idle.offer(buffer);}
+        else                                                            {count.decrementAndGet();}
+    }
+}
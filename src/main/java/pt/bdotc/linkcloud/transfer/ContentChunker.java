@@ -0,0 +1,171 @@
+package pt.bdotc.linkcloud.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a stream into content-defined chunks, i.e., chunks whose boundaries are picked by the bytes around them rather
+ * than by their offset. Changing a few bytes of a stream only changes the chunks those bytes are in: the boundaries of
+ * the other chunks move along with their contents, even when bytes are inserted or removed before them.
+ *
+ * Boundaries are found with a Gear rolling hash, which mixes the last 64 bytes read: a boundary is placed after a byte
+ * when the top bits of the hash are all zero. The first {@code minBytes} of a chunk are never hashed, which both skips
+ * most of the work and keeps chunks from being too small, and a boundary is forced after {@code maxBytes}.
+ *
+ * Chunks are read into a single buffer of twice the largest chunk, and each chunk is only valid until the next one is
+ * read.
+ */
+public final class
+ContentChunker
+{
+    /** Random value of every byte in the rolling hash. It must never change, or the chunks of already stored blobs
+     *  would never be found again. */
+    private static final long[] GEAR= gearTable();
+
+    private final InputStream source;
+    private final int minBytes;
+    private final int maxBytes;
+    /** Bits of the hash that must be zero for a boundary to be placed. */
+    private final long boundaryMask;
+
+    /** Holds the current chunk, followed by the bytes read ahead. */
+    private final byte[] buffer;
+    private int chunkOffset;
+    private int chunkLength;
+    /** End of the bytes read into {@link #buffer}. */
+    private int end;
+    private boolean exhausted;
+
+    /**
+     * Prepares to split a stream into chunks.
+     *
+     * @param source The stream to split, which is read as chunks are asked for, and isn't closed.
+     * @param minBytes The size of the smallest chunk, except for the last one.
+     * @param avgBytes The average distance between two boundaries once past {@code minBytes}, rounded down to a power
+     *        of two.
+     * @param maxBytes The size of the largest chunk.
+     * @throws IllegalArgumentException Thrown when the sizes aren't positive, or the smallest chunk is larger than the
+     *         largest one.
+     */
+    public
+    ContentChunker(InputStream source, int minBytes, int avgBytes, int maxBytes)
+    throws IllegalArgumentException
+    {
+        if(minBytes<= 0 || avgBytes<= 1 || maxBytes< minBytes)
+        {
+            throw new IllegalArgumentException("Invalid chunk sizes " + minBytes + "/" + avgBytes + "/" + maxBytes);
+        }
+
+        this.source= source;
+        this.minBytes= minBytes;
+        this.maxBytes= maxBytes;
+        this.boundaryMask= -1L << (64 - (31 - Integer.numberOfLeadingZeros(avgBytes)));
+        this.buffer= new byte[2 * maxBytes];
+    }
+
+    /**
+     * Builds the random values of the rolling hash, with SplitMix64 and a fixed seed.
+     *
+     * @return The value of every byte.
+     */
+    private static long[]
+    gearTable()
+    {
+        long[] table= new long[256];
+        long state= 0x4c696e6b436c6f75L;
+        for(int i= 0; i< table.length; i++)
+        {
+            long value= (state+= 0x9e3779b97f4a7c15L);
+            value= (value ^ (value>>> 30)) * 0xbf58476d1ce4e5b9L;
+            value= (value ^ (value>>> 27)) * 0x94d049bb133111ebL;
+            table[i]= value ^ (value>>> 31);
+        }
+
+        return table;
+    }
+
+    /**
+     * Reads the next chunk.
+     *
+     * @return {@code true} if there's a chunk; {@code false} if the stream is over.
+     * @throws IOException Thrown when the stream fails.
+     */
+    public boolean
+    next()
+    throws IOException
+    {
+        int start= chunkOffset + chunkLength;
+
+    // Move what was read ahead to the front once there's no room left for a whole chunk after it
+        if(buffer.length - start< maxBytes)
+        {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end-= start;
+            start= 0;
+        }
+
+        while(!exhausted && end - start< maxBytes)
+        {
+            int read= source.read(buffer, end, buffer.length - end);
+            if(read== -1) {exhausted= true;}
+            else          {end+= read;}
+        }
+
+        chunkOffset= start;
+        chunkLength= boundary(start, Math.min(end - start, maxBytes));
+        return chunkLength> 0;
+    }
+
+    /**
+     * Finds where the chunk that starts at a given offset of the buffer ends.
+     *
+     * @param start The offset of the chunk in the buffer.
+     * @param available The number of bytes the chunk can have at most.
+     * @return The size of the chunk.
+     */
+    private int
+    boundary(int start, int available)
+    {
+        long hash= 0;
+        for(int i= minBytes; i< available; i++)
+        {
+            hash= (hash<< 1) + GEAR[buffer[start + i] & 0xff];
+            if((hash & boundaryMask)== 0) {return i + 1;}
+        }
+
+        return available;
+    }
+
+    /**
+     * Gives the buffer that holds the current chunk.
+     *
+     * @return The buffer, which is overwritten by the next call to {@link #next}.
+     */
+    public byte[]
+    buffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * Gives the offset of the current chunk in the {@link #buffer}.
+     *
+     * @return The offset.
+     */
+    public int
+    offset()
+    {
+        return chunkOffset;
+    }
+
+    /**
+     * Gives the size of the current chunk.
+     *
+     * @return The size in bytes.
+     */
+    public int
+    length()
+    {
+        return chunkLength;
+    }
+}
@@ -0,0 +1,68 @@
+package pt.bdotc.linkcloud.transfer;
+
+import javax.ws.rs.InternalServerErrorException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Hashes the contents of uploads while they're read, so that their hashes are known once they're uploaded without
+ * reading them twice. Hashes are given in Base64, as in the {@code Content-MD5} header field.
+ */
+public final class
+ContentDigests
+{
+    private
+    ContentDigests() {}
+
+    /**
+     * Creates a digest of a given algorithm.
+     *
+     * @param algorithm The name of the algorithm, e.g. {@code MD5} or {@code SHA-256}, which every JVM has.
+     * @return The digest.
+     * @throws InternalServerErrorException Thrown when the JVM doesn't have the algorithm.
+     */
+    public static MessageDigest
+    create(String algorithm)
+    throws InternalServerErrorException
+    {
+        try
+        {
+            return MessageDigest.getInstance(algorithm);
+        }
+        catch(NoSuchAlgorithmException e)
+        {
+            throw new InternalServerErrorException(algorithm + " not available");
+        }
+    }
+
+    /**
+     * Wraps contents so that every byte read from them is hashed by the given digests.
+     *
+     * @param contents The contents.
+     * @param digests The digests to update.
+     * @return The hashed contents.
+     */
+    public static InputStream
+    hashed(InputStream contents, MessageDigest... digests)
+    {
+        InputStream hashed= contents;
+        for(MessageDigest digest : digests) {hashed= new DigestInputStream(hashed, digest);}
+
+        return hashed;
+    }
+
+    /**
+     * Completes a digest, giving its hash in Base64.
+     *
+     * @param digest The digest, which is reset.
+     * @return The Base64 encoded hash.
+     */
+    public static String
+    encode(MessageDigest digest)
+    {
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+}
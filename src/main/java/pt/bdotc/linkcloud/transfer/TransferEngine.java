@@ -0,0 +1,281 @@
+package pt.bdotc.linkcloud.transfer;
+
+import pt.bdotc.linkcloud.metrics.Metrics;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moves the contents of blobs between clients, the CSPs and local files in large chunks, through the buffers of the
+ * {@link BufferPool}.
+ *
+ * Besides the number of bytes transferred, the engine measures the bytes allocated on the heap by the threads that run
+ * each transfer, including the allocations of the CSP's SDK and of the application server, and exposes them as the
+ * {@code transfer.allocatedBytesPerGB} metric. Allocations can only be measured on JVMs that support per thread
+ * allocation counters, and not on virtual threads; transfers that can't be measured are left out of that metric.
+ */
+public final class
+TransferEngine
+{
+    /** Number of bytes in a GiB, the unit of {@code transfer.allocatedBytesPerGB}. */
+    private static final long GIGABYTE= 1024L * 1024 * 1024;
+
+    /** Reads the per thread allocation counters, or {@code null} if the JVM doesn't have them. */
+    private static final com.sun.management.ThreadMXBean ALLOCATION_COUNTERS= allocationCounters();
+
+    /** Number of bytes transferred. */
+    private static final LongAdder transferredBytes= Metrics.counter("transfer.bytes");
+    /** Number of bytes transferred by the transfers whose allocations were measured. */
+    private static final LongAdder measuredBytes= Metrics.counter("transfer.measuredBytes");
+    /** Number of bytes allocated by the transfers whose allocations were measured. */
+    private static final LongAdder allocatedBytes= Metrics.counter("transfer.allocatedBytes");
+    static
+    {
+        Metrics.gauge("transfer.allocatedBytesPerGB", () ->
+        {
+            long measured= measuredBytes.sum();
+            return measured== 0? 0: (long) (allocatedBytes.sum() * ((double) GIGABYTE / measured));
+        });
+    }
+
+    private
+    TransferEngine() {}
+
+    /**
+     * Gets the per thread allocation counters of the JVM, enabling them if needed.
+     *
+     * @return The allocation counters, or {@code null} if the JVM doesn't have them.
+     */
+    private static com.sun.management.ThreadMXBean
+    allocationCounters()
+    {
+        ThreadMXBean threads= ManagementFactory.getThreadMXBean();
+        if(!(threads instanceof com.sun.management.ThreadMXBean)) {return null;}
+
+        com.sun.management.ThreadMXBean counters= (com.sun.management.ThreadMXBean) threads;
+        if(!counters.isThreadAllocatedMemorySupported()) {return null;}
+        if(!counters.isThreadAllocatedMemoryEnabled()) {counters.setThreadAllocatedMemoryEnabled(true);}
+
+        return counters;
+    }
+
+    /**
+     * Reads the number of bytes allocated by the current thread so far.
+     *
+     * @return The number of bytes, or -1 if it can't be measured.
+     */
+    private static long
+    threadAllocatedBytes()
+    {
+        if(ALLOCATION_COUNTERS== null) {return -1;}
+
+        try
+        {
+            return ALLOCATION_COUNTERS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        catch(UnsupportedOperationException unsupported)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Records a finished transfer into the metrics.
+     *
+     * @param bytes The number of bytes transferred.
+     * @param allocatedBefore The bytes allocated by the thread when the transfer started, or -1 if unknown.
+     * @param allocatedAfter The bytes allocated by the thread when the transfer ended, or -1 if unknown.
+     */
+    private static void
+    record(long bytes, long allocatedBefore, long allocatedAfter)
+    {
+        transferredBytes.add(bytes);
+        if(allocatedBefore>= 0 && allocatedAfter>= allocatedBefore)
+        {
+            measuredBytes.add(bytes);
+            allocatedBytes.add(allocatedAfter - allocatedBefore);
+        }
+    }
+
+    /**
+     * Copies contents from a stream into another, through a pooled buffer. Neither stream is closed.
+     *
+     * When both streams are backed by files, the copy goes from a file channel into the other, through a buffer of
+     * {@link BufferPool#acquireDirect}. Any other copy reads straight into the array of a heap buffer and writes it as
+     * is, seeing as channels wrapped around plain streams would copy through small intermediate buffers of their own.
+     *
+     * @param input The stream to read from.
+     * @param output The stream to write into.
+     * @param limit The maximum number of bytes to copy, or -1 to copy until the end of the input stream.
+     * @return The number of bytes copied.
+     * @throws IOException Thrown when either stream fails.
+     */
+    public static long
+    copy(InputStream input, OutputStream output, long limit)
+    throws IOException
+    {
+        long allocatedBefore= threadAllocatedBytes();
+        boolean betweenFiles= input instanceof FileInputStream && output instanceof FileOutputStream;
+        ByteBuffer buffer= betweenFiles? BufferPool.acquireDirect(): BufferPool.acquire();
+        long copied;
+
+        try
+        {
+            copied= betweenFiles? copyThroughChannels(((FileInputStream) input).getChannel(),
+                                                      ((FileOutputStream) output).getChannel(), buffer, limit):
+                                  copyThroughArray(input, output, buffer.array(), limit);
+        }
+        finally
+        {
+            BufferPool.release(buffer);
+        }
+
+        record(copied, allocatedBefore, threadAllocatedBytes());
+        return copied;
+    }
+
+    private static long
+    copyThroughArray(InputStream input, OutputStream output, byte[] buffer, long limit)
+    throws IOException
+    {
+        long copied= 0;
+        while(limit< 0 || copied< limit)
+        {
+            int toRead= limit< 0? buffer.length: (int) Math.min(buffer.length, limit - copied);
+            int read= input.read(buffer, 0, toRead);
+            if(read== -1) {break;}
+
+            output.write(buffer, 0, read);
+            copied+= read;
+        }
+
+        return copied;
+    }
+
+    private static long
+    copyThroughChannels(ReadableByteChannel input, WritableByteChannel output, ByteBuffer buffer, long limit)
+    throws IOException
+    {
+        long copied= 0;
+        while(limit< 0 || copied< limit)
+        {
+            buffer.clear();
+            if(limit>= 0 && limit - copied< buffer.capacity()) {buffer.limit((int) (limit - copied));}
+
+            int read= input.read(buffer);
+            if(read== -1) {break;}
+
+            buffer.flip();
+            while(buffer.hasRemaining()) {output.write(buffer);}
+            copied+= read;
+        }
+
+        return copied;
+    }
+
+    /**
+     * Wraps the contents of a blob into a response entity that copies them to the client through {@link #copy}, and
+     * closes them once they're sent.
+     *
+     * @param contents The contents of the blob.
+     * @return The response entity.
+     */
+    public static StreamingOutput
+    stream(InputStream contents)
+    {
+        return output ->
+        {
+            try(InputStream input= contents)
+            {
+                copy(input, output, -1);
+                output.flush();
+            }
+        };
+    }
+
+    /**
+     * Wraps the contents of an upload that's to be read by a CSP's SDK, so that the bytes read, and the bytes the
+     * reading thread allocates meanwhile, are recorded into the metrics. The upload is recorded once its contents are
+     * fully read or closed.
+     *
+     * @param contents The contents of the upload.
+     * @param size The size of the upload in bytes, after which it's deemed fully read, seeing as SDKs that know the
+     *        size of an upload don't read past it.
+     * @return The metered contents.
+     */
+    public static InputStream
+    metered(InputStream contents, long size)
+    {
+        return new FilterInputStream(contents)
+        {
+            private long bytesRead= 0;
+            private long allocatedBefore= -2;
+            private Thread reader;
+            private boolean recorded= false;
+
+            @Override
+            public int
+            read()
+            throws IOException
+            {
+                start();
+                int value= super.read();
+                if(value!= -1) {bytesRead++;}
+                if(value== -1 || bytesRead>= size) {finish();}
+                return value;
+            }
+
+            @Override
+            public int
+            read(byte[] buffer, int offset, int length)
+            throws IOException
+            {
+                start();
+                int read= super.read(buffer, offset, length);
+                if(read!= -1) {bytesRead+= read;}
+                if(read== -1 || bytesRead>= size) {finish();}
+                return read;
+            }
+
+            @Override
+            public void
+            close()
+            throws IOException
+            {
+                finish();
+                super.close();
+            }
+
+            private void
+            start()
+            {
+                if(allocatedBefore!= -2) {return;}
+
+                reader= Thread.currentThread();
+                allocatedBefore= threadAllocatedBytes();
+            }
+
+            private void
+            finish()
+            {
+                if(recorded) {return;}
+                recorded= true;
+
+            // Allocations are only comparable if the same thread read the whole upload
+                boolean sameThread= reader== Thread.currentThread();
+                record(bytesRead, sameThread? allocatedBefore: -1, sameThread? threadAllocatedBytes(): -1);
+            }
+        };
+    }
+}